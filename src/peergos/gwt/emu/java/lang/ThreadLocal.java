@@ -0,0 +1,42 @@
+package java.lang;
+
+import java.util.function.*;
+
+/** There is only one thread in the browser, so a thread local is just a lazily initialised value
+ *
+ */
+public class ThreadLocal<T> {
+    private final Supplier<? extends T> initial;
+    private boolean initialised;
+    private T value;
+
+    public ThreadLocal() {
+        this(() -> null);
+    }
+
+    private ThreadLocal(Supplier<? extends T> initial) {
+        this.initial = initial;
+    }
+
+    public static <S> ThreadLocal<S> withInitial(Supplier<? extends S> supplier) {
+        return new ThreadLocal<>(supplier);
+    }
+
+    public T get() {
+        if (! initialised) {
+            value = initial.get();
+            initialised = true;
+        }
+        return value;
+    }
+
+    public void set(T value) {
+        this.value = value;
+        initialised = true;
+    }
+
+    public void remove() {
+        initialised = false;
+        value = null;
+    }
+}
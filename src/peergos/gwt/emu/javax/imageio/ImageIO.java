@@ -5,6 +5,9 @@ import java.awt.image.RenderedImage;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import javax.imageio.stream.ImageInputStream;
 
 /*
 *  Dummy implementation - does nothing
@@ -15,6 +18,14 @@ public class ImageIO {
         return null;
     }
 
+    public static ImageInputStream createImageInputStream(Object input) throws IOException {
+        return null;
+    }
+
+    public static Iterator<ImageReader> getImageReaders(Object input) {
+        return Collections.<ImageReader>emptyList().iterator();
+    }
+
     public static boolean write(RenderedImage im,
                                 String formatName,
                                 OutputStream output) throws IOException {
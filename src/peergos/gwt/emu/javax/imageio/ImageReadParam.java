@@ -0,0 +1,13 @@
+package javax.imageio;
+
+/*
+*  Dummy implementation - does nothing
+* */
+public class ImageReadParam {
+
+    public void setSourceSubsampling(int sourceXSubsampling,
+                                     int sourceYSubsampling,
+                                     int subsamplingXOffset,
+                                     int subsamplingYOffset) {
+    }
+}
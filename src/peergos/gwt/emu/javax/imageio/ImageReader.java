@@ -0,0 +1,26 @@
+package javax.imageio;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/*
+*  Dummy implementation - does nothing
+* */
+public abstract class ImageReader {
+
+    public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+    }
+
+    public abstract int getWidth(int imageIndex) throws IOException;
+
+    public abstract int getHeight(int imageIndex) throws IOException;
+
+    public ImageReadParam getDefaultReadParam() {
+        return new ImageReadParam();
+    }
+
+    public abstract BufferedImage read(int imageIndex, ImageReadParam param) throws IOException;
+
+    public void dispose() {
+    }
+}
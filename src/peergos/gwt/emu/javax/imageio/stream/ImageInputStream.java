@@ -0,0 +1,12 @@
+package javax.imageio.stream;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*
+*  Dummy implementation - does nothing
+* */
+public interface ImageInputStream extends Closeable {
+
+    void close() throws IOException;
+}
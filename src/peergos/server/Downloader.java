@@ -1,79 +1,346 @@
 package peergos.server;
 
+import peergos.server.storage.*;
 import peergos.shared.*;
 import peergos.shared.crypto.random.*;
+import peergos.shared.crypto.symmetric.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.*;
+import peergos.shared.user.fs.cryptree.*;
 
 import java.io.*;
 import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
 
+/** Downloads a subtree of a peergos filesystem to a local directory.
+ *
+ *  Files are streamed to disk a chunk at a time with positional writes, and several chunks are fetched at once,
+ *  bounded by the total number of bytes in flight. Every chunk written is recorded, with the hash of its metadata, in a
+ *  manifest in the target directory, so an interrupted download resumes at chunk granularity, and files whose chunks
+ *  are all unchanged since the last download are skipped.
+ */
 public class Downloader {
+    public static final String MANIFEST_FILENAME = ".peergos-download";
+    public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 16 * Chunk.MAX_SIZE;
+    private static final int MAX_OPEN_FILES = 16;
 
     public static void main(String[] args) throws Exception {
         Crypto crypto = Crypto.initJava();
-        NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
+        NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get()
+                .withStorage(dht -> new DiskBlockCache(dht,
+                        Main.DEFAULT_PEERGOS_DIR_PATH.resolve(DiskBlockCache.DEFAULT_DIR_NAME), DiskBlockCache.DEFAULT_MAX_BYTES));
         String username = args[0];
         String fromPath = args[1];
         String toPath = args[2];
         Console console = System.console();
         String password = new String(console.readPassword("Enter password for " + username + ":"));
         UserContext context = UserContext.signIn(username, password, network, crypto).get();
-        ForkJoinPool pool = new ForkJoinPool(50);
         long t1 = System.currentTimeMillis();
-        downloadTo(context, fromPath, Paths.get(toPath), props -> true, pool);
+        downloadTo(context, fromPath, Paths.get(toPath), props -> true);
         long t2 = System.currentTimeMillis();
         System.out.println("Download took " + (t2-t1) + " mS");
     }
 
+    private final NetworkAccess network;
+    private final SafeRandom random;
+    private final Predicate<FileProperties> saveFile;
+    private final Path root;
+    private final Manifest manifest;
+    private final Semaphore inFlightBytes;
+    private final Semaphore openFiles = new Semaphore(MAX_OPEN_FILES);
+    private final List<CompletableFuture<Boolean>> pending = new ArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger(0);
+
+    private Downloader(NetworkAccess network,
+                       SafeRandom random,
+                       Predicate<FileProperties> saveFile,
+                       Path root,
+                       Manifest manifest,
+                       int maxInFlightBytes) {
+        this.network = network;
+        this.random = random;
+        this.saveFile = saveFile;
+        this.root = root;
+        this.manifest = manifest;
+        this.inFlightBytes = new Semaphore(maxInFlightBytes);
+    }
+
+    public static void downloadTo(UserContext source, String origin, Path targetDir,
+                                  Predicate<FileProperties> saveFile) throws Exception {
+        downloadTo(source, origin, targetDir, saveFile, DEFAULT_MAX_IN_FLIGHT_BYTES);
+    }
+
     /**
      *
      * @param source the peergos filesystem view to download from
      * @param origin the root peergos path to download the subtree of
      * @param targetDir the local destination directory
      * @param saveFile filter the files to save
-     * @param pool thread pool
+     * @param maxInFlightBytes the maximum number of bytes of chunks being fetched or written at once
      * @throws Exception
      */
     public static void downloadTo(UserContext source, String origin, Path targetDir,
-                                  Predicate<FileProperties> saveFile, ForkJoinPool pool) throws Exception {
+                                  Predicate<FileProperties> saveFile, int maxInFlightBytes) throws Exception {
+        if (maxInFlightBytes < Chunk.MAX_SIZE)
+            throw new IllegalArgumentException("Must allow at least one chunk in flight!");
         if (! targetDir.toFile().exists() && ! targetDir.toFile().mkdirs())
             throw new IllegalStateException("Couldn't create " + targetDir);
         Optional<FileWrapper> file = source.getByPath(origin).get();
-        pool.submit(() -> file.ifPresent(f -> downloadTo(f, targetDir, source.network, source.crypto.random, saveFile))).get();
+        if (! file.isPresent())
+            throw new IllegalStateException("No such file: " + origin);
+        try (Manifest manifest = Manifest.load(targetDir.resolve(MANIFEST_FILENAME))) {
+            Downloader downloader = new Downloader(source.network, source.crypto.random, saveFile, targetDir,
+                    manifest, maxInFlightBytes);
+            downloader.download(file.get(), targetDir);
+            downloader.waitForPending();
+            if (downloader.failures.get() > 0)
+                throw new IllegalStateException("Failed to download " + downloader.failures.get()
+                        + " files, download again to resume");
+        }
     }
 
-    public static void downloadTo(FileWrapper source, Path target, NetworkAccess network, SafeRandom random,
-                                  Predicate<FileProperties> saveFile) {
+    private void download(FileWrapper source, Path target) {
         Path us = target.resolve(source.getName());
         if (source.isDirectory()) {
             try {
                 Set<FileWrapper> children = source.getChildren(network).get();
                 if (! us.toFile().exists() && !us.toFile().mkdir())
                     throw new IllegalStateException("Couldn't create directory: " + us);
-                children.stream().parallel().forEach(child -> downloadTo(child, us, network, random, saveFile));
+                for (FileWrapper child : children)
+                    download(child, us);
             } catch (Exception e) {
                 System.err.println("Error downloading children of " + source.getName());
                 e.printStackTrace();
+                failures.incrementAndGet();
             }
         } else if (saveFile.test(source.getFileProperties())) {
-            try (FileOutputStream fout = new FileOutputStream(us.toFile())) {
-                long size = source.getSize();
-                if (size > Integer.MAX_VALUE)
-                    throw new IllegalStateException("Need to implement streaming for files bigger than 2GiB");
-                byte[] buf = new byte[(int)size];
-                AsyncReader reader = source.getInputStream(network, random, c -> {}).get();
-                reader.readIntoArray(buf, 0, buf.length)
-                        .get();
-                fout.write(buf);
+            try {
+                downloadFile(source, us);
             } catch (Exception e) {
                 System.err.println("Error downloading " + source.getName());
                 e.printStackTrace();
+                failures.incrementAndGet();
+            }
+        }
+    }
+
+    /** Walk the chain of chunk metadata of a file, starting the fetch of each chunk which isn't already on disk as soon
+     * as its metadata has been retrieved, while the walk continues to the next chunk.
+     */
+    private void downloadFile(FileWrapper source, Path target) throws Exception {
+        String relativePath = root.relativize(target).toString();
+        long size = source.getSize();
+        int nChunks = (int) ((size + Chunk.MAX_SIZE - 1) / Chunk.MAX_SIZE);
+        Map<Integer, String> done = manifest.chunks(relativePath);
+        if (! target.toFile().exists() || target.toFile().length() != size) {
+            // Anything written before has gone, so forget it
+            manifest.clear(relativePath);
+            done = Collections.emptyMap();
+        }
+
+        FileAccess first = (FileAccess) source.getPointer().fileAccess;
+        SymmetricKey dataKey = first.getDataKey(source.getKey());
+        // only opened if the file is missing or a chunk needs writing, so unchanged files are never touched
+        FileChannel channel = null;
+        List<CompletableFuture<Boolean>> written = new ArrayList<>();
+        try {
+            if (! target.toFile().exists())
+                channel = open(target, size);
+            Optional<CryptreeNode> meta = Optional.of(first);
+            Location location = source.getLocation();
+            for (int i = 0; i < nChunks; i++) {
+                if (! meta.isPresent()) {
+                    // The rest of the file has never been written, so it is all zeros
+                    for (int j = i; j < nChunks; j++)
+                        if (! MaybeMultihash.empty().toString().equals(done.get(j)))
+                            manifest.record(relativePath, j, MaybeMultihash.empty());
+                    break;
+                }
+                FileAccess access = (FileAccess) meta.get();
+                ChunkRef chunk = new ChunkRef(i, location, access.retriever(), access.committedHash());
+                if (! chunk.hash.toString().equals(done.get(i))) {
+                    if (channel == null)
+                        channel = open(target, size);
+                    written.add(fetch(chunk, channel, dataKey, size, relativePath));
+                }
+                Optional<Location> next = access.retriever().getNext(dataKey);
+                if (i + 1 < nChunks) {
+                    if (! next.isPresent())
+                        throw new IllegalStateException("Missing chunk " + (i + 1) + " of " + target);
+                    location = next.get();
+                    meta = network.getMetadata(location).get();
+                }
             }
+        } finally {
+            if (channel != null)
+                closeWhenWritten(channel, written, target);
+        }
+    }
+
+    private FileChannel open(Path target, long size) throws Exception {
+        openFiles.acquire();
+        try {
+            RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw");
+            raf.setLength(size);
+            return raf.getChannel();
+        } catch (IOException e) {
+            openFiles.release();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Boolean> fetch(ChunkRef chunk,
+                                             FileChannel channel,
+                                             SymmetricKey dataKey,
+                                             long size,
+                                             String relativePath) throws InterruptedException {
+        int length = (int) Math.min(Chunk.MAX_SIZE, size - (long) chunk.index * Chunk.MAX_SIZE);
+        inFlightBytes.acquire(length);
+        try {
+            return chunk.retriever.getChunkInputStream(network, random, dataKey, 0, length,
+                    chunk.location, chunk.hash, x -> {})
+                    .thenApply(located -> {
+                        try {
+                            byte[] data = located.get().chunk.data();
+                            ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+                            long position = (long) chunk.index * Chunk.MAX_SIZE;
+                            while (buf.hasRemaining())
+                                position += channel.write(buf, position);
+                            // the data must be on disk before the manifest says so
+                            channel.force(false);
+                            manifest.record(relativePath, chunk.index, chunk.hash);
+                            return true;
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }).whenComplete((r, t) -> inFlightBytes.release(length));
+        } catch (RuntimeException e) {
+            inFlightBytes.release(length);
+            throw e;
+        }
+    }
+
+    /** Close a file, and release its slot, once all the chunk writes which were started have finished
+     */
+    private void closeWhenWritten(FileChannel channel, List<CompletableFuture<Boolean>> written, Path target) {
+        CompletableFuture<Boolean> all = CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0]))
+                .handle((r, t) -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        if (t == null)
+                            t = e;
+                    }
+                    openFiles.release();
+                    if (t != null) {
+                        System.err.println("Error downloading " + target);
+                        t.printStackTrace();
+                        failures.incrementAndGet();
+                        return false;
+                    }
+                    return true;
+                });
+        synchronized (pending) {
+            pending.add(all);
+        }
+    }
+
+    private void waitForPending() {
+        List<CompletableFuture<Boolean>> toWait;
+        synchronized (pending) {
+            toWait = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (CompletableFuture<Boolean> fut : toWait)
+            fut.join();
+    }
+
+    private static class ChunkRef {
+        public final int index;
+        public final Location location;
+        public final FileRetriever retriever;
+        public final MaybeMultihash hash;
+
+        public ChunkRef(int index, Location location, FileRetriever retriever, MaybeMultihash hash) {
+            this.index = index;
+            this.location = location;
+            this.retriever = retriever;
+            this.hash = hash;
+        }
+    }
+
+    /** An append only log of the chunks which have been written to disk, as lines of "chunk index, hash, path"
+     * separated by tabs. It is compacted each time it is loaded.
+     */
+    private static class Manifest implements Closeable {
+        private final Map<String, Map<Integer, String>> chunks;
+        private final Writer out;
+
+        private Manifest(Map<String, Map<Integer, String>> chunks, Writer out) {
+            this.chunks = chunks;
+            this.out = out;
+        }
+
+        public static Manifest load(Path file) throws IOException {
+            Map<String, Map<Integer, String>> chunks = new HashMap<>();
+            if (file.toFile().exists()) {
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    String[] parts = line.split("\t", 3);
+                    if (parts.length < 3)
+                        continue;
+                    try {
+                        int index = Integer.parseInt(parts[0]);
+                        if (parts[1].isEmpty())
+                            chunks.remove(parts[2]);
+                        else
+                            chunks.computeIfAbsent(parts[2], p -> new HashMap<>()).put(index, parts[1]);
+                    } catch (NumberFormatException e) {
+                        // ignore a line truncated by an interruption
+                    }
+                }
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer compacted = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Map<Integer, String>> e : chunks.entrySet())
+                    for (Map.Entry<Integer, String> chunk : e.getValue().entrySet())
+                        compacted.write(chunk.getKey() + "\t" + chunk.getValue() + "\t" + e.getKey() + "\n");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            return new Manifest(chunks, out);
+        }
+
+        public synchronized Map<Integer, String> chunks(String path) {
+            return new HashMap<>(chunks.getOrDefault(path, Collections.emptyMap()));
+        }
+
+        public synchronized void clear(String path) throws IOException {
+            if (chunks.remove(path) == null)
+                return;
+            out.write("0\t\t" + path + "\n");
+            out.flush();
+        }
+
+        public synchronized void record(String path, int chunkIndex, MaybeMultihash hash) {
+            chunks.computeIfAbsent(path, p -> new HashMap<>()).put(chunkIndex, hash.toString());
+            try {
+                out.write(chunkIndex + "\t" + hash + "\t" + path + "\n");
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
         }
     }
 }
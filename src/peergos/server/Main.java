@@ -3,7 +3,9 @@ package peergos.server;
 import peergos.shared.*;
 import peergos.server.corenode.*;
 import peergos.server.fuse.*;
+import peergos.server.metrics.*;
 import peergos.server.mutable.*;
+import peergos.server.social.*;
 import peergos.server.storage.*;
 import peergos.server.util.*;
 import peergos.shared.cbor.*;
@@ -20,11 +22,13 @@ import peergos.shared.mutable.*;
 import peergos.shared.social.*;
 import peergos.shared.storage.*;
 import peergos.shared.user.*;
+import peergos.shared.util.*;
 
 import java.io.*;
 import java.net.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -70,11 +74,15 @@ public class Main {
             Main::startPeergos,
             Stream.of(
                     new Command.Arg("port", "service port", false, "8000"),
+                    new Command.Arg("metrics-port", "The localhost port to serve metrics on at /metrics, if any", false),
+                    new Command.Arg("trace-file", "A file, relative to $PEERGOS_PATH, to append the spans of traced requests to, if any", false),
                     new Command.Arg("pki-node-id", "Ipfs node id of the pki node", true),
                     new Command.Arg("domain", "Domain name to bind to,", false, "localhost"),
                     new Command.Arg("useIPFS", "Use IPFS for storage or a local disk store", false, "true"),
                     new Command.Arg("mutable-pointers-file", "The filename for the mutable pointers datastore", true, "mutable.sql"),
                     new Command.Arg("social-sql-file", "The filename for the follow requests datastore", true, "social.sql"),
+                    new Command.Arg("pin-queue-file", "The filename for the queue of pins still to be done", true, "pins.sql"),
+                    new Command.Arg("max-concurrent-pins", "The maximum number of trees to pin at once", false, "" + PinningMutablePointers.DEFAULT_MAX_CONCURRENT_PINS),
                     new Command.Arg("webroot", "the path to the directory to serve as the web root", false),
                     new Command.Arg("default-quota", "default maximum storage per user", false, Long.toString(1024L * 1024 * 1024))
             ).collect(Collectors.toList())
@@ -217,6 +225,7 @@ public class Main {
                     new Command.Arg("useIPFS", "Whether to use IPFS or a local datastore", true, "false"),
                     new Command.Arg("mutable-pointers-file", "The filename for the mutable pointers (or :memory: or ram based)", true, ":memory:"),
                     new Command.Arg("social-sql-file", "The filename for the follow requests (or :memory: or ram based)", true, ":memory:"),
+                    new Command.Arg("pin-queue-file", "The filename for the queue of pins still to be done (or :memory: or ram based)", true, ":memory:"),
                     new Command.Arg("ipfs-config-api-port", "ipfs api port", true, "5001"),
                     new Command.Arg("ipfs-config-gateway-port", "ipfs gateway port", true, "8080"),
                     new Command.Arg("pki.secret.key.path", "The path to the pki secret key file", true, "test.pki.secret.key"),
@@ -235,7 +244,9 @@ public class Main {
                     new Command.Arg("username", "Peergos username", true),
                     new Command.Arg("password", "Peergos password", true),
                     new Command.Arg("webport", "Peergos service address port", false, "8000"),
-                    new Command.Arg("mountPoint", "The directory to mount the Peergos filesystem in", true, "peergos")
+                    new Command.Arg("mountPoint", "The directory to mount the Peergos filesystem in", true, "peergos"),
+                    new Command.Arg("block-cache-dir", "The directory to cache blocks in, relative to $PEERGOS_PATH, which can be shared with other clients", false, DiskBlockCache.DEFAULT_DIR_NAME),
+                    new Command.Arg("block-cache-size", "The maximum size of the block cache in bytes", false, "" + DiskBlockCache.DEFAULT_MAX_BYTES)
             ).collect(Collectors.toList())
     );
 
@@ -262,9 +273,16 @@ public class Main {
             JavaPoster ipfsApi = new JavaPoster(ipfsApiAddress);
             JavaPoster ipfsGateway = new JavaPoster(ipfsGatewayAddress);
 
-            ContentAddressedStorage localDht = useIPFS ?
-                    new CachingStorage(new ContentAddressedStorage.HTTP(ipfsApi, false), dhtCacheEntries, maxValueSizeToCache) :
-                    new FileContentAddressedStorage(blockstorePath(a));
+            Metrics metrics = Metrics.DEFAULT;
+            MeasuredStorage ipfsDht = useIPFS ?
+                    new MeasuredStorage(new ContentAddressedStorage.HTTP(ipfsApi, false), "ipfs", metrics) :
+                    null;
+            MeasuredStorage localDht = new MeasuredStorage(useIPFS ?
+                    new CachingStorage(ipfsDht, dhtCacheEntries, maxValueSizeToCache) :
+                    new FileContentAddressedStorage(blockstorePath(a)), "local", metrics);
+            if (useIPFS)
+                metrics.gauge("peergos_block_cache_hit_ratio", "The fraction of block reads served from memory",
+                        () -> localDht.getReads() == 0 ? 0 : 1 - (double) ipfsDht.getReads() / localDht.getReads());
 
             String hostname = a.getArg("domain");
             int maxUserCount = a.getInt("max-user-count", CoreNode.MAX_USERNAME_COUNT);
@@ -277,11 +295,18 @@ public class Main {
             MutablePointers sqlMutable = UserRepository.buildSqlLite(path, localDht, maxUserCount);
             MutablePointersProxy proxingMutable = new HttpMutablePointers(ipfsGateway, pkiServerNodeId);
 
+            // long polls for pointer changes and notifications share a few handler threads, so they can't starve other calls
+            Semaphore longPolls = new Semaphore(UserService.HANDLER_THREADS / 4);
+            PointerChangeLog pointerChanges = new PointerChangeLog(10_000, longPolls);
+            // log changes to the pki root, so mirrors can follow them
+            MutableEventPropagator pkiMutable = new MutableEventPropagator(sqlMutable);
+            pkiMutable.addListener(pointerChanges::accept);
+
             PublicKeyHash peergosId = PublicKeyHash.fromString(a.getArg("peergos.identity.hash"));
             // build a mirroring proxying corenode, unless we are the pki node
             boolean isPkiNode = nodeId.equals(pkiServerNodeId);
             CoreNode core = isPkiNode ?
-                    buildPkiCorenode(sqlMutable, localDht, a) :
+                    buildPkiCorenode(pkiMutable, localDht, a) :
                     new MirrorCoreNode(new HTTPCoreNode(ipfsGateway, pkiServerNodeId), localDht, proxingMutable, peergosId);
 
             long defaultQuota = a.getLong("default-quota");
@@ -291,32 +316,54 @@ public class Main {
             SpaceCheckingKeyFilter spaceChecker = new SpaceCheckingKeyFilter(core, sqlMutable, localDht, userQuotas::quota);
             CorenodeEventPropagator corePropagator = new CorenodeEventPropagator(core);
             corePropagator.addListener(spaceChecker::accept);
+            StorageNodeRouter router = new StorageNodeRouter(core, nodeId);
+            corePropagator.addListener(event -> router.invalidate(event.username));
             MutableEventPropagator localMutable = new MutableEventPropagator(sqlMutable);
             localMutable.addListener(spaceChecker::accept);
+            localMutable.addListener(pointerChanges::accept);
+            NotificationLog notifications = new NotificationLog(10_000, longPolls, localDht);
+            localMutable.addListener(notifications::accept);
 
             ContentAddressedStorage filteringDht = new WriteFilter(localDht, spaceChecker::allowWrite);
             ContentAddressedStorageProxy proxingDht = new ContentAddressedStorageProxy.HTTP(ipfsGateway);
-            ContentAddressedStorage p2pDht = new ContentAddressedStorage.Proxying(filteringDht, proxingDht, nodeId, core);
+            ContentAddressedStorage p2pDht = new ContentAddressedStorage.Proxying(filteringDht, proxingDht, router);
 
             Path blacklistPath = a.fromPeergosDir("blacklist_file", "blacklist.txt");
-            PublicKeyBlackList blacklist = new UserBasedBlacklist(blacklistPath, core, localMutable, p2pDht);
-            MutablePointers blockingMutablePointers = new BlockingMutablePointers(new PinningMutablePointers(localMutable, p2pDht), blacklist);
-            MutablePointers p2mMutable = new ProxyingMutablePointers(nodeId, core, blockingMutablePointers, proxingMutable);
+            UserBasedBlacklist blacklist = new UserBasedBlacklist(blacklistPath, core, localMutable, p2pDht);
+            localMutable.addListener(blacklist::accept);
+            corePropagator.addListener(blacklist::accept);
+            String pinQueueFile = a.getArg("pin-queue-file");
+            String pinQueuePath = pinQueueFile.equals(":memory:") ?
+                    pinQueueFile :
+                    a.fromPeergosDir("pin-queue-file").toString();
+            PinQueue pinQueue = PinQueue.buildSqlLite(pinQueuePath);
+            PinningMutablePointers pinning = new PinningMutablePointers(localMutable, p2pDht, pinQueue,
+                    a.getInt("max-concurrent-pins", PinningMutablePointers.DEFAULT_MAX_CONCURRENT_PINS));
+            MutablePointers blockingMutablePointers = new BlockingMutablePointers(pinning, blacklist);
+            MutablePointers p2mMutable = new ProxyingMutablePointers(router, blockingMutablePointers, proxingMutable);
 
             SocialNetworkProxy httpSocial = new HttpSocialNetwork(ipfsGateway, ipfsGateway);
             String socialNodeFile = a.getArg("social-sql-file");
             String socialPath = socialNodeFile.equals(":memory:") ?
                     socialNodeFile :
                     a.fromPeergosDir("social-sql-file").toString();
-            SocialNetwork local = UserRepository.buildSqlLite(socialPath, p2pDht, maxUserCount);
-            SocialNetwork p2pSocial = new ProxyingSocialNetwork(nodeId, core, local, httpSocial);
+            SocialEventPropagator local = new SocialEventPropagator(UserRepository.buildSqlLite(socialPath, p2pDht, maxUserCount));
+            local.addListener(notifications::acceptFollowRequest);
+            SocialNetwork p2pSocial = new ProxyingSocialNetwork(router, local, httpSocial);
 
             Path userPath = a.fromPeergosDir("whitelist_file", "user_whitelist.txt");
             int delayMs = a.getInt("whitelist_sleep_period", 1000 * 60 * 10);
 
             new UserFilePinner(userPath, core, p2mMutable, p2pDht, delayMs).start();
 
-            UserService peergos = new UserService(p2pDht, corePropagator, p2pSocial, p2mMutable);
+            Tracer tracer = a.hasArg("trace-file") ?
+                    new SpanFile(a.fromPeergosDir("trace-file"), metrics) :
+                    Tracer.NONE;
+            UserService peergos = new UserService(new MeasuredStorage(p2pDht, "api", metrics),
+                    new MeasuredCoreNode(corePropagator, metrics), p2pSocial, new MeasuredPointers(p2mMutable, metrics),
+                    pointerChanges, notifications, metrics, tracer);
+            if (a.hasArg("metrics-port"))
+                UserService.startMetricsServer(new InetSocketAddress("localhost", a.getInt("metrics-port")), metrics);
             InetSocketAddress localAddress = new InetSocketAddress("localhost", userAPIAddress.getPort());
             Optional<Path> webroot = a.hasArg("webroot") ?
                     Optional.of(Paths.get(a.getArg("webroot"))) :
@@ -352,7 +399,10 @@ public class Main {
 
         System.out.println("\n\nPeergos mounted at " + path + "\n\n");
         try {
-            NetworkAccess network = NetworkAccess.buildJava(webPort).get();
+            Path blockCacheDir = a.fromPeergosDir("block-cache-dir", DiskBlockCache.DEFAULT_DIR_NAME);
+            long blockCacheSize = a.getLong("block-cache-size", DiskBlockCache.DEFAULT_MAX_BYTES);
+            NetworkAccess network = NetworkAccess.buildJava(webPort).get()
+                    .withStorage(dht -> new DiskBlockCache(dht, blockCacheDir, blockCacheSize));
             Crypto crypto = Crypto.initJava();
             UserContext userContext = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
             PeergosFS peergosFS = new PeergosFS(userContext);
@@ -4,6 +4,7 @@ import java.util.logging.*;
 import peergos.server.util.Logging;
 
 import peergos.server.corenode.*;
+import peergos.server.metrics.*;
 import peergos.server.mutable.*;
 import peergos.shared.*;
 import peergos.shared.cbor.*;
@@ -24,6 +25,11 @@ import java.util.function.*;
  */
 public class SpaceCheckingKeyFilter {
     private static final Logger LOG = Logging.LOG();
+    private static final String QUOTA_CHECKS = "peergos_quota_checks_total";
+    private static final String QUOTA_CHECKS_HELP = "Quota decisions on block writes";
+    private static final Counter ALLOWED = Metrics.DEFAULT.counter(QUOTA_CHECKS, QUOTA_CHECKS_HELP, "result", "allowed");
+    private static final Counter REJECTED = Metrics.DEFAULT.counter(QUOTA_CHECKS, QUOTA_CHECKS_HELP, "result", "rejected");
+    private static final Counter UNKNOWN_WRITER = Metrics.DEFAULT.counter(QUOTA_CHECKS, QUOTA_CHECKS_HELP, "result", "unknown_writer");
     private final CoreNode core;
     private final MutablePointers mutable;
     private final ContentAddressedStorage dht;
@@ -241,9 +247,15 @@ public class SpaceCheckingKeyFilter {
     }
 
     public boolean allowWrite(PublicKeyHash writer, int size) {
+        return Trace.current().span("quota_check", () -> checkQuota(writer, size));
+    }
+
+    private boolean checkQuota(PublicKeyHash writer, int size) {
         Stat state = currentView.get(writer);
-        if (state == null)
+        if (state == null) {
+            UNKNOWN_WRITER.inc();
             throw new IllegalStateException("Unknown writing key hash: " + writer);
+        }
 
         Usage usage = this.usage.get(state.owner);
         long spaceUsed = usage.usage();
@@ -251,10 +263,12 @@ public class SpaceCheckingKeyFilter {
         if (spaceUsed > quota || quota - spaceUsed - size <= 0) {
             long pending = usage.getPending(writer);
             usage.clearPending(writer);
+            REJECTED.inc();
             throw new IllegalStateException("Storage quota reached! Used "
                     + usage.usage + " out of " + quota + " bytes. Rejecting write of size " + (size + pending) + ". Please delete some files.");
         }
         usage.addPending(writer, size);
+        ALLOWED.inc();
         return true;
     }
 }
@@ -15,10 +15,14 @@ import java.util.function.*;
 import java.util.stream.*;
 
 public class Uploader {
+    private static final int FILES_PER_BATCH = 100;
+    private static final int PARALLEL_FILE_UPLOADS = 4;
 
     public static void main(String[] args) throws Exception {
         Crypto crypto = Crypto.initJava();
-        NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get();
+        NetworkAccess network = NetworkAccess.buildJava(new URL("https://demo.peergos.net")).get()
+                .withStorage(dht -> new DiskBlockCache(dht,
+                        Main.DEFAULT_PEERGOS_DIR_PATH.resolve(DiskBlockCache.DEFAULT_DIR_NAME), DiskBlockCache.DEFAULT_MAX_BYTES));
         String username = args[0];
         String fromPath = args[1];
         String toPath = args[2];
@@ -95,12 +99,20 @@ public class Uploader {
                             .mkdir(file.getName(), context.network, false, context.crypto.random).get();
 
                 Optional<FileWrapper> childDir = await(context.getByPath(targetParent.resolve(source.getFileName()).toString()));
-                childDir.ifPresent(newDir -> Optional.ofNullable(file.list())
+                List<Path> children = Optional.ofNullable(file.list())
                         .map(Stream::of)
                         .orElse(Stream.empty())
-                        .parallel()
                         .map(source::resolve)
-                        .forEach(childPath -> uploadTo(context, childPath, targetParent.resolve(file.getName()), filter)));
+                        .collect(Collectors.toList());
+                List<File> childFiles = children.stream()
+                        .map(Path::toFile)
+                        .filter(f -> ! f.isDirectory() && filter.test(f))
+                        .collect(Collectors.toList());
+                childDir.ifPresent(newDir -> uploadFiles(context, newDir, childFiles));
+                children.stream()
+                        .filter(p -> p.toFile().isDirectory())
+                        .parallel()
+                        .forEach(childPath -> uploadTo(context, childPath, targetParent.resolve(file.getName()), filter));
             } catch (Exception e) {
                 System.err.println("Error uploading children of " + source);
                 e.printStackTrace();
@@ -118,6 +130,30 @@ public class Uploader {
         }
     }
 
+    /** Upload files to a directory in batches, each of which is added to the directory in a single commit
+     *
+     */
+    private static void uploadFiles(UserContext context, FileWrapper dir, List<File> files) {
+        FileWrapper current = dir;
+        for (int i = 0; i < files.size(); i += FILES_PER_BATCH) {
+            List<File> batch = files.subList(i, Math.min(files.size(), i + FILES_PER_BATCH));
+            List<FileUploadRequest> requests = new ArrayList<>();
+            try {
+                for (File f : batch) {
+                    System.out.println("Uploading " + f);
+                    requests.add(new FileUploadRequest(f.getName(), new ResetableFileInputStream(f), f.length()));
+                }
+                current = current.uploadFiles(requests, PARALLEL_FILE_UPLOADS, context.network, context.crypto.random,
+                        c -> {}, context.fragmenter).get();
+            } catch (Exception e) {
+                System.err.println("Error uploading files to " + dir.getName());
+                e.printStackTrace();
+            } finally {
+                requests.forEach(r -> r.data.close());
+            }
+        }
+    }
+
     private static <T> T await(CompletableFuture<T> source) {
         try {
             return source.get();
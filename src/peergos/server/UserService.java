@@ -8,10 +8,14 @@ import java.util.logging.Level;
 
 import com.sun.net.httpserver.*;
 import peergos.server.corenode.*;
+import peergos.server.metrics.*;
+import peergos.server.mutable.*;
+import peergos.server.social.*;
 import peergos.shared.corenode.*;
 import peergos.shared.mutable.*;
 import peergos.shared.social.*;
 import peergos.shared.storage.ContentAddressedStorage;
+import peergos.shared.util.*;
 
 import peergos.server.net.*;
 
@@ -31,6 +35,7 @@ public class UserService {
     public static final String MUTABLE_POINTERS_URL = "mutable/";
     public static final String SOCIAL_URL = "social/";
     public static final String PUBLIC_FILES_URL = "public/";
+    public static final String METRICS_URL = "/metrics";
 
     public static final int HANDLER_THREADS = 50;
     public static final int CONNECTION_BACKLOG = 100;
@@ -71,15 +76,27 @@ public class UserService {
     private final CoreNode coreNode;
     private final SocialNetwork social;
     private final MutablePointers mutable;
+    private final PointerChangeLog pointerChanges;
+    private final NotificationLog notifications;
+    private final Metrics metrics;
+    private final Tracer tracer;
 
     public UserService(ContentAddressedStorage storage,
                        CoreNode coreNode,
                        SocialNetwork social,
-                       MutablePointers mutable) {
+                       MutablePointers mutable,
+                       PointerChangeLog pointerChanges,
+                       NotificationLog notifications,
+                       Metrics metrics,
+                       Tracer tracer) {
         this.storage = storage;
         this.coreNode = coreNode;
         this.social = social;
         this.mutable = mutable;
+        this.pointerChanges = pointerChanges;
+        this.notifications = notifications;
+        this.metrics = metrics;
+        this.tracer = tracer;
     }
 
     public static class TlsProperties {
@@ -183,18 +200,21 @@ public class UserService {
         }
 
         BiConsumer<String, HttpHandler> addHandler = (path, handlerFunc) -> {
-            localhostServer.createContext(path, handlerFunc);
+            String name = path.equals(UI_URL) ? "ui" : path.replaceAll("^/|/$", "");
+            HttpHandler traced = tracer == Tracer.NONE ? handlerFunc : new TracingHandler(name, handlerFunc, tracer);
+            HttpHandler measured = new MeasuredHandler(name, traced, metrics);
+            localhostServer.createContext(path, measured);
             if (tlsServer != null)
-                tlsServer.createContext(path, new HSTSHandler(handlerFunc));
+                tlsServer.createContext(path, new HSTSHandler(measured));
         };
 
         addHandler.accept(DHT_URL, new DHTHandler(storage, (h, i) -> true));
         addHandler.accept("/" + HttpCoreNodeServer.CORE_URL,
                 new HttpCoreNodeServer.CoreNodeHandler(this.coreNode));
         addHandler.accept("/" + SOCIAL_URL,
-                new SocialHandler(this.social));
+                new SocialHandler(this.social, Optional.of(this.notifications)));
         addHandler.accept("/" + MUTABLE_POINTERS_URL,
-                new MutationHandler(this.mutable));
+                new MutationHandler(this.mutable, Optional.of(this.pointerChanges)));
         addHandler.accept("/" + PUBLIC_FILES_URL, new PublicFileHandler(coreNode, mutable, storage));
         addHandler.accept(UI_URL, handler);
 
@@ -209,6 +229,20 @@ public class UserService {
         return true;
     }
 
+    /** Serve the metrics of this server on a separate admin address, which should not be publicly reachable
+     *
+     * @param address
+     * @param metrics
+     * @throws IOException
+     */
+    public static void startMetricsServer(InetSocketAddress address, Metrics metrics) throws IOException {
+        LOG.info("Serving metrics at: " + address.getHostString() + ":" + address.getPort() + METRICS_URL);
+        HttpServer metricsServer = HttpServer.create(address, CONNECTION_BACKLOG);
+        metricsServer.createContext(METRICS_URL, new MetricsHandler(metrics));
+        metricsServer.setExecutor(Executors.newSingleThreadExecutor());
+        metricsServer.start();
+    }
+
     public static KeyStore getKeyStore(String filename, char[] password)
             throws KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException, InvalidKeyException,
             NoSuchProviderException, SignatureException
@@ -175,7 +175,7 @@ public class HttpCoreNodeServer {
             server = HttpServer.create(new InetSocketAddress(InetAddress.getLocalHost(), address.getPort()), CONNECTION_BACKLOG);
         ch = new CoreNodeHandler(coreNode);
         server.createContext("/" + CORE_URL, ch);
-        server.createContext("/" + UserService.MUTABLE_POINTERS_URL, new MutationHandler(mutable));
+        server.createContext("/" + UserService.MUTABLE_POINTERS_URL, new MutationHandler(mutable, Optional.empty()));
         server.setExecutor(Executors.newFixedThreadPool(HANDLER_THREAD_COUNT));
     }
 
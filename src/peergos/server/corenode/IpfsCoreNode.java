@@ -35,9 +35,15 @@ public class IpfsCoreNode implements CoreNode {
 
     private final Map<String, List<UserPublicKeyLink>> chains = new ConcurrentHashMap<>();
     private final Map<PublicKeyHash, String> reverseLookup = new ConcurrentHashMap<>();
-    private final List<String> usernames = new ArrayList<>();
+    // sorted, so prefix queries are a range
+    private final NavigableSet<String> usernames = new ConcurrentSkipListSet<>();
+    public static final int MAX_UPDATES_PER_COMMIT = 100;
+    private static final Function<ByteArrayWrapper, byte[]> IDENTITY_HASH =
+            arr -> Arrays.copyOfRange(arr.data, 0, CoreNode.MAX_USERNAME_SIZE);
+    private final Queue<ChainUpdate> queued = new LinkedList<>();
+    private boolean committing = false;
 
-    private MaybeMultihash currentRoot;
+    private volatile MaybeMultihash currentRoot;
 
     public IpfsCoreNode(SigningKeyPair pkiKeys,
                         MaybeMultihash currentRoot,
@@ -75,7 +81,7 @@ public class IpfsCoreNode implements CoreNode {
                                          ContentAddressedStorage ipfs,
                                          Map<String, List<UserPublicKeyLink>> chains,
                                          Map<PublicKeyHash, String> reverseLookup,
-                                         List<String> usernames) {
+                                         Collection<String> usernames) {
         try {
             CommittedWriterData current = WriterData.getWriterData(pkiSigner, currentChampRoot, ipfs).get();
             CommittedWriterData updated = WriterData.getWriterData(pkiSigner, newChampRoot, ipfs).get();
@@ -89,13 +95,35 @@ public class IpfsCoreNode implements CoreNode {
         }
     }
 
+    /** Look up a single user's chain in the pki champ under the given root, reading only the champ nodes on its path.
+     *
+     * @return the chain, or an empty list if the username hasn't been claimed
+     */
+    public static CompletableFuture<List<UserPublicKeyLink>> lookupChain(PublicKeyHash pkiSigner,
+                                                                         MaybeMultihash pkiRoot,
+                                                                         String username,
+                                                                         ContentAddressedStorage ipfs) {
+        return WriterData.getWriterData(pkiSigner, pkiRoot, ipfs)
+                .thenCompose(wd -> ! wd.props.tree.isPresent() ?
+                        CompletableFuture.completedFuture(MaybeMultihash.empty()) :
+                        ChampWrapper.create(wd.props.tree.get(), IDENTITY_HASH, ipfs)
+                                .thenCompose(champ -> champ.get(username.getBytes())))
+                .thenCompose(chainHash -> ! chainHash.isPresent() ?
+                        CompletableFuture.completedFuture(Collections.<UserPublicKeyLink>emptyList()) :
+                        ipfs.get(chainHash.get())
+                                .thenApply(cborOpt -> cborOpt.map(cbor -> ((CborObject.CborList) cbor).value.stream()
+                                        .map(UserPublicKeyLink::fromCbor)
+                                        .collect(Collectors.toList()))
+                                        .orElse(Collections.emptyList())));
+    }
+
     public static void updateMapping(ByteArrayWrapper key,
                                      MaybeMultihash oldValue,
                                      MaybeMultihash newValue,
                                      ContentAddressedStorage ipfs,
                                      Map<String, List<UserPublicKeyLink>> chains,
                                      Map<PublicKeyHash, String> reverseLookup,
-                                     List<String> usernames) {
+                                     Collection<String> usernames) {
         try {
             Optional<CborObject> cborOpt = ipfs.get(newValue.get()).get();
             if (!cborOpt.isPresent()) {
@@ -133,78 +161,151 @@ public class IpfsCoreNode implements CoreNode {
         }
     }
 
-    /** Update a user's public key chain, keeping the in memory mappings correct and committing the new pki root
+    private static class ChainUpdate {
+        public final String username;
+        public final List<UserPublicKeyLink> chain;
+        public final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        public ChainUpdate(String username, List<UserPublicKeyLink> chain) {
+            this.username = username;
+            this.chain = chain;
+        }
+    }
+
+    /** Update a user's public key chain, keeping the in memory mappings correct and committing the new pki root.
+     *
+     * Updates which arrive while a commit is in progress are queued, and then merged into the champ and committed
+     * together, up to MAX_UPDATES_PER_COMMIT at a time. The thread that finds no commit in progress does the commits
+     * until the queue is empty.
      *
      * @param username
      * @param updatedChain
      * @return
      */
     @Override
-    public synchronized CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> updatedChain) {
-            try {
-                Function<ByteArrayWrapper, byte[]> identityHash = arr -> Arrays.copyOfRange(arr.data, 0, CoreNode.MAX_USERNAME_SIZE);
-                CommittedWriterData current = WriterData.getWriterData(signer.publicKeyHash, currentRoot, ipfs).get();
-                MaybeMultihash currentTree = current.props.tree.map(MaybeMultihash::of).orElseGet(MaybeMultihash::empty);
-
-                ChampWrapper champ = currentTree.isPresent() ?
-                        ChampWrapper.create(currentTree.get(), identityHash, ipfs).get() :
-                        Transaction.call(peergosIdentity,
-                                tid -> ChampWrapper.create(signer.publicKeyHash, signer, identityHash, tid, ipfs),
-                                ipfs).get();
-                MaybeMultihash existing = champ.get(username.getBytes()).get();
-                Optional<CborObject> cborOpt = existing.isPresent() ?
-                        ipfs.get(existing.get()).get() :
-                        Optional.empty();
-                if (! cborOpt.isPresent() && existing.isPresent()) {
-                    LOG.severe("Couldn't retrieve existing claim chain from " + existing + " for " + username);
-                    return CompletableFuture.completedFuture(true);
+    public CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> updatedChain) {
+        ChainUpdate update = new ChainUpdate(username, updatedChain);
+        synchronized (queued) {
+            queued.add(update);
+            if (committing)
+                return update.result;
+            committing = true;
+        }
+        while (true) {
+            List<ChainUpdate> batch = new ArrayList<>();
+            synchronized (queued) {
+                while (! queued.isEmpty() && batch.size() < MAX_UPDATES_PER_COMMIT)
+                    batch.add(queued.poll());
+                if (batch.isEmpty()) {
+                    committing = false;
+                    break;
                 }
-                List<UserPublicKeyLink> existingChain = cborOpt.map(cbor -> ((CborObject.CborList) cbor).value.stream()
-                        .map(UserPublicKeyLink::fromCbor)
-                        .collect(Collectors.toList()))
-                        .orElse(Collections.emptyList());
-
-                List<UserPublicKeyLink> mergedChain = UserPublicKeyLink.merge(existingChain, updatedChain, ipfs).get();
-                CborObject.CborList mergedChainCbor = new CborObject.CborList(mergedChain.stream()
-                        .map(Cborable::toCbor)
-                        .collect(Collectors.toList()));
-                Multihash mergedChainHash = Transaction.call(peergosIdentity,
-                        tid -> ipfs.put(peergosIdentity, signer, mergedChainCbor.toByteArray(), tid),
-                        ipfs).get();
-                synchronized (this) {
-                    return Transaction.call(peergosIdentity,
-                            tid -> champ.put(signer.publicKeyHash, signer, username.getBytes(), existing, mergedChainHash, tid)
-                                    .thenCompose(newPkiRoot -> current.props.withChamp(newPkiRoot)
-                                            .commit(peergosIdentity, signer, currentRoot, mutable, ipfs, c -> {}, tid)),
-                            ipfs
-                    ).thenApply(committed -> {
-                        if (existingChain.isEmpty())
-                            usernames.add(username);
-                        PublicKeyHash owner = updatedChain.get(updatedChain.size() - 1).owner;
-                        reverseLookup.put(owner, username);
-                        chains.put(username, mergedChain);
-                        currentRoot = committed.hash;
-                        return true;
-                    });
+            }
+            commit(batch);
+        }
+        return update.result;
+    }
+
+    private void commit(List<ChainUpdate> batch) {
+        try {
+            CommittedWriterData current = WriterData.getWriterData(signer.publicKeyHash, currentRoot, ipfs).get();
+            MaybeMultihash currentTree = current.props.tree.map(MaybeMultihash::of).orElseGet(MaybeMultihash::empty);
+
+            ChampWrapper champ = currentTree.isPresent() ?
+                    ChampWrapper.create(currentTree.get(), IDENTITY_HASH, ipfs).get() :
+                    Transaction.call(peergosIdentity,
+                            tid -> ChampWrapper.create(signer.publicKeyHash, signer, IDENTITY_HASH, tid, ipfs),
+                            ipfs).get();
+            Map<ByteArrayWrapper, MaybeMultihash> existing = champ.getAll(batch.stream()
+                    .map(u -> u.username.getBytes())
+                    .collect(Collectors.toList())).get();
+
+            // merge each update onto the existing chain, or onto an earlier update in this batch
+            Map<String, List<UserPublicKeyLink>> merged = new LinkedHashMap<>();
+            List<ChainUpdate> accepted = new ArrayList<>();
+            for (ChainUpdate update : batch) {
+                try {
+                    MaybeMultihash existingHash = existing.get(new ByteArrayWrapper(update.username.getBytes()));
+                    List<UserPublicKeyLink> existingChain;
+                    if (merged.containsKey(update.username))
+                        existingChain = merged.get(update.username);
+                    else {
+                        Optional<CborObject> cborOpt = existingHash.isPresent() ?
+                                ipfs.get(existingHash.get()).get() :
+                                Optional.empty();
+                        if (! cborOpt.isPresent() && existingHash.isPresent()) {
+                            LOG.severe("Couldn't retrieve existing claim chain from " + existingHash + " for " + update.username);
+                            update.result.complete(true);
+                            continue;
+                        }
+                        existingChain = cborOpt.map(cbor -> ((CborObject.CborList) cbor).value.stream()
+                                .map(UserPublicKeyLink::fromCbor)
+                                .collect(Collectors.toList()))
+                                .orElse(Collections.emptyList());
+                    }
+                    merged.put(update.username, UserPublicKeyLink.merge(existingChain, update.chain, ipfs).get());
+                    accepted.add(update);
+                } catch (Exception e) {
+                    update.result.completeExceptionally(e);
                 }
-            } catch (Exception e) {
-                throw new RuntimeException(e.getMessage(), e);
             }
+            if (accepted.isEmpty())
+                return;
+
+            List<String> names = new ArrayList<>(merged.keySet());
+            List<byte[]> blocks = names.stream()
+                    .map(name -> new CborObject.CborList(merged.get(name).stream()
+                            .map(Cborable::toCbor)
+                            .collect(Collectors.toList())).toByteArray())
+                    .collect(Collectors.toList());
+            CommittedWriterData committed = Transaction.call(peergosIdentity,
+                    tid -> ipfs.put(peergosIdentity, signer.publicKeyHash,
+                            blocks.stream().map(signer.secret::signatureOnly).collect(Collectors.toList()), blocks, tid)
+                            .thenCompose(chainHashes -> champ.putAll(signer.publicKeyHash, signer,
+                                    IntStream.range(0, names.size())
+                                            .mapToObj(i -> new Triple<>(names.get(i).getBytes(),
+                                                    existing.get(new ByteArrayWrapper(names.get(i).getBytes())),
+                                                    MaybeMultihash.of(chainHashes.get(i))))
+                                            .collect(Collectors.toList()), tid))
+                            .thenCompose(newPkiRoot -> current.props.withChamp(newPkiRoot)
+                                    .commit(peergosIdentity, signer, currentRoot, mutable, ipfs, c -> {}, tid)),
+                    ipfs).get();
+
+            for (String name : names) {
+                List<UserPublicKeyLink> chain = merged.get(name);
+                reverseLookup.put(chain.get(chain.size() - 1).owner, name);
+                chains.put(name, chain);
+                usernames.add(name);
+            }
+            currentRoot = committed.hash;
+            accepted.forEach(u -> u.result.complete(true));
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            batch.forEach(u -> u.result.completeExceptionally(e));
+        }
     }
 
     @Override
-    public synchronized CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
+    public CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
         return CompletableFuture.completedFuture(chains.getOrDefault(username, Collections.emptyList()));
     }
 
     @Override
-    public synchronized CompletableFuture<String> getUsername(PublicKeyHash key) {
+    public CompletableFuture<String> getUsername(PublicKeyHash key) {
         return CompletableFuture.completedFuture(reverseLookup.get(key));
     }
 
     @Override
     public CompletableFuture<List<String>> getUsernames(String prefix) {
-        return CompletableFuture.completedFuture(usernames);
+        return CompletableFuture.completedFuture(getUsernames(usernames, prefix));
+    }
+
+    /**
+     *
+     * @return the names in the sorted set which start with prefix
+     */
+    public static List<String> getUsernames(NavigableSet<String> usernames, String prefix) {
+        return new ArrayList<>(usernames.subSet(prefix, true, prefix + Character.MAX_VALUE, true));
     }
 
     @Override
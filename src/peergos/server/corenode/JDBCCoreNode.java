@@ -33,6 +33,10 @@ public class JDBCCoreNode {
     private static final String CREATE_METADATA_BLOBS_TABLE = "create table metadatablobs (writingkey text primary key not null, hash text not null); " +
             "CREATE UNIQUE INDEX index_name on metadatablobs (writingkey);";
 
+    // created on startup if missing, including in existing databases
+    private static final List<String> INDICES = Arrays.asList(
+            "create index if not exists followrequests_by_name on followrequests (name, id);");
+
     private static final Map<String,String> TABLES = new HashMap<>();
     static
     {
@@ -370,6 +374,15 @@ public class JDBCCoreNode {
                 LOG.severe( e.getClass().getName() + ": " + e.getMessage() );
             }
         }
+
+        for (String index: INDICES)
+        {
+            try (Statement createStmt = conn.createStatement()) {
+                createStmt.executeUpdate(index);
+            } catch ( Exception e ) {
+                LOG.severe( e.getClass().getName() + ": " + e.getMessage() );
+            }
+        }
     }
 
     public CompletableFuture<String> getUsername(PublicKeyHash encodedKey)
@@ -573,10 +586,7 @@ public class JDBCCoreNode {
 
     public CompletableFuture<Boolean> addFollowRequest(PublicKeyHash owner, byte[] encryptedPermission)
     {
-        byte[] dummy = null;
-        FollowRequestData selector = new FollowRequestData(owner, dummy);
-        RowData[] requests = selector.select();
-        if (requests != null && requests.length > SocialNetwork.MAX_PENDING_FOLLOWERS)
+        if (countFollowRequests(owner) > SocialNetwork.MAX_PENDING_FOLLOWERS)
             return CompletableFuture.completedFuture(false);
         // ToDo add a crypto currency transaction to prevent spam
 
@@ -603,6 +613,42 @@ public class JDBCCoreNode {
         return CompletableFuture.completedFuture(resp.serialize());
     }
 
+    private int countFollowRequests(PublicKeyHash owner) {
+        try (PreparedStatement stmt = conn.prepareStatement("select count(*) from followrequests where name = ?;")) {
+            stmt.setString(1, owner.toString());
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+
+    /**
+     *
+     * @param owner
+     * @param afterId
+     * @param maxCount
+     * @return up to maxCount of the follow requests for owner with an id greater than afterId, in order of id
+     */
+    public CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, long afterId, int maxCount) {
+        try (PreparedStatement stmt = conn.prepareStatement("select id, followrequest from followrequests " +
+                "where name = ? and id > ? order by id limit ?;")) {
+            stmt.setString(1, owner.toString());
+            stmt.setLong(2, afterId);
+            // get one more than requested to tell whether there are more
+            stmt.setInt(3, maxCount + 1);
+            ResultSet rs = stmt.executeQuery();
+            List<Pair<Long, byte[]>> requests = new ArrayList<>();
+            while (rs.next())
+                requests.add(new Pair<>(rs.getLong(1), Base64.getDecoder().decode(rs.getString(2))));
+            boolean hasMore = requests.size() > maxCount;
+            return CompletableFuture.completedFuture(new FollowRequestPage(
+                    hasMore ? requests.subList(0, maxCount) : requests, hasMore));
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writerHash, byte[] writingKeySignedHash) {
         MetadataBlob blob = new MetadataBlob(writerHash.serialize(), writingKeySignedHash);
         return CompletableFuture.completedFuture(blob.insert());
@@ -1,4 +1,7 @@
 package peergos.server.corenode;
+import java.util.logging.*;
+
+import peergos.server.util.Logging;
 
 import peergos.shared.*;
 import peergos.shared.corenode.*;
@@ -6,11 +9,21 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.mutable.*;
 import peergos.shared.storage.*;
 import peergos.shared.user.*;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
 
+/** A read only mirror of the pki, kept up to date by following changes to the pki root. Writes go to the pki node.
+ */
 public class MirrorCoreNode implements CoreNode {
+	private static final Logger LOG = Logging.LOG();
+
+    public static final int CHANGES_WAIT_MILLIS = 30_000;
+    public static final int POLL_PERIOD_MILLIS = 60_000;
+    // how long to remember that a username wasn't in the pki, so repeated lookups of it don't each read the champ
+    public static final int MISS_CACHE_MILLIS = 5_000;
+    private static final int MAX_CACHED_MISSES = 10_000;
 
     private final CoreNode writeTarget;
     private final ContentAddressedStorage ipfs;
@@ -19,9 +32,13 @@ public class MirrorCoreNode implements CoreNode {
 
     private final Map<String, List<UserPublicKeyLink>> chains = new ConcurrentHashMap<>();
     private final Map<PublicKeyHash, String> reverseLookup = new ConcurrentHashMap<>();
-    private final List<String> usernames = new ArrayList<>();
+    // sorted, so prefix queries are a range
+    private final NavigableSet<String> usernames = new ConcurrentSkipListSet<>();
+    // username to when we found it wasn't claimed
+    private final Map<String, Long> misses = new LRUCache<>(MAX_CACHED_MISSES);
 
     private MaybeMultihash currentRoot = MaybeMultihash.empty();
+    private volatile PublicKeyHash pkiKey;
     private volatile boolean running = true;
 
     public MirrorCoreNode(CoreNode writeTarget,
@@ -36,14 +53,36 @@ public class MirrorCoreNode implements CoreNode {
 
     public void start() {
         running = true;
-        new Thread(() -> {
-            while (running) {
+        new Thread(this::mirror, "Mirroring PKI node").start();
+    }
+
+    /** Apply the changes to the pki root as they happen. We long poll the pointer change log of the pki node, and
+     * only diff the pki champ when its writer has changed. If the change log isn't available we poll the root instead.
+     */
+    private void mirror() {
+        long since = -1;
+        boolean polling = false;
+        while (running) {
+            try {
+                PointerChanges changes = mutable.getChanges(since, since < 0 ? 0 : CHANGES_WAIT_MILLIS).get();
+                polling = false;
+                if (since < 0 || ! changes.isComplete || changes.writers.contains(pkiKey))
+                    update();
+                since = changes.sequence;
+            } catch (Exception e) {
+                if (! polling)
+                    LOG.log(Level.WARNING, "Couldn't follow pki changes, polling instead: " + e.getMessage());
+                polling = true;
+                since = -1;
                 try {
-                    Thread.sleep(60_000);
-                } catch (InterruptedException i) {}
-                update();
+                    Thread.sleep(POLL_PERIOD_MILLIS);
+                    update();
+                } catch (InterruptedException i) {
+                } catch (Exception f) {
+                    LOG.log(Level.WARNING, f.getMessage(), f);
+                }
             }
-        }, "Mirroring PKI node").start();
+        }
     }
 
     private PublicKeyHash getPkiKey() throws Exception {
@@ -57,6 +96,7 @@ public class MirrorCoreNode implements CoreNode {
     private synchronized boolean update() {
         try {
             PublicKeyHash pkiKey = getPkiKey();
+            this.pkiKey = pkiKey;
             MaybeMultihash newRoot = mutable.getPointerTarget(pkiOwnerIdentity, pkiKey, ipfs).get();
             IpfsCoreNode.updateAllMappings(pkiKey, currentRoot, newRoot, ipfs, chains, reverseLookup, usernames);
             currentRoot = newRoot;
@@ -66,19 +106,60 @@ public class MirrorCoreNode implements CoreNode {
         }
     }
 
+    /** Look a user's chain up directly in the latest pki champ, and add it to our mappings. This only reads the champ
+     * nodes on the path to the username, rather than diffing the whole champ.
+     *
+     * The chain is only stored if our mapping for the username hasn't changed during the lookup, so a slow lookup
+     * can't replace a newer chain applied by update().
+     */
+    private List<UserPublicKeyLink> lookupChain(String username) {
+        try {
+            List<UserPublicKeyLink> existing = chains.get(username);
+            PublicKeyHash pkiKey = this.pkiKey != null ? this.pkiKey : getPkiKey();
+            MaybeMultihash latestRoot = mutable.getPointerTarget(pkiOwnerIdentity, pkiKey, ipfs).get();
+            List<UserPublicKeyLink> chain = IpfsCoreNode.lookupChain(pkiKey, latestRoot, username, ipfs).get();
+            if (chain.isEmpty()) {
+                synchronized (misses) {
+                    misses.put(username, System.currentTimeMillis());
+                }
+                return chain;
+            }
+            synchronized (misses) {
+                misses.remove(username);
+            }
+            boolean stored = existing == null ?
+                    chains.putIfAbsent(username, chain) == null :
+                    chains.replace(username, existing, chain);
+            if (! stored)
+                return chain;
+            reverseLookup.put(chain.get(chain.size() - 1).owner, username);
+            usernames.add(username);
+            return chain;
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
         List<UserPublicKeyLink> chain = chains.get(username);
         if (chain != null)
             return CompletableFuture.completedFuture(chain);
+        synchronized (misses) {
+            Long missed = misses.get(username);
+            if (missed != null && System.currentTimeMillis() - missed < MISS_CACHE_MILLIS)
+                return CompletableFuture.completedFuture(Collections.emptyList());
+        }
 
-        update();
-        return CompletableFuture.completedFuture(chains.getOrDefault(username, Collections.emptyList()));
+        return CompletableFuture.completedFuture(lookupChain(username));
     }
 
     @Override
     public CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> chain) {
-        return writeTarget.updateChain(username, chain).thenApply(x -> this.update());
+        return writeTarget.updateChain(username, chain).thenApply(res -> {
+            lookupChain(username);
+            return res;
+        });
     }
 
     @Override
@@ -86,13 +167,15 @@ public class MirrorCoreNode implements CoreNode {
         String username = reverseLookup.get(key);
         if (username != null)
             return CompletableFuture.completedFuture(username);
+        // The champ is keyed by username, so catch up with the latest root. This is usually a small diff because
+        // we follow the changes in the background.
         update();
         return CompletableFuture.completedFuture(reverseLookup.get(key));
     }
 
     @Override
     public CompletableFuture<List<String>> getUsernames(String prefix) {
-        return CompletableFuture.completedFuture(usernames);
+        return CompletableFuture.completedFuture(IpfsCoreNode.getUsernames(usernames, prefix));
     }
 
     @Override
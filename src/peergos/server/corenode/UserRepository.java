@@ -66,23 +66,35 @@ public class UserRepository implements CoreNode, SocialNetwork, MutablePointers
 
     @Override
     public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner, byte[] signedTime) {
+        checkSignedTime(owner, signedTime, "getFollowRequests", ipfs);
+        return store.getFollowRequests(owner);
+    }
+
+    @Override
+    public CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, byte[] signedTime, long afterId, int maxCount) {
+        checkSignedTime(owner, signedTime, "getFollowRequests", ipfs);
+        return store.getFollowRequests(owner, afterId, Math.max(0, Math.min(maxCount, MAX_FOLLOW_REQUESTS_PER_PAGE)));
+    }
+
+    /** Check that a request is authorised by the owner signing the current time
+     */
+    public static void checkSignedTime(PublicKeyHash owner, byte[] signedTime, String call, ContentAddressedStorage ipfs) {
         try {
             Optional<PublicSigningKey> ownerOpt = ipfs.getSigningKey(owner).get();
             if (! ownerOpt.isPresent())
-                throw new IllegalStateException("Couldn't retrieve owner key during getFollowRequests() call!");
+                throw new IllegalStateException("Couldn't retrieve owner key during " + call + "() call!");
             byte[] raw = ownerOpt.get().unsignMessage(signedTime);
             CborObject cbor = CborObject.fromByteArray(raw);
             if (! (cbor instanceof CborObject.CborLong))
-                throw new IllegalStateException("Invalid cbor for getFollowRequests authorisation!");
+                throw new IllegalStateException("Invalid cbor for " + call + " authorisation!");
             long utcMillis = ((CborObject.CborLong) cbor).value;
             long now = System.currentTimeMillis();
             if (Math.abs(now - utcMillis) > 30_000)
-                throw new IllegalStateException("Stale auth in getFollowRequests, is this a replay attack?");
+                throw new IllegalStateException("Stale auth in " + call + ", is this a replay attack?");
             // This is a valid request
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
-        return store.getFollowRequests(owner);
     }
 
     @Override
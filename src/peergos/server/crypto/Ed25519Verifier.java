@@ -0,0 +1,579 @@
+package peergos.server.crypto;
+
+import java.math.*;
+import java.security.*;
+import java.util.*;
+import java.util.stream.*;
+
+/** A fast Ed25519 signature verifier for the server.
+ *
+ *  It agrees with TweetNaCl on every signature TweetNaCl produces, and additionally rejects signatures whose scalar s is
+ *  not reduced below the group order. TweetNaCl accepts those, but each is just a malleated copy of a valid signature
+ *  and no honest signer makes one. It uses radix 2^25.5 field arithmetic, a precomputed table of multiples of the base
+ *  point and a sliding window double scalar multiplication.
+ *  A decoded PublicKey holds the precomputed multiples of the key, so callers should cache it for keys they see often.
+ *  Verification is variable time, which is fine because all its inputs are public.
+ */
+public class Ed25519Verifier {
+    public static final int SIGNATURE_BYTES = 64;
+    public static final int PUBLIC_KEY_BYTES = 32;
+
+    private static final BigInteger ORDER = BigInteger.ONE.shiftLeft(252)
+            .add(new BigInteger("27742317777372353535851937790883648493"));
+    private static final int[] D = fromBigInteger(new BigInteger(
+            "37095705934669439343138083508754565189542113879843219016388785533085940283555"));
+    private static final int[] D2 = add(D, D);
+    private static final int[] SQRT_M1 = fromBigInteger(new BigInteger(
+            "19681161376707505956807079304988542015446066515923890162744021073123829784752"));
+    private static final int A_WINDOW_MAX = 15, B_WINDOW_MAX = 127;
+    // odd multiples of the base point: B, 3B, 5B, ... 127B
+    private static final Cached[] BASE_MULTIPLES;
+    private static final ThreadLocal<MessageDigest> SHA512 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    static {
+        byte[] encodedBase = new byte[32];
+        encodedBase[0] = 0x58;
+        for (int i = 1; i < 32; i++)
+            encodedBase[i] = 0x66;
+        P3 negB = decodeNegated(encodedBase);
+        P3 base = new P3(neg(negB.X), negB.Y, negB.Z, neg(negB.T));
+        BASE_MULTIPLES = oddMultiples(base, (B_WINDOW_MAX + 1) / 2);
+    }
+
+    /** A decoded public key, with precomputed multiples of its negation
+     *
+     */
+    public static final class PublicKey {
+        private final byte[] encoded;
+        private final Cached[] negatedMultiples;
+
+        private PublicKey(byte[] encoded, Cached[] negatedMultiples) {
+            this.encoded = encoded;
+            this.negatedMultiples = negatedMultiples;
+        }
+    }
+
+    /**
+     *
+     * @param publicKey a 32 byte Ed25519 public key
+     * @return the decoded key, or empty if it isn't a valid point
+     */
+    public static Optional<PublicKey> decode(byte[] publicKey) {
+        if (publicKey.length != PUBLIC_KEY_BYTES)
+            return Optional.empty();
+        P3 negA = decodeNegated(publicKey);
+        if (negA == null)
+            return Optional.empty();
+        return Optional.of(new PublicKey(Arrays.copyOf(publicKey, PUBLIC_KEY_BYTES), oddMultiples(negA, (A_WINDOW_MAX + 1) / 2)));
+    }
+
+    /** Verify a detached signature
+     *
+     * @param key
+     * @param signature the 64 byte signature
+     * @param message
+     * @return whether the signature is valid
+     */
+    public static boolean verify(PublicKey key, byte[] signature, byte[] message) {
+        if (signature.length != SIGNATURE_BYTES)
+            return false;
+        byte[] sBytes = Arrays.copyOfRange(signature, 32, 64);
+        BigInteger s = new BigInteger(1, reverse(sBytes));
+        if (s.compareTo(ORDER) >= 0)
+            return false;
+
+        MessageDigest sha512 = SHA512.get();
+        sha512.reset();
+        sha512.update(signature, 0, 32);
+        sha512.update(key.encoded);
+        sha512.update(message);
+        BigInteger h = new BigInteger(1, reverse(sha512.digest())).mod(ORDER);
+
+        P2 r = doubleScalarMultiply(toScalar(h), key.negatedMultiples, sBytes);
+        byte[] encoded = encode(r);
+        int diff = 0;
+        for (int i = 0; i < 32; i++)
+            diff |= encoded[i] ^ signature[i];
+        return diff == 0;
+    }
+
+    /** Verify many detached signatures from the same key, in parallel
+     *
+     * @return whether every signature is valid
+     */
+    public static boolean verifyAll(PublicKey key, List<byte[]> signatures, List<byte[]> messages) {
+        if (signatures.size() != messages.size())
+            return false;
+        if (signatures.size() == 1)
+            return verify(key, signatures.get(0), messages.get(0));
+        return IntStream.range(0, signatures.size())
+                .parallel()
+                .allMatch(i -> verify(key, signatures.get(i), messages.get(i)));
+    }
+
+    private static byte[] reverse(byte[] in) {
+        byte[] res = new byte[in.length];
+        for (int i = 0; i < in.length; i++)
+            res[i] = in[in.length - 1 - i];
+        return res;
+    }
+
+    /**
+     *
+     * @return the 32 byte little endian encoding of a reduced scalar
+     */
+    private static byte[] toScalar(BigInteger x) {
+        byte[] bigEndian = x.toByteArray();
+        byte[] res = new byte[32];
+        for (int i = 0; i < Math.min(32, bigEndian.length); i++)
+            res[i] = bigEndian[bigEndian.length - 1 - i];
+        return res;
+    }
+
+    /* Group elements, in the representations of the ref10 implementation */
+
+    private static final class P2 {
+        final int[] X, Y, Z;
+
+        P2(int[] X, int[] Y, int[] Z) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+        }
+    }
+
+    private static final class P3 {
+        final int[] X, Y, Z, T;
+
+        P3(int[] X, int[] Y, int[] Z, int[] T) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+            this.T = T;
+        }
+    }
+
+    private static final class Completed {
+        final int[] X, Y, Z, T;
+
+        Completed(int[] X, int[] Y, int[] Z, int[] T) {
+            this.X = X;
+            this.Y = Y;
+            this.Z = Z;
+            this.T = T;
+        }
+
+        P2 toP2() {
+            return new P2(mul(X, T), mul(Y, Z), mul(Z, T));
+        }
+
+        P3 toP3() {
+            return new P3(mul(X, T), mul(Y, Z), mul(Z, T), mul(X, Y));
+        }
+    }
+
+    private static final class Cached {
+        final int[] YplusX, YminusX, Z, T2d;
+
+        Cached(P3 p) {
+            this.YplusX = add(p.Y, p.X);
+            this.YminusX = sub(p.Y, p.X);
+            this.Z = p.Z;
+            this.T2d = mul(p.T, D2);
+        }
+    }
+
+    private static Completed dbl(P2 p) {
+        int[] XX = sq(p.X);
+        int[] YY = sq(p.Y);
+        int[] ZZ2 = sq(p.Z);
+        ZZ2 = add(ZZ2, ZZ2);
+        int[] XplusY = add(p.X, p.Y);
+        int[] t0 = sq(XplusY);
+        int[] Y = add(YY, XX);
+        int[] Z = sub(YY, XX);
+        int[] X = sub(t0, Y);
+        int[] T = sub(ZZ2, Z);
+        return new Completed(X, Y, Z, T);
+    }
+
+    private static Completed add(P3 p, Cached q) {
+        int[] a = mul(add(p.Y, p.X), q.YplusX);
+        int[] b = mul(sub(p.Y, p.X), q.YminusX);
+        int[] c = mul(q.T2d, p.T);
+        int[] zz = mul(p.Z, q.Z);
+        int[] d = add(zz, zz);
+        return new Completed(sub(a, b), add(a, b), add(d, c), sub(d, c));
+    }
+
+    private static Completed sub(P3 p, Cached q) {
+        int[] a = mul(add(p.Y, p.X), q.YminusX);
+        int[] b = mul(sub(p.Y, p.X), q.YplusX);
+        int[] c = mul(q.T2d, p.T);
+        int[] zz = mul(p.Z, q.Z);
+        int[] d = add(zz, zz);
+        return new Completed(sub(a, b), add(a, b), sub(d, c), add(d, c));
+    }
+
+    /**
+     *
+     * @return P, 3P, 5P, ...
+     */
+    private static Cached[] oddMultiples(P3 p, int count) {
+        Cached[] res = new Cached[count];
+        res[0] = new Cached(p);
+        P3 p2 = dbl(new P2(p.X, p.Y, p.Z)).toP3();
+        P3 current = p;
+        for (int i = 1; i < count; i++) {
+            current = add(p2, res[i - 1]).toP3();
+            res[i] = new Cached(current);
+        }
+        return res;
+    }
+
+    /** Compute a * negA + b * B, where negatedMultiples are the odd multiples of negA
+     *
+     */
+    private static P2 doubleScalarMultiply(byte[] a, Cached[] negatedMultiples, byte[] b) {
+        byte[] aSlide = slide(a, A_WINDOW_MAX);
+        byte[] bSlide = slide(b, B_WINDOW_MAX);
+        P2 r = new P2(zero(), one(), one());
+        int i = 255;
+        while (i >= 0 && aSlide[i] == 0 && bSlide[i] == 0)
+            i--;
+        for (; i >= 0; i--) {
+            Completed t = dbl(r);
+            if (aSlide[i] > 0)
+                t = add(t.toP3(), negatedMultiples[aSlide[i] / 2]);
+            else if (aSlide[i] < 0)
+                t = sub(t.toP3(), negatedMultiples[-aSlide[i] / 2]);
+            if (bSlide[i] > 0)
+                t = add(t.toP3(), BASE_MULTIPLES[bSlide[i] / 2]);
+            else if (bSlide[i] < 0)
+                t = sub(t.toP3(), BASE_MULTIPLES[-bSlide[i] / 2]);
+            r = t.toP2();
+        }
+        return r;
+    }
+
+    /** Convert a scalar to signed odd digits of absolute value at most max, with runs of zeros between them
+     *
+     */
+    private static byte[] slide(byte[] a, int max) {
+        byte[] r = new byte[256];
+        for (int i = 0; i < 256; i++)
+            r[i] = (byte) (1 & (a[i >> 3] >> (i & 7)));
+        for (int i = 0; i < 256; i++) {
+            if (r[i] == 0)
+                continue;
+            for (int b = 1; b <= 8 && i + b < 256; b++) {
+                if (r[i + b] == 0)
+                    continue;
+                if (r[i] + (r[i + b] << b) <= max) {
+                    r[i] += r[i + b] << b;
+                    r[i + b] = 0;
+                } else if (r[i] - (r[i + b] << b) >= -max) {
+                    r[i] -= r[i + b] << b;
+                    for (int k = i + b; k < 256; k++) {
+                        if (r[k] == 0) {
+                            r[k] = 1;
+                            break;
+                        }
+                        r[k] = 0;
+                    }
+                } else
+                    break;
+            }
+        }
+        return r;
+    }
+
+    /**
+     *
+     * @return the negation of the encoded point, or null if the encoding isn't a point on the curve
+     */
+    private static P3 decodeNegated(byte[] s) {
+        int[] Y = fromBytes(s);
+        int[] Z = one();
+        int[] u = sq(Y);
+        int[] v = mul(u, D);
+        u = sub(u, Z);       // u = y^2 - 1
+        v = add(v, Z);       // v = d y^2 + 1
+        int[] v3 = mul(sq(v), v);
+        int[] X = mul(mul(sq(v3), v), u); // u v^7
+        X = pow22523(X);
+        X = mul(mul(X, v3), u);            // u v^3 (u v^7)^((q - 5) / 8)
+
+        int[] vxx = mul(sq(X), v);
+        if (isNonZero(sub(vxx, u))) {
+            if (isNonZero(add(vxx, u)))
+                return null;
+            X = mul(X, SQRT_M1);
+        }
+        if (isNegative(X) == ((s[31] >> 7) & 1))
+            X = neg(X);
+        return new P3(X, Y, Z, mul(X, Y));
+    }
+
+    private static byte[] encode(P2 p) {
+        int[] recip = invert(p.Z);
+        int[] x = mul(p.X, recip);
+        int[] y = mul(p.Y, recip);
+        byte[] s = toBytes(y);
+        s[31] ^= isNegative(x) << 7;
+        return s;
+    }
+
+    /* Field elements mod 2^255 - 19, as 10 signed limbs of alternately 26 and 25 bits */
+
+    private static int[] zero() {
+        return new int[10];
+    }
+
+    private static int[] one() {
+        int[] res = new int[10];
+        res[0] = 1;
+        return res;
+    }
+
+    private static int[] fromBigInteger(BigInteger x) {
+        byte[] bigEndian = x.toByteArray();
+        byte[] res = new byte[32];
+        for (int i = 0; i < Math.min(32, bigEndian.length); i++)
+            res[i] = bigEndian[bigEndian.length - 1 - i];
+        return fromBytes(res);
+    }
+
+    private static int[] add(int[] f, int[] g) {
+        int[] h = new int[10];
+        for (int i = 0; i < 10; i++)
+            h[i] = f[i] + g[i];
+        return h;
+    }
+
+    private static int[] sub(int[] f, int[] g) {
+        int[] h = new int[10];
+        for (int i = 0; i < 10; i++)
+            h[i] = f[i] - g[i];
+        return h;
+    }
+
+    private static int[] neg(int[] f) {
+        int[] h = new int[10];
+        for (int i = 0; i < 10; i++)
+            h[i] = -f[i];
+        return h;
+    }
+
+    private static int[] sq(int[] f) {
+        return mul(f, f);
+    }
+
+    private static int[] sqTimes(int[] f, int n) {
+        int[] res = f;
+        for (int i = 0; i < n; i++)
+            res = sq(res);
+        return res;
+    }
+
+    private static int[] mul(int[] f, int[] g) {
+        long f0 = f[0], f1 = f[1], f2 = f[2], f3 = f[3], f4 = f[4], f5 = f[5], f6 = f[6], f7 = f[7], f8 = f[8], f9 = f[9];
+        long g0 = g[0], g1 = g[1], g2 = g[2], g3 = g[3], g4 = g[4], g5 = g[5], g6 = g[6], g7 = g[7], g8 = g[8], g9 = g[9];
+        long g1_19 = 19 * g1, g2_19 = 19 * g2, g3_19 = 19 * g3, g4_19 = 19 * g4, g5_19 = 19 * g5, g6_19 = 19 * g6, g7_19 = 19 * g7, g8_19 = 19 * g8, g9_19 = 19 * g9;
+        long f1_2 = 2 * f1, f3_2 = 2 * f3, f5_2 = 2 * f5, f7_2 = 2 * f7, f9_2 = 2 * f9;
+        long h0 = f0 * g0 + f1_2 * g9_19 + f2 * g8_19 + f3_2 * g7_19 + f4 * g6_19 + f5_2 * g5_19 + f6 * g4_19 + f7_2 * g3_19 + f8 * g2_19 + f9_2 * g1_19;
+        long h1 = f0 * g1 + f1 * g0 + f2 * g9_19 + f3 * g8_19 + f4 * g7_19 + f5 * g6_19 + f6 * g5_19 + f7 * g4_19 + f8 * g3_19 + f9 * g2_19;
+        long h2 = f0 * g2 + f1_2 * g1 + f2 * g0 + f3_2 * g9_19 + f4 * g8_19 + f5_2 * g7_19 + f6 * g6_19 + f7_2 * g5_19 + f8 * g4_19 + f9_2 * g3_19;
+        long h3 = f0 * g3 + f1 * g2 + f2 * g1 + f3 * g0 + f4 * g9_19 + f5 * g8_19 + f6 * g7_19 + f7 * g6_19 + f8 * g5_19 + f9 * g4_19;
+        long h4 = f0 * g4 + f1_2 * g3 + f2 * g2 + f3_2 * g1 + f4 * g0 + f5_2 * g9_19 + f6 * g8_19 + f7_2 * g7_19 + f8 * g6_19 + f9_2 * g5_19;
+        long h5 = f0 * g5 + f1 * g4 + f2 * g3 + f3 * g2 + f4 * g1 + f5 * g0 + f6 * g9_19 + f7 * g8_19 + f8 * g7_19 + f9 * g6_19;
+        long h6 = f0 * g6 + f1_2 * g5 + f2 * g4 + f3_2 * g3 + f4 * g2 + f5_2 * g1 + f6 * g0 + f7_2 * g9_19 + f8 * g8_19 + f9_2 * g7_19;
+        long h7 = f0 * g7 + f1 * g6 + f2 * g5 + f3 * g4 + f4 * g3 + f5 * g2 + f6 * g1 + f7 * g0 + f8 * g9_19 + f9 * g8_19;
+        long h8 = f0 * g8 + f1_2 * g7 + f2 * g6 + f3_2 * g5 + f4 * g4 + f5_2 * g3 + f6 * g2 + f7_2 * g1 + f8 * g0 + f9_2 * g9_19;
+        long h9 = f0 * g9 + f1 * g8 + f2 * g7 + f3 * g6 + f4 * g5 + f5 * g4 + f6 * g3 + f7 * g2 + f8 * g1 + f9 * g0;
+        long c0 = (h0 + (1L << 25)) >> 26; h1 += c0; h0 -= c0 << 26;
+        long c4 = (h4 + (1L << 25)) >> 26; h5 += c4; h4 -= c4 << 26;
+        long c1 = (h1 + (1L << 24)) >> 25; h2 += c1; h1 -= c1 << 25;
+        long c5 = (h5 + (1L << 24)) >> 25; h6 += c5; h5 -= c5 << 25;
+        long c2 = (h2 + (1L << 25)) >> 26; h3 += c2; h2 -= c2 << 26;
+        long c6 = (h6 + (1L << 25)) >> 26; h7 += c6; h6 -= c6 << 26;
+        long c3 = (h3 + (1L << 24)) >> 25; h4 += c3; h3 -= c3 << 25;
+        long c7 = (h7 + (1L << 24)) >> 25; h8 += c7; h7 -= c7 << 25;
+        c4 = (h4 + (1L << 25)) >> 26; h5 += c4; h4 -= c4 << 26;
+        long c8 = (h8 + (1L << 25)) >> 26; h9 += c8; h8 -= c8 << 26;
+        long c9 = (h9 + (1L << 24)) >> 25; h0 += c9 * 19; h9 -= c9 << 25;
+        c0 = (h0 + (1L << 25)) >> 26; h1 += c0; h0 -= c0 << 26;
+        return new int[] {(int) h0, (int) h1, (int) h2, (int) h3, (int) h4, (int) h5, (int) h6, (int) h7, (int) h8, (int) h9};
+    }
+
+    private static int[] invert(int[] z) {
+        int[] t0 = sq(z);
+        int[] t1 = sqTimes(t0, 2);
+        t1 = mul(z, t1);
+        t0 = mul(t0, t1);
+        int[] t2 = sq(t0);
+        t1 = mul(t1, t2);
+        t2 = sqTimes(t1, 5);
+        t1 = mul(t2, t1);
+        t2 = sqTimes(t1, 10);
+        t2 = mul(t2, t1);
+        int[] t3 = sqTimes(t2, 20);
+        t2 = mul(t3, t2);
+        t2 = sqTimes(t2, 10);
+        t1 = mul(t2, t1);
+        t2 = sqTimes(t1, 50);
+        t2 = mul(t2, t1);
+        t3 = sqTimes(t2, 100);
+        t2 = mul(t3, t2);
+        t2 = sqTimes(t2, 50);
+        t1 = mul(t2, t1);
+        t1 = sqTimes(t1, 5);
+        return mul(t1, t0);
+    }
+
+    /**
+     *
+     * @return z^((q - 5) / 8)
+     */
+    private static int[] pow22523(int[] z) {
+        int[] t0 = sq(z);
+        int[] t1 = sqTimes(t0, 2);
+        t1 = mul(z, t1);
+        t0 = mul(t0, t1);
+        t0 = sq(t0);
+        t0 = mul(t1, t0);
+        t1 = sqTimes(t0, 5);
+        t0 = mul(t1, t0);
+        t1 = sqTimes(t0, 10);
+        t1 = mul(t1, t0);
+        int[] t2 = sqTimes(t1, 20);
+        t1 = mul(t2, t1);
+        t1 = sqTimes(t1, 10);
+        t0 = mul(t1, t0);
+        t1 = sqTimes(t0, 50);
+        t1 = mul(t1, t0);
+        t2 = sqTimes(t1, 100);
+        t1 = mul(t2, t1);
+        t1 = sqTimes(t1, 50);
+        t0 = mul(t1, t0);
+        t0 = sqTimes(t0, 2);
+        return mul(t0, z);
+    }
+
+    private static boolean isNonZero(int[] f) {
+        byte[] s = toBytes(f);
+        int res = 0;
+        for (byte b : s)
+            res |= b;
+        return res != 0;
+    }
+
+    private static int isNegative(int[] f) {
+        return toBytes(f)[0] & 1;
+    }
+
+    private static long load3(byte[] in, int off) {
+        return (in[off] & 0xffL) | ((in[off + 1] & 0xffL) << 8) | ((in[off + 2] & 0xffL) << 16);
+    }
+
+    private static long load4(byte[] in, int off) {
+        return load3(in, off) | ((in[off + 3] & 0xffL) << 24);
+    }
+
+    private static int[] fromBytes(byte[] s) {
+        long h0 = load4(s, 0);
+        long h1 = load3(s, 4) << 6;
+        long h2 = load3(s, 7) << 5;
+        long h3 = load3(s, 10) << 3;
+        long h4 = load3(s, 13) << 2;
+        long h5 = load4(s, 16);
+        long h6 = load3(s, 20) << 7;
+        long h7 = load3(s, 23) << 5;
+        long h8 = load3(s, 26) << 4;
+        long h9 = (load3(s, 29) & 0x7fffff) << 2;
+
+        long c9 = (h9 + (1L << 24)) >> 25; h0 += c9 * 19; h9 -= c9 << 25;
+        long c1 = (h1 + (1L << 24)) >> 25; h2 += c1; h1 -= c1 << 25;
+        long c3 = (h3 + (1L << 24)) >> 25; h4 += c3; h3 -= c3 << 25;
+        long c5 = (h5 + (1L << 24)) >> 25; h6 += c5; h5 -= c5 << 25;
+        long c7 = (h7 + (1L << 24)) >> 25; h8 += c7; h7 -= c7 << 25;
+        long c0 = (h0 + (1L << 25)) >> 26; h1 += c0; h0 -= c0 << 26;
+        long c2 = (h2 + (1L << 25)) >> 26; h3 += c2; h2 -= c2 << 26;
+        long c4 = (h4 + (1L << 25)) >> 26; h5 += c4; h4 -= c4 << 26;
+        long c6 = (h6 + (1L << 25)) >> 26; h7 += c6; h6 -= c6 << 26;
+        long c8 = (h8 + (1L << 25)) >> 26; h9 += c8; h8 -= c8 << 26;
+        return new int[] {(int) h0, (int) h1, (int) h2, (int) h3, (int) h4, (int) h5, (int) h6, (int) h7, (int) h8, (int) h9};
+    }
+
+    /**
+     *
+     * @return the canonical little endian encoding
+     */
+    private static byte[] toBytes(int[] h) {
+        int h0 = h[0], h1 = h[1], h2 = h[2], h3 = h[3], h4 = h[4], h5 = h[5], h6 = h[6], h7 = h[7], h8 = h[8], h9 = h[9];
+        int q = (19 * h9 + (1 << 24)) >> 25;
+        q = (h0 + q) >> 26;
+        q = (h1 + q) >> 25;
+        q = (h2 + q) >> 26;
+        q = (h3 + q) >> 25;
+        q = (h4 + q) >> 26;
+        q = (h5 + q) >> 25;
+        q = (h6 + q) >> 26;
+        q = (h7 + q) >> 25;
+        q = (h8 + q) >> 26;
+        q = (h9 + q) >> 25;
+        // h - q * p is now in [0, p)
+        h0 += 19 * q;
+        int c;
+        c = h0 >> 26; h1 += c; h0 -= c << 26;
+        c = h1 >> 25; h2 += c; h1 -= c << 25;
+        c = h2 >> 26; h3 += c; h2 -= c << 26;
+        c = h3 >> 25; h4 += c; h3 -= c << 25;
+        c = h4 >> 26; h5 += c; h4 -= c << 26;
+        c = h5 >> 25; h6 += c; h5 -= c << 25;
+        c = h6 >> 26; h7 += c; h6 -= c << 26;
+        c = h7 >> 25; h8 += c; h7 -= c << 25;
+        c = h8 >> 26; h9 += c; h8 -= c << 26;
+        c = h9 >> 25; h9 -= c << 25;
+
+        byte[] s = new byte[32];
+        s[0] = (byte) h0;
+        s[1] = (byte) (h0 >> 8);
+        s[2] = (byte) (h0 >> 16);
+        s[3] = (byte) ((h0 >> 24) | (h1 << 2));
+        s[4] = (byte) (h1 >> 6);
+        s[5] = (byte) (h1 >> 14);
+        s[6] = (byte) ((h1 >> 22) | (h2 << 3));
+        s[7] = (byte) (h2 >> 5);
+        s[8] = (byte) (h2 >> 13);
+        s[9] = (byte) ((h2 >> 21) | (h3 << 5));
+        s[10] = (byte) (h3 >> 3);
+        s[11] = (byte) (h3 >> 11);
+        s[12] = (byte) ((h3 >> 19) | (h4 << 6));
+        s[13] = (byte) (h4 >> 2);
+        s[14] = (byte) (h4 >> 10);
+        s[15] = (byte) (h4 >> 18);
+        s[16] = (byte) h5;
+        s[17] = (byte) (h5 >> 8);
+        s[18] = (byte) (h5 >> 16);
+        s[19] = (byte) ((h5 >> 24) | (h6 << 1));
+        s[20] = (byte) (h6 >> 7);
+        s[21] = (byte) (h6 >> 15);
+        s[22] = (byte) ((h6 >> 23) | (h7 << 3));
+        s[23] = (byte) (h7 >> 5);
+        s[24] = (byte) (h7 >> 13);
+        s[25] = (byte) ((h7 >> 21) | (h8 << 4));
+        s[26] = (byte) (h8 >> 4);
+        s[27] = (byte) (h8 >> 12);
+        s[28] = (byte) ((h8 >> 20) | (h9 << 6));
+        s[29] = (byte) (h9 >> 2);
+        s[30] = (byte) (h9 >> 10);
+        s[31] = (byte) (h9 >> 18);
+        return s;
+    }
+}
@@ -0,0 +1,22 @@
+package peergos.server.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/** A monotonically increasing count, which can be incremented from many threads without contention
+ */
+public class Counter {
+
+    private final LongAdder value = new LongAdder();
+
+    public void inc() {
+        value.increment();
+    }
+
+    public void add(long n) {
+        value.add(n);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
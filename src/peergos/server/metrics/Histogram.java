@@ -0,0 +1,80 @@
+package peergos.server.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/** A lock free histogram of latencies, recorded in microseconds.
+ *
+ *  Like an HDR histogram, each power of two is split into SUB_BUCKETS linear buckets, so any quantile is accurate to
+ *  within 1/SUB_BUCKETS of its value with a fixed amount of memory.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     *
+     * @param bucket
+     * @return the largest value in the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1L) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public void recordMicros(long micros) {
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        sum.add(Math.max(0, micros));
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumMicros() {
+        return sum.sum();
+    }
+
+    /**
+     *
+     * @param quantile between 0 and 1
+     * @return an upper bound on the given quantile of the recorded values, in microseconds
+     */
+    public long getQuantileMicros(double quantile) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i=0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i=0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBound(i);
+        }
+        return upperBound(snapshot.length - 1);
+    }
+}
@@ -0,0 +1,57 @@
+package peergos.server.metrics;
+
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.hash.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Records the latency and failures of each call to a CoreNode
+ */
+public class MeasuredCoreNode implements CoreNode {
+
+    private final CoreNode target;
+    private final Timer getChain, updateChain, getUsername, getUsernames, getPublicKeyHash;
+
+    public MeasuredCoreNode(CoreNode target, Metrics metrics) {
+        this.target = target;
+        String name = "peergos_pki";
+        String help = "PKI call latency";
+        this.getChain = new Timer(metrics, name, help, "op", "getChain");
+        this.updateChain = new Timer(metrics, name, help, "op", "updateChain");
+        this.getUsername = new Timer(metrics, name, help, "op", "getUsername");
+        this.getUsernames = new Timer(metrics, name, help, "op", "getUsernames");
+        this.getPublicKeyHash = new Timer(metrics, name, help, "op", "getPublicKeyHash");
+    }
+
+    @Override
+    public CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
+        return getChain.time(() -> target.getChain(username));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> chain) {
+        return updateChain.time(() -> target.updateChain(username, chain));
+    }
+
+    @Override
+    public CompletableFuture<String> getUsername(PublicKeyHash key) {
+        return getUsername.time(() -> target.getUsername(key));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getUsernames(String prefix) {
+        return getUsernames.time(() -> target.getUsernames(prefix));
+    }
+
+    @Override
+    public CompletableFuture<Optional<PublicKeyHash>> getPublicKeyHash(String username) {
+        return getPublicKeyHash.time(() -> target.getPublicKeyHash(username));
+    }
+
+    @Override
+    public void close() throws IOException {
+        target.close();
+    }
+}
@@ -0,0 +1,45 @@
+package peergos.server.metrics;
+
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Records the latency and failures of each call to a MutablePointers
+ */
+public class MeasuredPointers implements MutablePointers {
+
+    private final MutablePointers target;
+    private final Timer setPointer, getPointer, getPointers, getChanges;
+
+    public MeasuredPointers(MutablePointers target, Metrics metrics) {
+        this.target = target;
+        String name = "peergos_mutable";
+        String help = "Mutable pointer call latency";
+        this.setPointer = new Timer(metrics, name, help, "op", "setPointer");
+        this.getPointer = new Timer(metrics, name, help, "op", "getPointer");
+        this.getPointers = new Timer(metrics, name, help, "op", "getPointers");
+        this.getChanges = new Timer(metrics, name, help, "op", "getChanges");
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
+        return setPointer.time(() -> target.setPointer(owner, writer, writerSignedBtreeRootHash));
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+        return getPointer.time(() -> target.getPointer(owner, writer));
+    }
+
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(PublicKeyHash owner, List<PublicKeyHash> writers) {
+        return getPointers.time(() -> target.getPointers(owner, writers));
+    }
+
+    @Override
+    public CompletableFuture<PointerChanges> getChanges(long since, int maxWaitMillis) {
+        return getChanges.time(() -> target.getChanges(since, maxWaitMillis));
+    }
+}
@@ -0,0 +1,147 @@
+package peergos.server.metrics;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Records the latency, failures and bytes transferred of each call to a ContentAddressedStorage
+ */
+public class MeasuredStorage implements ContentAddressedStorage {
+
+    private final ContentAddressedStorage target;
+    private final Timer get, getRaw, put, putRaw, putHashed, pinUpdate, recursivePin, recursiveUnpin, getLinks, getSize;
+    private final Counter bytesIn, bytesOut;
+
+    /**
+     *
+     * @param target
+     * @param layer distinguishes the different storage layers of a server
+     * @param metrics
+     */
+    public MeasuredStorage(ContentAddressedStorage target, String layer, Metrics metrics) {
+        this.target = target;
+        String name = "peergos_storage";
+        String help = "Storage call latency";
+        this.get = new Timer(metrics, name, help, "layer", layer, "op", "get");
+        this.getRaw = new Timer(metrics, name, help, "layer", layer, "op", "getRaw");
+        this.put = new Timer(metrics, name, help, "layer", layer, "op", "put");
+        this.putRaw = new Timer(metrics, name, help, "layer", layer, "op", "putRaw");
+        this.putHashed = new Timer(metrics, name, help, "layer", layer, "op", "putHashed");
+        this.pinUpdate = new Timer(metrics, name, help, "layer", layer, "op", "pinUpdate");
+        this.recursivePin = new Timer(metrics, name, help, "layer", layer, "op", "recursivePin");
+        this.recursiveUnpin = new Timer(metrics, name, help, "layer", layer, "op", "recursiveUnpin");
+        this.getLinks = new Timer(metrics, name, help, "layer", layer, "op", "getLinks");
+        this.getSize = new Timer(metrics, name, help, "layer", layer, "op", "getSize");
+        this.bytesIn = metrics.counter("peergos_storage_bytes_in_total", "Bytes of blocks written", "layer", layer);
+        this.bytesOut = metrics.counter("peergos_storage_bytes_out_total", "Bytes of blocks read", "layer", layer);
+    }
+
+    /**
+     *
+     * @return the number of block reads, whether found or not
+     */
+    public long getReads() {
+        return get.getCount() + getRaw.getCount();
+    }
+
+    private void written(List<byte[]> blocks) {
+        for (byte[] block : blocks)
+            bytesIn.add(block.length);
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return target.id();
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return target.startTransaction(owner);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        return target.closeTransaction(owner, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
+                                                  PublicKeyHash writer,
+                                                  List<byte[]> signatures,
+                                                  List<byte[]> blocks,
+                                                  TransactionId tid) {
+        written(blocks);
+        return put.time(() -> target.put(owner, writer, signatures, blocks, tid));
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        if (hash instanceof Cid && ((Cid) hash).codec == Cid.Codec.Raw)
+            throw new IllegalStateException("Need to call getRaw if cid is not cbor!");
+        // read the raw block so we can count its size without re-serialising it
+        return get.time(() -> target.getRaw(hash)).thenApply(res -> {
+            res.ifPresent(raw -> bytesOut.add(raw.length));
+            return res.map(CborObject::fromByteArray);
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner,
+                                                     PublicKeyHash writer,
+                                                     List<byte[]> signatures,
+                                                     List<byte[]> blocks,
+                                                     TransactionId tid) {
+        written(blocks);
+        return putRaw.time(() -> target.putRaw(owner, writer, signatures, blocks, tid));
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        written(blocks);
+        return putHashed.time(() -> target.putHashed(owner, writer, signatures, blocks, hashes, tid));
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        return getRaw.time(() -> target.getRaw(hash)).thenApply(res -> {
+            res.ifPresent(raw -> bytesOut.add(raw.length));
+            return res;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+        return pinUpdate.time(() -> target.pinUpdate(owner, existing, updated));
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+        return recursivePin.time(() -> target.recursivePin(owner, h));
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+        return recursiveUnpin.time(() -> target.recursiveUnpin(owner, h));
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+        return getLinks.time(() -> target.getLinks(root));
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+        return getSize.time(() -> target.getSize(block));
+    }
+}
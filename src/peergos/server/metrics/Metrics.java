@@ -0,0 +1,152 @@
+package peergos.server.metrics;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** A registry of named counters, gauges and latency histograms, which can be exported in the Prometheus text format.
+ *
+ *  Each metric is identified by its name and label values, and the same metric is returned for the same name and
+ *  labels, so callers should look up their metrics once and then record to them without any further locking.
+ */
+public class Metrics {
+
+    public static final Metrics DEFAULT = new Metrics();
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private enum Type {
+        counter, gauge, summary
+    }
+
+    private static class Gauge {
+        public final Supplier<? extends Number> value;
+
+        public Gauge(Supplier<? extends Number> value) {
+            this.value = value;
+        }
+    }
+
+    private static class Family {
+        public final String name, help;
+        public final Type type;
+        // label string to metric
+        public final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+        public Family(String name, String help, Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     *
+     * @param name
+     * @param help
+     * @param labels alternating label names and values
+     * @return
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) getOrCreate(name, help, Type.counter, labels, Counter::new);
+    }
+
+    /**
+     *
+     * @param name which should end in _seconds, as latencies are exported in seconds
+     * @param help
+     * @param labels alternating label names and values
+     * @return
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) getOrCreate(name, help, Type.summary, labels, Histogram::new);
+    }
+
+    /** Register a value which is read whenever the metrics are exported, replacing any existing one
+     *
+     * @param name
+     * @param help
+     * @param value
+     * @param labels alternating label names and values
+     */
+    public void gauge(String name, String help, Supplier<? extends Number> value, String... labels) {
+        family(name, help, Type.gauge).metrics.put(labelString(labels), new Gauge(value));
+    }
+
+    private Family family(String name, String help, Type type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (family.type != type)
+            throw new IllegalStateException("Metric " + name + " is already registered as a " + family.type);
+        return family;
+    }
+
+    private Object getOrCreate(String name, String help, Type type, String[] labels, Supplier<Object> create) {
+        return family(name, help, type).metrics.computeIfAbsent(labelString(labels), l -> create.get());
+    }
+
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name value pairs");
+        StringBuilder res = new StringBuilder();
+        for (int i=0; i < labels.length; i += 2) {
+            if (i > 0)
+                res.append(",");
+            res.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append("\"");
+        }
+        return res.toString();
+    }
+
+    private static String withLabels(String name, String labels, String extra) {
+        if (labels.isEmpty() && extra.isEmpty())
+            return name;
+        if (labels.isEmpty() || extra.isEmpty())
+            return name + "{" + labels + extra + "}";
+        return name + "{" + labels + "," + extra + "}";
+    }
+
+    /**
+     *
+     * @return all the metrics in the Prometheus text exposition format
+     */
+    public String export() {
+        StringBuilder res = new StringBuilder();
+        for (Family family : families.values()) {
+            res.append("# HELP ").append(family.name).append(" ").append(family.help).append("\n");
+            res.append("# TYPE ").append(family.name).append(" ").append(family.type).append("\n");
+            for (Map.Entry<String, Object> e : family.metrics.entrySet()) {
+                String labels = e.getKey();
+                Object metric = e.getValue();
+                switch (family.type) {
+                    case counter:
+                        res.append(withLabels(family.name, labels, "")).append(" ")
+                                .append(((Counter) metric).get()).append("\n");
+                        break;
+                    case gauge:
+                        Number value;
+                        try {
+                            value = ((Gauge) metric).value.get();
+                        } catch (Exception ex) {
+                            continue;
+                        }
+                        res.append(withLabels(family.name, labels, "")).append(" ").append(value).append("\n");
+                        break;
+                    case summary:
+                        Histogram histogram = (Histogram) metric;
+                        for (double quantile : QUANTILES)
+                            res.append(withLabels(family.name, labels, "quantile=\"" + quantile + "\"")).append(" ")
+                                    .append(histogram.getQuantileMicros(quantile) / 1_000_000.0).append("\n");
+                        res.append(withLabels(family.name + "_sum", labels, "")).append(" ")
+                                .append(histogram.getSumMicros() / 1_000_000.0).append("\n");
+                        res.append(withLabels(family.name + "_count", labels, "")).append(" ")
+                                .append(histogram.getCount()).append("\n");
+                        break;
+                }
+            }
+        }
+        return res.toString();
+    }
+}
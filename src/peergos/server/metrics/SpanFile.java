@@ -0,0 +1,79 @@
+package peergos.server.metrics;
+
+import peergos.server.util.Logging;
+import peergos.shared.util.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/** Appends spans to a local file, one JSON object per line, so the critical path of a trace can be reconstructed
+ *  offline, e.g. by grouping lines on their trace id and sorting by start time.
+ *
+ *  Spans are written by a background thread so recording never blocks on the disk. If the writer falls behind by more
+ *  than MAX_QUEUED spans, further spans are dropped and counted rather than slowing down requests.
+ */
+public class SpanFile implements Tracer, AutoCloseable {
+    private static final Logger LOG = Logging.LOG();
+    public static final int MAX_QUEUED = 100_000;
+    private static final String END = "";
+
+    private final Path file;
+    private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private final Counter dropped;
+    private final Thread writer;
+
+    public SpanFile(Path file, Metrics metrics) throws IOException {
+        this.file = file;
+        this.dropped = metrics.counter("peergos_trace_spans_dropped_total", "Spans not written because the span file fell behind");
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null)
+            Files.createDirectories(parent);
+        Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        this.writer = new Thread(() -> write(out), "Span writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void write(Writer out) {
+        try {
+            while (true) {
+                String line = queue.take();
+                if (line.isEmpty())
+                    break;
+                out.write(line);
+                // only flush once we have caught up
+                if (queue.isEmpty())
+                    out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Stopped writing spans to " + file, e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    @Override
+    public void record(String traceId, String span, long startMillis, long durationMillis, boolean failed) {
+        String line = "{\"trace\":\"" + traceId + "\",\"span\":\"" + span + "\",\"start\":" + startMillis +
+                ",\"millis\":" + durationMillis + (failed ? ",\"error\":true" : "") + "}\n";
+        if (! queue.offer(line))
+            dropped.inc();
+    }
+
+    /** Write any queued spans and close the file
+     */
+    @Override
+    public void close() throws InterruptedException {
+        queue.put(END);
+        writer.join();
+    }
+}
@@ -0,0 +1,50 @@
+package peergos.server.metrics;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Records the latency and failures of one kind of asynchronous call
+ */
+public class Timer {
+
+    private final Histogram latency;
+    private final Counter errors;
+
+    /**
+     *
+     * @param metrics
+     * @param name the prefix of the latency (_seconds) and failure count (_errors_total) metrics
+     * @param help
+     * @param labels alternating label names and values
+     */
+    public Timer(Metrics metrics, String name, String help, String... labels) {
+        this.latency = metrics.histogram(name + "_seconds", help, labels);
+        this.errors = metrics.counter(name + "_errors_total", "Failures of: " + help, labels);
+    }
+
+    public <T> CompletableFuture<T> time(Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> res;
+        try {
+            res = call.get();
+        } catch (RuntimeException e) {
+            latency.recordNanos(System.nanoTime() - start);
+            errors.inc();
+            throw e;
+        }
+        res.whenComplete((r, t) -> {
+            latency.recordNanos(System.nanoTime() - start);
+            if (t != null)
+                errors.inc();
+        });
+        return res;
+    }
+
+    public void recordNanos(long nanos) {
+        latency.recordNanos(nanos);
+    }
+
+    public long getCount() {
+        return latency.getCount();
+    }
+}
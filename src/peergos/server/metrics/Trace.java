@@ -0,0 +1,103 @@
+package peergos.server.metrics;
+
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** The trace of the request being handled by the current thread.
+ *
+ *  A trace is entered by the http handler thread and is visible to everything it calls synchronously. Code which
+ *  continues asynchronously must capture the current trace before returning its future.
+ */
+public final class Trace {
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+    private static final int MAX_ID_LENGTH = 64;
+
+    public static final Trace NONE = new Trace("", Tracer.NONE);
+
+    public final String id;
+    private final Tracer tracer;
+
+    public Trace(String id, Tracer tracer) {
+        this.id = id;
+        this.tracer = tracer;
+    }
+
+    public static Trace current() {
+        Trace current = CURRENT.get();
+        return current == null ? NONE : current;
+    }
+
+    /** Ids arrive from clients, so only short alphanumeric ones are accepted
+     *
+     * @param id
+     * @return
+     */
+    public static boolean isValidId(String id) {
+        if (id == null || id.isEmpty() || id.length() > MAX_ID_LENGTH)
+            return false;
+        for (char c : id.toCharArray())
+            if (! Character.isLetterOrDigit(c) && c != '-' && c != '_')
+                return false;
+        return true;
+    }
+
+    public static Trace fromHeader(String header, Tracer tracer) {
+        return new Trace(isValidId(header) ? header : Tracer.newTraceId(), tracer);
+    }
+
+    /** Make this the current trace of this thread until the returned scope is closed
+     *
+     * @return
+     */
+    public Scope enter() {
+        Trace previous = CURRENT.get();
+        CURRENT.set(this);
+        return new Scope(previous);
+    }
+
+    public static final class Scope implements AutoCloseable {
+        private final Trace previous;
+
+        private Scope(Trace previous) {
+            this.previous = previous;
+        }
+
+        @Override
+        public void close() {
+            if (previous == null)
+                CURRENT.remove();
+            else
+                CURRENT.set(previous);
+        }
+    }
+
+    public void record(String span, long startMillis, long durationMillis, boolean failed) {
+        tracer.record(id, span, startMillis, durationMillis, failed);
+    }
+
+    public <T> T span(String name, Supplier<T> work) {
+        if (this == NONE)
+            return work.get();
+        long start = System.currentTimeMillis();
+        boolean failed = true;
+        try {
+            T res = work.get();
+            failed = false;
+            return res;
+        } finally {
+            record(name, start, System.currentTimeMillis() - start, failed);
+        }
+    }
+
+    public <T> CompletableFuture<T> spanAsync(String name, Supplier<CompletableFuture<T>> work) {
+        return tracer.span(id, name, work);
+    }
+
+    public Optional<String> traceId() {
+        return this == NONE ? Optional.empty() : Optional.of(id);
+    }
+}
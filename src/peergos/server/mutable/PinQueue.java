@@ -0,0 +1,137 @@
+package peergos.server.mutable;
+
+import peergos.server.corenode.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.sql.*;
+import java.util.*;
+
+/** A persistent queue of the pins still to be done, with at most one entry per writer.
+ *
+ *  Each entry is the root currently pinned for a writer (if any) and the newest root which should replace it, so
+ *  successive updates to a writer that arrive before its pin has happened are coalesced into one pin update.
+ */
+public class PinQueue {
+
+    private static final String CREATE_PINS_TABLE =
+            "create table if not exists pins (writer text primary key not null, owner text not null, pinned text, target text not null);";
+
+    public static class Job {
+        public final PublicKeyHash owner, writer;
+        public final Optional<Multihash> pinned;
+        public final Multihash target;
+
+        public Job(PublicKeyHash owner, PublicKeyHash writer, Optional<Multihash> pinned, Multihash target) {
+            this.owner = owner;
+            this.writer = writer;
+            this.pinned = pinned;
+            this.target = target;
+        }
+
+        @Override
+        public String toString() {
+            return writer + ": " + pinned.map(Multihash::toString).orElse("none") + " -> " + target;
+        }
+    }
+
+    private final Connection conn;
+
+    public PinQueue(Connection conn) throws SQLException {
+        this.conn = conn;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(CREATE_PINS_TABLE);
+        }
+    }
+
+    public static PinQueue buildSqlLite(String dbPath) throws SQLException {
+        return new PinQueue(JDBCCoreNode.buildSqlLite(dbPath));
+    }
+
+    /** Queue the pinning of the updated root of a writer, which replaces the original root.
+     *
+     *  If the writer already has a pending pin, it is retargeted to the updated root.
+     */
+    public synchronized void add(PublicKeyHash owner, PublicKeyHash writer, Optional<Multihash> original, Multihash updated) {
+        try (PreparedStatement update = conn.prepareStatement("update pins set target = ? where writer = ?;")) {
+            update.setString(1, updated.toString());
+            update.setString(2, writer.toString());
+            if (update.executeUpdate() > 0)
+                return;
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+        try (PreparedStatement insert = conn.prepareStatement("insert into pins (writer, owner, pinned, target) values (?, ?, ?, ?);")) {
+            insert.setString(1, writer.toString());
+            insert.setString(2, owner.toString());
+            insert.setString(3, original.map(Multihash::toString).orElse(null));
+            insert.setString(4, updated.toString());
+            insert.executeUpdate();
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+
+    public synchronized Optional<Job> get(PublicKeyHash writer) {
+        try (PreparedStatement stmt = conn.prepareStatement("select owner, pinned, target from pins where writer = ?;")) {
+            stmt.setString(1, writer.toString());
+            ResultSet rs = stmt.executeQuery();
+            if (! rs.next())
+                return Optional.empty();
+            String pinned = rs.getString(2);
+            return Optional.of(new Job(PublicKeyHash.fromString(rs.getString(1)), writer,
+                    pinned == null ? Optional.empty() : Optional.of(Cid.decode(pinned)), Cid.decode(rs.getString(3))));
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+
+    public synchronized List<PublicKeyHash> getWriters() {
+        try (PreparedStatement stmt = conn.prepareStatement("select writer from pins;")) {
+            ResultSet rs = stmt.executeQuery();
+            List<PublicKeyHash> res = new ArrayList<>();
+            while (rs.next())
+                res.add(PublicKeyHash.fromString(rs.getString(1)));
+            return res;
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+
+    public synchronized int size() {
+        try (PreparedStatement stmt = conn.prepareStatement("select count(*) from pins;")) {
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+
+    /** Record that the target of a job is now pinned
+     *
+     * @param job
+     * @return whether the root the job replaced can be unpinned, which is not the case if the writer has since been
+     * reverted to it
+     */
+    public synchronized boolean completed(Job job) {
+        Optional<Job> current = get(job.writer);
+        try {
+            if (current.isPresent() && current.get().target.equals(job.target)) {
+                try (PreparedStatement delete = conn.prepareStatement("delete from pins where writer = ?;")) {
+                    delete.setString(1, job.writer.toString());
+                    delete.executeUpdate();
+                }
+                return true;
+            }
+            try (PreparedStatement update = conn.prepareStatement("update pins set pinned = ? where writer = ?;")) {
+                update.setString(1, job.target.toString());
+                update.setString(2, job.writer.toString());
+                update.executeUpdate();
+            }
+            return ! (current.isPresent() && job.pinned.isPresent() && current.get().target.equals(job.pinned.get()));
+        } catch (SQLException sqe) {
+            throw new IllegalStateException(sqe);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package peergos.server.mutable;
 import java.util.logging.*;
 
+import peergos.server.metrics.*;
 import peergos.server.util.Logging;
 
 import peergos.shared.cbor.*;
@@ -15,58 +16,158 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.*;
 
+/** Pins the tree of each writer as its pointer is updated.
+ *
+ *  A pointer update is acknowledged once its new root block is in storage and the pin is recorded in a persistent
+ *  queue. The pins themselves happen in the background, with at most maxConcurrentPins at once, and updates to a writer
+ *  which arrive before its last pin has happened are coalesced into a single pin update from the root which is pinned
+ *  to the newest root. Failed pins are retried with exponential backoff, including after a restart.
+ */
 public class PinningMutablePointers implements MutablePointers {
 	private static final Logger LOG = Logging.LOG();
     private static final boolean LOGGING = true;
+    public static final int DEFAULT_MAX_CONCURRENT_PINS = 4;
+    private static final long INITIAL_RETRY_MILLIS = 1_000;
+    private static final long MAX_RETRY_MILLIS = 10 * 60 * 1_000;
+    private static final Histogram PIN_UPDATE_LATENCY = Metrics.DEFAULT.histogram("peergos_pin_update_seconds",
+            "Time to pin a new root after updating its pointer");
+    private static final Histogram UNPIN_LATENCY = Metrics.DEFAULT.histogram("peergos_unpin_seconds",
+            "Time to unpin an old root after pinning its replacement");
+    private static final Counter PIN_FAILURES = Metrics.DEFAULT.counter("peergos_pin_failures_total",
+            "Pins which failed and will be retried");
+
     private final MutablePointers target;
     private final ContentAddressedStorage storage;
+    private final PinQueue queue;
+    private final ExecutorService pinners;
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "Pin retry scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+    // writers with a pinner working on, or waiting to retry, their queued pin
+    private final Set<PublicKeyHash> scheduled = ConcurrentHashMap.newKeySet();
+    private final Map<PublicKeyHash, Integer> failures = new ConcurrentHashMap<>();
+    // serialises the pointer update and queueing of its pin for each writer, so the queue sees updates in order
+    private final Map<PublicKeyHash, Object> writerLocks = new ConcurrentHashMap<>();
 
-    public PinningMutablePointers(MutablePointers target, ContentAddressedStorage storage) {
+    public PinningMutablePointers(MutablePointers target,
+                                  ContentAddressedStorage storage,
+                                  PinQueue queue,
+                                  int maxConcurrentPins) {
         this.target = target;
         this.storage = storage;
+        this.queue = queue;
+        this.pinners = Executors.newFixedThreadPool(maxConcurrentPins, r -> {
+            Thread t = new Thread(r, "Pinner");
+            t.setDaemon(true);
+            return t;
+        });
+        Metrics.DEFAULT.gauge("peergos_pins_queued", "Writers with a pin waiting to be done", queue::size);
+        // resume the pins which were queued before a restart
+        for (PublicKeyHash writer : queue.getWriters())
+            schedule(writer);
     }
 
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash signerHash, byte[] sharingKeySignedBtreeRootHashes) {
-        // first pin new root
+        Trace trace = Trace.current();
         return storage.getSigningKey(signerHash).thenCompose(signer -> {
             byte[] message = signer.get().unsignMessage(sharingKeySignedBtreeRootHashes);
             HashCasPair cas = HashCasPair.fromCbor(CborObject.fromByteArray(message));
-            long t1 = System.currentTimeMillis();
-            return (cas.original.isPresent() ? storage.pinUpdate(owner, cas.original.get(), cas.updated.get())
-                    .thenApply(PinningMutablePointers::convert) :
-                    storage.recursivePin(owner, cas.updated.get())).thenCompose(pins -> {
-                if (!pins.contains(cas.updated.get())) {
-                    CompletableFuture<Boolean> err = new CompletableFuture<>();
-                    err.completeExceptionally(new IllegalStateException("Couldn't pin new hash: " + cas.updated.get()));
-                    return err;
+            Multihash updated = cas.updated.get();
+            // the new root must be stored before anyone can see it
+            return trace.spanAsync("root_check", () -> storage.getSize(updated)).thenApply(size -> {
+                if (! size.isPresent())
+                    throw new IllegalStateException("New root is not stored: " + updated);
+                synchronized (writerLocks.computeIfAbsent(signerHash, w -> new Object())) {
+                    boolean success = target.setPointer(owner, signerHash, sharingKeySignedBtreeRootHashes).join();
+                    if (! success)
+                        throw new IllegalStateException("Couldn't update mutable pointer, cas failed: " + cas);
+                    trace.span("pin_enqueue", () -> {
+                        queue.add(owner, signerHash, cas.original.map(h -> h), updated);
+                        return true;
+                    });
                 }
-                long t2 = System.currentTimeMillis();
-                if (LOGGING)
-                    LOG.info("Tree:Pin update " + cas.updated + " took: " + (t2 - t1) + " mS");
-                return target.setPointer(owner, signerHash, sharingKeySignedBtreeRootHashes)
-                        .thenCompose(b -> {
-                            if (!b) {
-                                CompletableFuture<Boolean> err = new CompletableFuture<>();
-                                err.completeExceptionally(new IllegalStateException("Couldn't update mutable pointer, cas failed: " + cas));
-                                return err;
-                            }
-                            long t3 = System.currentTimeMillis();
-                            // unpin old root
-                            return !cas.original.isPresent() ?
-                                    CompletableFuture.completedFuture(true) :
-                                    storage.recursiveUnpin(owner, cas.original.get())
-                                            .thenApply(unpins -> {
-                                                long t4 = System.currentTimeMillis();
-                                                if (LOGGING)
-                                                    LOG.info("Unpinning " + cas.original + " took: " + (t4 - t3) + " mS");
-                                                return unpins.contains(cas.original.get());
-                                            });
-                        });
+                schedule(signerHash);
+                return true;
             });
         });
     }
 
+    private void schedule(PublicKeyHash writer) {
+        if (scheduled.add(writer))
+            pinners.submit(() -> pinAll(writer));
+    }
+
+    /** Do the queued pins of a writer until there are none left, or one fails.
+     */
+    private void pinAll(PublicKeyHash writer) {
+        while (true) {
+            Optional<PinQueue.Job> next = queue.get(writer);
+            if (! next.isPresent()) {
+                scheduled.remove(writer);
+                // an update may have been queued after we looked
+                if (queue.get(writer).isPresent())
+                    schedule(writer);
+                return;
+            }
+            try {
+                pin(next.get());
+                failures.remove(writer);
+            } catch (Exception e) {
+                PIN_FAILURES.inc();
+                int attempt = failures.merge(writer, 1, Integer::sum);
+                long delay = Math.min(MAX_RETRY_MILLIS, INITIAL_RETRY_MILLIS << Math.min(attempt - 1, 20));
+                LOG.log(Level.WARNING, "Pin " + next.get() + " failed, retrying in " + delay + " mS", e);
+                retries.schedule(() -> {
+                    scheduled.remove(writer);
+                    schedule(writer);
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+        }
+    }
+
+    private void pin(PinQueue.Job job) throws Exception {
+        boolean alreadyPinned = job.pinned.isPresent() && job.pinned.get().equals(job.target);
+        long t1 = System.currentTimeMillis();
+        if (! alreadyPinned) {
+            List<Multihash> pins;
+            if (job.pinned.isPresent()) {
+                try {
+                    // only walks the parts of the tree which have changed
+                    pins = convert(storage.pinUpdate(job.owner, job.pinned.get(), job.target).get());
+                } catch (Exception e) {
+                    LOG.log(Level.WARNING, "Pin update " + job + " failed, pinning the whole tree", e);
+                    pins = storage.recursivePin(job.owner, job.target).get();
+                }
+            } else
+                pins = storage.recursivePin(job.owner, job.target).get();
+            if (! pins.contains(job.target))
+                throw new IllegalStateException("Couldn't pin new hash: " + job.target);
+        }
+        long t2 = System.currentTimeMillis();
+        PIN_UPDATE_LATENCY.recordMicros((t2 - t1) * 1000);
+        if (LOGGING)
+            LOG.info("Tree:Pin update " + job + " took: " + (t2 - t1) + " mS");
+
+        // record the pin before unpinning, so a crash in between can only leave an extra pin
+        boolean canUnpin = queue.completed(job);
+        if (! job.pinned.isPresent() || alreadyPinned || ! canUnpin)
+            return;
+        try {
+            storage.recursiveUnpin(job.owner, job.pinned.get()).get();
+            long t3 = System.currentTimeMillis();
+            UNPIN_LATENCY.recordMicros((t3 - t2) * 1000);
+            if (LOGGING)
+                LOG.info("Unpinning " + job.pinned.get() + " took: " + (t3 - t2) + " mS");
+        } catch (Exception e) {
+            // this only leaves some garbage pinned
+            LOG.log(Level.WARNING, "Couldn't unpin " + job.pinned.get(), e);
+        }
+    }
+
     private static List<Multihash> convert(List<MultiAddress> addresses) {
         return addresses.stream()
                 .filter(addr -> addr.toString().startsWith("/ipfs/"))
@@ -0,0 +1,56 @@
+package peergos.server.mutable;
+
+import peergos.server.util.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+/** A bounded log of the writers whose pointers have been updated on this server.
+ *
+ *  Clients poll this with the sequence number from their previous call to find out which of their cached pointers
+ *  are stale.
+ */
+public class PointerChangeLog implements Consumer<MutableEvent> {
+
+    private final SequencedLog<PublicKeyHash> log;
+
+    /**
+     *
+     * @param maxSize the maximum number of changes to retain
+     * @param maxWaiters the maximum number of callers which can wait for a change at once
+     */
+    public PointerChangeLog(int maxSize, int maxWaiters) {
+        this(maxSize, new Semaphore(maxWaiters));
+    }
+
+    /**
+     *
+     * @param maxSize the maximum number of changes to retain
+     * @param waiters limits the number of callers which can wait for a change at once, and may be shared
+     */
+    public PointerChangeLog(int maxSize, Semaphore waiters) {
+        this.log = new SequencedLog<>(maxSize, waiters);
+    }
+
+    @Override
+    public void accept(MutableEvent event) {
+        log.add(event.writer);
+    }
+
+    /**
+     *
+     * @param since the sequence number from a previous call, or -1 to just get the current sequence number
+     * @param maxWaitMillis how long to wait for a change if there are none yet
+     * @return the distinct writers changed since the given sequence number
+     */
+    public PointerChanges getChanges(long since, int maxWaitMillis) {
+        SequencedLog.Since<PublicKeyHash> changes = log.getSince(since, maxWaitMillis, w -> true);
+        return new PointerChanges(changes.sequence, changes.isComplete, changes.events.stream()
+                .distinct()
+                .collect(Collectors.toList()));
+    }
+}
@@ -1,12 +1,16 @@
 package peergos.server.mutable;
 import java.util.logging.*;
+import peergos.server.corenode.*;
 import peergos.server.util.Logging;
 
+import peergos.shared.*;
+import peergos.shared.cbor.*;
 import peergos.shared.corenode.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.mutable.*;
 import peergos.shared.storage.*;
 import peergos.shared.user.*;
+import peergos.shared.util.*;
 
 import java.io.*;
 import java.nio.file.*;
@@ -14,54 +18,82 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.*;
 
+/** Bans all the keys owned by the users listed in a file.
+ *
+ *  The owned keys of each banned user are kept as a tree from their identity key. Changes to the owned keys of any of
+ *  these writers are applied in place as their pointers are updated, and a user is reloaded when their identity key
+ *  changes. When the file changes only the added and removed users are loaded or dropped. Each change is published by
+ *  swapping in a new immutable set, so no banned key is ever allowed in between. Users and keys which couldn't be loaded
+ *  are retried every check period until they succeed.
+ */
 public class UserBasedBlacklist implements PublicKeyBlackList {
 	private static final Logger LOG = Logging.LOG();
 
-    private static final long RELOAD_PERIOD_MS = 3_600_000;
+    private static final long CHECK_PERIOD_MS = 5_000;
 
-    private Map<PublicKeyHash, Boolean> banned = new ConcurrentHashMap<>();
+    private volatile Set<PublicKeyHash> banned = Collections.emptySet();
     private final CoreNode core;
     private final MutablePointers mutable;
     private final ContentAddressedStorage dht;
     private final Path source;
     private final ForkJoinPool pool = new ForkJoinPool(1);
-    private long lastModified, lastReloaded;
+
+    // the following are guarded by this
+    private Set<String> usernames = Collections.emptySet();
+    private final Map<String, PublicKeyHash> identities = new HashMap<>();
+    private final Map<PublicKeyHash, Set<PublicKeyHash>> ownedKeys = new HashMap<>();
+    // the banned user of each key, read without locking to filter events
+    private final Map<PublicKeyHash, String> keyUsers = new ConcurrentHashMap<>();
+    // loads which failed and are to be retried, users by name, and keys with their banned user and owner
+    private final Set<String> failedUsers = new HashSet<>();
+    private final Map<PublicKeyHash, Pair<String, PublicKeyHash>> failedKeys = new HashMap<>();
+    private long lastModified;
 
     public UserBasedBlacklist(Path source, CoreNode core, MutablePointers mutable, ContentAddressedStorage dht) {
         this.source = source;
         this.core = core;
         this.mutable = mutable;
         this.dht = dht;
-        pool.submit(() -> {
+        Thread watcher = new Thread(() -> {
             while (true) {
                 try {
                     updateBlackList();
+                    retryFailedLoads();
                 } catch (Throwable t) {
                     LOG.log(Level.WARNING, t.getMessage(), t);
                 }
                 try {
-                    Thread.sleep(5000);
+                    Thread.sleep(CHECK_PERIOD_MS);
                 } catch (InterruptedException e) {}
             }
-        });
+        }, "Blacklist file watcher");
+        watcher.setDaemon(true);
+        watcher.start();
     }
 
-    private void updateBlackList() {
+    private synchronized void updateBlackList() {
         if (! source.toFile().exists())
             return;
         long modified = source.toFile().lastModified();
-        long now = System.currentTimeMillis();
-        if (modified != lastModified || (now - lastReloaded > RELOAD_PERIOD_MS)) {
-            LOG.info("Updating blacklist...");
-            lastModified = modified;
-            lastReloaded = now;
-            Set<String> usernames = readUsernamesFromFile();
-            Set<PublicKeyHash> updated = buildBlackList(usernames);
-            banned.clear();
-            for (PublicKeyHash hash : updated) {
-                banned.put(hash, true);
-            }
-        }
+        if (modified == lastModified)
+            return;
+        lastModified = modified;
+        Set<String> updated = readUsernamesFromFile();
+        Set<String> removed = usernames.stream()
+                .filter(name -> ! updated.contains(name))
+                .collect(Collectors.toSet());
+        Set<String> added = updated.stream()
+                .filter(name -> ! usernames.contains(name))
+                .collect(Collectors.toSet());
+        if (removed.isEmpty() && added.isEmpty())
+            return;
+        LOG.info("Updating blacklist, adding " + added.size() + " users and removing " + removed.size());
+        for (String username : removed)
+            removeUser(username);
+        for (String username : added)
+            addUser(username);
+        usernames = updated;
+        publish();
     }
 
     private Set<String> readUsernamesFromFile() {
@@ -70,6 +102,7 @@ public class UserBasedBlacklist implements PublicKeyBlackList {
                 return Collections.emptySet();
             return Files.lines(source)
                     .map(String::trim)
+                    .filter(name -> ! name.isEmpty())
                     .collect(Collectors.toSet());
         } catch (IOException e) {
             LOG.log(Level.WARNING, e.getMessage(), e);
@@ -77,16 +110,144 @@ public class UserBasedBlacklist implements PublicKeyBlackList {
         }
     }
 
-    private Set<PublicKeyHash> buildBlackList(Set<String> usernames) {
-        Set<PublicKeyHash> res = new HashSet<>();
-        for (String username : usernames) {
-            res.addAll(WriterData.getOwnedKeysRecursive(username, core, mutable, dht));
+    private void publish() {
+        banned = Collections.unmodifiableSet(new HashSet<>(keyUsers.keySet()));
+    }
+
+    private void addUser(String username) {
+        try {
+            Optional<PublicKeyHash> identity = core.getPublicKeyHash(username).get();
+            if (! identity.isPresent())
+                return;
+            identities.put(username, identity.get());
+            addKey(username, identity.get(), identity.get(), mutable.getPointerTarget(identity.get(), identity.get(), dht).get());
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, "Couldn't load keys of blacklisted user " + username, e);
+            failedUsers.add(username);
+        }
+    }
+
+    private void removeUser(String username) {
+        failedUsers.remove(username);
+        failedKeys.values().removeIf(p -> p.left.equals(username));
+        PublicKeyHash identity = identities.remove(username);
+        if (identity != null)
+            removeKey(identity);
+    }
+
+    private void addKey(String username, PublicKeyHash owner, PublicKeyHash key, MaybeMultihash root) {
+        if (keyUsers.containsKey(key))
+            return;
+        keyUsers.put(key, username);
+        applyOwnedKeys(username, owner, key, root);
+    }
+
+    /** Load a key of a banned user from its current pointer, or just its owned keys if it is already banned
+     */
+    private void loadKey(String username, PublicKeyHash owner, PublicKeyHash key) {
+        MaybeMultihash root;
+        try {
+            root = mutable.getPointerTarget(owner, key, dht).get();
+        } catch (Exception e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            failedKeys.put(key, new Pair<>(username, owner));
+            return;
+        }
+        if (keyUsers.containsKey(key))
+            applyOwnedKeys(username, owner, key, root);
+        else
+            addKey(username, owner, key, root);
+    }
+
+    private void removeKey(PublicKeyHash key) {
+        keyUsers.remove(key);
+        failedKeys.remove(key);
+        Set<PublicKeyHash> owned = ownedKeys.remove(key);
+        if (owned != null)
+            owned.forEach(this::removeKey);
+    }
+
+    private Set<PublicKeyHash> getOwnedKeys(PublicKeyHash writer, MaybeMultihash root) throws Exception {
+        return WriterData.getWriterData(writer, root, dht).get().props.ownedKeys;
+    }
+
+    /** Bring the owned keys of a banned writer in line with its tree at the given root
+     */
+    private void applyOwnedKeys(String username, PublicKeyHash owner, PublicKeyHash writer, MaybeMultihash root) {
+        Set<PublicKeyHash> existing = ownedKeys.getOrDefault(writer, Collections.emptySet());
+        Set<PublicKeyHash> updated;
+        try {
+            updated = getOwnedKeys(writer, root);
+        } catch (Exception e) {
+            // keep the keys we have, and try again later
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            failedKeys.put(writer, new Pair<>(username, owner));
+            return;
+        }
+        failedKeys.remove(writer);
+        ownedKeys.put(writer, updated);
+        for (PublicKeyHash key : existing)
+            if (! updated.contains(key))
+                removeKey(key);
+        for (PublicKeyHash key : updated)
+            if (! existing.contains(key))
+                loadKey(username, owner, key);
+    }
+
+    /** Apply a change to the owned keys of a banned writer
+     */
+    private synchronized void updateOwnedKeys(PublicKeyHash owner, PublicKeyHash writer, MaybeMultihash root) {
+        String username = keyUsers.get(writer);
+        if (username == null)
+            return;
+        applyOwnedKeys(username, owner, writer, root);
+        publish();
+    }
+
+    private synchronized void retryFailedLoads() {
+        if (failedUsers.isEmpty() && failedKeys.isEmpty())
+            return;
+        LOG.info("Retrying blacklist loads of " + failedUsers.size() + " users and " + failedKeys.size() + " keys");
+        for (String username : new ArrayList<>(failedUsers)) {
+            failedUsers.remove(username);
+            addUser(username);
         }
-        return res;
+        for (Map.Entry<PublicKeyHash, Pair<String, PublicKeyHash>> failed : new ArrayList<>(failedKeys.entrySet())) {
+            failedKeys.remove(failed.getKey());
+            loadKey(failed.getValue().left, failed.getValue().right, failed.getKey());
+        }
+        publish();
+    }
+
+    private synchronized void reloadUser(String username) {
+        if (! usernames.contains(username))
+            return;
+        removeUser(username);
+        addUser(username);
+        publish();
+    }
+
+    public void accept(MutableEvent event) {
+        if (! keyUsers.containsKey(event.writer))
+            return;
+        pool.submit(() -> {
+            try {
+                HashCasPair cas = dht.getSigningKey(event.writer)
+                        .thenApply(signer -> HashCasPair.fromCbor(CborObject.fromByteArray(signer.get()
+                                .unsignMessage(event.writerSignedBtreeRootHash)))).get();
+                updateOwnedKeys(event.owner, event.writer, cas.updated);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, e.getMessage(), e);
+            }
+        });
+    }
+
+    public void accept(CorenodeEvent event) {
+        pool.submit(() -> reloadUser(event.username));
     }
 
     @Override
     public boolean isAllowed(PublicKeyHash keyHash) {
-        return ! banned.containsKey(keyHash);
+        return ! banned.contains(keyHash);
     }
 }
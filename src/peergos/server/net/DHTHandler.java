@@ -1,10 +1,13 @@
 package peergos.server.net;
 import java.util.logging.*;
 
+import peergos.server.crypto.*;
+import peergos.server.metrics.*;
 import peergos.server.util.*;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.asymmetric.curve25519.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.api.*;
 import peergos.shared.io.ipfs.multihash.*;
@@ -24,9 +27,13 @@ public class DHTHandler implements HttpHandler {
 	private static final Logger LOG = Logging.LOG();
 
     private static final boolean LOGGING = true;
+    private static final int VERIFIER_CACHE_SIZE = 10_000;
     private final ContentAddressedStorage dht;
     private final BiFunction<PublicKeyHash, Integer, Boolean> keyFilter;
     private final String apiPrefix;
+    // A key hash always maps to the same key, so decoded keys can be cached indefinitely
+    private final Map<PublicKeyHash, Ed25519Verifier.PublicKey> verifiers =
+            Collections.synchronizedMap(new LRUCache<>(VERIFIER_CACHE_SIZE));
 
     public DHTHandler(ContentAddressedStorage dht, BiFunction<PublicKeyHash, Integer, Boolean> keyFilter, String apiPrefix) {
         this.dht = dht;
@@ -69,7 +76,9 @@ public class DHTHandler implements HttpHandler {
                 }
                 case BLOCK_PUT: {
                     PublicKeyHash ownerHash = PublicKeyHash.fromString(last.apply("owner"));
-                    TransactionId tid = new TransactionId(last.apply("transaction"));
+                    Trace trace = Trace.current();
+                    // carry the trace on to any server we proxy this write to
+                    TransactionId tid = new TransactionId(last.apply("transaction"), trace.traceId());
                     PublicKeyHash writerHash = PublicKeyHash.fromString(last.apply("writer"));
                     List<byte[]> signatures = Arrays.stream(last.apply("signatures").split(","))
                             .map(ArrayOps::hexToBytes)
@@ -80,50 +89,28 @@ public class DHTHandler implements HttpHandler {
                             .map(s -> s.substring(s.indexOf("=") + 1))
                             .findAny()
                             .get();
-                    List<byte[]> data = MultipartReceiver.extractFiles(httpExchange.getRequestBody(), boundary);
+                    List<MultipartReceiver.HashedFile> files = MultipartReceiver.extractHashedFiles(httpExchange.getRequestBody(), boundary);
+                    List<byte[]> data = files.stream()
+                            .map(f -> f.data)
+                            .collect(Collectors.toList());
                     boolean isRaw = last.apply("format").equals("raw");
 
                     // check writer is allowed to write to this server, and check their free space
                     if (! keyFilter.apply(writerHash, data.stream().mapToInt(x -> x.length).sum()))
                         throw new IllegalStateException("Key not allowed to write to this server: " + writerHash);
 
-                    // Get the actual key, unless this is the initial write of the signing key during sign up
-                    // In the initial put of a signing key during sign up the key signs itself (we still check the hash
-                    // against the core node)
-                    Supplier<PublicSigningKey> fromDht = () -> {
-                        try {
-                            return PublicSigningKey.fromCbor(dht.get(writerHash.multihash).get().get());
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        }
-                    };
-                    Supplier<PublicSigningKey> inBandOrDht = () -> {
-                        try {
-                            PublicSigningKey candidateKey = PublicSigningKey.fromByteArray(data.get(0));
-                            PublicKeyHash calculatedHash = ContentAddressedStorage.hashKey(candidateKey);
-                            if (calculatedHash.equals(writerHash)) {
-                                candidateKey.unsignMessage(ArrayOps.concat(signatures.get(0), data.get(0)));
-                                return candidateKey;
-                            }
-                        } catch (Throwable e) {
-                            // If signature is not valid then the signing key has already been written, retrieve it
-                            // This happens for the boxing key during sign up for example
-                        }
-                        return fromDht.get();
-                    };
-                    PublicSigningKey writer = data.size() > 1 ? fromDht.get() : inBandOrDht.get();
-
-                    // verify signatures
-                    for (int i = 0; i < data.size(); i++) {
-                        byte[] signature = signatures.get(i);
-                        byte[] unsigned = writer.unsignMessage(ArrayOps.concat(signature, data.get(i)));
-                        if (!Arrays.equals(unsigned, data.get(i)))
-                            throw new IllegalStateException("Invalid signature for block!");
-                    }
+                    trace.span("signature_check", () -> {
+                        verifySignatures(writerHash, signatures, data);
+                        return true;
+                    });
 
-                    List<Multihash> hashes = (isRaw ?
-                            dht.putRaw(ownerHash, writerHash, signatures, data, tid) :
-                            dht.put(ownerHash, writerHash, signatures, data, tid)).get();
+                    // we hashed the blocks as they arrived, so the storage doesn't need to
+                    List<Cid> cids = files.stream()
+                            .map(f -> new Cid(1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor,
+                                    new Multihash(Multihash.Type.sha2_256, f.sha256)))
+                            .collect(Collectors.toList());
+                    List<Multihash> hashes = trace.spanAsync("storage_write",
+                            () -> dht.putHashed(ownerHash, writerHash, signatures, data, cids, tid)).get();
                     List<Object> json = hashes.stream()
                             .map(h -> wrapHash(h))
                             .collect(Collectors.toList());
@@ -221,6 +208,64 @@ public class DHTHandler implements HttpHandler {
         }
     }
 
+    /** Check every block is signed by the writer, throwing if any signature is invalid
+     *
+     * Ed25519 keys are decoded once and cached, so repeated puts from the same writer don't need to retrieve the key,
+     * and the blocks in a put are verified in parallel.
+     */
+    private void verifySignatures(PublicKeyHash writerHash, List<byte[]> signatures, List<byte[]> data) {
+        Ed25519Verifier.PublicKey cached = verifiers.get(writerHash);
+        if (cached != null) {
+            if (! Ed25519Verifier.verifyAll(cached, signatures, data))
+                throw new IllegalStateException("Invalid signature for block!");
+            return;
+        }
+
+        // Get the actual key, unless this is the initial write of the signing key during sign up
+        // In the initial put of a signing key during sign up the key signs itself (we still check the hash
+        // against the core node)
+        Supplier<PublicSigningKey> fromDht = () -> {
+            try {
+                return PublicSigningKey.fromCbor(dht.get(writerHash.multihash).get().get());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Supplier<PublicSigningKey> inBandOrDht = () -> {
+            try {
+                PublicSigningKey candidateKey = PublicSigningKey.fromByteArray(data.get(0));
+                PublicKeyHash calculatedHash = ContentAddressedStorage.hashKey(candidateKey);
+                if (calculatedHash.equals(writerHash)) {
+                    candidateKey.unsignMessage(ArrayOps.concat(signatures.get(0), data.get(0)));
+                    return candidateKey;
+                }
+            } catch (Throwable e) {
+                // If signature is not valid then the signing key has already been written, retrieve it
+                // This happens for the boxing key during sign up for example
+            }
+            return fromDht.get();
+        };
+        PublicSigningKey writer = data.size() > 1 ? fromDht.get() : inBandOrDht.get();
+
+        Optional<Ed25519Verifier.PublicKey> decoded = writer instanceof Ed25519PublicKey ?
+                Ed25519Verifier.decode(((Ed25519PublicKey) writer).getPublicSigningKey()) :
+                Optional.empty();
+        if (decoded.isPresent()) {
+            // the key hash was checked above, so this mapping can never change
+            verifiers.put(writerHash, decoded.get());
+            if (! Ed25519Verifier.verifyAll(decoded.get(), signatures, data))
+                throw new IllegalStateException("Invalid signature for block!");
+            return;
+        }
+
+        for (int i = 0; i < data.size(); i++) {
+            byte[] signature = signatures.get(i);
+            byte[] unsigned = writer.unsignMessage(ArrayOps.concat(signature, data.get(i)));
+            if (!Arrays.equals(unsigned, data.get(i)))
+                throw new IllegalStateException("Invalid signature for block!");
+        }
+    }
+
     private static Map<String, Object> wrapHash(Multihash h) {
         return wrapHash("Hash", h);
     }
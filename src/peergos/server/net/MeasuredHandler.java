@@ -0,0 +1,87 @@
+package peergos.server.net;
+
+import com.sun.net.httpserver.*;
+import peergos.server.metrics.*;
+
+import java.io.*;
+
+/** Records the latency, response codes and bytes transferred of the requests to a handler
+ */
+public class MeasuredHandler implements HttpHandler {
+
+    private final HttpHandler handler;
+    private final Histogram latency;
+    private final Counter bytesIn, bytesOut;
+    // by the first digit of the status code, with 0 when none was sent
+    private final Counter[] responses = new Counter[6];
+
+    public MeasuredHandler(String name, HttpHandler handler, Metrics metrics) {
+        this.handler = handler;
+        this.latency = metrics.histogram("peergos_http_request_seconds", "HTTP request latency", "handler", name);
+        this.bytesIn = metrics.counter("peergos_http_bytes_in_total", "Bytes of HTTP request bodies", "handler", name);
+        this.bytesOut = metrics.counter("peergos_http_bytes_out_total", "Bytes of HTTP response bodies", "handler", name);
+        for (int i=0; i < responses.length; i++)
+            responses[i] = metrics.counter("peergos_http_responses_total", "HTTP responses by status class",
+                    "handler", name, "code", i == 0 ? "none" : i + "xx");
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final Counter counter;
+
+        public CountingInputStream(InputStream in, Counter counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                counter.inc();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0)
+                counter.add(read);
+            return read;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final Counter counter;
+
+        public CountingOutputStream(OutputStream out, Counter counter) {
+            super(out);
+            this.counter = counter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counter.inc();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            counter.add(len);
+        }
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        exchange.setStreams(new CountingInputStream(exchange.getRequestBody(), bytesIn),
+                new CountingOutputStream(exchange.getResponseBody(), bytesOut));
+        try {
+            handler.handle(exchange);
+        } finally {
+            latency.recordNanos(System.nanoTime() - start);
+            int statusClass = exchange.getResponseCode() / 100;
+            responses[statusClass > 0 && statusClass < responses.length ? statusClass : 0].inc();
+        }
+    }
+}
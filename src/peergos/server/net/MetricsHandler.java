@@ -0,0 +1,27 @@
+package peergos.server.net;
+
+import com.sun.net.httpserver.*;
+import peergos.server.metrics.*;
+
+import java.io.*;
+import java.nio.charset.*;
+
+/** Serves the metrics of this server in the Prometheus text format
+ */
+public class MetricsHandler implements HttpHandler {
+
+    private final Metrics metrics;
+
+    public MetricsHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = metrics.export().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
+}
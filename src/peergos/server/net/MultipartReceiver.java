@@ -1,12 +1,38 @@
 package peergos.server.net;
 
+import peergos.shared.crypto.hash.*;
+
 import java.io.*;
+import java.security.*;
 import java.util.*;
+import java.util.stream.*;
 
 public class MultipartReceiver {
     private static final byte[] DOUBLE_NEW_LINE = "\r\n\r\n".getBytes();
+    private static final int HASH_BATCH_SIZE = 16 * 1024;
+
+    public static final class HashedFile {
+        public final byte[] data, sha256;
+
+        public HashedFile(byte[] data, byte[] sha256) {
+            this.data = data;
+            this.sha256 = sha256;
+        }
+    }
 
     public static List<byte[]> extractFiles(InputStream rawIn, String boundary) {
+        return extractHashedFiles(rawIn, boundary).stream()
+                .map(f -> f.data)
+                .collect(Collectors.toList());
+    }
+
+    /** Extract the files, hashing each one as it is received rather than in a second pass
+     *
+     * @param rawIn
+     * @param boundary
+     * @return the files with their SHA-256 hashes
+     */
+    public static List<HashedFile> extractHashedFiles(InputStream rawIn, String boundary) {
         try {
             int maxLineSize = 1024;
             InputStream in = new BufferedInputStream(rawIn);
@@ -16,11 +42,12 @@ public class MultipartReceiver {
             byte[] firstHeaders = readUntil(DOUBLE_NEW_LINE, in);
 
             byte[] boundaryBytes = ("\r\n--" + boundary).getBytes();
-            List<byte[]> files = new ArrayList<>();
+            List<HashedFile> files = new ArrayList<>();
 
             while (true) {
-                byte[] file = readUntil(boundaryBytes, in);
-                files.add(file);
+                HashingOutputStream file = new HashingOutputStream(Hash.sha256Digest());
+                readUntil(boundaryBytes, in, file);
+                files.add(new HashedFile(file.toByteArray(), file.digest()));
                 byte[] headers = readUntil(DOUBLE_NEW_LINE, in);
                 if (headers.length == 0 || Arrays.equals(headers, "--".getBytes()))
                     return files;
@@ -39,13 +66,18 @@ public class MultipartReceiver {
      */
     private static byte[] readUntil(byte[] pattern, InputStream in) throws IOException {
         ByteArrayOutputStream prior = new ByteArrayOutputStream();
+        readUntil(pattern, in, prior);
+        return prior.toByteArray();
+    }
+
+    private static void readUntil(byte[] pattern, InputStream in, ByteArrayOutputStream prior) throws IOException {
         int r;
         int indexInPattern = 0;
         while ((r = in.read()) != -1) {
             if ((byte) r == pattern[indexInPattern]) {
                 indexInPattern++;
                 if (indexInPattern == pattern.length)
-                    return prior.toByteArray();
+                    return;
             } else {
                 if (indexInPattern > 0)
                     prior.write(pattern, 0, indexInPattern);
@@ -54,12 +86,47 @@ public class MultipartReceiver {
                 if ((byte) r == pattern[0]) {
                     indexInPattern = 1;
                     if (pattern.length == 1)
-                        return prior.toByteArray();
+                        return;
                 } else
                     prior.write(r);
             }
         }
-        return prior.toByteArray();
+    }
+
+    /** Accumulates bytes, hashing them in batches as they arrive, while they are still in cache
+     *
+     */
+    private static class HashingOutputStream extends ByteArrayOutputStream {
+        private final MessageDigest digest;
+        private int hashed = 0;
+
+        public HashingOutputStream(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            super.write(b);
+            if (count - hashed >= HASH_BATCH_SIZE)
+                update();
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            super.write(b, off, len);
+            if (count - hashed >= HASH_BATCH_SIZE)
+                update();
+        }
+
+        private void update() {
+            digest.update(buf, hashed, count - hashed);
+            hashed = count;
+        }
+
+        public synchronized byte[] digest() {
+            update();
+            return digest.digest();
+        }
     }
 
     private static String readLine(InputStream in, int maxSize) throws IOException {
@@ -4,6 +4,7 @@ import com.sun.net.httpserver.*;
 import peergos.server.*;
 import peergos.server.mutable.*;
 import peergos.server.util.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.mutable.*;
 import peergos.shared.util.*;
@@ -11,17 +12,22 @@ import peergos.shared.util.*;
 import java.io.*;
 import java.util.*;
 import java.util.logging.*;
+import java.util.stream.*;
 
 /** This is the http endpoint for MutablePointer calls
  *
  */
 public class MutationHandler implements HttpHandler {
     private static final Logger LOG = Logging.LOG();
+    private static final int MAX_WRITERS_PER_CALL = 1_000;
+    private static final int MAX_CHANGES_WAIT_MILLIS = 30_000;
 
     private final MutablePointers mutable;
+    private final Optional<PointerChangeLog> changes;
 
-    public MutationHandler(MutablePointers mutable) {
+    public MutationHandler(MutablePointers mutable, Optional<PointerChangeLog> changes) {
         this.mutable = mutable;
+        this.changes = changes;
     }
 
     public void handle(HttpExchange exchange) throws IOException
@@ -40,19 +46,47 @@ public class MutationHandler implements HttpHandler {
 //            LOG.info("core method "+ method +" from path "+ path);
 
         Map<String, List<String>> params = HttpUtil.parseQuery(exchange.getRequestURI().getQuery());
-        PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
-        PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
         try {
             switch (method) {
-                case "setPointer":
+                case "setPointer": {
+                    PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
+                    PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
                     byte[] signedPayload = Serialize.readFully(din, 1024);
                     boolean isAdded = mutable.setPointer(owner, writer, signedPayload).get();
                     dout.writeBoolean(isAdded);
                     break;
-                case "getPointer":
+                }
+                case "getPointer": {
+                    PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
+                    PublicKeyHash writer = PublicKeyHash.fromString(params.get("writer").get(0));
                     byte[] metadataBlob = mutable.getPointer(owner, writer).get().orElse(new byte[0]);
                     dout.write(metadataBlob);
                     break;
+                }
+                case "getPointers": {
+                    PublicKeyHash owner = PublicKeyHash.fromString(params.get("owner").get(0));
+                    CborObject.CborList body = (CborObject.CborList) CborObject.fromByteArray(Serialize.readFully(din, 64 * 1024));
+                    if (body.value.size() > MAX_WRITERS_PER_CALL)
+                        throw new IllegalStateException("Too many writers in a single call: " + body.value.size());
+                    List<PublicKeyHash> writers = body.value.stream()
+                            .map(PublicKeyHash::fromCbor)
+                            .collect(Collectors.toList());
+                    List<Optional<byte[]>> pointers = mutable.getPointers(owner, writers).get();
+                    dout.write(new CborObject.CborList(pointers.stream()
+                            .map(p -> new CborObject.CborByteArray(p.orElse(new byte[0])))
+                            .collect(Collectors.toList())).serialize());
+                    break;
+                }
+                case "getChanges": {
+                    if (! changes.isPresent())
+                        throw new IllegalStateException("Pointer changes are not tracked on this server");
+                    long since = Long.parseLong(params.get("since").get(0));
+                    int maxWait = params.containsKey("wait") ?
+                            Math.min(Integer.parseInt(params.get("wait").get(0)), MAX_CHANGES_WAIT_MILLIS) :
+                            0;
+                    dout.write(changes.get().getChanges(since, maxWait).serialize());
+                    break;
+                }
                 default:
                     throw new IOException("Unknown method "+ method);
             }
@@ -4,6 +4,7 @@ import com.sun.net.httpserver.*;
 import peergos.server.*;
 import peergos.server.social.*;
 import peergos.server.util.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.social.*;
 import peergos.shared.util.*;
@@ -12,6 +13,7 @@ import java.io.*;
 import java.util.*;
 import java.util.function.*;
 import java.util.logging.*;
+import java.util.stream.*;
 
 /** This is the http endpoint for SocialNetwork
  *
@@ -21,10 +23,15 @@ import java.util.logging.*;
 public class SocialHandler implements HttpHandler {
     private static final Logger LOG = Logging.LOG();
 
+    private static final int MAX_WRITERS_PER_CALL = 1_000;
+    private static final int MAX_NOTIFICATIONS_WAIT_MILLIS = 30_000;
+
     private final SocialNetwork social;
+    private final Optional<NotificationLog> notifications;
 
-    public SocialHandler(SocialNetwork social) {
+    public SocialHandler(SocialNetwork social, Optional<NotificationLog> notifications) {
         this.social = social;
+        this.notifications = notifications;
     }
 
     public void handle(HttpExchange exchange) throws IOException
@@ -57,11 +64,35 @@ public class SocialHandler implements HttpHandler {
                     byte[] res = social.getFollowRequests(owner, signedTime).get();
                     Serialize.serialize(res, dout);
                     break;
+                case "getFollowRequestPage": {
+                    byte[] auth = ArrayOps.hexToBytes(last.apply("auth"));
+                    long afterId = Long.parseLong(last.apply("after"));
+                    int maxCount = Integer.parseInt(last.apply("max"));
+                    dout.write(social.getFollowRequests(owner, auth, afterId, maxCount).get().serialize());
+                    break;
+                }
                 case "removeFollowRequest":
                     byte[] signedFollowRequest = Serialize.readFully(din, 4096);
                     boolean isRemoved = social.removeFollowRequest(owner, signedFollowRequest).get();
                     dout.writeBoolean(isRemoved);
                     break;
+                case "getNotifications": {
+                    if (! notifications.isPresent())
+                        throw new IllegalStateException("Notifications are not supported on this server");
+                    byte[] auth = ArrayOps.hexToBytes(last.apply("auth"));
+                    long since = Long.parseLong(last.apply("since"));
+                    int maxWait = params.containsKey("wait") ?
+                            Math.min(Integer.parseInt(last.apply("wait")), MAX_NOTIFICATIONS_WAIT_MILLIS) :
+                            0;
+                    CborObject.CborList body = (CborObject.CborList) CborObject.fromByteArray(Serialize.readFully(din, 64 * 1024));
+                    if (body.value.size() > MAX_WRITERS_PER_CALL)
+                        throw new IllegalStateException("Too many writers in a single call: " + body.value.size());
+                    Set<PublicKeyHash> writers = body.value.stream()
+                            .map(PublicKeyHash::fromCbor)
+                            .collect(Collectors.toSet());
+                    dout.write(notifications.get().getNotifications(owner, auth, writers, since, maxWait).serialize());
+                    break;
+                }
                 default:
                     throw new IOException("Unknown method "+ method);
             }
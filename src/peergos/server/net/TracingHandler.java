@@ -0,0 +1,36 @@
+package peergos.server.net;
+
+import com.sun.net.httpserver.*;
+import peergos.server.metrics.*;
+import peergos.shared.util.*;
+
+import java.io.*;
+
+/** Makes the trace of each request, from the client's trace header or a new id, current while it is handled, and
+ *  records a span for the whole request. The trace id is returned in the same header.
+ */
+public class TracingHandler implements HttpHandler {
+
+    private final String span;
+    private final HttpHandler handler;
+    private final Tracer tracer;
+
+    public TracingHandler(String name, HttpHandler handler, Tracer tracer) {
+        this.span = "http:" + name;
+        this.handler = handler;
+        this.tracer = tracer;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Trace trace = Trace.fromHeader(exchange.getRequestHeaders().getFirst(Tracer.HEADER), tracer);
+        exchange.getResponseHeaders().set(Tracer.HEADER, trace.id);
+        long start = System.currentTimeMillis();
+        try (Trace.Scope scope = trace.enter()) {
+            handler.handle(exchange);
+        } finally {
+            int code = exchange.getResponseCode();
+            trace.record(span, start, System.currentTimeMillis() - start, code < 0 || code >= 400);
+        }
+    }
+}
@@ -24,6 +24,10 @@ public class NonWriteThroughSocialNetwork implements SocialNetwork {
 
     private final Map<PublicKeyHash, List<ByteArrayWrapper>> removedFollowRequests = new ConcurrentHashMap<>();
     private final Map<PublicKeyHash, List<ByteArrayWrapper>> newFollowRequests = new ConcurrentHashMap<>();
+    // the paged view of each owner's requests, under ids local to this view
+    private final Map<PublicKeyHash, SortedMap<Long, ByteArrayWrapper>> pagedFollowRequests = new HashMap<>();
+    private final Map<PublicKeyHash, Long> sourceCursors = new HashMap<>();
+    private long nextId = 1;
 
     @Override
     public CompletableFuture<Boolean> sendFollowRequest(PublicKeyHash target, byte[] encryptedPermission) {
@@ -32,9 +36,45 @@ public class NonWriteThroughSocialNetwork implements SocialNetwork {
         newFollowRequests.get(target).add(wrappped);
         removedFollowRequests.putIfAbsent(target, new ArrayList<>());
         removedFollowRequests.get(target).remove(wrappped);
+        synchronized (this) {
+            pagedFollowRequests.computeIfAbsent(target, k -> new TreeMap<>()).put(nextId++, wrappped);
+        }
         return CompletableFuture.completedFuture(true);
     }
 
+    @Override
+    public synchronized CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner,
+                                                                               byte[] signedTime,
+                                                                               long afterId,
+                                                                               int maxCount) {
+        int count = Math.max(0, Math.min(maxCount, MAX_FOLLOW_REQUESTS_PER_PAGE));
+        try {
+            SortedMap<Long, ByteArrayWrapper> view = pagedFollowRequests.computeIfAbsent(owner, k -> new TreeMap<>());
+            List<ByteArrayWrapper> removed = removedFollowRequests.getOrDefault(owner, Collections.emptyList());
+            long sourceCursor = sourceCursors.getOrDefault(owner, 0L);
+            FollowRequestPage page;
+            do {
+                page = source.getFollowRequests(owner, signedTime, sourceCursor, MAX_FOLLOW_REQUESTS_PER_PAGE).get();
+                for (Pair<Long, byte[]> req : page.requests) {
+                    ByteArrayWrapper wrapped = new ByteArrayWrapper(req.right);
+                    if (! removed.contains(wrapped))
+                        view.put(nextId++, wrapped);
+                }
+                sourceCursor = page.lastId(sourceCursor);
+            } while (page.hasMore);
+            sourceCursors.put(owner, sourceCursor);
+
+            List<Pair<Long, byte[]>> res = view.tailMap(afterId + 1).entrySet().stream()
+                    .limit(count + 1)
+                    .map(e -> new Pair<>(e.getKey(), e.getValue().data))
+                    .collect(Collectors.toList());
+            boolean hasMore = res.size() > count;
+            return CompletableFuture.completedFuture(new FollowRequestPage(hasMore ? res.subList(0, count) : res, hasMore));
+        } catch (Exception e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+    }
+
     @Override
     public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner, byte[] signedTime) {
         try {
@@ -75,6 +115,9 @@ public class NonWriteThroughSocialNetwork implements SocialNetwork {
             newFollowRequests.get(owner).remove(wrappped);
             removedFollowRequests.putIfAbsent(owner, new ArrayList<>());
             removedFollowRequests.get(owner).add(wrappped);
+            synchronized (this) {
+                pagedFollowRequests.getOrDefault(owner, new TreeMap<>()).values().remove(wrappped);
+            }
             return CompletableFuture.completedFuture(true);
         } catch (Exception e) {
             throw new RuntimeException(e.getMessage(), e);
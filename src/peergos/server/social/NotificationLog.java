@@ -0,0 +1,85 @@
+package peergos.server.social;
+
+import peergos.server.corenode.*;
+import peergos.server.mutable.*;
+import peergos.server.util.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.social.*;
+import peergos.shared.storage.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** A bounded log of the pointer changes and follow requests on this server, which clients wait on for the ones
+ *  concerning the keys they subscribe to.
+ */
+public class NotificationLog implements Consumer<MutableEvent> {
+
+    private static class Entry {
+        public final PublicKeyHash key;
+        // the signed pointer update, or null for a follow request
+        public final byte[] signedPointer;
+
+        public Entry(PublicKeyHash key, byte[] signedPointer) {
+            this.key = key;
+            this.signedPointer = signedPointer;
+        }
+
+        public boolean isFor(PublicKeyHash owner, Set<PublicKeyHash> writers) {
+            return signedPointer == null ? key.equals(owner) : writers.contains(key);
+        }
+    }
+
+    private final SequencedLog<Entry> log;
+    private final ContentAddressedStorage dht;
+
+    /**
+     *
+     * @param maxSize the maximum number of notifications to retain
+     * @param waiters limits the number of callers which can wait for a notification at once, and may be shared
+     * @param dht used to check the signatures of subscribers
+     */
+    public NotificationLog(int maxSize, Semaphore waiters, ContentAddressedStorage dht) {
+        this.log = new SequencedLog<>(maxSize, waiters);
+        this.dht = dht;
+    }
+
+    @Override
+    public void accept(MutableEvent event) {
+        log.add(new Entry(event.writer, event.writerSignedBtreeRootHash));
+    }
+
+    public void acceptFollowRequest(PublicKeyHash target) {
+        log.add(new Entry(target, null));
+    }
+
+    /**
+     *
+     * @param owner the subscribing user, who is told of new follow requests
+     * @param signedTime the current time signed by the owner
+     * @param writers the writers whose pointer changes to report
+     * @param since the sequence number from a previous call, or -1 to just get the current sequence number
+     * @param maxWaitMillis how long to wait for a notification if there are none yet
+     * @return the latest signed pointer of each changed writer, and whether there are new follow requests
+     */
+    public Notifications getNotifications(PublicKeyHash owner,
+                                          byte[] signedTime,
+                                          Set<PublicKeyHash> writers,
+                                          long since,
+                                          int maxWaitMillis) {
+        UserRepository.checkSignedTime(owner, signedTime, "getNotifications", dht);
+        SequencedLog.Since<Entry> changes = log.getSince(since, maxWaitMillis, e -> e.isFor(owner, writers));
+        Map<PublicKeyHash, byte[]> pointers = new LinkedHashMap<>();
+        boolean followRequests = false;
+        for (Entry e : changes.events) {
+            if (! e.isFor(owner, writers))
+                continue;
+            if (e.signedPointer == null)
+                followRequests = true;
+            else
+                pointers.put(e.key, e.signedPointer);
+        }
+        return new Notifications(changes.sequence, changes.isComplete, pointers, followRequests);
+    }
+}
@@ -0,0 +1,53 @@
+package peergos.server.social;
+
+import peergos.shared.crypto.hash.*;
+import peergos.shared.social.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** This propagates the targets of follow requests received by this server
+ *
+ */
+public class SocialEventPropagator implements SocialNetwork {
+
+    private final SocialNetwork target;
+    private final List<Consumer<? super PublicKeyHash>> listeners = new ArrayList<>();
+
+    public SocialEventPropagator(SocialNetwork target) {
+        this.target = target;
+    }
+
+    public void addListener(Consumer<? super PublicKeyHash> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendFollowRequest(PublicKeyHash targetUser, byte[] encryptedPermission) {
+        return target.sendFollowRequest(targetUser, encryptedPermission)
+                .thenApply(res -> {
+                    if (res) {
+                        for (Consumer<? super PublicKeyHash> listener : listeners) {
+                            listener.accept(targetUser);
+                        }
+                    }
+                    return res;
+                });
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner, byte[] signedTime) {
+        return target.getFollowRequests(owner, signedTime);
+    }
+
+    @Override
+    public CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, byte[] signedTime, long afterId, int maxCount) {
+        return target.getFollowRequests(owner, signedTime, afterId, maxCount);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] signedRequest) {
+        return target.removeFollowRequest(owner, signedRequest);
+    }
+}
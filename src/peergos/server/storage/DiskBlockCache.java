@@ -0,0 +1,268 @@
+package peergos.server.storage;
+
+import peergos.server.util.Logging;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/** A size bounded cache of blocks in a local directory, in front of another ContentAddressedStorage, which survives
+ *  restarts.
+ *
+ *  Blocks are immutable and content addressed, so a cached block never needs invalidating. Each block is written to a
+ *  temporary file and then atomically moved into place, so several processes can share the same directory, and a block
+ *  is checked against its hash whenever it is read, so one damaged by a crash is deleted and fetched again.
+ *
+ *  The least recently used blocks are evicted once the blocks this process knows about exceed the maximum size. Blocks
+ *  already on disk at startup are ordered by their modified time, which is updated on each read.
+ */
+public class DiskBlockCache implements ContentAddressedStorage {
+    private static final Logger LOG = Logging.LOG();
+    public static final String DEFAULT_DIR_NAME = "block-cache";
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024 * 1024L;
+    private static final String TMP_PREFIX = "tmp";
+    private static final long STALE_TMP_FILE_MILLIS = 60 * 60 * 1000L;
+
+    private final ContentAddressedStorage target;
+    private final Path root;
+    private final long maxBytes;
+
+    // the size of each cached block, in order of last use, guarded by this
+    private final LinkedHashMap<Multihash, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    public DiskBlockCache(ContentAddressedStorage target, Path root, long maxBytes) {
+        this.target = target;
+        this.root = root;
+        this.maxBytes = maxBytes;
+        File rootDir = root.toFile();
+        if (! rootDir.exists() && ! rootDir.mkdirs())
+            throw new IllegalStateException("Unable to create directory " + root);
+        if (! rootDir.isDirectory())
+            throw new IllegalStateException("Block cache path must be a directory! " + root);
+        loadExisting();
+    }
+
+    private synchronized void loadExisting() {
+        long now = System.currentTimeMillis();
+        List<File> blocks = new ArrayList<>();
+        File[] dirs = root.toFile().listFiles(File::isDirectory);
+        for (File dir : dirs == null ? new File[0] : dirs) {
+            File[] files = dir.listFiles(File::isFile);
+            for (File file : files == null ? new File[0] : files) {
+                if (file.getName().startsWith(TMP_PREFIX)) {
+                    // left by a crashed writer, or one in another process which is still writing
+                    if (now - file.lastModified() > STALE_TMP_FILE_MILLIS)
+                        file.delete();
+                } else
+                    blocks.add(file);
+            }
+        }
+        blocks.sort(Comparator.comparingLong(File::lastModified));
+        for (File block : blocks) {
+            try {
+                Multihash hash = Cid.decode(block.getName());
+                sizes.put(hash, block.length());
+                totalBytes += block.length();
+            } catch (Exception e) {
+                LOG.info("Ignoring file " + block + " in block cache since name is not a valid multihash");
+            }
+        }
+        LOG.info("Loaded block cache with " + sizes.size() + " blocks totalling " + totalBytes + " bytes");
+        evict();
+    }
+
+    private Path getFilePath(Multihash h) {
+        String name = h.toString();
+        // the start of a cid is the same for all blocks of the same type
+        return root.resolve(name.substring(name.length() - 3, name.length() - 1)).resolve(name);
+    }
+
+    private static boolean isCacheable(Multihash h) {
+        return h.type == Multihash.Type.sha2_256;
+    }
+
+    private Optional<byte[]> read(Multihash hash) {
+        if (! isCacheable(hash))
+            return Optional.empty();
+        Path file = getFilePath(hash);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            // possibly evicted by another process
+            forget(hash);
+            return Optional.empty();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            return Optional.empty();
+        }
+        if (! HashVerifyingStorage.computeHash(data, hash).equals(hash)) {
+            LOG.warning("Deleting corrupt block " + hash + " from block cache");
+            file.toFile().delete();
+            forget(hash);
+            return Optional.empty();
+        }
+        file.toFile().setLastModified(System.currentTimeMillis());
+        used(hash, data.length);
+        return Optional.of(data);
+    }
+
+    private void write(Multihash hash, byte[] data) {
+        if (! isCacheable(hash) || data.length > maxBytes)
+            return;
+        Path file = getFilePath(hash);
+        if (! file.toFile().exists()) {
+            Path tmp = null;
+            try {
+                Files.createDirectories(file.getParent());
+                tmp = Files.createTempFile(file.getParent(), TMP_PREFIX, "");
+                Files.write(tmp, data);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Couldn't write block " + hash + " to block cache: " + e.getMessage(), e);
+                return;
+            } finally {
+                if (tmp != null)
+                    tmp.toFile().delete();
+            }
+        }
+        used(hash, data.length);
+    }
+
+    private synchronized void used(Multihash hash, long size) {
+        if (sizes.get(hash) == null) {
+            sizes.put(hash, size);
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    private synchronized void forget(Multihash hash) {
+        Long size = sizes.remove(hash);
+        if (size != null)
+            totalBytes -= size;
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<Multihash, Long>> leastRecent = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && leastRecent.hasNext()) {
+            Map.Entry<Multihash, Long> e = leastRecent.next();
+            getFilePath(e.getKey()).toFile().delete();
+            totalBytes -= e.getValue();
+            leastRecent.remove();
+        }
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        Optional<byte[]> cached = read(hash);
+        if (cached.isPresent())
+            return CompletableFuture.completedFuture(cached.map(CborObject::fromByteArray));
+        return target.get(hash).thenApply(cborOpt -> {
+            cborOpt.ifPresent(cbor -> write(hash, cbor.toByteArray()));
+            return cborOpt;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        Optional<byte[]> cached = read(hash);
+        if (cached.isPresent())
+            return CompletableFuture.completedFuture(cached);
+        return target.getRaw(hash).thenApply(rawOpt -> {
+            rawOpt.ifPresent(raw -> write(hash, raw));
+            return rawOpt;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+        if (isCacheable(block)) {
+            File file = getFilePath(block).toFile();
+            if (file.exists())
+                return CompletableFuture.completedFuture(Optional.of((int) file.length()));
+        }
+        return target.getSize(block);
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return target.id();
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return target.startTransaction(owner);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        return target.closeTransaction(owner, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
+                                                  PublicKeyHash writer,
+                                                  List<byte[]> signatures,
+                                                  List<byte[]> blocks,
+                                                  TransactionId tid) {
+        return target.put(owner, writer, signatures, blocks, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner,
+                                                     PublicKeyHash writer,
+                                                     List<byte[]> signatures,
+                                                     List<byte[]> blocks,
+                                                     TransactionId tid) {
+        return target.putRaw(owner, writer, signatures, blocks, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        return target.putHashed(owner, writer, signatures, blocks, hashes, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+        return target.recursivePin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+        return target.recursiveUnpin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+        return target.pinUpdate(owner, existing, updated);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+        return target.getLinks(root);
+    }
+
+    @Override
+    public String toString() {
+        return "DiskBlockCache " + root;
+    }
+}
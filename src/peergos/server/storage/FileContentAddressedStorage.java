@@ -74,6 +74,18 @@ public class FileContentAddressedStorage implements ContentAddressedStorage {
         return put(writer, signatures, blocks, true);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        return CompletableFuture.completedFuture(IntStream.range(0, blocks.size())
+                .mapToObj(i -> put(blocks.get(i), hashes.get(i)))
+                .collect(Collectors.toList()));
+    }
+
     private CompletableFuture<List<Multihash>> put(PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks, boolean isRaw) {
         return CompletableFuture.completedFuture(blocks.stream()
                 .map(b -> put(b, isRaw))
@@ -148,9 +160,12 @@ public class FileContentAddressedStorage implements ContentAddressedStorage {
     }
 
     public Multihash put(byte[] data, boolean isRaw) {
+        Multihash rawhash = new Multihash(Multihash.Type.sha2_256, RAMStorage.hash(data));
+        return put(data, new Cid(CID_V1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, rawhash));
+    }
+
+    private Multihash put(byte[] data, Cid cid) {
         try {
-            Multihash rawhash = new Multihash(Multihash.Type.sha2_256, RAMStorage.hash(data));
-            Cid cid = new Cid(CID_V1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, rawhash);
             Path filePath = getFilePath(cid);
             Path target = root.resolve(filePath);
             Path parent = target.getParent();
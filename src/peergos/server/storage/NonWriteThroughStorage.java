@@ -2,6 +2,7 @@ package peergos.server.storage;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.storage.*;
@@ -51,6 +52,16 @@ public class NonWriteThroughStorage implements ContentAddressedStorage {
         return modifications.putRaw(owner, writer, signatures, blocks, tid);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        return modifications.putHashed(owner, writer, signatures, blocks, hashes, tid);
+    }
+
     @Override
     public CompletableFuture<Optional<byte[]>> getRaw(Multihash object) {
         try {
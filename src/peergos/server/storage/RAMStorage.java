@@ -8,7 +8,6 @@ import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.storage.*;
 import peergos.shared.util.*;
 
-import java.security.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.stream.*;
@@ -62,6 +61,18 @@ public class RAMStorage implements ContentAddressedStorage {
                 }).collect(Collectors.toList()));
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        for (int i = 0; i < blocks.size(); i++)
+            put(hashes.get(i), blocks.get(i));
+        return CompletableFuture.completedFuture(new ArrayList<>(hashes));
+    }
+
     private synchronized void put(Cid cid, byte[] data) {
         storage.put(cid, data);
     }
@@ -132,16 +143,8 @@ public class RAMStorage implements ContentAddressedStorage {
         return new Cid(CID_V1, isRaw ? Cid.Codec.Raw : Cid.Codec.DagCbor, multihash);
     }
 
-    public static byte[] hash(byte[] input)
-    {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(input);
-            return md.digest();
-        } catch (NoSuchAlgorithmException e)
-        {
-            throw new IllegalStateException("couldn't find hash algorithm");
-        }
+    public static byte[] hash(byte[] input) {
+        return Hash.sha256(input);
     }
 
     @Override
@@ -0,0 +1,136 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.corenode.*;
+import peergos.server.mutable.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.asymmetric.curve25519.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class BlacklistTests {
+
+    @BeforeClass
+    public static void init() {
+        PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, new Ed25519.Java());
+    }
+
+    private static class MemoryPointers implements MutablePointers {
+        private final Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        // writers whose next pointer lookup fails
+        public final Set<PublicKeyHash> failOnce = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+            pointers.put(writer, signed);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+            if (failOnce.remove(writer)) {
+                CompletableFuture<Optional<byte[]>> err = new CompletableFuture<>();
+                err.completeExceptionally(new IllegalStateException("Pointer unavailable"));
+                return err;
+            }
+            return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writer)));
+        }
+    }
+
+    private static SigningPrivateKeyAndPublicHash createKey(ContentAddressedStorage dht) throws Exception {
+        SigningKeyPair pair = SigningKeyPair.insecureRandom();
+        PublicKeyHash hash = ContentAddressedStorage.hashKey(pair.publicSigningKey);
+        dht.putSigningKey(pair.secretSigningKey.signatureOnly(pair.publicSigningKey.serialize()), hash,
+                pair.publicSigningKey, dht.startTransaction(hash).get()).get();
+        return new SigningPrivateKeyAndPublicHash(hash, pair.secretSigningKey);
+    }
+
+    private static void commit(PublicKeyHash owner, SigningPrivateKeyAndPublicHash writer, WriterData wd,
+                               MutablePointers mutable, ContentAddressedStorage dht) throws Exception {
+        MaybeMultihash current = mutable.getPointerTarget(owner, writer.publicKeyHash, dht).get();
+        Transaction.call(owner, tid -> wd.commit(owner, writer, current, mutable, dht, c -> {}, tid), dht).get();
+    }
+
+    private static void waitFor(Supplier<Boolean> condition) throws Exception {
+        long end = System.currentTimeMillis() + 20_000;
+        while (! condition.get() && System.currentTimeMillis() < end)
+            Thread.sleep(50);
+    }
+
+    @Test
+    public void ownedKeyChangesAreAppliedIncrementally() throws Exception {
+        RAMStorage dht = new RAMStorage();
+        MutableEventPropagator mutable = new MutableEventPropagator(new MemoryPointers());
+        SigningPrivateKeyAndPublicHash identity = createKey(dht);
+        PublicKeyHash owner = identity.publicKeyHash;
+        SigningPrivateKeyAndPublicHash child = createKey(dht);
+        SigningPrivateKeyAndPublicHash grandchild = createKey(dht);
+        commit(owner, child, WriterData.createEmpty(owner), mutable, dht);
+        commit(owner, identity, WriterData.createEmpty(owner).addOwnedKey(child.publicKeyHash), mutable, dht);
+
+        CoreNode core = UserRepository.buildSqlLite(":memory:", dht, CoreNode.MAX_USERNAME_COUNT);
+        core.updateChain("bob", Arrays.asList(new UserPublicKeyLink(owner, UserPublicKeyLink.Claim.build("bob",
+                identity.secret, LocalDate.now().plusMonths(2), Arrays.asList(dht.id().get()))))).get();
+
+        Path source = Files.createTempFile("blacklist", ".txt");
+        Files.write(source, Arrays.asList("bob"));
+        UserBasedBlacklist blacklist = new UserBasedBlacklist(source, core, mutable, dht);
+        mutable.addListener(blacklist::accept);
+        waitFor(() -> ! blacklist.isAllowed(child.publicKeyHash));
+        Assert.assertFalse("Identity banned", blacklist.isAllowed(owner));
+        Assert.assertFalse("Owned key banned", blacklist.isAllowed(child.publicKeyHash));
+        Assert.assertTrue(blacklist.isAllowed(grandchild.publicKeyHash));
+
+        // a new owned key is banned from the pointer update alone
+        commit(owner, child, WriterData.createEmpty(owner).addOwnedKey(grandchild.publicKeyHash), mutable, dht);
+        waitFor(() -> ! blacklist.isAllowed(grandchild.publicKeyHash));
+        Assert.assertFalse("New owned key banned", blacklist.isAllowed(grandchild.publicKeyHash));
+
+        Files.write(source, Collections.emptyList());
+        source.toFile().setLastModified(System.currentTimeMillis() + 10_000);
+        waitFor(() -> blacklist.isAllowed(owner));
+        for (PublicKeyHash key : Arrays.asList(owner, child.publicKeyHash, grandchild.publicKeyHash))
+            Assert.assertTrue("Unbanned", blacklist.isAllowed(key));
+        Files.delete(source);
+    }
+
+    @Test
+    public void failedLoadsAreRetried() throws Exception {
+        RAMStorage dht = new RAMStorage();
+        MemoryPointers pointers = new MemoryPointers();
+        SigningPrivateKeyAndPublicHash identity = createKey(dht);
+        PublicKeyHash owner = identity.publicKeyHash;
+        SigningPrivateKeyAndPublicHash child = createKey(dht);
+        SigningPrivateKeyAndPublicHash grandchild = createKey(dht);
+        commit(owner, grandchild, WriterData.createEmpty(owner), pointers, dht);
+        commit(owner, child, WriterData.createEmpty(owner).addOwnedKey(grandchild.publicKeyHash), pointers, dht);
+        commit(owner, identity, WriterData.createEmpty(owner).addOwnedKey(child.publicKeyHash), pointers, dht);
+
+        CoreNode core = UserRepository.buildSqlLite(":memory:", dht, CoreNode.MAX_USERNAME_COUNT);
+        core.updateChain("bob", Arrays.asList(new UserPublicKeyLink(owner, UserPublicKeyLink.Claim.build("bob",
+                identity.secret, LocalDate.now().plusMonths(2), Arrays.asList(dht.id().get()))))).get();
+
+        // the owned key can't be loaded the first time, and nothing else will change its pointer
+        pointers.failOnce.add(child.publicKeyHash);
+        Path source = Files.createTempFile("blacklist", ".txt");
+        Files.write(source, Arrays.asList("bob"));
+        UserBasedBlacklist blacklist = new UserBasedBlacklist(source, core, pointers, dht);
+        waitFor(() -> ! blacklist.isAllowed(grandchild.publicKeyHash));
+        Assert.assertFalse("Identity banned", blacklist.isAllowed(owner));
+        Assert.assertFalse("Owned key banned after retry", blacklist.isAllowed(child.publicKeyHash));
+        Assert.assertFalse("Its owned key banned too", blacklist.isAllowed(grandchild.publicKeyHash));
+        Files.delete(source);
+    }
+}
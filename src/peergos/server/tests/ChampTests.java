@@ -11,7 +11,9 @@ import peergos.shared.storage.*;
 import peergos.shared.util.*;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampTests {
 
@@ -133,6 +135,150 @@ public class ChampTests {
             }
     }
 
+    @Test
+    public void bulkOperations() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+        Function<ByteArrayWrapper, byte[]> hasher = x -> x.data;
+
+        List<Triple<byte[], MaybeMultihash, MaybeMultihash>> updates = new ArrayList<>();
+        Map<ByteArrayWrapper, MaybeMultihash> state = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            byte[] key = randomHash.get().toBytes();
+            MaybeMultihash value = MaybeMultihash.of(randomHash.get());
+            updates.add(new Triple<>(key, MaybeMultihash.empty(), value));
+            state.put(new ByteArrayWrapper(key), value);
+        }
+        // overwrite some of them in the same batch
+        for (int i = 0; i < 50; i++) {
+            Triple<byte[], MaybeMultihash, MaybeMultihash> original = updates.get(i * 7);
+            MaybeMultihash value = MaybeMultihash.of(randomHash.get());
+            updates.add(new Triple<>(original.left, original.right, value));
+            state.put(new ByteArrayWrapper(original.left), value);
+        }
+
+        ChampWrapper sequential = ChampWrapper.create(user.publicKeyHash, user, hasher, tid, storage).get();
+        Multihash sequentialRoot = null;
+        for (Triple<byte[], MaybeMultihash, MaybeMultihash> update : updates)
+            sequentialRoot = sequential.put(user.publicKeyHash, user, update.left, update.middle, update.right.get(), tid).get();
+
+        RAMStorage bulkStorage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash bulkUser = createUser(bulkStorage, crypto);
+        ChampWrapper bulk = ChampWrapper.create(bulkUser.publicKeyHash, bulkUser, hasher, tid, bulkStorage).get();
+        int before = bulkStorage.size();
+        Multihash bulkRoot = bulk.putAll(bulkUser.publicKeyHash, bulkUser, updates, tid).get();
+        Assert.assertEquals("Same tree as sequential puts", sequentialRoot, bulkRoot);
+        int written = bulkStorage.size() - before;
+        Assert.assertTrue("Only the final nodes are written", written < storage.size() / 4);
+
+        Map<ByteArrayWrapper, MaybeMultihash> all = bulk.getAll(state.keySet().stream()
+                .map(k -> k.data)
+                .collect(Collectors.toList())).get();
+        Assert.assertEquals("Multi-get", state, all);
+        Assert.assertEquals("Missing key", MaybeMultihash.empty(),
+                bulk.getAll(Arrays.asList(randomHash.get().toBytes())).get().values().iterator().next());
+
+        Map<ByteArrayWrapper, MaybeMultihash> walked = new HashMap<>();
+        bulk.applyToAllMappingsInParallel(4, p -> walked.put(p.left, p.right)).get();
+        Assert.assertEquals("Parallel walk", state, walked);
+
+        // a conflicting update means none are applied
+        List<Triple<byte[], MaybeMultihash, MaybeMultihash>> conflicting = Arrays.asList(
+                new Triple<>(randomHash.get().toBytes(), MaybeMultihash.empty(), MaybeMultihash.of(randomHash.get())),
+                new Triple<>(updates.get(1).left, MaybeMultihash.empty(), MaybeMultihash.of(randomHash.get())));
+        try {
+            bulk.putAll(bulkUser.publicKeyHash, bulkUser, conflicting, tid).get();
+            Assert.fail("Conflicting update should fail");
+        } catch (ExecutionException e) {}
+        Assert.assertEquals("Tree unchanged", MaybeMultihash.empty(), bulk.get(conflicting.get(0).left).get());
+    }
+
+    @Test
+    public void diff() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        int bitWidth = 3;
+        int maxCollisions = 2;
+        SigningPrivateKeyAndPublicHash user = createUser(storage, crypto);
+        Random r = new Random(28);
+        Supplier<Multihash> randomHash = () -> {
+            byte[] hash = new byte[32];
+            r.nextBytes(hash);
+            return new Multihash(Multihash.Type.sha2_256, hash);
+        };
+        TransactionId tid = storage.startTransaction(user.publicKeyHash).get();
+
+        for (int prefixLen = 0; prefixLen < 3; prefixLen++)
+            for (int i = 0; i < 20; i++) {
+                int suffixLen = 3;
+                Pair<Champ, Multihash> original = randomTree(user, r, prefixLen, suffixLen, r.nextInt(100),
+                        bitWidth, maxCollisions, randomHash, storage);
+                Map<ByteArrayWrapper, MaybeMultihash> before = mappings(original.left, storage);
+
+                // add, change and remove some mappings
+                Pair<Champ, Multihash> updated = original;
+                Map<ByteArrayWrapper, MaybeMultihash> after = new HashMap<>(before);
+                List<ByteArrayWrapper> existing = new ArrayList<>(before.keySet());
+                for (int j = 0; j < r.nextInt(20); j++) {
+                    int op = r.nextInt(3);
+                    if (op == 0 || existing.isEmpty()) {
+                        ByteArrayWrapper key = new ByteArrayWrapper(randomKey(new byte[0], prefixLen + suffixLen, r));
+                        if (after.containsKey(key))
+                            continue;
+                        MaybeMultihash value = MaybeMultihash.of(randomHash.get());
+                        updated = updated.left.put(user.publicKeyHash, user, key, key.data, 0, MaybeMultihash.empty(),
+                                value, bitWidth, maxCollisions, x -> x.data, tid, storage, updated.right).get();
+                        after.put(key, value);
+                    } else {
+                        ByteArrayWrapper key = existing.remove(r.nextInt(existing.size()));
+                        if (op == 1) {
+                            MaybeMultihash value = MaybeMultihash.of(randomHash.get());
+                            updated = updated.left.put(user.publicKeyHash, user, key, key.data, 0, after.get(key),
+                                    value, bitWidth, maxCollisions, x -> x.data, tid, storage, updated.right).get();
+                            after.put(key, value);
+                        } else {
+                            updated = updated.left.remove(user.publicKeyHash, user, key, key.data, 0, after.get(key),
+                                    bitWidth, maxCollisions, tid, storage, updated.right).get();
+                            after.remove(key);
+                        }
+                    }
+                }
+
+                Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> expected = new HashMap<>();
+                for (ByteArrayWrapper key : before.keySet())
+                    if (! before.get(key).equals(after.getOrDefault(key, MaybeMultihash.empty())))
+                        expected.put(key, new Pair<>(before.get(key), after.getOrDefault(key, MaybeMultihash.empty())));
+                for (ByteArrayWrapper key : after.keySet())
+                    if (! before.containsKey(key))
+                        expected.put(key, new Pair<>(MaybeMultihash.empty(), after.get(key)));
+
+                Map<ByteArrayWrapper, Pair<MaybeMultihash, MaybeMultihash>> diff = new HashMap<>();
+                Champ.applyToDiff(MaybeMultihash.of(original.right), MaybeMultihash.of(updated.right), t -> {
+                    if (diff.put(t.left, new Pair<>(t.middle, t.right)) != null)
+                        throw new IllegalStateException("Duplicate change for " + t.left);
+                }, storage).get();
+                Assert.assertEquals("Changes", expected.keySet(), diff.keySet());
+                for (ByteArrayWrapper key : expected.keySet()) {
+                    Assert.assertEquals("Original value", expected.get(key).left, diff.get(key).left);
+                    Assert.assertEquals("Updated value", expected.get(key).right, diff.get(key).right);
+                }
+            }
+    }
+
+    private static Map<ByteArrayWrapper, MaybeMultihash> mappings(Champ champ, ContentAddressedStorage storage) throws Exception {
+        Map<ByteArrayWrapper, MaybeMultihash> res = new HashMap<>();
+        return champ.applyToAllMappings(res, (m, e) -> {
+            m.put(e.left, e.right);
+            return CompletableFuture.completedFuture(m);
+        }, storage).get();
+    }
+
     private static byte[] randomKey(byte[] startingWith, int extraBytes, Random r) {
         byte[] suffix = new byte[extraBytes];
         r.nextBytes(suffix);
@@ -0,0 +1,98 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.storage.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+public class DiskBlockCacheTests {
+
+    private static final PublicKeyHash OWNER = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, new byte[32]));
+
+    private static List<Multihash> putRandomBlocks(ContentAddressedStorage dht, int count, int size) throws Exception {
+        Random r = new Random(count);
+        List<byte[]> blocks = IntStream.range(0, count)
+                .mapToObj(i -> {
+                    byte[] block = new byte[size];
+                    r.nextBytes(block);
+                    return block;
+                }).collect(Collectors.toList());
+        List<byte[]> signatures = blocks.stream().map(b -> new byte[0]).collect(Collectors.toList());
+        return dht.putRaw(OWNER, OWNER, signatures, blocks, dht.startTransaction(OWNER).get()).get();
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (Stream<Path> all = Files.walk(dir)) {
+            all.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void blocksSurviveRestart() throws Exception {
+        Path dir = Files.createTempDirectory("block-cache");
+        try {
+            RAMStorage source = new RAMStorage();
+            List<Multihash> hashes = putRandomBlocks(source, 10, 1024);
+            DiskBlockCache cache = new DiskBlockCache(source, dir, 1024 * 1024);
+            for (Multihash h : hashes)
+                Assert.assertTrue(cache.getRaw(h).get().isPresent());
+
+            // a new process sees the same blocks without the source
+            DiskBlockCache restarted = new DiskBlockCache(new RAMStorage(), dir, 1024 * 1024);
+            Assert.assertEquals(10 * 1024, restarted.getTotalBytes());
+            for (Multihash h : hashes)
+                Assert.assertArrayEquals(source.getRaw(h).get().get(), restarted.getRaw(h).get().get());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void corruptBlocksAreRefetched() throws Exception {
+        Path dir = Files.createTempDirectory("block-cache");
+        try {
+            RAMStorage source = new RAMStorage();
+            Multihash hash = putRandomBlocks(source, 1, 1024).get(0);
+            DiskBlockCache cache = new DiskBlockCache(source, dir, 1024 * 1024);
+            byte[] original = cache.getRaw(hash).get().get();
+
+            try (Stream<Path> all = Files.walk(dir)) {
+                Path cached = all.filter(p -> p.toFile().isFile()).findFirst().get();
+                Files.write(cached, new byte[1024]);
+            }
+            Assert.assertArrayEquals("Refetched", original, cache.getRaw(hash).get().get());
+            DiskBlockCache restarted = new DiskBlockCache(new RAMStorage(), dir, 1024 * 1024);
+            Assert.assertArrayEquals("Cached again", original, restarted.getRaw(hash).get().get());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedAreEvicted() throws Exception {
+        Path dir = Files.createTempDirectory("block-cache");
+        try {
+            RAMStorage source = new RAMStorage();
+            List<Multihash> hashes = putRandomBlocks(source, 10, 1024);
+            DiskBlockCache cache = new DiskBlockCache(source, dir, 5 * 1024);
+            for (Multihash h : hashes.subList(0, 5))
+                cache.getRaw(h).get();
+            // use the first block again so it is the most recently used
+            cache.getRaw(hashes.get(0)).get();
+            cache.getRaw(hashes.get(5)).get();
+            Assert.assertEquals(5 * 1024, cache.getTotalBytes());
+
+            DiskBlockCache restarted = new DiskBlockCache(new RAMStorage(), dir, 5 * 1024);
+            Assert.assertTrue("Recently used kept", restarted.getRaw(hashes.get(0)).get().isPresent());
+            Assert.assertFalse("Least recently used evicted", restarted.getRaw(hashes.get(1)).get().isPresent());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.crypto.*;
+import peergos.shared.crypto.*;
+import peergos.shared.util.*;
+
+import java.math.*;
+import java.util.*;
+
+public class Ed25519VerifierTests {
+    private static Random random = new Random(666);
+
+    private static byte[] randomBytes(int length) {
+        byte[] res = new byte[length];
+        random.nextBytes(res);
+        return res;
+    }
+
+    private static byte[][] keyPair() {
+        byte[] publicKey = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES];
+        byte[] secretKey = randomBytes(TweetNaCl.SIGN_SECRET_KEY_BYTES);
+        TweetNaCl.crypto_sign_keypair(publicKey, secretKey, true);
+        return new byte[][] {publicKey, secretKey};
+    }
+
+    private static boolean tweetNaClAccepts(byte[] signature, byte[] message, byte[] publicKey) {
+        try {
+            byte[] unsigned = TweetNaCl.crypto_sign_open(ArrayOps.concat(signature, message), publicKey);
+            return Arrays.equals(unsigned, message);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void agreesWithTweetNaCl() {
+        for (int i = 0; i < 100; i++) {
+            byte[][] pair = keyPair();
+            byte[] message = randomBytes(random.nextInt(2000));
+            byte[] signature = Arrays.copyOfRange(TweetNaCl.crypto_sign(message, pair[1]), 0, TweetNaCl.SIGNATURE_SIZE_BYTES);
+            Ed25519Verifier.PublicKey key = Ed25519Verifier.decode(pair[0]).get();
+            Assert.assertTrue("Valid signature", Ed25519Verifier.verify(key, signature, message));
+
+            byte[] badSignature = Arrays.copyOf(signature, signature.length);
+            badSignature[random.nextInt(signature.length)] ^= 1 << random.nextInt(8);
+            Assert.assertEquals("Modified signature", tweetNaClAccepts(badSignature, message, pair[0]),
+                    Ed25519Verifier.verify(key, badSignature, message));
+            if (message.length > 0) {
+                byte[] badMessage = Arrays.copyOf(message, message.length);
+                badMessage[random.nextInt(message.length)] ^= 1;
+                Assert.assertFalse("Modified message", Ed25519Verifier.verify(key, signature, badMessage));
+            }
+            Ed25519Verifier.PublicKey otherKey = Ed25519Verifier.decode(keyPair()[0]).get();
+            Assert.assertFalse("Different key", Ed25519Verifier.verify(otherKey, signature, message));
+        }
+    }
+
+    @Test
+    public void rejectsUnreducedScalar() {
+        BigInteger order = BigInteger.ONE.shiftLeft(252).add(new BigInteger("27742317777372353535851937790883648493"));
+        for (int i = 0; i < 10; i++) {
+            byte[][] pair = keyPair();
+            byte[] message = randomBytes(100);
+            byte[] signature = Arrays.copyOfRange(TweetNaCl.crypto_sign(message, pair[1]), 0, TweetNaCl.SIGNATURE_SIZE_BYTES);
+            // s + L is a different encoding of the same scalar, which TweetNaCl doesn't check for
+            BigInteger s = new BigInteger(1, reverse(Arrays.copyOfRange(signature, 32, 64)));
+            byte[] unreduced = reverse(padded(s.add(order).toByteArray(), 32));
+            byte[] malleated = ArrayOps.concat(Arrays.copyOfRange(signature, 0, 32), unreduced);
+            Assert.assertTrue("TweetNaCl accepts s + L", tweetNaClAccepts(malleated, message, pair[0]));
+            Ed25519Verifier.PublicKey key = Ed25519Verifier.decode(pair[0]).get();
+            Assert.assertFalse("s + L rejected", Ed25519Verifier.verify(key, malleated, message));
+            Assert.assertTrue("Original accepted", Ed25519Verifier.verify(key, signature, message));
+        }
+    }
+
+    private static byte[] reverse(byte[] in) {
+        byte[] res = new byte[in.length];
+        for (int i = 0; i < in.length; i++)
+            res[i] = in[in.length - 1 - i];
+        return res;
+    }
+
+    /** A big endian unsigned value of exactly length bytes
+     */
+    private static byte[] padded(byte[] bigEndian, int length) {
+        byte[] res = new byte[length];
+        int toCopy = Math.min(length, bigEndian.length);
+        System.arraycopy(bigEndian, bigEndian.length - toCopy, res, length - toCopy, toCopy);
+        return res;
+    }
+
+    @Test
+    public void batch() {
+        byte[][] pair = keyPair();
+        Ed25519Verifier.PublicKey key = Ed25519Verifier.decode(pair[0]).get();
+        List<byte[]> messages = new ArrayList<>();
+        List<byte[]> signatures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] message = randomBytes(100 + i);
+            messages.add(message);
+            signatures.add(Arrays.copyOfRange(TweetNaCl.crypto_sign(message, pair[1]), 0, TweetNaCl.SIGNATURE_SIZE_BYTES));
+        }
+        Assert.assertTrue("Valid batch", Ed25519Verifier.verifyAll(key, signatures, messages));
+        signatures.set(7, signatures.get(8));
+        Assert.assertFalse("Invalid batch", Ed25519Verifier.verifyAll(key, signatures, messages));
+    }
+
+    @Test
+    public void invalidKeys() {
+        int invalid = 0;
+        for (int i = 0; i < 100; i++) {
+            byte[] candidate = randomBytes(TweetNaCl.SIGN_PUBLIC_KEY_BYTES);
+            Optional<Ed25519Verifier.PublicKey> key = Ed25519Verifier.decode(candidate);
+            if (! key.isPresent())
+                invalid++;
+        }
+        // about half of all 32 byte strings are not valid points
+        Assert.assertTrue("Some keys rejected", invalid > 20 && invalid < 80);
+    }
+}
@@ -0,0 +1,56 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
+
+public class FuturesTests {
+
+    @Test
+    public void mapManyCompletedInOrder() throws Exception {
+        List<Integer> input = IntStream.range(0, 200_000).boxed().collect(Collectors.toList());
+        List<Integer> res = Futures.mapAllInOrder(input, 4, i -> CompletableFuture.completedFuture(i * 2)).get();
+        Assert.assertEquals(input.size(), res.size());
+        for (int i = 0; i < res.size(); i++)
+            Assert.assertEquals(i * 2, (int) res.get(i));
+    }
+
+    @Test
+    public void mapWithBoundedParallelism() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            AtomicInteger running = new AtomicInteger(0);
+            AtomicInteger maxRunning = new AtomicInteger(0);
+            List<Integer> input = IntStream.range(0, 200).boxed().collect(Collectors.toList());
+            List<Integer> res = Futures.mapAllInOrder(input, 3, i -> CompletableFuture.supplyAsync(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {}
+                running.decrementAndGet();
+                return i;
+            }, pool)).get(30, TimeUnit.SECONDS);
+            Assert.assertEquals(input, res);
+            Assert.assertTrue("At most 3 concurrent mappings", maxRunning.get() <= 3);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void mapFailsOnFirstError() throws Exception {
+        List<Integer> input = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+        try {
+            Futures.mapAllInOrder(input, 2, i -> i == 50 ?
+                    Futures.errored(new IllegalStateException("Expected")) :
+                    CompletableFuture.completedFuture(i)).get();
+            Assert.fail("Error not propagated");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
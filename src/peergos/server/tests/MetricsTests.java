@@ -0,0 +1,65 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.metrics.*;
+import peergos.server.storage.*;
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.util.*;
+
+public class MetricsTests {
+
+    @Test
+    public void quantilesAreWithinBucketPrecision() {
+        Histogram histogram = new Histogram();
+        for (int i=1; i <= 10_000; i++)
+            histogram.recordMicros(i);
+        Assert.assertEquals(10_000, histogram.getCount());
+        for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+            long exact = (long) (quantile * 10_000);
+            long estimate = histogram.getQuantileMicros(quantile);
+            Assert.assertTrue("At least the true quantile", estimate >= exact);
+            Assert.assertTrue("Within an eighth of the true quantile", estimate <= exact * 9 / 8);
+        }
+    }
+
+    @Test
+    public void exportsPrometheusFormat() {
+        Metrics metrics = new Metrics();
+        metrics.counter("test_requests_total", "Requests", "op", "get").add(3);
+        Assert.assertSame(metrics.counter("test_requests_total", "Requests", "op", "get"),
+                metrics.counter("test_requests_total", "Requests", "op", "get"));
+        metrics.gauge("test_ratio", "A ratio", () -> 0.5);
+        metrics.histogram("test_latency_seconds", "Latency").recordMicros(2_000_000);
+
+        List<String> lines = Arrays.asList(metrics.export().split("\n"));
+        Assert.assertTrue(lines.contains("# TYPE test_requests_total counter"));
+        Assert.assertTrue(lines.contains("test_requests_total{op=\"get\"} 3"));
+        Assert.assertTrue(lines.contains("test_ratio 0.5"));
+        Assert.assertTrue(lines.contains("test_latency_seconds_count 1"));
+        Assert.assertTrue(lines.contains("test_latency_seconds_sum 2.0"));
+        Assert.assertTrue(lines.stream().anyMatch(l -> l.startsWith("test_latency_seconds{quantile=\"0.99\"} 2.")));
+    }
+
+    @Test
+    public void storageCallsAreMeasured() throws Exception {
+        Metrics metrics = new Metrics();
+        MeasuredStorage storage = new MeasuredStorage(new RAMStorage(), "test", metrics);
+        PublicKeyHash owner = new PublicKeyHash(new Multihash(Multihash.Type.sha2_256, new byte[32]));
+        Multihash block = storage.putRaw(owner, owner, new byte[0], new byte[100], storage.startTransaction(owner).get()).get();
+        storage.getRaw(block).get();
+        Assert.assertEquals(1, storage.getReads());
+
+        byte[] cbor = new CborObject.CborString("hello").toByteArray();
+        Multihash cborBlock = storage.put(owner, owner, new byte[0], cbor, storage.startTransaction(owner).get()).get();
+        Assert.assertEquals(new CborObject.CborString("hello"), storage.get(cborBlock).get().get());
+        Assert.assertEquals(2, storage.getReads());
+
+        String exported = metrics.export();
+        Assert.assertTrue(exported.contains("peergos_storage_bytes_in_total{layer=\"test\"} " + (100 + cbor.length)));
+        Assert.assertTrue(exported.contains("peergos_storage_bytes_out_total{layer=\"test\"} " + (100 + cbor.length)));
+        Assert.assertTrue(exported.contains("peergos_storage_seconds_count{layer=\"test\",op=\"getRaw\"} 1"));
+    }
+}
@@ -92,7 +92,8 @@ public class MultiNodeNetworkTests {
                     .with("proxy-target", Main.getLocalMultiAddress(peergosPort).toString())
                     .with("ipfs-api-address", Main.getLocalMultiAddress(ipfsApiPort).toString())
                     .with("mutable-pointers-file", ":memory:")
-                    .with("social-sql-file", ":memory:");
+                    .with("social-sql-file", ":memory:")
+                    .with("pin-queue-file", ":memory:");
             Main.PEERGOS.main(normalNode);
 
             IPFS ipfs = new IPFS(Main.getLocalMultiAddress(ipfsApiPort));
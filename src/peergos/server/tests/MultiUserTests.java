@@ -114,6 +114,111 @@ public class MultiUserTests {
         Assert.assertTrue("Different data key", ! UserTests.getDataKey(copy).equals(UserTests.getDataKey(u1File)));
     }
 
+    @Test
+    public void newSharesSeenAfterCachedLogin() throws Exception {
+        UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
+        String u2Password = "b";
+        UserContext u2 = PeergosNetworkUtils.ensureSignedUp(random(), u2Password, network.clear(), crypto);
+
+        u2.sendFollowRequest(u1.username, SymmetricKey.random()).get();
+        List<FollowRequestWithCipherText> u1Requests = u1.processFollowRequests().get();
+        for (FollowRequestWithCipherText u1Request : u1Requests)
+            u1.sendReplyFollowRequest(u1Request, true, true).get();
+        u2.processFollowRequests().get();
+
+        List<String> filenames = Arrays.asList("first.txt", "second.txt");
+        for (String filename : filenames) {
+            byte[] data = filename.getBytes();
+            u1.getUserRoot().get().uploadFile(filename, new AsyncReader.ArrayBacked(data), data.length,
+                    u1.network, u1.crypto.random, l -> {}, u1.fragmenter()).get();
+            u1.shareWith(Paths.get(u1.username, filename), Collections.singleton(u2.username)).get();
+
+            // each login after the first reads the capability cache written by the previous one
+            UserContext freshLogin = UserContext.signIn(u2.username, u2Password, network.clear(), crypto).get();
+            for (String shared : filenames.subList(0, filenames.indexOf(filename) + 1))
+                Assert.assertTrue("shared file present after login",
+                        freshLogin.getByPath(u1.username + "/" + shared).get().isPresent());
+        }
+    }
+
+    @Test
+    public void sameTreeWhateverSignInParallelism() throws Exception {
+        UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
+        String u2Password = "b";
+        UserContext u2 = PeergosNetworkUtils.ensureSignedUp(random(), u2Password, network.clear(), crypto);
+
+        u2.sendFollowRequest(u1.username, SymmetricKey.random()).get();
+        for (FollowRequestWithCipherText u1Request : u1.processFollowRequests().get())
+            u1.sendReplyFollowRequest(u1Request, true, true).get();
+        u2.processFollowRequests().get();
+
+        u1.getUserRoot().get().mkdir("subdir", u1.network, false, u1.crypto.random).get();
+        List<Path> shared = Arrays.asList(Paths.get(u1.username, "a.txt"), Paths.get(u1.username, "b.txt"),
+                Paths.get(u1.username, "subdir", "c.txt"), Paths.get(u1.username, "subdir", "d.txt"));
+        for (Path path : shared) {
+            byte[] data = path.toString().getBytes();
+            u1.getByPath(path.getParent().toString()).get().get().uploadFile(path.getFileName().toString(),
+                    new AsyncReader.ArrayBacked(data), data.length, u1.network, u1.crypto.random, l -> {}, u1.fragmenter()).get();
+            u1.shareWith(path, Collections.singleton(u2.username)).get();
+        }
+
+        Map<Integer, Set<String>> visible = new HashMap<>();
+        try {
+            for (int parallelism : Arrays.asList(1, 8)) {
+                UserContext.setSignInParallelism(parallelism);
+                UserContext login = UserContext.signIn(u2.username, u2Password, network.clear(), crypto).get();
+                for (Path path : shared)
+                    Assert.assertTrue("shared file present", login.getByPath(path.toString()).get().isPresent());
+                Set<String> names = new HashSet<>();
+                for (String dir : Arrays.asList(u1.username, u1.username + "/subdir"))
+                    login.getByPath(dir).get().get().getChildren(login.network).get()
+                            .forEach(f -> names.add(dir + "/" + f.getName()));
+                visible.put(parallelism, names);
+            }
+        } finally {
+            UserContext.setSignInParallelism(UserContext.DEFAULT_SIGN_IN_PARALLELISM);
+        }
+        Assert.assertEquals(visible.get(1), visible.get(8));
+    }
+
+    @Test
+    public void capabilityCachesOfSeveralFriendsSavedAtSignIn() throws Exception {
+        String password = "b";
+        UserContext u = PeergosNetworkUtils.ensureSignedUp(random(), password, network.clear(), crypto);
+        List<UserContext> friends = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            UserContext friend = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
+            u.sendFollowRequest(friend.username, SymmetricKey.random()).get();
+            for (FollowRequestWithCipherText request : friend.processFollowRequests().get())
+                friend.sendReplyFollowRequest(request, true, true).get();
+            friends.add(friend);
+        }
+        u.processFollowRequests().get();
+        for (UserContext friend : friends) {
+            byte[] data = friend.username.getBytes();
+            friend.getUserRoot().get().uploadFile("a.txt", new AsyncReader.ArrayBacked(data), data.length,
+                    friend.network, friend.crypto.random, l -> {}, friend.fragmenter()).get();
+            friend.shareWith(Paths.get(friend.username, "a.txt"), Collections.singleton(u.username)).get();
+        }
+
+        // the friends' caches, and the directory holding them, are created concurrently on the next sign in
+        Optional<FileWrapper> cacheDir = u.getByPath(u.username + "/" + CapabilityStore.CAPABILITY_CACHE_DIR).get();
+        if (cacheDir.isPresent())
+            cacheDir.get().remove(u.network, u.getUserRoot().get()).get();
+        UserContext login = UserContext.signIn(u.username, password, network.clear(), crypto).get();
+        for (UserContext friend : friends)
+            Assert.assertTrue("shared file present", login.getByPath(friend.username + "/a.txt").get().isPresent());
+        Set<String> cached = login.getByPath(u.username + "/" + CapabilityStore.CAPABILITY_CACHE_DIR).get().get()
+                .getChildren(login.network).get().stream()
+                .map(FileWrapper::getName)
+                .collect(Collectors.toSet());
+        Assert.assertEquals(friends.stream().map(f -> f.username).collect(Collectors.toSet()), cached);
+        long cacheDirs = login.getUserRoot().get().getChildren(login.network).get().stream()
+                .filter(f -> f.getName().equals(CapabilityStore.CAPABILITY_CACHE_DIR))
+                .count();
+        Assert.assertEquals(1, cacheDirs);
+    }
+
     @Test
     public void shareTwoFilesWithSameName() throws Exception {
         UserContext u1 = PeergosNetworkUtils.ensureSignedUp(random(), "a", network.clear(), crypto);
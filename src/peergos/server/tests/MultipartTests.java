@@ -3,6 +3,7 @@ package peergos.server.tests;
 import com.sun.net.httpserver.*;
 import org.junit.*;
 import peergos.server.net.*;
+import peergos.server.storage.*;
 import peergos.shared.io.ipfs.api.*;
 
 import java.io.*;
@@ -16,6 +17,7 @@ public class MultipartTests {
     private final int port;
     private final HttpServer server;
     private final Queue<List<byte[]>> received = new LinkedBlockingQueue<>();
+    private final Queue<Boolean> hashesCorrect = new LinkedBlockingQueue<>();
     private final Random r = new Random(1);
 
     public MultipartTests() throws IOException {
@@ -40,7 +42,9 @@ public class MultipartTests {
                     .map(s -> s.substring(s.indexOf("=") + 1))
                     .findAny()
                     .get();
-            List<byte[]> data = MultipartReceiver.extractFiles(httpExchange.getRequestBody(), boundary);
+            List<MultipartReceiver.HashedFile> files = MultipartReceiver.extractHashedFiles(httpExchange.getRequestBody(), boundary);
+            hashesCorrect.add(files.stream().allMatch(f -> Arrays.equals(f.sha256, RAMStorage.hash(f.data))));
+            List<byte[]> data = files.stream().map(f -> f.data).collect(Collectors.toList());
             received.add(data);
             httpExchange.sendResponseHeaders(200, 0);
             DataOutputStream dout = new DataOutputStream(httpExchange.getResponseBody());
@@ -92,5 +96,6 @@ public class MultipartTests {
                 .mapToObj(Integer::valueOf)
                 .collect(Collectors.toList());
         Assert.assertTrue("Same result on other end: " + differences, differences.size() == 0);
+        Assert.assertTrue("Hashed while receiving", hashesCorrect.poll());
     }
 }
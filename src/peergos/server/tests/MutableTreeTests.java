@@ -0,0 +1,116 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class MutableTreeTests {
+
+    private static final Crypto crypto = Crypto.initJava();
+
+    /** Stores pointers in memory, and holds the first pointer update until released */
+    private static class HeldPointers implements MutablePointers {
+        private final Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        public final AtomicInteger updates = new AtomicInteger(0);
+        public final CompletableFuture<Boolean> release = new CompletableFuture<>();
+        public final AtomicBoolean failNextGet = new AtomicBoolean(false);
+
+        @Override
+        public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+            pointers.put(writer, signed);
+            if (updates.incrementAndGet() == 1)
+                return release.thenApply(x -> true);
+            return CompletableFuture.completedFuture(true);
+        }
+
+        @Override
+        public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+            if (failNextGet.getAndSet(false))
+                return Futures.errored(new IllegalStateException("Pointer unavailable"));
+            return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writer)));
+        }
+    }
+
+    private static Multihash randomHash(Random r) {
+        byte[] hash = new byte[32];
+        r.nextBytes(hash);
+        return new Multihash(Multihash.Type.sha2_256, hash);
+    }
+
+    @Test
+    public void queuedUpdatesAreCommittedTogether() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+        PublicKeyHash owner = user.publicKeyHash;
+        HeldPointers pointers = new HeldPointers();
+        MutableTreeImpl tree = new MutableTreeImpl(pointers, storage);
+        TransactionId tid = storage.startTransaction(owner).get();
+        Random r = new Random(42);
+
+        byte[] firstKey = randomHash(r).toBytes();
+        CompletableFuture<Boolean> first = tree.put(owner, user, firstKey, MaybeMultihash.empty(), randomHash(r), tid);
+        Assert.assertFalse("First commit held", first.isDone());
+
+        Map<byte[], Multihash> mappings = new HashMap<>();
+        List<CompletableFuture<Boolean>> queued = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] key = randomHash(r).toBytes();
+            Multihash value = randomHash(r);
+            mappings.put(key, value);
+            queued.add(tree.put(owner, user, key, MaybeMultihash.empty(), value, tid));
+        }
+        // this one expects the first key to be absent, so it should fail on its own
+        CompletableFuture<Boolean> conflicting = tree.put(owner, user, firstKey, MaybeMultihash.empty(), randomHash(r), tid);
+
+        pointers.release.complete(true);
+        Assert.assertTrue("First put", first.get());
+        for (CompletableFuture<Boolean> put : queued)
+            Assert.assertTrue("Queued put", put.get());
+        try {
+            conflicting.get();
+            Assert.fail("Conflicting put should fail");
+        } catch (ExecutionException e) {}
+
+        Assert.assertEquals("Queued updates committed together", 2, pointers.updates.get());
+        for (Map.Entry<byte[], Multihash> e : mappings.entrySet())
+            Assert.assertEquals("Mapping present", MaybeMultihash.of(e.getValue()), tree.get(owner, owner, e.getKey()).get());
+    }
+
+    @Test
+    public void laterUpdatesSucceedAfterWriterDataFailure() throws Exception {
+        RAMStorage storage = new RAMStorage();
+        SigningPrivateKeyAndPublicHash user = ChampTests.createUser(storage, crypto);
+        PublicKeyHash owner = user.publicKeyHash;
+        HeldPointers pointers = new HeldPointers();
+        MutableTreeImpl tree = new MutableTreeImpl(pointers, storage);
+        TransactionId tid = storage.startTransaction(owner).get();
+        Random r = new Random(42);
+
+        CompletableFuture<Boolean> first = tree.put(owner, user, randomHash(r).toBytes(), MaybeMultihash.empty(), randomHash(r), tid);
+        // this batch waits for the first commit, then fails to get the writer data
+        CompletableFuture<Boolean> failing = tree.put(owner, user, randomHash(r).toBytes(), MaybeMultihash.empty(), randomHash(r), tid);
+        pointers.failNextGet.set(true);
+        pointers.release.complete(true);
+        Assert.assertTrue("First put", first.get());
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            Assert.fail("Put should fail when the writer data can't be retrieved");
+        } catch (ExecutionException e) {}
+
+        byte[] key = randomHash(r).toBytes();
+        Multihash value = randomHash(r);
+        Assert.assertTrue("Later put", tree.put(owner, user, key, MaybeMultihash.empty(), value, tid).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(MaybeMultihash.of(value), tree.get(owner, owner, key).get());
+    }
+}
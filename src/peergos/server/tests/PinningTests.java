@@ -0,0 +1,136 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.corenode.*;
+import peergos.server.mutable.*;
+import peergos.server.storage.*;
+import peergos.shared.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
+import peergos.shared.storage.*;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class PinningTests {
+    private static final Crypto crypto = Crypto.initJava();
+
+    private static Multihash hash(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        return new Multihash(Multihash.Type.sha2_256, hash);
+    }
+
+    @Test
+    public void queuedPinsAreCoalescedAndPersisted() throws Exception {
+        Path file = Files.createTempFile("pins", ".sql");
+        try {
+            PublicKeyHash owner = new PublicKeyHash(hash(100));
+            PublicKeyHash writer = new PublicKeyHash(hash(101));
+            PinQueue queue = PinQueue.buildSqlLite(file.toString());
+            queue.add(owner, writer, Optional.empty(), hash(1));
+            queue.add(owner, writer, Optional.of(hash(1)), hash(2));
+            PinQueue.Job job = queue.get(writer).get();
+            Assert.assertFalse(job.pinned.isPresent());
+            Assert.assertEquals(hash(2), job.target);
+            Assert.assertTrue(queue.completed(job));
+            Assert.assertEquals(0, queue.size());
+
+            queue.add(owner, writer, Optional.of(hash(2)), hash(3));
+            PinQueue reopened = PinQueue.buildSqlLite(file.toString());
+            PinQueue.Job persisted = reopened.get(writer).get();
+            Assert.assertEquals(owner, persisted.owner);
+            Assert.assertEquals(hash(2), persisted.pinned.get());
+            Assert.assertEquals(hash(3), persisted.target);
+
+            // reverting to the pinned root while a pin is in flight must not unpin it
+            reopened.add(owner, writer, Optional.of(hash(3)), hash(2));
+            Assert.assertFalse(reopened.completed(persisted));
+            Assert.assertEquals(hash(3), reopened.get(writer).get().pinned.get());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static class SlowPinningStorage extends RAMStorage {
+        public final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        public final CountDownLatch started = new CountDownLatch(1);
+        public final CountDownLatch release = new CountDownLatch(1);
+
+        private void await() {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+            await();
+            calls.add("pin " + h);
+            return super.recursivePin(owner, h);
+        }
+
+        @Override
+        public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+            await();
+            calls.add("update " + existing + " " + updated);
+            return super.pinUpdate(owner, existing, updated);
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+            calls.add("unpin " + h);
+            return super.recursiveUnpin(owner, h);
+        }
+    }
+
+    @Test
+    public void updatesDoNotWaitForPinsAndAreCoalesced() throws Exception {
+        SlowPinningStorage storage = new SlowPinningStorage();
+        SigningPrivateKeyAndPublicHash writer = ChampTests.createUser(storage, crypto);
+        PublicKeyHash owner = writer.publicKeyHash;
+        TransactionId tid = storage.startTransaction(owner).get();
+        List<Multihash> roots = new ArrayList<>();
+        for (int i=0; i < 3; i++)
+            roots.add(storage.putRaw(owner, writer.publicKeyHash, new byte[0], new byte[]{(byte) i}, tid).get());
+
+        MutablePointers pointers = UserRepository.buildSqlLite(":memory:", storage, CoreNode.MAX_USERNAME_COUNT);
+        PinQueue queue = PinQueue.buildSqlLite(":memory:");
+        PinningMutablePointers pinning = new PinningMutablePointers(pointers, storage, queue, 2);
+
+        MaybeMultihash current = MaybeMultihash.empty();
+        for (Multihash root : roots) {
+            HashCasPair cas = new HashCasPair(current, MaybeMultihash.of(root));
+            Assert.assertTrue(pinning.setPointer(owner, writer.publicKeyHash, writer.secret.signMessage(cas.serialize()))
+                    .get(5, TimeUnit.SECONDS));
+            current = MaybeMultihash.of(root);
+            // the first pin is now in progress, so the later updates must wait for it
+            storage.started.await();
+        }
+        Assert.assertTrue("No pins have completed", storage.calls.isEmpty());
+
+        // a root which isn't stored is rejected
+        HashCasPair missing = new HashCasPair(current, MaybeMultihash.of(hash(7)));
+        try {
+            pinning.setPointer(owner, writer.publicKeyHash, writer.secret.signMessage(missing.serialize())).get();
+            Assert.fail("Pointer updated to a missing root");
+        } catch (ExecutionException expected) {}
+
+        storage.release.countDown();
+        long end = System.currentTimeMillis() + 10_000;
+        while ((queue.size() > 0 || storage.calls.size() < 3) && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        Assert.assertEquals(Arrays.asList(
+                "pin " + roots.get(0),
+                "update " + roots.get(0) + " " + roots.get(2),
+                "unpin " + roots.get(0)), storage.calls);
+    }
+}
@@ -0,0 +1,172 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.storage.*;
+import peergos.shared.corenode.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.asymmetric.*;
+import peergos.shared.crypto.asymmetric.curve25519.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+public class ProxyingTests {
+
+    @BeforeClass
+    public static void init() {
+        PublicSigningKey.addProvider(PublicSigningKey.Type.Ed25519, new Ed25519.Java());
+    }
+
+    private static Multihash nodeId(int i) {
+        byte[] hash = new byte[32];
+        hash[0] = (byte) i;
+        return new Multihash(Multihash.Type.sha2_256, hash);
+    }
+
+    /** Serves a single user's chain from memory, counting the lookups */
+    private static class SingleUserCoreNode implements CoreNode {
+        public final String username = "bob";
+        public final SigningKeyPair user = SigningKeyPair.insecureRandom();
+        public final PublicKeyHash owner = ContentAddressedStorage.hashKey(user.publicSigningKey);
+        public final AtomicInteger lookups = new AtomicInteger(0);
+        private volatile Multihash storageNode;
+
+        public SingleUserCoreNode(Multihash storageNode) {
+            this.storageNode = storageNode;
+        }
+
+        public void move(Multihash storageNode) {
+            this.storageNode = storageNode;
+        }
+
+        @Override
+        public CompletableFuture<List<UserPublicKeyLink>> getChain(String username) {
+            UserPublicKeyLink.Claim claim = UserPublicKeyLink.Claim.build(username, user.secretSigningKey,
+                    LocalDate.now().plusMonths(2), Arrays.asList(storageNode));
+            return CompletableFuture.completedFuture(Arrays.asList(new UserPublicKeyLink(owner, claim)));
+        }
+
+        @Override
+        public CompletableFuture<Boolean> updateChain(String username, List<UserPublicKeyLink> chain) {
+            throw new IllegalStateException("Unimplemented");
+        }
+
+        @Override
+        public CompletableFuture<String> getUsername(PublicKeyHash key) {
+            lookups.incrementAndGet();
+            return CompletableFuture.completedFuture(username);
+        }
+
+        @Override
+        public CompletableFuture<List<String>> getUsernames(String prefix) {
+            return CompletableFuture.completedFuture(Arrays.asList(username));
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /** Holds every raw put until released, then returns the hashes of the blocks */
+    private static class HeldProxy implements ContentAddressedStorageProxy {
+        public final List<Integer> putSizes = Collections.synchronizedList(new ArrayList<>());
+        public final CompletableFuture<Boolean> release = new CompletableFuture<>();
+
+        @Override
+        public CompletableFuture<List<Multihash>> putRaw(Multihash targetServerId,
+                                                         PublicKeyHash owner,
+                                                         PublicKeyHash writer,
+                                                         List<byte[]> signatures,
+                                                         List<byte[]> blocks,
+                                                         TransactionId tid) {
+            putSizes.add(blocks.size());
+            return release.thenApply(x -> {
+                List<Multihash> res = new ArrayList<>();
+                for (byte[] block : blocks)
+                    res.add(new Multihash(Multihash.Type.sha2_256, Hash.sha256(block)));
+                return res;
+            });
+        }
+
+        @Override
+        public CompletableFuture<TransactionId> startTransaction(Multihash targetServerId, PublicKeyHash owner) {
+            throw new IllegalStateException("Unimplemented");
+        }
+
+        @Override
+        public CompletableFuture<Boolean> closeTransaction(Multihash targetServerId, PublicKeyHash owner, TransactionId tid) {
+            throw new IllegalStateException("Unimplemented");
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> put(Multihash targetServerId,
+                                                      PublicKeyHash owner,
+                                                      PublicKeyHash writer,
+                                                      List<byte[]> signatures,
+                                                      List<byte[]> blocks,
+                                                      TransactionId tid) {
+            throw new IllegalStateException("Unimplemented");
+        }
+
+        @Override
+        public CompletableFuture<List<MultiAddress>> pinUpdate(Multihash targetServerId, PublicKeyHash owner, Multihash existing, Multihash updated) {
+            throw new IllegalStateException("Unimplemented");
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> recursivePin(Multihash targetServerId, PublicKeyHash owner, Multihash h) {
+            throw new IllegalStateException("Unimplemented");
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> recursiveUnpin(Multihash targetServerId, PublicKeyHash owner, Multihash h) {
+            throw new IllegalStateException("Unimplemented");
+        }
+    }
+
+    @Test
+    public void routesAreCachedUntilInvalidated() throws Exception {
+        SingleUserCoreNode core = new SingleUserCoreNode(nodeId(1));
+        StorageNodeRouter router = new StorageNodeRouter(core, nodeId(0));
+
+        Assert.assertEquals(Optional.of(nodeId(1)), router.getStorageNode(core.owner).get());
+        Assert.assertEquals(Optional.of(nodeId(1)), router.getStorageNode(core.owner).get());
+        Assert.assertEquals("Route cached", 1, core.lookups.get());
+
+        core.move(nodeId(2));
+        router.invalidate(core.username);
+        Assert.assertEquals("Route updated", Optional.of(nodeId(2)), router.getStorageNode(core.owner).get());
+        Assert.assertEquals(2, core.lookups.get());
+    }
+
+    @Test
+    public void concurrentProxiedPutsAreGrouped() throws Exception {
+        SingleUserCoreNode core = new SingleUserCoreNode(nodeId(1));
+        HeldProxy p2p = new HeldProxy();
+        ContentAddressedStorage proxying = new ContentAddressedStorage.Proxying(new RAMStorage(), p2p,
+                new StorageNodeRouter(core, nodeId(0)));
+        TransactionId tid = new TransactionId("tid");
+
+        Random r = new Random(42);
+        Map<byte[], CompletableFuture<List<Multihash>>> puts = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] block = new byte[1024];
+            r.nextBytes(block);
+            puts.put(block, proxying.putRaw(core.owner, core.owner, Arrays.asList(new byte[0]), Arrays.asList(block), tid));
+        }
+        p2p.release.complete(true);
+
+        for (Map.Entry<byte[], CompletableFuture<List<Multihash>>> e : puts.entrySet())
+            Assert.assertEquals("Hash of own block", Arrays.asList(new Multihash(Multihash.Type.sha2_256, Hash.sha256(e.getKey()))),
+                    e.getValue().get());
+        int maxInFlight = ContentAddressedStorage.Proxying.MAX_PROXIED_PUTS_IN_FLIGHT;
+        Assert.assertEquals("Queued puts grouped", maxInFlight + 1, p2p.putSizes.size());
+        Assert.assertEquals("Remaining puts in one request", 20 - maxInFlight, (int) p2p.putSizes.get(maxInFlight));
+        Assert.assertEquals("One route lookup", 1, core.lookups.get());
+    }
+}
@@ -0,0 +1,73 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.symmetric.*;
+
+import java.util.*;
+
+public class SecretBoxTests {
+    private static Random random = new Random(666);
+    private static final Salsa20Poly1305 impl = new Salsa20Poly1305.Java();
+
+    private static byte[] randomBytes(int length) {
+        byte[] res = new byte[length];
+        random.nextBytes(res);
+        return res;
+    }
+
+    @Test
+    public void compatibleWithTweetNaCl() {
+        List<Integer> lengths = new ArrayList<>();
+        for (int i = 0; i < 300; i++)
+            lengths.add(i);
+        lengths.addAll(Arrays.asList(4095, 4096, 4097, 5 * 1024 * 1024));
+        for (int length : lengths) {
+            byte[] key = randomBytes(TweetNaCl.SECRETBOX_KEY_BYTES);
+            byte[] nonce = randomBytes(TweetNaCl.SECRETBOX_NONCE_BYTES);
+            byte[] plain = randomBytes(length);
+
+            byte[] expected = TweetNaCl.secretbox(plain, nonce, key);
+            byte[] cipher = impl.secretbox(plain, nonce, key);
+            Assert.assertArrayEquals("Cipher text for length " + length, expected, cipher);
+            Assert.assertArrayEquals("Decrypt TweetNaCl cipher text", plain, impl.secretbox_open(expected, nonce, key));
+            Assert.assertArrayEquals("TweetNaCl decrypts our cipher text", plain, TweetNaCl.secretbox_open(cipher, nonce, key));
+        }
+    }
+
+    @Test
+    public void offsets() throws Exception {
+        byte[] key = randomBytes(TweetNaCl.SECRETBOX_KEY_BYTES);
+        byte[] nonce = randomBytes(TweetNaCl.SECRETBOX_NONCE_BYTES);
+        byte[] plain = randomBytes(1000);
+        byte[] expected = TweetNaCl.secretbox(Arrays.copyOfRange(plain, 7, 907), nonce, key);
+
+        Assert.assertArrayEquals("Offset encrypt", expected, impl.secretbox(plain, 7, 900, nonce, key));
+        byte[] padded = new byte[expected.length + 10];
+        System.arraycopy(expected, 0, padded, 3, expected.length);
+        Assert.assertArrayEquals("Offset decrypt", Arrays.copyOfRange(plain, 7, 907),
+                impl.secretbox_open(padded, 3, expected.length, nonce, key));
+
+        Assert.assertArrayEquals("Offset async decrypt", Arrays.copyOfRange(plain, 7, 907),
+                impl.secretbox_openAsync(padded, 3, expected.length, nonce, key).get());
+    }
+
+    @Test
+    public void rejectModifiedCipherText() {
+        byte[] key = randomBytes(TweetNaCl.SECRETBOX_KEY_BYTES);
+        byte[] nonce = randomBytes(TweetNaCl.SECRETBOX_NONCE_BYTES);
+        byte[] cipher = impl.secretbox(randomBytes(100), nonce, key);
+        for (int i = 0; i < cipher.length; i++) {
+            byte[] modified = Arrays.copyOf(cipher, cipher.length);
+            modified[i] ^= 1;
+            try {
+                impl.secretbox_open(modified, nonce, key);
+                Assert.fail("Modified cipher text was accepted at index " + i);
+            } catch (TweetNaCl.InvalidCipherTextException expected) {}
+        }
+        try {
+            impl.secretbox_open(new byte[10], nonce, key);
+            Assert.fail("Truncated cipher text was accepted");
+        } catch (TweetNaCl.InvalidCipherTextException expected) {}
+    }
+}
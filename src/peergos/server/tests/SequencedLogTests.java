@@ -0,0 +1,61 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.server.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SequencedLogTests {
+
+    @Test
+    public void eventsSinceSequence() {
+        SequencedLog<String> log = new SequencedLog<>(3, new Semaphore(1));
+        long start = log.getSince(-1, 0, e -> true).sequence;
+        log.add("a");
+        log.add("b");
+        SequencedLog.Since<String> since = log.getSince(start, 0, e -> true);
+        Assert.assertTrue(since.isComplete);
+        Assert.assertEquals(Arrays.asList("a", "b"), since.events);
+
+        log.add("c");
+        log.add("d");
+        SequencedLog.Since<String> evicted = log.getSince(start, 0, e -> true);
+        Assert.assertFalse("Oldest event has been dropped", evicted.isComplete);
+        Assert.assertEquals(Arrays.asList("b", "c", "d"), evicted.events);
+        Assert.assertFalse("Sequence from another run", log.getSince(evicted.sequence + 1, 0, e -> true).isComplete);
+    }
+
+    @Test
+    public void waitsOnlyForRelevantEvents() throws Exception {
+        SequencedLog<String> log = new SequencedLog<>(10, new Semaphore(1));
+        long start = log.getSince(-1, 0, e -> true).sequence;
+        CompletableFuture<SequencedLog.Since<String>> waiting =
+                CompletableFuture.supplyAsync(() -> log.getSince(start, 10_000, "b"::equals));
+        Thread.sleep(100);
+        log.add("a");
+        Thread.sleep(100);
+        Assert.assertFalse("Irrelevant event ignored", waiting.isDone());
+        log.add("b");
+        Assert.assertEquals(Arrays.asList("a", "b"), waiting.get(5, TimeUnit.SECONDS).events);
+    }
+
+    @Test
+    public void waitersSharePermits() throws Exception {
+        Semaphore waiters = new Semaphore(1);
+        SequencedLog<String> first = new SequencedLog<>(10, waiters);
+        SequencedLog<String> second = new SequencedLog<>(10, waiters);
+        long start = first.getSince(-1, 0, e -> true).sequence;
+        CompletableFuture<SequencedLog.Since<String>> waiting =
+                CompletableFuture.supplyAsync(() -> first.getSince(start, 10_000, e -> true));
+        Thread.sleep(100);
+
+        // the only permit is taken by the waiter on the other log, so this returns straight away
+        long t0 = System.currentTimeMillis();
+        second.getSince(second.getSince(-1, 0, e -> true).sequence, 10_000, e -> true);
+        Assert.assertTrue("Didn't wait", System.currentTimeMillis() - t0 < 5_000);
+
+        first.add("a");
+        Assert.assertEquals(Collections.singletonList("a"), waiting.get(5, TimeUnit.SECONDS).events);
+    }
+}
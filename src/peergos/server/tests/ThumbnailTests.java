@@ -0,0 +1,122 @@
+package peergos.server.tests;
+
+import org.junit.*;
+import peergos.shared.user.fs.*;
+
+import javax.imageio.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+public class ThumbnailTests {
+    private static final int SIZE = 100;
+
+    private static byte[] jpeg(int width, int height, Color colour) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(colour);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ImageIO.write(image, "JPG", bout);
+        return bout.toByteArray();
+    }
+
+    private static Color centre(byte[] thumbnail) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        Assert.assertEquals("Thumbnail width", SIZE, image.getWidth());
+        Assert.assertEquals("Thumbnail height", SIZE, image.getHeight());
+        return new Color(image.getRGB(SIZE / 2, SIZE / 2));
+    }
+
+    /** Insert an EXIF APP1 segment whose first IFD points to an embedded JPEG thumbnail
+     *
+     */
+    private static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail) throws IOException {
+        return withExifThumbnail(jpeg, thumbnail, 8);
+    }
+
+    private static byte[] withExifThumbnail(byte[] jpeg, byte[] thumbnail, int ifd0Offset) throws IOException {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(tiff);
+        dout.writeBytes("MM");
+        dout.writeShort(42);
+        dout.writeInt(ifd0Offset); // IFD0
+        dout.writeShort(0); // no entries
+        dout.writeInt(14); // IFD1
+        dout.writeShort(2);
+        dout.writeShort(0x0201); // JPEGInterchangeFormat
+        dout.writeShort(4);
+        dout.writeInt(1);
+        dout.writeInt(44);
+        dout.writeShort(0x0202); // JPEGInterchangeFormatLength
+        dout.writeShort(4);
+        dout.writeInt(1);
+        dout.writeInt(thumbnail.length);
+        dout.writeInt(0); // no more IFDs
+        dout.write(thumbnail);
+
+        ByteArrayOutputStream res = new ByteArrayOutputStream();
+        res.write(jpeg, 0, 2); // SOI
+        DataOutputStream out = new DataOutputStream(res);
+        out.writeShort(0xFFE1);
+        out.writeShort(2 + 6 + tiff.size());
+        out.writeBytes("Exif");
+        out.writeShort(0);
+        out.write(tiff.toByteArray());
+        out.write(jpeg, 2, jpeg.length - 2);
+        return res.toByteArray();
+    }
+
+    @Test
+    public void largeImage() throws IOException {
+        byte[] image = jpeg(6000, 4000, Color.BLUE);
+        byte[] thumbnail = ThumbnailGenerator.generateImageThumbnail(image, SIZE);
+        Color centre = centre(thumbnail);
+        Assert.assertTrue("Blue thumbnail", centre.getBlue() > 200 && centre.getRed() < 50);
+    }
+
+    @Test
+    public void embeddedExifThumbnail() throws IOException {
+        byte[] image = withExifThumbnail(jpeg(2000, 1500, Color.BLUE), jpeg(160, 120, Color.RED));
+        byte[] thumbnail = ThumbnailGenerator.generateImageThumbnail(image, SIZE);
+        Color centre = centre(thumbnail);
+        Assert.assertTrue("Used embedded thumbnail", centre.getRed() > 200 && centre.getBlue() < 50);
+    }
+
+    @Test
+    public void exifOffsetBeyondSignedRange() throws IOException {
+        // an offset of 2^31 is negative as an int, and must not pass the bounds checks
+        byte[] image = withExifThumbnail(jpeg(2000, 1500, Color.BLUE), jpeg(160, 120, Color.RED), Integer.MIN_VALUE);
+        byte[] thumbnail = ThumbnailGenerator.generateImageThumbnail(image, SIZE);
+        Color centre = centre(thumbnail);
+        Assert.assertTrue("Ignored invalid embedded thumbnail", centre.getBlue() > 200 && centre.getRed() < 50);
+    }
+
+    @Test
+    public void invalidImage() throws Exception {
+        byte[] thumbnail = ThumbnailGenerator.generateImage(new byte[1000], SIZE).get();
+        Assert.assertEquals("No thumbnail", 0, thumbnail.length);
+    }
+
+    @Test
+    public void concurrentRequestsAllComplete() throws Exception {
+        // more requests than permits, from several threads, so some are queued and started by those finishing
+        byte[] image = jpeg(800, 600, Color.BLUE);
+        ExecutorService pool = Executors.newFixedThreadPool(ThumbnailGenerator.MAX_CONCURRENT * 4);
+        try {
+            List<Future<CompletableFuture<byte[]>>> requests = IntStream.range(0, ThumbnailGenerator.MAX_CONCURRENT * 8)
+                    .mapToObj(i -> pool.submit(() -> ThumbnailGenerator.generateImage(image, SIZE)))
+                    .collect(Collectors.toList());
+            for (Future<CompletableFuture<byte[]>> request : requests) {
+                Color centre = centre(request.get().get(30, TimeUnit.SECONDS));
+                Assert.assertTrue("Thumbnail generated", centre.getBlue() > 200);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
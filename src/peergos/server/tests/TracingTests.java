@@ -0,0 +1,88 @@
+package peergos.server.tests;
+
+import com.sun.net.httpserver.*;
+import org.junit.*;
+import peergos.server.metrics.*;
+import peergos.server.net.*;
+import peergos.shared.storage.*;
+import peergos.shared.user.*;
+import peergos.shared.util.*;
+
+import java.net.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TracingTests {
+
+    private static class Span {
+        public final String traceId, name;
+        public final boolean failed;
+
+        public Span(String traceId, String name, boolean failed) {
+            this.traceId = traceId;
+            this.name = name;
+            this.failed = failed;
+        }
+    }
+
+    @Test
+    public void spansAreWrittenToFile() throws Exception {
+        Path file = Files.createTempFile("spans", ".json");
+        try {
+            SpanFile spans = new SpanFile(file, new Metrics());
+            Trace trace = new Trace("abc123", spans);
+            trace.span("succeeds", () -> true);
+            try {
+                trace.span("fails", () -> {
+                    throw new IllegalStateException("Expected");
+                });
+            } catch (IllegalStateException expected) {}
+            trace.spanAsync("async", () -> CompletableFuture.completedFuture(true)).get();
+            spans.close();
+
+            List<String> lines = Files.readAllLines(file);
+            Assert.assertEquals(3, lines.size());
+            Assert.assertTrue(lines.stream().allMatch(line -> line.startsWith("{\"trace\":\"abc123\"")));
+            Assert.assertTrue(lines.get(0).contains("\"span\":\"succeeds\"") && ! lines.get(0).contains("error"));
+            Assert.assertTrue(lines.get(1).contains("\"span\":\"fails\"") && lines.get(1).contains("\"error\":true"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void traceIdIsPropagatedInHeader() throws Exception {
+        List<Span> recorded = Collections.synchronizedList(new ArrayList<>());
+        Tracer tracer = (traceId, span, start, duration, failed) -> recorded.add(new Span(traceId, span, failed));
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/test", new TracingHandler("test", exchange -> {
+            seen.add(Trace.current().id);
+            exchange.sendResponseHeaders(200, 0);
+            exchange.close();
+        }, tracer));
+        server.start();
+        try {
+            JavaPoster poster = new JavaPoster(new URL("http://localhost:" + server.getAddress().getPort() + "/"));
+            TransactionId tid = new TransactionId("1").withTrace("0123abcd");
+            poster.postMultipart("test", Arrays.asList(new byte[10]), ContentAddressedStorage.HTTP.traceHeaders(tid)).get();
+            Assert.assertEquals("0123abcd", seen.get(0));
+            // the request span is recorded after the response is sent
+            long end = System.currentTimeMillis() + 5_000;
+            while (recorded.isEmpty() && System.currentTimeMillis() < end)
+                Thread.sleep(10);
+            Assert.assertEquals("0123abcd", recorded.get(0).traceId);
+            Assert.assertEquals("http:test", recorded.get(0).name);
+            Assert.assertFalse(recorded.get(0).failed);
+
+            // untraced and invalid ids get a new trace
+            poster.postMultipart("test", Arrays.asList(new byte[10]),
+                    Collections.singletonMap(Tracer.HEADER, "not a \"valid\" id")).get();
+            Assert.assertTrue(Trace.isValidId(seen.get(1)));
+            Assert.assertEquals(Trace.NONE, Trace.current());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
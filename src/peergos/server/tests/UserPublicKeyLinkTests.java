@@ -2,7 +2,9 @@ package peergos.server.tests;
 
 import org.junit.*;
 import peergos.server.corenode.*;
+import peergos.server.mutable.*;
 import peergos.server.storage.*;
+import peergos.shared.*;
 import peergos.shared.cbor.*;
 import peergos.shared.corenode.CoreNode;
 import peergos.shared.corenode.UserPublicKeyLink;
@@ -12,17 +14,21 @@ import peergos.shared.crypto.asymmetric.curve25519.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.mutable.*;
 import peergos.shared.storage.*;
+import peergos.shared.user.*;
 
 import java.nio.file.*;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 
 public class UserPublicKeyLinkTests {
-    private final ContentAddressedStorage ipfs = new FileContentAddressedStorage(Paths.get("blockstore"));
+    private final ContentAddressedStorage ipfs = new FileContentAddressedStorage(Files.createTempDirectory("blockstore"));
     private final List<Multihash> id;
 
     public UserPublicKeyLinkTests() throws Exception {
@@ -133,6 +139,140 @@ public class UserPublicKeyLinkTests {
         } catch (ExecutionException e) {}
     }
 
+    @Test
+    public void ipfsCoreNodeCommitsQueuedUpdatesTogether() throws Exception {
+        SigningKeyPair pki = SigningKeyPair.insecureRandom();
+        PublicKeyHash pkiHash = putPublicSigningKey(pki);
+        AtomicInteger commits = new AtomicInteger(0);
+        CompletableFuture<Boolean> release = new CompletableFuture<>();
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+                pointers.put(writer, signed);
+                // hold the first commit until the other updates have queued
+                return commits.incrementAndGet() == 1 ? release : CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writer)));
+            }
+        };
+        IpfsCoreNode core = new IpfsCoreNode(pki, MaybeMultihash.empty(), ipfs, mutable, pkiHash);
+
+        Map<String, SigningKeyPair> users = new TreeMap<>();
+        Function<String, List<UserPublicKeyLink>> claim = username -> {
+            try {
+                SigningKeyPair user = users.computeIfAbsent(username, u -> SigningKeyPair.insecureRandom());
+                UserPublicKeyLink.Claim node = UserPublicKeyLink.Claim.build(username, user.secretSigningKey,
+                        LocalDate.now().plusMonths(2), id);
+                return Arrays.asList(new UserPublicKeyLink(putPublicSigningKey(user), node));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        List<UserPublicKeyLink> firstChain = claim.apply("first");
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(() -> core.updateChain("first", firstChain).join());
+        while (commits.get() == 0)
+            Thread.sleep(10);
+
+        List<CompletableFuture<Boolean>> queued = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String username = (i % 2 == 0 ? "alice" : "bob") + i;
+            List<UserPublicKeyLink> chain = claim.apply(username);
+            queued.add(core.updateChain(username, chain));
+        }
+        // claiming a taken name with a different key fails on its own
+        SigningKeyPair other = SigningKeyPair.insecureRandom();
+        CompletableFuture<Boolean> conflicting = core.updateChain("alice0", Arrays.asList(new UserPublicKeyLink(
+                putPublicSigningKey(other), UserPublicKeyLink.Claim.build("alice0", other.secretSigningKey,
+                LocalDate.now().plusMonths(2), id))));
+
+        release.complete(true);
+        Assert.assertTrue("First update", first.get());
+        for (CompletableFuture<Boolean> update : queued)
+            Assert.assertTrue("Queued update", update.get());
+        try {
+            conflicting.get();
+            Assert.fail("Conflicting claim should fail");
+        } catch (ExecutionException e) {}
+        Assert.assertEquals("Queued updates committed together", 2, commits.get());
+
+        for (String username : users.keySet())
+            Assert.assertEquals("Chain", claim.apply(username).get(0).owner, core.getChain(username).get().get(0).owner);
+        Assert.assertEquals("Prefix query", 10, core.getUsernames("alice").get().size());
+        Assert.assertEquals("All usernames", 21, core.getUsernames("").get().size());
+    }
+
+    @Test
+    public void mirrorFollowsPkiChanges() throws Exception {
+        SigningKeyPair peergos = SigningKeyPair.insecureRandom();
+        PublicKeyHash peergosHash = putPublicSigningKey(peergos);
+        SigningKeyPair pki = SigningKeyPair.insecureRandom();
+        PublicKeyHash pkiHash = putPublicSigningKey(pki);
+        PointerChangeLog changes = new PointerChangeLog(100, 2);
+        Map<PublicKeyHash, byte[]> pointers = new ConcurrentHashMap<>();
+        MutablePointers mutable = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+                pointers.put(writer, signed);
+                changes.accept(new MutableEvent(owner, writer, signed));
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+                return CompletableFuture.completedFuture(Optional.ofNullable(pointers.get(writer)));
+            }
+
+            @Override
+            public CompletableFuture<PointerChanges> getChanges(long since, int maxWaitMillis) {
+                return CompletableFuture.completedFuture(changes.getChanges(since, maxWaitMillis));
+            }
+        };
+        Transaction.call(peergosHash, tid -> WriterData.createEmpty(peergosHash).addNamedKey("pki", pkiHash)
+                .commit(peergosHash, new SigningPrivateKeyAndPublicHash(peergosHash, peergos.secretSigningKey),
+                        MaybeMultihash.empty(), mutable, ipfs, c -> {}, tid), ipfs).get();
+        IpfsCoreNode core = new IpfsCoreNode(pki, MaybeMultihash.empty(), ipfs, mutable, peergosHash);
+
+        Function<String, List<UserPublicKeyLink>> claim = username -> {
+            try {
+                SigningKeyPair user = SigningKeyPair.insecureRandom();
+                UserPublicKeyLink.Claim node = UserPublicKeyLink.Claim.build(username, user.secretSigningKey,
+                        LocalDate.now().plusMonths(2), id);
+                return Arrays.asList(new UserPublicKeyLink(putPublicSigningKey(user), node));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+        Assert.assertTrue(core.updateChain("first", claim.apply("first")).get());
+
+        MirrorCoreNode mirror = new MirrorCoreNode(core, ipfs, mutable, peergosHash);
+        // a miss is answered from the pki champ directly
+        Assert.assertEquals("Targeted lookup", core.getChain("first").get().get(0).owner,
+                mirror.getChain("first").get().get(0).owner);
+        Assert.assertTrue(mirror.getChain("late").get().isEmpty());
+        Assert.assertTrue(core.updateChain("late", claim.apply("late")).get());
+        Assert.assertTrue("Miss is cached", mirror.getChain("late").get().isEmpty());
+        Thread.sleep(MirrorCoreNode.MISS_CACHE_MILLIS);
+        Assert.assertEquals("Cached miss expires", core.getChain("late").get().get(0).owner,
+                mirror.getChain("late").get().get(0).owner);
+        mirror.start();
+        try {
+            Assert.assertTrue(core.updateChain("second", claim.apply("second")).get());
+            // much sooner than the polling period
+            long end = System.currentTimeMillis() + 10_000;
+            while (mirror.getUsernames("").get().size() < 3 && System.currentTimeMillis() < end)
+                Thread.sleep(50);
+            Assert.assertEquals("Change mirrored", Arrays.asList("first", "late", "second"), mirror.getUsernames("").get());
+            Assert.assertEquals("Reverse lookup", "second",
+                    mirror.getUsername(core.getChain("second").get().get(0).owner).get());
+        } finally {
+            mirror.close();
+        }
+    }
+
     private CoreNode getDefaultCoreNode() {
         try {
             return UserRepository.buildSqlLite(":memory:", ipfs, CoreNode.MAX_USERNAME_COUNT);
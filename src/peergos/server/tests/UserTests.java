@@ -10,6 +10,7 @@ import static org.junit.Assert.*;
 import peergos.server.storage.*;
 import peergos.server.util.PeergosNetworkUtils;
 import peergos.shared.*;
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.asymmetric.*;
 import peergos.shared.crypto.asymmetric.curve25519.*;
@@ -17,6 +18,8 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.crypto.symmetric.*;
 import peergos.server.*;
+import peergos.shared.mutable.*;
+import peergos.shared.social.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.*;
 import peergos.shared.user.fs.cryptree.*;
@@ -28,6 +31,7 @@ import java.net.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.stream.*;
 
 public abstract class UserTests {
@@ -143,6 +147,130 @@ public abstract class UserTests {
         Assert.assertTrue("Second sign up fails", secondSignup.isCompletedExceptionally());
     }
 
+    @Test
+    public void pointerChangesAndBatchedReads() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+        PublicKeyHash owner = userRoot.owner();
+        PublicKeyHash writer = userRoot.writer();
+        PointerChanges before = network.mutable.getChanges(-1, 0).get();
+        userRoot.mkdir("subdir", context.network, false, crypto.random).get();
+
+        PointerChanges after = network.mutable.getChanges(before.sequence, 0).get();
+        Assert.assertTrue("Change log is complete", after.isComplete);
+        Assert.assertTrue("Changed writer reported", after.writers.contains(writer));
+        PointerChanges none = network.mutable.getChanges(after.sequence, 0).get();
+        Assert.assertTrue("No further changes", none.writers.isEmpty());
+
+        byte[] single = network.mutable.getPointer(owner, writer).get().get();
+        List<Optional<byte[]>> batch = network.mutable.getPointers(owner, Arrays.asList(writer, writer)).get();
+        Assert.assertTrue("Batched read matches single read", batch.size() == 2 &&
+                batch.stream().allMatch(p -> Arrays.equals(p.get(), single)));
+    }
+
+    @Test
+    public void notificationsOfSubscribedKeys() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto);
+        UserContext other = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+        PublicKeyHash writer = userRoot.writer();
+        List<PublicKeyHash> writers = Arrays.asList(writer);
+        Notifications start = context.getNotifications(writers, -1, 0).get();
+
+        // a change to an unsubscribed writer doesn't end the wait, a change to a subscribed one does
+        CompletableFuture<Notifications> waiting = CompletableFuture.supplyAsync(
+                () -> context.getNotifications(writers, start.sequence, 20_000).join());
+        other.getUserRoot().get().mkdir("elsewhere", other.network, false, crypto.random).get();
+        userRoot.mkdir("subdir", context.network, false, crypto.random).get();
+        Assert.assertEquals("Woken by subscribed writer", Collections.singleton(writer),
+                waiting.get(15, TimeUnit.SECONDS).pointers.keySet());
+
+        Notifications changed = context.getNotifications(writers, start.sequence, 0).get();
+        Assert.assertTrue("Log is complete", changed.isComplete);
+        Assert.assertEquals("Only subscribed writers", Collections.singleton(writer), changed.pointers.keySet());
+        Assert.assertArrayEquals("Latest signed pointer included", network.mutable.getPointer(userRoot.owner(), writer).get().get(),
+                changed.pointers.get(writer));
+        Assert.assertFalse(changed.newFollowRequests);
+
+        other.sendInitialFollowRequest(context.username).get();
+        Notifications followed = context.getNotifications(writers, changed.sequence, 20_000).get();
+        Assert.assertTrue("Follow request notified", followed.newFollowRequests);
+        Assert.assertTrue("Nothing new", context.getNotifications(writers, followed.sequence, 0).get().isEmpty());
+    }
+
+    @Test
+    public void followRequestsArePagedFromCursor() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto);
+        for (int i=0; i < 3; i++)
+            PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto)
+                    .sendInitialFollowRequest(context.username).get();
+
+        byte[] auth = context.signer.secret.signMessage(new CborObject.CborLong(System.currentTimeMillis()).serialize());
+        FollowRequestPage first = network.social.getFollowRequests(context.signer.publicKeyHash, auth, 0, 2).get();
+        Assert.assertEquals(2, first.requests.size());
+        Assert.assertTrue(first.hasMore);
+        FollowRequestPage second = network.social.getFollowRequests(context.signer.publicKeyHash, auth, first.lastId(0), 2).get();
+        Assert.assertEquals(1, second.requests.size());
+        Assert.assertFalse(second.hasMore);
+        Assert.assertTrue("Ids increase", second.requests.get(0).left > first.lastId(0));
+
+        List<FollowRequestWithCipherText> pending = context.processFollowRequests().get();
+        Assert.assertEquals(3, pending.size());
+        Assert.assertEquals("Pending requests are kept", 3, context.processFollowRequests().get().size());
+        UserContext otherSession = UserContext.signIn(context.username, "password", network, crypto).get();
+        Assert.assertEquals(3, otherSession.processFollowRequests().get().size());
+
+        context.sendReplyFollowRequest(pending.get(0), false, false).get();
+        Assert.assertEquals("Removed request is dropped", 2, context.processFollowRequests().get().size());
+        Assert.assertEquals("Other session keeps its requests until the next full fetch",
+                3, otherSession.processFollowRequests().get().size());
+        UserContext.setFollowRequestFullFetchPeriod(0);
+        try {
+            Assert.assertEquals("Request removed elsewhere is dropped",
+                    2, otherSession.processFollowRequests().get().size());
+        } finally {
+            UserContext.setFollowRequestFullFetchPeriod(UserContext.DEFAULT_FOLLOW_REQUEST_FULL_FETCH_PERIOD_MILLIS);
+        }
+    }
+
+    @Test
+    public void followRequestsWithoutPages() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto);
+        for (int i=0; i < 2; i++)
+            PeergosNetworkUtils.ensureSignedUp(generateUsername(), "password", network, crypto)
+                    .sendInitialFollowRequest(context.username).get();
+
+        SocialNetwork social = network.social;
+        SocialNetwork withoutPages = new SocialNetwork() {
+            @Override
+            public CompletableFuture<Boolean> sendFollowRequest(PublicKeyHash target, byte[] encryptedPermission) {
+                return social.sendFollowRequest(target, encryptedPermission);
+            }
+
+            @Override
+            public CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner, byte[] signedTime) {
+                return social.getFollowRequests(owner, signedTime);
+            }
+
+            @Override
+            public CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, byte[] signedTime, long afterId, int maxCount) {
+                return Futures.errored(new IllegalStateException("Unknown method getFollowRequestPage"));
+            }
+
+            @Override
+            public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] data) {
+                return social.removeFollowRequest(owner, data);
+            }
+        };
+        NetworkAccess oldServer = new NetworkAccess(network.coreNode, withoutPages, network.dhtClient, network.mutable,
+                network.tree, network.usernames);
+        UserContext onOldServer = UserContext.signIn(context.username, "password", oldServer, crypto).get();
+        List<FollowRequestWithCipherText> pending = onOldServer.processFollowRequests().get();
+        Assert.assertEquals(2, pending.size());
+        onOldServer.sendReplyFollowRequest(pending.get(0), false, false).get();
+        Assert.assertEquals(1, onOldServer.processFollowRequests().get().size());
+    }
+
     @Test
     public void duplicateSignUp() throws Exception {
         UserContext.ensureSignedUp("q", "q", network, crypto).get();
@@ -262,9 +390,9 @@ public abstract class UserTests {
 
         //rename
         String newname = "newname.txt";
-        updatedRoot4.getDescendentByPath(otherName, context.network).get().get()
+        FileWrapper updatedRoot5 = updatedRoot4.getDescendentByPath(otherName, context.network).get().get()
                 .rename(newname, context.network, updatedRoot4).get();
-        checkFileContents(data3, updatedRoot4.getDescendentByPath(newname, context.network).get().get(), context);
+        checkFileContents(data3, updatedRoot5.getDescendentByPath(newname, context.network).get().get(), context);
         // check from the root as well
         checkFileContents(data3, context.getByPath(username + "/" + newname).get().get(), context);
         // check from a fresh log in too
@@ -474,6 +602,176 @@ public abstract class UserTests {
         Assert.assertTrue("Has thumbnail", thumbnail.length() > 0);
     }
 
+    @Test
+    public void bulkUpload() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+        int initialChildren = userRoot.getChildren(context.network).get().size();
+
+        byte[] existingData = randomData(1000);
+        userRoot = userRoot.uploadFile("existing.txt", new AsyncReader.ArrayBacked(existingData), existingData.length,
+                context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+
+        Map<String, byte[]> files = new HashMap<>();
+        files.put("existing.txt", randomData(2000));
+        for (int i = 0; i < 20; i++)
+            files.put("file" + i, randomData(random.nextInt(10_000)));
+        files.put("large", randomData(6 * 1024 * 1024));
+        List<FileUploadRequest> requests = files.entrySet().stream()
+                .map(e -> new FileUploadRequest(e.getKey(), new AsyncReader.ArrayBacked(e.getValue()), e.getValue().length))
+                .collect(Collectors.toList());
+        userRoot.uploadFiles(requests, 4, context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+
+        Set<FileWrapper> children = context.getByPath("/" + username).get().get().getChildren(context.network).get();
+        Assert.assertEquals("All files present", initialChildren + files.size(), children.size());
+        for (Map.Entry<String, byte[]> e : files.entrySet()) {
+            FileWrapper file = context.getByPath(Paths.get(username, e.getKey()).toString()).get().get();
+            checkFileContents(e.getValue(), file, context);
+        }
+    }
+
+    @Test
+    public void bulkUploadCommitsOnce() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        AtomicInteger commits = new AtomicInteger(0);
+        MutablePointers counting = new MutablePointers() {
+            @Override
+            public CompletableFuture<Boolean> setPointer(PublicKeyHash owner, PublicKeyHash writer, byte[] signed) {
+                commits.incrementAndGet();
+                return context.network.mutable.setPointer(owner, writer, signed);
+            }
+
+            @Override
+            public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
+                return context.network.mutable.getPointer(owner, writer);
+            }
+        };
+        NetworkAccess countingNetwork = new NetworkAccess(context.network.coreNode, context.network.social,
+                context.network.dhtClient, counting, new MutableTreeImpl(counting, context.network.dhtClient),
+                context.network.usernames);
+        FileWrapper userRoot = context.getUserRoot().get();
+        userRoot.mkdir("single", context.network, false, context.crypto.random).get();
+        userRoot = context.getUserRoot().get();
+        userRoot.mkdir("bulk", context.network, false, context.crypto.random).get();
+        String username = context.username;
+        int nFiles = 10;
+
+        FileWrapper single = context.getByPath(username + "/single").get().get();
+        for (int i = 0; i < nFiles; i++) {
+            byte[] data = randomData(1000);
+            single = single.uploadFile("file" + i, new AsyncReader.ArrayBacked(data), data.length, countingNetwork,
+                    context.crypto.random, l -> {}, context.fragmenter()).get();
+        }
+        int perFileCommits = commits.getAndSet(0);
+
+        List<FileUploadRequest> requests = IntStream.range(0, nFiles)
+                .mapToObj(i -> new FileUploadRequest("file" + i, new AsyncReader.ArrayBacked(randomData(1000)), 1000))
+                .collect(Collectors.toList());
+        context.getByPath(username + "/bulk").get().get()
+                .uploadFiles(requests, 4, countingNetwork, context.crypto.random, l -> {}, context.fragmenter()).get();
+        int bulkCommits = commits.get();
+
+        Assert.assertTrue("One commit per file and its link: " + perFileCommits, perFileCommits >= 2 * nFiles);
+        Assert.assertEquals("One commit for the chunks and one for the links", 2, bulkCommits);
+        Assert.assertEquals(nFiles, context.getByPath(username + "/bulk").get().get().getChildren(context.network).get().size());
+    }
+
+    @Test
+    public void bulkUploadRenamesNamesTakenConcurrently() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        String path = "/" + context.username + "/clash";
+        context.getUserRoot().get().mkdir("clash", context.network, false, context.crypto.random).get();
+        FileWrapper stale = context.getByPath(path).get().get();
+        byte[] data = "concurrent".getBytes();
+        context.getByPath(path).get().get().uploadFile("a.txt", new AsyncReader.ArrayBacked(data), data.length,
+                context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+
+        // the stale directory doesn't have a.txt, so the batch commit fails and is retried against the current one
+        List<FileUploadRequest> files = Stream.of("a.txt", "b.txt")
+                .map(name -> new FileUploadRequest(name, new AsyncReader.ArrayBacked(new byte[5]), 5))
+                .collect(Collectors.toList());
+        stale.uploadFiles(files, 2, context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+
+        Map<String, Long> sizes = context.getByPath(path).get().get().getChildren(context.network).get().stream()
+                .collect(Collectors.toMap(FileWrapper::getName, FileWrapper::getSize));
+        Map<String, Long> expected = new HashMap<>();
+        expected.put("a.txt", (long) data.length);
+        expected.put("a[1].txt", 5L);
+        expected.put("b.txt", 5L);
+        Assert.assertEquals(expected, sizes);
+        Assert.assertTrue("renamed child found", context.getByPath(path + "/a[1].txt").get().isPresent());
+    }
+
+    @Test
+    public void downloadSkipsUnchangedFiles() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+        FileWrapper dir = userRoot.mkdir("docs", context.network, false, context.crypto.random)
+                .thenCompose(x -> context.getByPath(Paths.get(username, "docs").toString()))
+                .get().get();
+
+        byte[] small = randomData(1000);
+        byte[] large = randomData(2 * Chunk.MAX_SIZE + 1000);
+        dir.uploadFiles(Arrays.asList(
+                new FileUploadRequest("small", new AsyncReader.ArrayBacked(small), small.length),
+                new FileUploadRequest("large", new AsyncReader.ArrayBacked(large), large.length),
+                new FileUploadRequest("empty", new AsyncReader.ArrayBacked(new byte[0]), 0)),
+                2, context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+
+        Path target = Files.createTempDirectory("peergos-download");
+        String origin = Paths.get(username, "docs").toString();
+        Downloader.downloadTo(context, origin, target, p -> true, Chunk.MAX_SIZE);
+        Path smallFile = target.resolve("docs").resolve("small");
+        Path largeFile = target.resolve("docs").resolve("large");
+        Assert.assertTrue("Small file", Arrays.equals(small, Files.readAllBytes(smallFile)));
+        Assert.assertTrue("Large file", Arrays.equals(large, Files.readAllBytes(largeFile)));
+        Assert.assertEquals("Empty file", 0, target.resolve("docs").resolve("empty").toFile().length());
+        Assert.assertTrue("Empty file", target.resolve("docs").resolve("empty").toFile().exists());
+
+        // mark the local copies so we can tell whether they are rewritten
+        smallFile.toFile().setLastModified(1_000_000_000_000L);
+        largeFile.toFile().setLastModified(1_000_000_000_000L);
+        byte[] modified = randomData(1000);
+        context.getByPath(origin).get().get().uploadFileSection("large", new AsyncReader.ArrayBacked(modified),
+                Chunk.MAX_SIZE, Chunk.MAX_SIZE + modified.length, Optional.empty(), true, context.network,
+                context.crypto.random, l -> {}, context.fragmenter()).get();
+        System.arraycopy(modified, 0, large, Chunk.MAX_SIZE, modified.length);
+
+        Downloader.downloadTo(context, origin, target, p -> true);
+        Assert.assertEquals("Unchanged file skipped", 1_000_000_000_000L, smallFile.toFile().lastModified());
+        Assert.assertTrue("Changed file updated", Arrays.equals(large, Files.readAllBytes(largeFile)));
+    }
+
+    @Test
+    public void uploadReadsSourceOnce() throws Exception {
+        String username = generateUsername();
+        String password = "test01";
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(username, password, network, crypto);
+        FileWrapper userRoot = context.getUserRoot().get();
+
+        String filename = "logo.png";
+        byte[] data = Files.readAllBytes(Paths.get("assets", "logo.png"));
+        AtomicLong bytesRead = new AtomicLong(0);
+        AsyncReader counting = new AsyncReader.ArrayBacked(data) {
+            @Override
+            public CompletableFuture<Integer> readIntoArray(byte[] res, int offset, int length) {
+                bytesRead.addAndGet(length);
+                return super.readIntoArray(res, offset, length);
+            }
+        };
+        userRoot.uploadFile(filename, counting, data.length, context.network,
+                context.crypto.random, l -> {}, context.fragmenter()).get();
+        Assert.assertEquals("Source read once", data.length, bytesRead.get());
+        FileWrapper file = context.getByPath(Paths.get(username, filename).toString()).get().get();
+        Assert.assertTrue("Has thumbnail", file.getBase64Thumbnail().length() > 0);
+        Assert.assertTrue("Mime type", file.getFileProperties().mimeType.startsWith("image"));
+        checkFileContents(data, file, context);
+    }
+
     @Ignore // until we figure out how to manage javafx in tests
     @Test
     public void javaVideoThumbnail() throws Exception {
@@ -649,6 +947,138 @@ public abstract class UserTests {
         FileWrapper theDir = context.getByPath(path).get().get();
         FileWrapper userRoot2 = context.getByPath("/" + username).get().get();
         FileWrapper renamed = theDir.rename("subdir2", network, userRoot2).get();
+
+        // check lookups by name see the rename
+        Assert.assertTrue("new name present", context.getByPath("/" + username + "/subdir2").get().isPresent());
+        Assert.assertFalse("old name absent", context.getByPath(path).get().isPresent());
+        Assert.assertTrue("child of renamed dir", context.getByPath("/" + username + "/subdir2/" + anotherDirName).get().isPresent());
+    }
+
+    private static FileWrapper dirWithFiles(UserContext context, String dirName, List<String> filenames) throws Exception {
+        String path = "/" + context.username + "/" + dirName;
+        context.getUserRoot().get().mkdir(dirName, context.network, false, context.crypto.random).get();
+        for (String filename : filenames) {
+            byte[] data = filename.getBytes();
+            context.getByPath(path).get().get().uploadFile(filename, new AsyncReader.ArrayBacked(data), data.length,
+                    context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+        }
+        return context.getByPath(path).get().get();
+    }
+
+    @Test
+    public void legacyUnindexedChildren() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        String path = "/" + context.username + "/legacy";
+        FileWrapper dir = dirWithFiles(context, "legacy", Arrays.asList("a.txt", "b.txt"));
+
+        // drop the name index, as an older client does when it rewrites a directory
+        WritableAbsoluteCapability cap = (WritableAbsoluteCapability) dir.getPointer().capability;
+        CryptreeNode indexed = dir.getPointer().fileAccess;
+        List<? extends Cborable> fields = ((CborObject.CborList) indexed.toCbor()).value;
+        DirAccess legacy = DirAccess.fromCbor(new CborObject.CborList(fields.subList(0, 8)), indexed.committedHash().get());
+        peergos.shared.storage.Transaction.call(context.signer.publicKeyHash,
+                tid -> legacy.commit(cap, context.network, tid), context.network.dhtClient).get();
+
+        for (String name : Arrays.asList("a.txt", "b.txt"))
+            Assert.assertTrue("unindexed child found", context.getByPath(path + "/" + name).get().isPresent());
+        Assert.assertFalse("missing child", context.getByPath(path + "/c.txt").get().isPresent());
+        try {
+            context.getByPath(path).get().get().mkdir("a.txt", context.network, false, context.crypto.random).get();
+            Assert.fail("Created a duplicate of an unindexed child");
+        } catch (ExecutionException expected) {}
+
+        // new children are indexed alongside the unindexed ones
+        byte[] data = "c".getBytes();
+        context.getByPath(path).get().get().uploadFile("c.txt", new AsyncReader.ArrayBacked(data), data.length,
+                context.network, context.crypto.random, l -> {}, context.fragmenter()).get();
+        for (String name : Arrays.asList("a.txt", "b.txt", "c.txt"))
+            Assert.assertTrue("child found", context.getByPath(path + "/" + name).get().isPresent());
+    }
+
+    @Test
+    public void renameRequiresWritableParent() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        String path = "/" + context.username + "/renames";
+        dirWithFiles(context, "renames", Arrays.asList("a.txt", "b.txt"));
+
+        // renaming without the parent would leave its index entry under the old name
+        try {
+            context.getByPath(path + "/a.txt").get().get().rename("c.txt", context.network, null).get();
+            Assert.fail("Renamed a child without updating its parent's index");
+        } catch (ExecutionException expected) {}
+
+        Assert.assertTrue("child keeps old name", context.getByPath(path + "/a.txt").get().isPresent());
+        Assert.assertFalse("new name absent", context.getByPath(path + "/c.txt").get().isPresent());
+        Assert.assertTrue("other child found", context.getByPath(path + "/b.txt").get().isPresent());
+    }
+
+    @Test
+    public void duplicateNamesRejected() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        String path = "/" + context.username + "/dups";
+        FileWrapper dir = dirWithFiles(context, "dups", Arrays.asList("a.txt", "b.txt"));
+
+        FileWrapper b = context.getByPath(path + "/b.txt").get().get();
+        b.rename("a.txt", context.network, dir).get();
+        Assert.assertTrue("rename onto existing child ignored", context.getByPath(path + "/b.txt").get().isPresent());
+
+        FileWrapper b2 = context.getByPath(path + "/b.txt").get().get();
+        FileProperties props = b2.getFileProperties();
+        FileProperties clash = new FileProperties("a.txt", props.mimeType, props.size, props.modified, props.isHidden, props.thumbnail);
+        try {
+            b2.setProperties(clash, context.network, context.getByPath(path).get().get()).get();
+            Assert.fail("Renamed to the name of an existing child");
+        } catch (ExecutionException expected) {}
+
+        // a rename through the parent updates its index
+        FileWrapper b3 = context.getByPath(path + "/b.txt").get().get();
+        b3.rename("d.txt", context.network, context.getByPath(path).get().get()).get();
+        FileWrapper updated = context.getByPath(path).get().get();
+        Assert.assertTrue(updated.hasChildWithName("d.txt", context.network).get());
+        Assert.assertFalse(updated.hasChildWithName("b.txt", context.network).get());
+        Assert.assertEquals(2, updated.getChildren(context.network).get().size());
+    }
+
+    @Test
+    public void folderSpanningSeveralBlobs() throws Exception {
+        UserContext context = PeergosNetworkUtils.ensureSignedUp(generateUsername(), "test01", network, crypto);
+        String path = "/" + context.username + "/big";
+        context.getUserRoot().get().mkdir("big", context.network, false, context.crypto.random).get();
+
+        // write the directory in blobs of 10 children, so it spans several
+        NetworkAccess smallBlobs = context.network.withMaxChildLinksPerBlob(10);
+        // more children than fit in two blobs, added in one commit which overflows the first blob twice
+        List<String> names = IntStream.range(0, 25)
+                .mapToObj(i -> "file" + i)
+                .collect(Collectors.toList());
+        List<FileUploadRequest> files = names.stream()
+                .map(name -> new FileUploadRequest(name, new AsyncReader.ArrayBacked(new byte[0]), 0))
+                .collect(Collectors.toList());
+        context.getByPath(path).get().get().uploadFiles(files, 4, smallBlobs, context.crypto.random,
+                l -> {}, context.fragmenter()).get();
+
+        // later additions go straight to the last blob, and overflow it
+        for (int i = 0; i < 6; i++)
+            context.getByPath(path).get().get().mkdir("dir" + i, smallBlobs, false, context.crypto.random).get();
+
+        FileWrapper dir = context.getByPath(path).get().get();
+        Set<String> childNames = dir.getChildren(smallBlobs).get().stream()
+                .map(FileWrapper::getName)
+                .collect(Collectors.toSet());
+        Assert.assertEquals(31, childNames.size());
+        Assert.assertTrue("All children present", childNames.containsAll(names));
+        for (String name : Arrays.asList("file0", "file15", "file24", "dir5"))
+            Assert.assertTrue("Child found by name", context.getByPath(path + "/" + name).get().isPresent());
+
+        // renames and removals of children in later blobs only rewrite those blobs
+        context.getByPath(path + "/file24").get().get().rename("renamed", smallBlobs, dir).get();
+        Assert.assertTrue(context.getByPath(path + "/renamed").get().isPresent());
+        Assert.assertFalse(context.getByPath(path + "/file24").get().isPresent());
+
+        FileWrapper toRemove = context.getByPath(path + "/file15").get().get();
+        toRemove.remove(smallBlobs, context.getByPath(path).get().get()).get();
+        Assert.assertFalse("Child in later blob removed", context.getByPath(path + "/file15").get().isPresent());
+        Assert.assertEquals(30, context.getByPath(path).get().get().getChildren(smallBlobs).get().size());
     }
 
     // This one takes a while, so disable most of the time
@@ -662,8 +1092,21 @@ public abstract class UserTests {
         IntStream.range(0, 2000).forEach(i -> names.add(randomString()));
 
         for (String filename: names) {
-            userRoot.mkdir(filename, context.network, false, context.crypto.random);
+            userRoot.mkdir(filename, context.network, false, context.crypto.random).get();
+            userRoot = context.getUserRoot().get();
         }
+
+        Set<String> childNames = userRoot.getChildren(context.network).get().stream()
+                .map(FileWrapper::getName)
+                .collect(Collectors.toSet());
+        Assert.assertTrue("All children present", childNames.containsAll(names));
+        for (String filename: Arrays.asList(names.get(0), names.get(names.size() - 1)))
+            Assert.assertTrue("Child found by name", userRoot.getChild(filename, context.network).get().isPresent());
+
+        FileWrapper last = userRoot.getChild(names.get(names.size() - 1), context.network).get().get();
+        last.remove(context.network, userRoot).get();
+        Assert.assertFalse("Child in later blob removed",
+                context.getUserRoot().get().getChild(names.get(names.size() - 1), context.network).get().isPresent());
     }
 
     public static void checkFileContents(byte[] expected, FileWrapper f, UserContext context) throws Exception {
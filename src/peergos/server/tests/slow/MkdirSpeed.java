@@ -32,7 +32,7 @@ public class MkdirSpeed {
     }
 
     private static NetworkAccess buildInProcessAccess(Random r) throws Exception {
-        ContentAddressedStorage dht = new FileContentAddressedStorage(Paths.get("blockstore"));
+        ContentAddressedStorage dht = new FileContentAddressedStorage(Files.createTempDirectory("blockstore"));
         UserRepository core = UserRepository.buildSqlLite(":memory:", dht, CoreNode.MAX_USERNAME_COUNT);
         MutableTree btree = new MutableTreeImpl(core, dht);
         return new NetworkAccess(core, core, dht, core, btree, Collections.emptyList());
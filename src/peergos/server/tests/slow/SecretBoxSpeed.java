@@ -0,0 +1,45 @@
+package peergos.server.tests.slow;
+
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.symmetric.*;
+
+import java.util.*;
+
+/** Compare the throughput of the TweetNaCl secretbox with the array based implementation used by Salsa20Poly1305.Java
+ *
+ */
+public class SecretBoxSpeed {
+    private static final int CHUNK_SIZE = 5 * 1024 * 1024;
+    private static final int WARMUP = 10, RUNS = 20;
+
+    public static void main(String[] args) {
+        Random r = new Random(666);
+        byte[] key = new byte[TweetNaCl.SECRETBOX_KEY_BYTES];
+        byte[] nonce = new byte[TweetNaCl.SECRETBOX_NONCE_BYTES];
+        byte[] data = new byte[CHUNK_SIZE];
+        r.nextBytes(key);
+        r.nextBytes(nonce);
+        r.nextBytes(data);
+        Salsa20Poly1305 impl = new Salsa20Poly1305.Java();
+        byte[] cipher = impl.secretbox(data, nonce, key);
+
+        time("TweetNaCl secretbox", () -> TweetNaCl.secretbox(data, nonce, key));
+        time("TweetNaCl secretbox_open", () -> TweetNaCl.secretbox_open(cipher, nonce, key));
+        time("secretbox", () -> impl.secretbox(data, nonce, key));
+        time("secretbox_open", () -> impl.secretbox_open(cipher, nonce, key));
+        byte[] padded = new byte[cipher.length + 8];
+        System.arraycopy(cipher, 0, padded, 8, cipher.length);
+        time("secretbox_open at offset", () -> impl.secretbox_open(padded, 8, cipher.length, nonce, key));
+    }
+
+    private static void time(String name, Runnable op) {
+        for (int i = 0; i < WARMUP; i++)
+            op.run();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < RUNS; i++)
+            op.run();
+        long t1 = System.nanoTime();
+        double mS = (t1 - t0) / 1_000_000.0 / RUNS;
+        System.out.printf("%s of 5 MiB: %.1f mS, %.0f MiB/s\n", name, mS, 5 * 1000 / mS);
+    }
+}
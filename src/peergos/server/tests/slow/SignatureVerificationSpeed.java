@@ -0,0 +1,45 @@
+package peergos.server.tests.slow;
+
+import peergos.server.crypto.*;
+import peergos.shared.crypto.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+
+/** Compare the time to verify block signatures with TweetNaCl and with Ed25519Verifier
+ *
+ */
+public class SignatureVerificationSpeed {
+    private static final int BLOCK_SIZE = 4096, BLOCKS = 500;
+
+    public static void main(String[] args) {
+        Random r = new Random(666);
+        byte[] publicKey = new byte[TweetNaCl.SIGN_PUBLIC_KEY_BYTES];
+        byte[] secretKey = new byte[TweetNaCl.SIGN_SECRET_KEY_BYTES];
+        r.nextBytes(secretKey);
+        TweetNaCl.crypto_sign_keypair(publicKey, secretKey, true);
+        List<byte[]> blocks = new ArrayList<>();
+        List<byte[]> signatures = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            byte[] block = new byte[BLOCK_SIZE];
+            r.nextBytes(block);
+            blocks.add(block);
+            signatures.add(Arrays.copyOfRange(TweetNaCl.crypto_sign(block, secretKey), 0, TweetNaCl.SIGNATURE_SIZE_BYTES));
+        }
+
+        for (int run = 0; run < 3; run++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < BLOCKS; i++)
+                TweetNaCl.crypto_sign_open(ArrayOps.concat(signatures.get(i), blocks.get(i)), publicKey);
+            long t1 = System.nanoTime();
+            Ed25519Verifier.PublicKey key = Ed25519Verifier.decode(publicKey).get();
+            for (int i = 0; i < BLOCKS; i++)
+                Ed25519Verifier.verify(key, signatures.get(i), blocks.get(i));
+            long t2 = System.nanoTime();
+            Ed25519Verifier.verifyAll(key, signatures, blocks);
+            long t3 = System.nanoTime();
+            System.out.printf("Per signature: TweetNaCl %.0f uS, Ed25519Verifier %.0f uS, batch %.0f uS\n",
+                    (t1 - t0) / 1000.0 / BLOCKS, (t2 - t1) / 1000.0 / BLOCKS, (t3 - t2) / 1000.0 / BLOCKS);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package peergos.server.util;
+
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** A bounded log of events, each with a sequence number, which callers can wait on for the events after a sequence
+ *  number they were given earlier.
+ *
+ *  Sequence numbers start from the time the server started, so a caller which was given a sequence number by a previous
+ *  run of the server is told that its view is incomplete.
+ */
+public class SequencedLog<T> {
+
+    /** What happened after a given sequence number */
+    public static class Since<T> {
+        public final long sequence;
+        // whether the log still holds every event after the given sequence number
+        public final boolean isComplete;
+        public final List<T> events;
+
+        public Since(long sequence, boolean isComplete, List<T> events) {
+            this.sequence = sequence;
+            this.isComplete = isComplete;
+            this.events = events;
+        }
+    }
+
+    private final int maxSize;
+    private final Semaphore waiters;
+    private final ArrayDeque<Pair<Long, T>> log = new ArrayDeque<>();
+    private long sequence = System.currentTimeMillis();
+
+    /**
+     *
+     * @param maxSize the maximum number of events to retain
+     * @param waiters limits the number of callers which can wait for an event at once, and may be shared between logs
+     */
+    public SequencedLog(int maxSize, Semaphore waiters) {
+        this.maxSize = maxSize;
+        this.waiters = waiters;
+    }
+
+    public synchronized void add(T event) {
+        sequence++;
+        log.addLast(new Pair<>(sequence, event));
+        if (log.size() > maxSize)
+            log.removeFirst();
+        notifyAll();
+    }
+
+    /**
+     *
+     * @param since the sequence number from a previous call, or -1 to just get the current sequence number
+     * @param maxWaitMillis how long to wait for a relevant event if there are none yet. Callers only wait if a waiter
+     *                      permit is free, otherwise they get the current state straight away.
+     * @param relevant which events to wait for
+     * @return the events after the given sequence number, oldest first
+     */
+    public Since<T> getSince(long since, int maxWaitMillis, Predicate<T> relevant) {
+        if (since >= 0 && maxWaitMillis > 0 && waiters.tryAcquire()) {
+            try {
+                waitFor(since, maxWaitMillis, relevant);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters.release();
+            }
+        }
+        synchronized (this) {
+            if (since < 0)
+                return new Since<>(sequence, true, Collections.emptyList());
+            long oldest = log.isEmpty() ? sequence + 1 : log.getFirst().left;
+            boolean isComplete = since >= oldest - 1 && since <= sequence;
+            List<T> events = new ArrayList<>();
+            for (Pair<Long, T> e : log)
+                if (e.left > since)
+                    events.add(e.right);
+            return new Since<>(sequence, isComplete, events);
+        }
+    }
+
+    private synchronized boolean hasRelevant(long since, Predicate<T> relevant) {
+        // a caller with a sequence number we can't answer for is told straight away
+        if (since > sequence || (! log.isEmpty() && since < log.getFirst().left - 1))
+            return true;
+        Iterator<Pair<Long, T>> newestFirst = log.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Pair<Long, T> e = newestFirst.next();
+            if (e.left <= since)
+                return false;
+            if (relevant.test(e.right))
+                return true;
+        }
+        return false;
+    }
+
+    private synchronized void waitFor(long since, int maxWaitMillis, Predicate<T> relevant) throws InterruptedException {
+        long end = System.currentTimeMillis() + maxWaitMillis;
+        long remaining = maxWaitMillis;
+        while (! hasRelevant(since, relevant) && remaining > 0) {
+            wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+    }
+}
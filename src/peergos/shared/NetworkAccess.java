@@ -21,6 +21,7 @@ import java.net.*;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 /**
@@ -28,6 +29,7 @@ import java.util.stream.*;
  */
 public class NetworkAccess {
     private static final Logger LOG = Logger.getGlobal();
+    private static final int DEFAULT_RETRIEVE_PARALLELISM = 16;
 
     public final CoreNode coreNode;
     public final SocialNetwork social;
@@ -38,12 +40,23 @@ public class NetworkAccess {
     public final List<String> usernames;
     private final LocalDateTime creationTime;
     private final boolean isJavascript;
+    public final Tracer tracer;
+    // the maximum number of child links in each blob of the directories we write
+    public final int maxChildLinksPerBlob;
 
     public NetworkAccess(CoreNode coreNode, SocialNetwork social, ContentAddressedStorage dhtClient, MutablePointers mutable, MutableTree tree, List<String> usernames) {
         this(coreNode, social, dhtClient, mutable, tree, usernames, false);
     }
 
     public NetworkAccess(CoreNode coreNode, SocialNetwork social, ContentAddressedStorage dhtClient, MutablePointers mutable, MutableTree tree, List<String> usernames, boolean isJavascript) {
+        this(coreNode, social, dhtClient, mutable, tree, usernames, isJavascript, Tracer.NONE);
+    }
+
+    public NetworkAccess(CoreNode coreNode, SocialNetwork social, ContentAddressedStorage dhtClient, MutablePointers mutable, MutableTree tree, List<String> usernames, boolean isJavascript, Tracer tracer) {
+        this(coreNode, social, dhtClient, mutable, tree, usernames, isJavascript, tracer, DirAccess.DEFAULT_MAX_CHILD_LINKS_PER_BLOB);
+    }
+
+    public NetworkAccess(CoreNode coreNode, SocialNetwork social, ContentAddressedStorage dhtClient, MutablePointers mutable, MutableTree tree, List<String> usernames, boolean isJavascript, Tracer tracer, int maxChildLinksPerBlob) {
         this.coreNode = coreNode;
         this.social = social;
         this.dhtClient = new HashVerifyingStorage(dhtClient);
@@ -52,6 +65,8 @@ public class NetworkAccess {
         this.usernames = usernames;
         this.creationTime = LocalDateTime.now();
         this.isJavascript = isJavascript;
+        this.tracer = tracer;
+        this.maxChildLinksPerBlob = maxChildLinksPerBlob;
     }
 
     public boolean isJavascript() {
@@ -59,7 +74,11 @@ public class NetworkAccess {
     }
 
     public NetworkAccess withCorenode(CoreNode newCore) {
-        return new NetworkAccess(newCore, social, dhtClient, mutable, tree, usernames, isJavascript);
+        return new NetworkAccess(newCore, social, dhtClient, mutable, tree, usernames, isJavascript, tracer, maxChildLinksPerBlob);
+    }
+
+    public NetworkAccess withMutableTree(MutableTree newTree) {
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, newTree, usernames, isJavascript, tracer, maxChildLinksPerBlob);
     }
 
     @JsMethod
@@ -70,12 +89,30 @@ public class NetworkAccess {
     }
 
     public NetworkAccess clear() {
-        return new NetworkAccess(coreNode, social, dhtClient, mutable, new MutableTreeImpl(mutable, dhtClient), usernames, isJavascript);
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, new MutableTreeImpl(mutable, dhtClient), usernames, isJavascript, tracer, maxChildLinksPerBlob);
+    }
+
+    public NetworkAccess withStorage(Function<ContentAddressedStorage, ContentAddressedStorage> wrapper) {
+        ContentAddressedStorage dht = wrapper.apply(dhtClient);
+        return new NetworkAccess(coreNode, social, dht, mutable, new MutableTreeImpl(mutable, dht), usernames, isJavascript, tracer, maxChildLinksPerBlob);
+    }
+
+    /** Record the spans of the uploads made through the returned network
+     */
+    public NetworkAccess withTracer(Tracer tracer) {
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, tree, usernames, isJavascript, tracer, maxChildLinksPerBlob);
+    }
+
+    /** Split the directories written through the returned network into blobs of at most the given number of children,
+     *  e.g. so tests can cheaply make a directory span several blobs
+     */
+    public NetworkAccess withMaxChildLinksPerBlob(int maxChildLinksPerBlob) {
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, tree, usernames, isJavascript, tracer, maxChildLinksPerBlob);
     }
 
     public NetworkAccess withMutablePointerCache(int ttl) {
         CachingPointers mutable = new CachingPointers(this.mutable, ttl);
-        return new NetworkAccess(coreNode, social, dhtClient, mutable, new MutableTreeImpl(mutable, dhtClient), usernames, isJavascript);
+        return new NetworkAccess(coreNode, social, dhtClient, mutable, new MutableTreeImpl(mutable, dhtClient), usernames, isJavascript, tracer, maxChildLinksPerBlob);
     }
 
     public static CoreNode buildProxyingCorenode(HttpPoster poster, Multihash pkiServerNodeId) {
@@ -163,19 +200,20 @@ public class NetworkAccess {
                 .exceptionally(t -> new Multihash(Multihash.Type.sha2_256, new byte[32]))
                 .thenApply(nodeId -> {
                     ContentAddressedStorageProxy proxingDht = new ContentAddressedStorageProxy.HTTP(p2pPoster);
+                    StorageNodeRouter router = new StorageNodeRouter(core, nodeId);
                     ContentAddressedStorage p2pDht = isPeergosServer ?
                             localDht :
-                            new ContentAddressedStorage.Proxying(localDht, proxingDht, nodeId, core);
+                            new ContentAddressedStorage.Proxying(localDht, proxingDht, router);
                     MutablePointersProxy httpMutable = new HttpMutablePointers(apiPoster, p2pPoster);
                     MutablePointers p2pMutable =
                             isPeergosServer ?
                                     httpMutable :
-                                    new ProxyingMutablePointers(nodeId, core, httpMutable, httpMutable);
+                                    new ProxyingMutablePointers(router, httpMutable, httpMutable);
 
                     SocialNetworkProxy httpSocial = new HttpSocialNetwork(apiPoster, p2pPoster);
                     SocialNetwork p2pSocial = isPeergosServer ?
                             httpSocial :
-                            new ProxyingSocialNetwork(nodeId, core, httpSocial, httpSocial);
+                            new ProxyingSocialNetwork(router, httpSocial, httpSocial);
                     return build(p2pDht, core, p2pMutable, p2pSocial, usernames, isJavascript);
                 });
     }
@@ -238,12 +276,21 @@ public class NetworkAccess {
     }
 
     public CompletableFuture<Set<FileWrapper>> retrieveAll(List<EntryPoint> entries) {
-        return Futures.reduceAll(entries, Collections.emptySet(),
-                (set, entry) -> retrieveEntryPoint(entry)
-                        .thenApply(opt ->
-                                opt.map(f -> Stream.concat(set.stream(), Stream.of(f)).collect(Collectors.toSet()))
-                                        .orElse(set)),
-                (a, b) -> Stream.concat(a.stream(), b.stream()).collect(Collectors.toSet()));
+        return retrieveAll(entries, DEFAULT_RETRIEVE_PARALLELISM);
+    }
+
+    /**
+     *
+     * @param entries
+     * @param parallelism the maximum number of entry points to retrieve concurrently
+     * @return the entry points which could be retrieved
+     */
+    public CompletableFuture<Set<FileWrapper>> retrieveAll(List<EntryPoint> entries, int parallelism) {
+        return Futures.mapAllInOrder(entries, parallelism, this::retrieveEntryPoint)
+                .thenApply(all -> all.stream()
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toSet()));
     }
 
     public CompletableFuture<Optional<FileWrapper>> retrieveEntryPoint(EntryPoint e) {
@@ -281,6 +328,14 @@ public class NetworkAccess {
                 .collect(Collectors.toList()), tid);
     }
 
+    /** Record a span for the given work if the transaction is part of a trace
+     */
+    public <T> CompletableFuture<T> traced(TransactionId tid, String span, Supplier<CompletableFuture<T>> work) {
+        return tid.traceId.isPresent() ?
+                tracer.span(tid.traceId.get(), span, work) :
+                work.get();
+    }
+
     public CompletableFuture<List<Multihash>> uploadFragments(List<Fragment> fragments,
                                                               PublicKeyHash owner,
                                                               SigningPrivateKeyAndPublicHash writer,
@@ -293,13 +348,13 @@ public class NetworkAccess {
                 .mapToObj(i -> fragments.stream().skip(FRAGMENTs_PER_QUERY * i).limit(FRAGMENTs_PER_QUERY).collect(Collectors.toList()))
                 .collect(Collectors.toList());
         List<CompletableFuture<List<Multihash>>> futures = grouped.stream()
-                .map(g -> bulkUploadFragments(
+                .map(g -> traced(tid, "network", () -> bulkUploadFragments(
                         g,
                         owner,
                         writer.publicKeyHash,
                         g.stream().map(f -> writer.secret.signatureOnly(f.data)).collect(Collectors.toList()),
                         tid
-                ).thenApply(hash -> {
+                )).thenApply(hash -> {
                     if (progressCounter != null)
                         progressCounter.accept((long)(g.stream().mapToInt(f -> f.data.length).sum() / spaceIncreaseFactor));
                     return hash;
@@ -326,6 +381,27 @@ public class NetworkAccess {
         }
     }
 
+    /** Upload several metadata blobs of the same writer, and commit them to its tree together
+     *
+     * @param nodes the map key and metadata of each blob
+     * @return the hashes of the blobs
+     */
+    public CompletableFuture<List<Multihash>> uploadChunks(List<Pair<byte[], CryptreeNode>> nodes,
+                                                           PublicKeyHash owner,
+                                                           SigningPrivateKeyAndPublicHash writer,
+                                                           TransactionId tid) {
+        List<byte[]> blobs = nodes.stream()
+                .map(n -> n.right.serialize())
+                .collect(Collectors.toList());
+        return dhtClient.put(owner, writer.publicKeyHash, blobs.stream()
+                .map(writer.secret::signatureOnly)
+                .collect(Collectors.toList()), blobs, tid)
+                .thenCompose(blobHashes -> tree.updateAll(owner, writer, IntStream.range(0, nodes.size())
+                        .mapToObj(i -> new Triple<>(nodes.get(i).left, nodes.get(i).right.committedHash(), blobHashes.get(i)))
+                        .collect(Collectors.toList()), tid)
+                        .thenApply(res -> blobHashes));
+    }
+
     public CompletableFuture<Optional<CryptreeNode>> getMetadata(Location loc) {
         if (loc == null)
             return CompletableFuture.completedFuture(Optional.empty());
@@ -0,0 +1,139 @@
+package peergos.shared.corenode;
+
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** A routing table from owner key to the storage node holding that owner's data. Routes are looked up lazily in the
+ *  core node and then cached, so proxied calls don't each cost two pki lookups. Routes must be invalidated whenever
+ *  a user's chain changes, and a route is also dropped when a call proxied along it fails.
+ */
+public class StorageNodeRouter {
+    public static final int DEFAULT_MAX_ROUTES = 10_000;
+
+    private static class Route {
+        public final String username;
+        public final Multihash storageNode;
+
+        public Route(String username, Multihash storageNode) {
+            this.username = username;
+            this.storageNode = storageNode;
+        }
+    }
+
+    private final CoreNode core;
+    private final Multihash ourNodeId;
+    private final Map<PublicKeyHash, CompletableFuture<Optional<Route>>> routes;
+
+    public StorageNodeRouter(CoreNode core, Multihash ourNodeId, int maxRoutes) {
+        this.core = core;
+        this.ourNodeId = ourNodeId;
+        this.routes = new LRUCache<>(maxRoutes);
+    }
+
+    public StorageNodeRouter(CoreNode core, Multihash ourNodeId) {
+        this(core, ourNodeId, DEFAULT_MAX_ROUTES);
+    }
+
+    private CompletableFuture<Optional<Route>> lookup(PublicKeyHash owner) {
+        return core.getUsername(owner)
+                .thenCompose(username -> core.getChain(username)
+                        .thenApply(chain -> {
+                            if (chain.isEmpty())
+                                return Optional.empty();
+                            List<Multihash> storageIds = chain.get(chain.size() - 1).claim.storageProviders;
+                            return Optional.of(new Route(username, storageIds.get(0)));
+                        }));
+    }
+
+    /**
+     *
+     * @param owner
+     * @return The storage node of the owner, or empty if they don't have a chain yet
+     */
+    public CompletableFuture<Optional<Multihash>> getStorageNode(PublicKeyHash owner) {
+        CompletableFuture<Optional<Route>> route;
+        boolean isNew = false;
+        synchronized (routes) {
+            route = routes.get(owner);
+            if (route == null) {
+                route = new CompletableFuture<>();
+                routes.put(owner, route);
+                isNew = true;
+            }
+        }
+        if (isNew) {
+            CompletableFuture<Optional<Route>> toComplete = route;
+            lookup(owner).thenAccept(res -> {
+                // Don't cache the absence of a chain, it will appear when sign up completes
+                if (! res.isPresent())
+                    invalidate(owner, toComplete);
+                toComplete.complete(res);
+            }).exceptionally(t -> {
+                invalidate(owner, toComplete);
+                toComplete.completeExceptionally(t);
+                return null;
+            });
+        }
+        return route.thenApply(r -> r.map(x -> x.storageNode));
+    }
+
+    private void invalidate(PublicKeyHash owner, CompletableFuture<Optional<Route>> route) {
+        synchronized (routes) {
+            if (routes.get(owner) == route)
+                routes.remove(owner);
+        }
+    }
+
+    public void invalidate(PublicKeyHash owner) {
+        synchronized (routes) {
+            routes.remove(owner);
+        }
+    }
+
+    /** Drop the routes of all the keys of a user, e.g. after their chain has been updated. Lookups still in progress
+     * might have read the old chain so they are dropped as well.
+     */
+    public void invalidate(String username) {
+        synchronized (routes) {
+            routes.entrySet().removeIf(e -> mightRouteUser(e.getValue(), username));
+        }
+    }
+
+    private static boolean mightRouteUser(CompletableFuture<Optional<Route>> route, String username) {
+        if (! route.isDone())
+            return true;
+        try {
+            return route.get().map(r -> r.username.equals(username)).orElse(true);
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    /** Make a call directly if the owner's data is stored on this node, otherwise proxy it to their storage node.
+     */
+    public <V> CompletableFuture<V> redirectCall(PublicKeyHash owner,
+                                                 Supplier<CompletableFuture<V>> direct,
+                                                 Function<Multihash, CompletableFuture<V>> proxied) {
+        return getStorageNode(owner)
+                .thenCompose(target -> {
+                    if (! target.isPresent()) {
+                        // This happens during sign-up, before we have a chain yet
+                        return direct.get();
+                    }
+                    if (target.get().equals(ourNodeId)) // don't proxy
+                        return direct.get();
+                    CompletableFuture<V> res = proxied.apply(target.get());
+                    // the owner may have moved to a different storage node
+                    res.exceptionally(t -> {
+                        invalidate(owner);
+                        return null;
+                    });
+                    return res;
+                });
+    }
+}
@@ -45,6 +45,10 @@ public class Ed25519PublicKey implements PublicSigningKey {
         return new CborObject.CborList(Arrays.asList(new CborObject.CborLong(type().value), new CborObject.CborByteArray(publicKey)));
     }
 
+    public byte[] getPublicSigningKey() {
+        return Arrays.copyOfRange(publicKey, 0, publicKey.length);
+    }
+
     public byte[] unsignMessage(byte[] signed) {
         return implementation.crypto_sign_open(signed, publicKey);
     }
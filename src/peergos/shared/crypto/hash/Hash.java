@@ -6,21 +6,40 @@ import java.security.NoSuchAlgorithmException;
 
 public class Hash {
     public static final String HASH = "SHA-256";
+    // Creating a MessageDigest is expensive relative to hashing a small block, so each thread reuses one
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(HASH);
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    });
 
     public static byte[] sha256(byte[] input)
     {
-        try {
-            MessageDigest md = MessageDigest.getInstance(HASH);
-            md.update(input);
-            return md.digest();
-        } catch (NoSuchAlgorithmException e)
-        {
+        MessageDigest md = SHA256.get();
+        if (md == null) {
             // This is only here to work around a bug in Doppio JVM
             Sha256 sha256 = new Sha256();
             sha256.update(input);
             byte[] hash = sha256.digest();
             return hash;
         }
+        md.reset();
+        md.update(input);
+        return md.digest();
+    }
+
+    /**
+     *
+     * @return this thread's SHA-256 digest, reset. It must be finished with before anything else on this thread hashes.
+     */
+    public static MessageDigest sha256Digest() {
+        MessageDigest md = SHA256.get();
+        if (md == null)
+            throw new IllegalStateException("couldn't find hash algorithm");
+        md.reset();
+        return md;
     }
 
     public static byte[] sha256(String password)
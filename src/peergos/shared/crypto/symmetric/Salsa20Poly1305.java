@@ -3,6 +3,7 @@ package peergos.shared.crypto.symmetric;
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.random.JSNaCl;
 
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 
 public interface Salsa20Poly1305 {
@@ -15,6 +16,30 @@ public interface Salsa20Poly1305 {
 
     CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, byte[] nonce, byte[] key);
 
+    /** Encrypt data[offset, offset + length)
+     *
+     * @return the authenticator followed by the cipher text
+     */
+    default byte[] secretbox(byte[] data, int offset, int length, byte[] nonce, byte[] key) {
+        return secretbox(Arrays.copyOfRange(data, offset, offset + length), nonce, key);
+    }
+
+    /** Decrypt cipher[offset, offset + length), which is an authenticator followed by cipher text
+     *
+     * @return the plain text
+     */
+    default byte[] secretbox_open(byte[] cipher, int offset, int length, byte[] nonce, byte[] key) {
+        return secretbox_open(Arrays.copyOfRange(cipher, offset, offset + length), nonce, key);
+    }
+
+    /** Decrypt cipher[offset, offset + length), which is an authenticator followed by cipher text
+     *
+     * @return the plain text
+     */
+    default CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, int offset, int length, byte[] nonce, byte[] key) {
+        return secretbox_openAsync(Arrays.copyOfRange(cipher, offset, offset + length), nonce, key);
+    }
+
     class Javascript implements Salsa20Poly1305 {
         JSNaCl scriptJS = new JSNaCl();
 
@@ -43,17 +68,32 @@ public interface Salsa20Poly1305 {
 
         @Override
         public byte[] secretbox(byte[] data, byte[] nonce, byte[] key) {
-            return TweetNaCl.secretbox(data, nonce, key);
+            return secretbox(data, 0, data.length, nonce, key);
         }
 
         @Override
         public byte[] secretbox_open(byte[] cipher, byte[] nonce, byte[] key) {
-            return TweetNaCl.secretbox_open(cipher, nonce, key);
+            return secretbox_open(cipher, 0, cipher.length, nonce, key);
+        }
+
+        @Override
+        public byte[] secretbox(byte[] data, int offset, int length, byte[] nonce, byte[] key) {
+            byte[] res = new byte[length + XSalsa20Poly1305.TAG_BYTES];
+            XSalsa20Poly1305.seal(data, offset, length, res, 0, nonce, key);
+            return res;
+        }
+
+        @Override
+        public byte[] secretbox_open(byte[] cipher, int offset, int length, byte[] nonce, byte[] key) {
+            byte[] res = new byte[Math.max(0, length - XSalsa20Poly1305.TAG_BYTES)];
+            if (! XSalsa20Poly1305.open(cipher, offset, length, res, 0, nonce, key))
+                throw new TweetNaCl.InvalidCipherTextException("Invalid encryption! [" + length + "]");
+            return res;
         }
 
         @Override
         public CompletableFuture<byte[]> secretboxAsync(byte[] data, byte[] nonce, byte[] key) {
-            byte[] encrypted = TweetNaCl.secretbox(data, nonce, key);
+            byte[] encrypted = secretbox(data, nonce, key);
             CompletableFuture<byte[]> res = new CompletableFuture<>();
             res.complete(encrypted);
             return res;
@@ -61,12 +101,20 @@ public interface Salsa20Poly1305 {
 
         @Override
         public CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, byte[] nonce, byte[] key) {
-            byte[] decrypted = TweetNaCl.secretbox_open(cipher, nonce, key);
+            byte[] decrypted = secretbox_open(cipher, nonce, key);
             CompletableFuture<byte[]> res = new CompletableFuture<>();
             res.complete(decrypted);
             return res;
 
         }
+
+        @Override
+        public CompletableFuture<byte[]> secretbox_openAsync(byte[] cipher, int offset, int length, byte[] nonce, byte[] key) {
+            byte[] decrypted = secretbox_open(cipher, offset, length, nonce, key);
+            CompletableFuture<byte[]> res = new CompletableFuture<>();
+            res.complete(decrypted);
+            return res;
+        }
     }
 
 }
@@ -54,6 +54,10 @@ public interface SymmetricKey extends Cborable
 
     CompletableFuture<byte[]> decryptAsync(byte[] data, byte[] nonce);
 
+    /** Decrypt data[offset, offset + length), without copying it out of the surrounding array where possible
+     */
+    CompletableFuture<byte[]> decryptAsync(byte[] data, int offset, int length, byte[] nonce);
+
     @JsMethod
     byte[] createNonce();
 
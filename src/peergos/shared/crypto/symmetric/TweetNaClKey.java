@@ -64,6 +64,11 @@ public class TweetNaClKey implements SymmetricKey
         return decryptAsync(secretKey, data, nonce, implementation);
     }
 
+    public CompletableFuture<byte[]> decryptAsync(byte[] data, int offset, int length, byte[] nonce)
+    {
+        return implementation.secretbox_openAsync(data, offset, length, nonce, secretKey);
+    }
+
     private static byte[] encrypt(byte[] key, byte[] data, byte[] nonce, Salsa20Poly1305 implementation)
     {
         return implementation.secretbox(data, nonce, key);
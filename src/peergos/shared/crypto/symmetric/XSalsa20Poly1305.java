@@ -0,0 +1,284 @@
+package peergos.shared.crypto.symmetric;
+
+/** An implementation of the NaCl secretbox construction (XSalsa20 stream cipher with a Poly1305 authenticator) which
+ *  works on sub-ranges of arrays and can encrypt or decrypt in place.
+ *
+ *  The output format is identical to TweetNaCl.secretbox: a 16 byte authenticator followed by the cipher text. Unlike
+ *  TweetNaCl it doesn't pad the input into new arrays, and it processes whole 64 byte blocks as 32-bit words.
+ */
+public final class XSalsa20Poly1305 {
+    public static final int KEY_BYTES = 32;
+    public static final int NONCE_BYTES = 24;
+    public static final int TAG_BYTES = 16;
+
+    private static final int SIGMA0 = 0x61707865, SIGMA1 = 0x3320646e, SIGMA2 = 0x79622d32, SIGMA3 = 0x6b206574;
+    private static final long MASK26 = 0x3ffffff;
+    private static final long MASK32 = 0xffffffffL;
+
+    private XSalsa20Poly1305() {}
+
+    /** Encrypt and authenticate length bytes of plain text starting at in[inOff]. The authenticator is written to
+     *  out[outOff, outOff + 16) and the cipher text directly after it.
+     *
+     *  To encrypt in place, use the same array with outOff + 16 == inOff.
+     *
+     * @param in
+     * @param inOff
+     * @param length the length of the plain text
+     * @param out must have room for length + 16 bytes from outOff
+     * @param outOff
+     * @param nonce
+     * @param key
+     */
+    public static void seal(byte[] in, int inOff, int length, byte[] out, int outOff, byte[] nonce, byte[] key) {
+        checkParameters(nonce, key);
+        int[] state = initState(nonce, key);
+        byte[] polyKey = new byte[32];
+        xorStream(state, in, inOff, length, out, outOff + TAG_BYTES, polyKey);
+        poly1305(out, outOff + TAG_BYTES, length, polyKey, out, outOff);
+    }
+
+    /** Authenticate and decrypt length bytes of authenticator followed by cipher text, starting at in[inOff]. The plain
+     *  text is written to out[outOff, outOff + length - 16). Nothing is written unless the authenticator is valid.
+     *
+     *  To decrypt in place, use the same array with outOff == inOff + 16.
+     *
+     * @param in
+     * @param inOff
+     * @param length the length of the authenticator and cipher text
+     * @param out
+     * @param outOff
+     * @param nonce
+     * @param key
+     * @return whether the cipher text was authentic
+     */
+    public static boolean open(byte[] in, int inOff, int length, byte[] out, int outOff, byte[] nonce, byte[] key) {
+        checkParameters(nonce, key);
+        if (length < TAG_BYTES)
+            return false;
+        int[] state = initState(nonce, key);
+        int[] block = new int[16];
+        salsa20(state, block);
+        byte[] polyKey = new byte[32];
+        for (int i = 0; i < 8; i++)
+            st32(polyKey, 4 * i, block[i]);
+        byte[] tag = new byte[TAG_BYTES];
+        poly1305(in, inOff + TAG_BYTES, length - TAG_BYTES, polyKey, tag, 0);
+        int diff = 0;
+        for (int i = 0; i < TAG_BYTES; i++)
+            diff |= tag[i] ^ in[inOff + i];
+        if (diff != 0)
+            return false;
+        xorStream(state, in, inOff + TAG_BYTES, length - TAG_BYTES, out, outOff, polyKey);
+        return true;
+    }
+
+    private static void checkParameters(byte[] nonce, byte[] key) {
+        if (nonce.length != NONCE_BYTES)
+            throw new IllegalArgumentException("Invalid nonce length: " + nonce.length);
+        if (key.length != KEY_BYTES)
+            throw new IllegalArgumentException("Invalid key length: " + key.length);
+    }
+
+    /**
+     *
+     * @return the Salsa20 state for the sub key derived from the first 16 bytes of the nonce, with block counter 0
+     */
+    private static int[] initState(byte[] nonce, byte[] key) {
+        int[] x = new int[16];
+        x[0] = SIGMA0;
+        x[5] = SIGMA1;
+        x[10] = SIGMA2;
+        x[15] = SIGMA3;
+        for (int i = 0; i < 4; i++) {
+            x[1 + i] = ld32(key, 4 * i);
+            x[11 + i] = ld32(key, 16 + 4 * i);
+            x[6 + i] = ld32(nonce, 4 * i);
+        }
+        int[] h = new int[16];
+        rounds(x, h);
+        // HSalsa20 output is the diagonal and the nonce positions, without the final addition
+        int[] state = new int[16];
+        state[0] = SIGMA0;
+        state[5] = SIGMA1;
+        state[10] = SIGMA2;
+        state[15] = SIGMA3;
+        state[1] = h[0];
+        state[2] = h[5];
+        state[3] = h[10];
+        state[4] = h[15];
+        state[11] = h[6];
+        state[12] = h[7];
+        state[13] = h[8];
+        state[14] = h[9];
+        state[6] = ld32(nonce, 16);
+        state[7] = ld32(nonce, 20);
+        return state;
+    }
+
+    /** XOR the key stream with the input, after reserving the first 32 bytes of the stream for the Poly1305 key
+     *
+     */
+    private static void xorStream(int[] state, byte[] in, int inOff, int length, byte[] out, int outOff, byte[] polyKey) {
+        int[] block = new int[16];
+        salsa20(state, block);
+        for (int i = 0; i < 8; i++)
+            st32(polyKey, 4 * i, block[i]);
+        int first = Math.min(32, length);
+        for (int i = 0; i < first; i++)
+            out[outOff + i] = (byte) (in[inOff + i] ^ (block[8 + (i >> 2)] >>> (8 * (i & 3))));
+
+        int done = first;
+        while (length - done >= 64) {
+            increment(state);
+            salsa20(state, block);
+            int m = inOff + done, c = outOff + done;
+            for (int j = 0; j < 16; j++)
+                st32(out, c + 4 * j, block[j] ^ ld32(in, m + 4 * j));
+            done += 64;
+        }
+        if (done < length) {
+            increment(state);
+            salsa20(state, block);
+            for (int i = 0; done + i < length; i++)
+                out[outOff + done + i] = (byte) (in[inOff + done + i] ^ (block[i >> 2] >>> (8 * (i & 3))));
+        }
+    }
+
+    private static void increment(int[] state) {
+        state[8]++;
+        if (state[8] == 0)
+            state[9]++;
+    }
+
+    private static void salsa20(int[] state, int[] out) {
+        rounds(state, out);
+        for (int i = 0; i < 16; i++)
+            out[i] += state[i];
+    }
+
+    private static int rotl(int x, int c) {
+        return (x << c) | (x >>> (32 - c));
+    }
+
+    /** Apply the 20 Salsa20 rounds to the input, without the final addition
+     *
+     */
+    private static void rounds(int[] in, int[] out) {
+        int x0 = in[0], x1 = in[1], x2 = in[2], x3 = in[3], x4 = in[4], x5 = in[5], x6 = in[6], x7 = in[7],
+                x8 = in[8], x9 = in[9], x10 = in[10], x11 = in[11], x12 = in[12], x13 = in[13], x14 = in[14], x15 = in[15];
+        for (int i = 0; i < 10; i++) {
+            // columns
+            x4 ^= rotl(x0 + x12, 7);   x8 ^= rotl(x4 + x0, 9);    x12 ^= rotl(x8 + x4, 13);  x0 ^= rotl(x12 + x8, 18);
+            x9 ^= rotl(x5 + x1, 7);    x13 ^= rotl(x9 + x5, 9);   x1 ^= rotl(x13 + x9, 13);  x5 ^= rotl(x1 + x13, 18);
+            x14 ^= rotl(x10 + x6, 7);  x2 ^= rotl(x14 + x10, 9);  x6 ^= rotl(x2 + x14, 13);  x10 ^= rotl(x6 + x2, 18);
+            x3 ^= rotl(x15 + x11, 7);  x7 ^= rotl(x3 + x15, 9);   x11 ^= rotl(x7 + x3, 13);  x15 ^= rotl(x11 + x7, 18);
+            // rows
+            x1 ^= rotl(x0 + x3, 7);    x2 ^= rotl(x1 + x0, 9);    x3 ^= rotl(x2 + x1, 13);   x0 ^= rotl(x3 + x2, 18);
+            x6 ^= rotl(x5 + x4, 7);    x7 ^= rotl(x6 + x5, 9);    x4 ^= rotl(x7 + x6, 13);   x5 ^= rotl(x4 + x7, 18);
+            x11 ^= rotl(x10 + x9, 7);  x8 ^= rotl(x11 + x10, 9);  x9 ^= rotl(x8 + x11, 13);  x10 ^= rotl(x9 + x8, 18);
+            x12 ^= rotl(x15 + x14, 7); x13 ^= rotl(x12 + x15, 9); x14 ^= rotl(x13 + x12, 13); x15 ^= rotl(x14 + x13, 18);
+        }
+        out[0] = x0; out[1] = x1; out[2] = x2; out[3] = x3; out[4] = x4; out[5] = x5; out[6] = x6; out[7] = x7;
+        out[8] = x8; out[9] = x9; out[10] = x10; out[11] = x11; out[12] = x12; out[13] = x13; out[14] = x14; out[15] = x15;
+    }
+
+    /** Compute the Poly1305 authenticator of m[mOff, mOff + length) using 26-bit limbs
+     *
+     */
+    private static void poly1305(byte[] m, int mOff, int length, byte[] key, byte[] out, int outOff) {
+        long r0 = ld32u(key, 0) & 0x3ffffff;
+        long r1 = (ld32u(key, 3) >>> 2) & 0x3ffff03;
+        long r2 = (ld32u(key, 6) >>> 4) & 0x3ffc0ff;
+        long r3 = (ld32u(key, 9) >>> 6) & 0x3f03fff;
+        long r4 = (ld32u(key, 12) >>> 8) & 0x00fffff;
+        long s1 = r1 * 5, s2 = r2 * 5, s3 = r3 * 5, s4 = r4 * 5;
+        long h0 = 0, h1 = 0, h2 = 0, h3 = 0, h4 = 0;
+
+        byte[] last = null;
+        int end = mOff + length;
+        for (int p = mOff; p < end; p += 16) {
+            byte[] block = m;
+            int off = p;
+            long hibit = 1 << 24;
+            if (end - p < 16) {
+                last = new byte[16];
+                System.arraycopy(m, p, last, 0, end - p);
+                last[end - p] = 1;
+                block = last;
+                off = 0;
+                hibit = 0;
+            }
+            h0 += ld32u(block, off) & MASK26;
+            h1 += (ld32u(block, off + 3) >>> 2) & MASK26;
+            h2 += (ld32u(block, off + 6) >>> 4) & MASK26;
+            h3 += (ld32u(block, off + 9) >>> 6) & MASK26;
+            h4 += (ld32u(block, off + 12) >>> 8) | hibit;
+
+            long d0 = h0 * r0 + h1 * s4 + h2 * s3 + h3 * s2 + h4 * s1;
+            long d1 = h0 * r1 + h1 * r0 + h2 * s4 + h3 * s3 + h4 * s2;
+            long d2 = h0 * r2 + h1 * r1 + h2 * r0 + h3 * s4 + h4 * s3;
+            long d3 = h0 * r3 + h1 * r2 + h2 * r1 + h3 * r0 + h4 * s4;
+            long d4 = h0 * r4 + h1 * r3 + h2 * r2 + h3 * r1 + h4 * r0;
+
+            long c = d0 >>> 26; h0 = d0 & MASK26;
+            d1 += c; c = d1 >>> 26; h1 = d1 & MASK26;
+            d2 += c; c = d2 >>> 26; h2 = d2 & MASK26;
+            d3 += c; c = d3 >>> 26; h3 = d3 & MASK26;
+            d4 += c; c = d4 >>> 26; h4 = d4 & MASK26;
+            h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+            h1 += c;
+        }
+
+        // fully carry h
+        long c = h1 >>> 26; h1 &= MASK26;
+        h2 += c; c = h2 >>> 26; h2 &= MASK26;
+        h3 += c; c = h3 >>> 26; h3 &= MASK26;
+        h4 += c; c = h4 >>> 26; h4 &= MASK26;
+        h0 += c * 5; c = h0 >>> 26; h0 &= MASK26;
+        h1 += c;
+
+        // compute h - p, and select it if it didn't underflow
+        long g0 = h0 + 5; c = g0 >>> 26; g0 &= MASK26;
+        long g1 = h1 + c; c = g1 >>> 26; g1 &= MASK26;
+        long g2 = h2 + c; c = g2 >>> 26; g2 &= MASK26;
+        long g3 = h3 + c; c = g3 >>> 26; g3 &= MASK26;
+        long g4 = h4 + c - (1L << 26);
+        long mask = (g4 >>> 63) - 1;
+        h0 = (h0 & ~mask) | (g0 & mask);
+        h1 = (h1 & ~mask) | (g1 & mask);
+        h2 = (h2 & ~mask) | (g2 & mask);
+        h3 = (h3 & ~mask) | (g3 & mask);
+        h4 = (h4 & ~mask) | (g4 & mask);
+
+        // h mod 2^128, plus the pad
+        h0 = (h0 | (h1 << 26)) & MASK32;
+        h1 = ((h1 >>> 6) | (h2 << 20)) & MASK32;
+        h2 = ((h2 >>> 12) | (h3 << 14)) & MASK32;
+        h3 = ((h3 >>> 18) | (h4 << 8)) & MASK32;
+
+        long f = h0 + ld32u(key, 16);
+        st32(out, outOff, (int) f);
+        f = h1 + ld32u(key, 20) + (f >>> 32);
+        st32(out, outOff + 4, (int) f);
+        f = h2 + ld32u(key, 24) + (f >>> 32);
+        st32(out, outOff + 8, (int) f);
+        f = h3 + ld32u(key, 28) + (f >>> 32);
+        st32(out, outOff + 12, (int) f);
+    }
+
+    private static int ld32(byte[] x, int off) {
+        return (x[off] & 0xff) | ((x[off + 1] & 0xff) << 8) | ((x[off + 2] & 0xff) << 16) | (x[off + 3] << 24);
+    }
+
+    private static long ld32u(byte[] x, int off) {
+        return ld32(x, off) & MASK32;
+    }
+
+    private static void st32(byte[] x, int off, int u) {
+        x[off] = (byte) u;
+        x[off + 1] = (byte) (u >>> 8);
+        x[off + 2] = (byte) (u >>> 16);
+        x[off + 3] = (byte) (u >>> 24);
+    }
+}
@@ -179,6 +179,55 @@ public class Champ implements Cborable {
         return CompletableFuture.completedFuture(MaybeMultihash.empty());
     }
 
+    /** Look up many keys at once. Keys that fall in the same child are looked up together, so each node on their
+     * paths is only retrieved once, and different children are retrieved in parallel.
+     *
+     * @param keys The keys to get the values for, paired with their hashes
+     * @param depth The current depth in the champ (top = 0)
+     * @param bitWidth The champ bitwidth
+     * @param storage The storage
+     * @return The value, if any, that each key maps to
+     */
+    public CompletableFuture<Map<ByteArrayWrapper, MaybeMultihash>> getAll(List<Pair<ByteArrayWrapper, byte[]>> keys,
+                                                                          int depth,
+                                                                          int bitWidth,
+                                                                          ContentAddressedStorage storage) {
+        Map<ByteArrayWrapper, MaybeMultihash> result = new HashMap<>();
+        Map<Integer, List<Pair<ByteArrayWrapper, byte[]>>> byChild = new TreeMap<>();
+        for (Pair<ByteArrayWrapper, byte[]> key : keys) {
+            int bitpos = mask(key.right, depth, bitWidth);
+            if (nodeMap.get(bitpos))
+                byChild.computeIfAbsent(bitpos, b -> new ArrayList<>()).add(key);
+            else
+                result.put(key.left, getLocal(key.left, bitpos));
+        }
+        if (byChild.isEmpty())
+            return CompletableFuture.completedFuture(result);
+
+        List<CompletableFuture<Map<ByteArrayWrapper, MaybeMultihash>>> fromChildren = byChild.values().stream()
+                .map(group -> getChild(group.get(0).right, depth, bitWidth, storage)
+                        .thenCompose(child -> child.right.map(c -> c.getAll(group, depth + 1, bitWidth, storage))
+                                .orElseGet(() -> CompletableFuture.completedFuture(group.stream()
+                                        .collect(Collectors.toMap(k -> k.left, k -> MaybeMultihash.empty()))))))
+                .collect(Collectors.toList());
+        return Futures.combineAll(fromChildren)
+                .thenApply(maps -> {
+                    maps.forEach(result::putAll);
+                    return result;
+                });
+    }
+
+    private MaybeMultihash getLocal(ByteArrayWrapper key, int bitpos) {
+        if (! dataMap.get(bitpos))
+            return MaybeMultihash.empty();
+        HashPrefixPayload payload = contents[getIndex(this.dataMap, bitpos)];
+        for (KeyElement candidate : payload.mappings) {
+            if (candidate.key.equals(key))
+                return candidate.valueHash;
+        }
+        return MaybeMultihash.empty();
+    }
+
     /**
      *
      * @param writer The writer key with permission to write
@@ -543,68 +592,289 @@ public class Champ implements Cborable {
                 ), (a, b) -> a);
     }
 
-    private List<KeyElement> getMappings() {
-        return Arrays.stream(contents)
-                .filter(p -> !p.isShard())
-                .flatMap(p -> Arrays.stream(p.mappings))
-                .collect(Collectors.toList());
+    /** Call the consumer on every mapping in the champ with the given root. Child nodes are retrieved in parallel, with
+     * at most maxFetches retrievals in progress at once, so mappings are not consumed in any particular order. The
+     * consumer may be called from multiple threads, but never concurrently.
+     *
+     * @return true when all mappings have been consumed
+     */
+    public static CompletableFuture<Boolean> applyToAllMappingsInParallel(Multihash root,
+                                                                          int maxFetches,
+                                                                          Consumer<Pair<ByteArrayWrapper, MaybeMultihash>> consumer,
+                                                                          ContentAddressedStorage storage) {
+        if (maxFetches < 1)
+            throw new IllegalArgumentException("Must allow at least one retrieval at a time!");
+        return new ParallelWalk(maxFetches, consumer, storage).start(root);
     }
 
-    private List<HashPrefixPayload> getLinks() {
-        return Arrays.stream(contents)
-                .filter(p -> p.isShard())
-                .collect(Collectors.toList());
+    private static class ParallelWalk {
+        private final int maxFetches;
+        private final Consumer<Pair<ByteArrayWrapper, MaybeMultihash>> consumer;
+        private final ContentAddressedStorage storage;
+        private final LinkedList<Multihash> toFetch = new LinkedList<>();
+        private final CompletableFuture<Boolean> done = new CompletableFuture<>();
+        private int inFlight = 0;
+
+        public ParallelWalk(int maxFetches,
+                            Consumer<Pair<ByteArrayWrapper, MaybeMultihash>> consumer,
+                            ContentAddressedStorage storage) {
+            this.maxFetches = maxFetches;
+            this.consumer = consumer;
+            this.storage = storage;
+        }
+
+        public CompletableFuture<Boolean> start(Multihash root) {
+            synchronized (this) {
+                toFetch.add(root);
+            }
+            fetchMore();
+            return done;
+        }
+
+        private boolean pumping = false;
+
+        /** Start as many retrievals as allowed. Retrievals which complete synchronously will call this again, so only
+         * one call at a time does the work, in a loop, to keep the stack shallow.
+         */
+        private void fetchMore() {
+            synchronized (this) {
+                if (pumping)
+                    return;
+                pumping = true;
+            }
+            while (true) {
+                List<Multihash> toStart = new ArrayList<>();
+                synchronized (this) {
+                    while (inFlight < maxFetches && ! toFetch.isEmpty()) {
+                        toStart.add(toFetch.poll());
+                        inFlight++;
+                    }
+                    if (toStart.isEmpty()) {
+                        pumping = false;
+                        if (inFlight == 0)
+                            done.complete(true);
+                        return;
+                    }
+                }
+                start(toStart);
+            }
+        }
+
+        private void start(List<Multihash> toStart) {
+            for (Multihash hash : toStart) {
+                storage.get(hash).thenAccept(rawOpt -> {
+                    Champ node = Champ.fromCbor(rawOpt.orElseThrow(() -> new IllegalStateException("Hash not present! " + hash)));
+                    synchronized (this) {
+                        for (HashPrefixPayload payload : node.contents) {
+                            if (payload.isShard())
+                                toFetch.add(payload.link.get());
+                            else
+                                for (KeyElement mapping : payload.mappings)
+                                    consumer.accept(new Pair<>(mapping.key, mapping.valueHash));
+                        }
+                        inFlight--;
+                    }
+                    fetchMore();
+                }).exceptionally(t -> {
+                    done.completeExceptionally(t);
+                    return null;
+                });
+            }
+        }
     }
 
+    public static final int DEFAULT_DIFF_PARALLELISM = 8;
+
     public static CompletableFuture<Boolean> applyToDiff(
             MaybeMultihash original,
             MaybeMultihash updated,
             Consumer<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> consumer,
             ContentAddressedStorage storage) {
-
-        if (updated.equals(original))
+        return applyToDiff(original, updated, t -> {
+            consumer.accept(t);
             return CompletableFuture.completedFuture(true);
-        return original.map(storage::get).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                .thenApply(rawOpt -> rawOpt.map(Champ::fromCbor))
-                .thenCompose(left -> updated.map(storage::get).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
-                        .thenApply(rawOpt -> rawOpt.map(Champ::fromCbor))
-                        .thenCompose(right -> {
-                            List<KeyElement> leftMappings = left.map(Champ::getMappings).orElseGet(Collections::emptyList);
-                            List<KeyElement> rightMappings = right.map(Champ::getMappings).orElseGet(Collections::emptyList);
-                            Map<ByteArrayWrapper, MaybeMultihash> leftMap = leftMappings.stream()
-                                    .collect(Collectors.toMap(e -> e.key, e -> e.valueHash));
-                            Map<ByteArrayWrapper, MaybeMultihash> rightMap = rightMappings.stream()
-                                    .collect(Collectors.toMap(e -> e.key, e -> e.valueHash));
-
-                            HashSet<ByteArrayWrapper> both = new HashSet<>(leftMap.keySet());
-                            both.retainAll(rightMap.keySet());
-                            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> entry : leftMap.entrySet()) {
-                                if (! both.contains(entry.getKey()))
-                                    consumer.accept(new Triple<>(entry.getKey(), entry.getValue(), MaybeMultihash.empty()));
-                                else
-                                    consumer.accept(new Triple<>(entry.getKey(), entry.getValue(), rightMap.get(entry.getKey())));
-                            }
-                            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> entry : rightMap.entrySet()) {
-                                if (! both.contains(entry.getKey()))
-                                    consumer.accept(new Triple<>(entry.getKey(), MaybeMultihash.empty(), entry.getValue()));
-                            }
-
-                            // Now descend recursively, diffing equal indexed elements
-                            List<HashPrefixPayload> leftLinks = left.map(Champ::getLinks).orElseGet(Collections::emptyList);
-                            List<HashPrefixPayload> rightLinks = right.map(Champ::getLinks).orElseGet(Collections::emptyList);
-
-                            List<Pair<MaybeMultihash, MaybeMultihash>> linkPairs = new ArrayList<>();
-                            for (int i=0; i < Math.max(leftLinks.size(), rightLinks.size()); i++) {
-                                linkPairs.add(new Pair<>(i < leftLinks.size() ? leftLinks.get(i).link : MaybeMultihash.empty(),
-                                        i < rightLinks.size() ? rightLinks.get(i).link : MaybeMultihash.empty()));
-                            }
-
-                            return Futures.combineAll(linkPairs.stream()
-                                    .map(p -> applyToDiff(p.left, p.right, consumer, storage))
-                                    .collect(Collectors.toList()))
-                                    .thenApply(x -> true);
-                        })
-        );
+        }, DEFAULT_DIFF_PARALLELISM, storage);
+    }
+
+    /** Call the consumer with (key, original value, updated value) for every key whose value differs between two champs.
+     *
+     * Nodes are compared slot by slot, by their bitmap position, and identical subtrees are skipped without being
+     * retrieved, so the cost is proportional to the size of the changes. Both sides' children are retrieved in
+     * parallel, with at most maxFetches retrievals in progress. The consumer is called for one change at a time, and the
+     * children of a node aren't retrieved until the changes in that node have been consumed.
+     *
+     * @return true when all the changes have been consumed
+     */
+    public static CompletableFuture<Boolean> applyToDiff(
+            MaybeMultihash original,
+            MaybeMultihash updated,
+            Function<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>, CompletableFuture<Boolean>> consumer,
+            int maxFetches,
+            ContentAddressedStorage storage) {
+        if (maxFetches < 1)
+            throw new IllegalArgumentException("Must allow at least one retrieval at a time!");
+        return new DiffWalk(consumer, maxFetches, storage).diff(original, updated);
+    }
+
+    private HashPrefixPayload payloadAt(int bitpos) {
+        if (dataMap.get(bitpos))
+            return contents[getIndex(dataMap, bitpos)];
+        if (nodeMap.get(bitpos))
+            return contents[contents.length - 1 - getIndex(nodeMap, bitpos)];
+        return null;
+    }
+
+    private static class DiffWalk {
+        private final Function<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>, CompletableFuture<Boolean>> consumer;
+        private final int maxFetches;
+        private final ContentAddressedStorage storage;
+        private final Queue<Runnable> waiting = new LinkedList<>();
+        private int fetching = 0;
+        private CompletableFuture<Boolean> consumed = CompletableFuture.completedFuture(true);
+
+        public DiffWalk(Function<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>, CompletableFuture<Boolean>> consumer,
+                        int maxFetches,
+                        ContentAddressedStorage storage) {
+            this.consumer = consumer;
+            this.maxFetches = maxFetches;
+            this.storage = storage;
+        }
+
+        public CompletableFuture<Boolean> diff(MaybeMultihash original, MaybeMultihash updated) {
+            if (original.equals(updated))
+                return CompletableFuture.completedFuture(true);
+            CompletableFuture<Optional<Champ>> left = fetch(original);
+            CompletableFuture<Optional<Champ>> right = fetch(updated);
+            return left.thenCombine(right, Pair::new)
+                    .thenCompose(p -> diff(p.left, p.right));
+        }
+
+        private CompletableFuture<Boolean> diff(Optional<Champ> original, Optional<Champ> updated) {
+            BitSet positions = new BitSet();
+            original.ifPresent(c -> {
+                positions.or(c.dataMap);
+                positions.or(c.nodeMap);
+            });
+            updated.ifPresent(c -> {
+                positions.or(c.dataMap);
+                positions.or(c.nodeMap);
+            });
+
+            List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+            List<Pair<MaybeMultihash, MaybeMultihash>> children = new ArrayList<>();
+            List<Pair<HashPrefixPayload, HashPrefixPayload>> mixed = new ArrayList<>();
+            for (int bitpos = positions.nextSetBit(0); bitpos >= 0; bitpos = positions.nextSetBit(bitpos + 1)) {
+                int pos = bitpos;
+                HashPrefixPayload left = original.map(c -> c.payloadAt(pos)).orElse(null);
+                HashPrefixPayload right = updated.map(c -> c.payloadAt(pos)).orElse(null);
+                boolean leftShard = left != null && left.isShard();
+                boolean rightShard = right != null && right.isShard();
+                if (leftShard || rightShard) {
+                    if ((leftShard || left == null) && (rightShard || right == null))
+                        children.add(new Pair<>(left == null ? MaybeMultihash.empty() : left.link,
+                                right == null ? MaybeMultihash.empty() : right.link));
+                    else
+                        mixed.add(new Pair<>(left, right));
+                } else
+                    addChanges(toMap(left), toMap(right), changes);
+            }
+
+            List<CompletableFuture<Boolean>> subtrees = new ArrayList<>();
+            return consume(changes).thenCompose(x -> {
+                for (Pair<MaybeMultihash, MaybeMultihash> child : children)
+                    subtrees.add(diff(child.left, child.right));
+                for (Pair<HashPrefixPayload, HashPrefixPayload> pair : mixed)
+                    subtrees.add(diffMixed(pair.left, pair.right));
+                return Futures.combineAll(subtrees).thenApply(all -> true);
+            });
+        }
+
+        /** One side has mappings inline where the other has a child, so compare the inline mappings to all those below
+         * the child.
+         */
+        private CompletableFuture<Boolean> diffMixed(HashPrefixPayload original, HashPrefixPayload updated) {
+            return mappings(original).thenCombine(mappings(updated), (left, right) -> {
+                List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes = new ArrayList<>();
+                addChanges(left, right, changes);
+                return changes;
+            }).thenCompose(this::consume);
+        }
+
+        private CompletableFuture<Map<ByteArrayWrapper, MaybeMultihash>> mappings(HashPrefixPayload payload) {
+            if (! payload.isShard())
+                return CompletableFuture.completedFuture(toMap(payload));
+            return fetch(payload.link).thenCompose(child -> {
+                Map<ByteArrayWrapper, MaybeMultihash> res = new HashMap<>();
+                if (! child.isPresent())
+                    return CompletableFuture.completedFuture(res);
+                return child.get().applyToAllMappings(res, (m, e) -> {
+                    m.put(e.left, e.right);
+                    return CompletableFuture.completedFuture(m);
+                }, storage);
+            });
+        }
+
+        private static Map<ByteArrayWrapper, MaybeMultihash> toMap(HashPrefixPayload payload) {
+            Map<ByteArrayWrapper, MaybeMultihash> res = new HashMap<>();
+            if (payload != null)
+                for (KeyElement e : payload.mappings)
+                    res.put(e.key, e.valueHash);
+            return res;
+        }
+
+        private static void addChanges(Map<ByteArrayWrapper, MaybeMultihash> original,
+                                       Map<ByteArrayWrapper, MaybeMultihash> updated,
+                                       List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes) {
+            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> e : original.entrySet()) {
+                MaybeMultihash newValue = updated.getOrDefault(e.getKey(), MaybeMultihash.empty());
+                if (! newValue.equals(e.getValue()))
+                    changes.add(new Triple<>(e.getKey(), e.getValue(), newValue));
+            }
+            for (Map.Entry<ByteArrayWrapper, MaybeMultihash> e : updated.entrySet())
+                if (! original.containsKey(e.getKey()))
+                    changes.add(new Triple<>(e.getKey(), MaybeMultihash.empty(), e.getValue()));
+        }
+
+        private CompletableFuture<Boolean> consume(List<Triple<ByteArrayWrapper, MaybeMultihash, MaybeMultihash>> changes) {
+            if (changes.isEmpty())
+                return CompletableFuture.completedFuture(true);
+            synchronized (this) {
+                consumed = consumed.thenCompose(x -> Futures.reduceAll(changes, true,
+                        (res, change) -> consumer.apply(change), (a, b) -> a && b));
+                return consumed;
+            }
+        }
+
+        private CompletableFuture<Optional<Champ>> fetch(MaybeMultihash hash) {
+            if (! hash.isPresent())
+                return CompletableFuture.completedFuture(Optional.empty());
+            CompletableFuture<Optional<Champ>> res = new CompletableFuture<>();
+            Runnable task = () -> storage.get(hash.get())
+                    .thenApply(raw -> raw.map(Champ::fromCbor))
+                    .whenComplete((champ, t) -> {
+                        Runnable next;
+                        synchronized (this) {
+                            next = waiting.poll();
+                            if (next == null)
+                                fetching--;
+                        }
+                        if (t != null)
+                            res.completeExceptionally(t);
+                        else
+                            res.complete(champ);
+                        if (next != null)
+                            next.run();
+                    });
+            synchronized (this) {
+                if (fetching >= maxFetches) {
+                    waiting.add(task);
+                    return res;
+                }
+                fetching++;
+            }
+            task.run();
+            return res;
+        }
     }
 
     @Override
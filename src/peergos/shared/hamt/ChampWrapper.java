@@ -9,8 +9,10 @@ import peergos.shared.user.*;
 import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class ChampWrapper implements ImmutableTree
 {
@@ -62,6 +64,19 @@ public class ChampWrapper implements ImmutableTree
         return root.left.get(key, hasher.apply(key), 0, BIT_WIDTH, storage);
     }
 
+    /**
+     *
+     * @param rawKeys
+     * @return the value stored under each key, retrieving each node needed only once
+     */
+    public CompletableFuture<Map<ByteArrayWrapper, MaybeMultihash>> getAll(List<byte[]> rawKeys) {
+        List<Pair<ByteArrayWrapper, byte[]>> keys = rawKeys.stream()
+                .map(ByteArrayWrapper::new)
+                .map(k -> new Pair<>(k, hasher.apply(k)))
+                .collect(Collectors.toList());
+        return root.left.getAll(keys, 0, BIT_WIDTH, storage);
+    }
+
     /**
      *
      * @param rawKey
@@ -100,6 +115,36 @@ public class ChampWrapper implements ImmutableTree
                 .thenCompose(newRoot -> commit(writer, newRoot));
     }
 
+    /** Apply a series of puts and removes, writing each node of the resulting tree only once. If any update's expected
+     * existing value doesn't match, none of the updates are applied.
+     *
+     * @param updates the key, expected existing value and new value of each update, an empty new value is a remove
+     * @return hash of new tree root
+     */
+    public CompletableFuture<Multihash> putAll(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               List<Triple<byte[], MaybeMultihash, MaybeMultihash>> updates,
+                                               TransactionId tid) {
+        BufferedStorage buffer = new BufferedStorage(storage);
+        return Futures.reduceAll(updates, root,
+                (current, update) -> {
+                    ByteArrayWrapper key = new ByteArrayWrapper(update.left);
+                    return current.left.put(owner, writer, key, hasher.apply(key), 0, update.middle, update.right,
+                            BIT_WIDTH, MAX_HASH_COLLISIONS_PER_LEVEL, hasher, tid, buffer, current.right);
+                }, (a, b) -> b)
+                .thenCompose(newRoot -> buffer.commit(owner, writer.publicKeyHash, newRoot.right, tid)
+                        .thenCompose(h -> commit(writer, newRoot)));
+    }
+
+    /** Call the consumer on every mapping, retrieving up to maxFetches nodes at once, in no particular order.
+     *
+     * @return true when done
+     */
+    public CompletableFuture<Boolean> applyToAllMappingsInParallel(int maxFetches,
+                                                                   Consumer<Pair<ByteArrayWrapper, MaybeMultihash>> consumer) {
+        return Champ.applyToAllMappingsInParallel(root.right, maxFetches, consumer, storage);
+    }
+
     private CompletableFuture<Multihash> commit(SigningPrivateKeyAndPublicHash writer, Pair<Champ, Multihash> newRoot) {
         root = newRoot;
         return CompletableFuture.completedFuture(newRoot.right);
@@ -13,6 +13,10 @@ public class Multipart {
     private PrintWriter writer;
 
     public Multipart(String requestURL, String charset) throws IOException {
+        this(requestURL, charset, Collections.emptyMap());
+    }
+
+    public Multipart(String requestURL, String charset, Map<String, String> headers) throws IOException {
         this.charset = charset;
 
         boundary = createBoundary();
@@ -24,6 +28,8 @@ public class Multipart {
         httpConn.setDoInput(true);
         httpConn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
         httpConn.setRequestProperty("User-Agent", "Java IPFS Client");
+        for (Map.Entry<String, String> header : headers.entrySet())
+            httpConn.setRequestProperty(header.getKey(), header.getValue());
         out = httpConn.getOutputStream();
         writer = new PrintWriter(new OutputStreamWriter(out, charset), true);
     }
@@ -5,40 +5,149 @@ import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.logging.*;
 
 /*
- * A CoreNode that caches previous metadata blob reads for a certain time
+ * A MutablePointers that caches previous pointer reads for a certain time, in a bounded cache.
+ *
+ * If the target reports which writers have changed, then the cache is revalidated against the target's change log
+ * at most once per sync period, and only the changed writers are dropped, so changes are seen well before the TTL.
  */
 public class CachingPointers implements MutablePointers {
+    private static final Logger LOG = Logger.getGlobal();
+    private static final int DEFAULT_CACHE_SIZE = 1_000;
+    private static final int CHANGES_SYNC_PERIOD_MILLIS = 1_000;
 
     private final MutablePointers target;
     private final int cacheTTL;
-    private final Map<PublicKeyHash, Pair<Optional<byte[]>, Long>> cache = new HashMap<>();
+    private final LRUCache<PublicKeyHash, Pair<Optional<byte[]>, Long>> cache;
+    private long changesSequence = -1;
+    private long lastSync = 0;
+    // incremented whenever entries are dropped, so that reads which raced with a change aren't cached
+    private long invalidations = 0;
+    private boolean changesSupported = true;
+    private CompletableFuture<Boolean> pendingSync = CompletableFuture.completedFuture(true);
 
     public CachingPointers(MutablePointers target, int cacheTTL) {
+        this(target, cacheTTL, DEFAULT_CACHE_SIZE);
+    }
+
+    public CachingPointers(MutablePointers target, int cacheTTL, int cacheSize) {
         this.target = target;
         this.cacheTTL = cacheTTL;
+        this.cache = new LRUCache<>(cacheSize);
     }
 
     @Override
     public CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer) {
-        synchronized (cache) {
-            Pair<Optional<byte[]>, Long> cached = cache.get(writer);
-            if (cached != null && System.currentTimeMillis() - cached.right < cacheTTL)
-                return CompletableFuture.completedFuture(cached.left);
-        }
-        return target.getPointer(owner, writer).thenApply(m -> {
+        return syncChanges().thenCompose(x -> {
+            long generation;
             synchronized (cache) {
-                cache.put(writer, new Pair<>(m, System.currentTimeMillis()));
+                Optional<byte[]> cached = getCached(writer);
+                if (cached != null)
+                    return CompletableFuture.completedFuture(cached);
+                generation = invalidations;
             }
-            return m;
+            return target.getPointer(owner, writer).thenApply(m -> {
+                synchronized (cache) {
+                    if (invalidations == generation)
+                        cache.put(writer, new Pair<>(m, System.currentTimeMillis()));
+                }
+                return m;
+            });
         });
     }
 
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(PublicKeyHash owner, List<PublicKeyHash> writers) {
+        return syncChanges().thenCompose(x -> {
+            List<Optional<byte[]>> result = new ArrayList<>(Collections.nCopies(writers.size(), null));
+            List<PublicKeyHash> missing = new ArrayList<>();
+            long generation;
+            synchronized (cache) {
+                for (int i = 0; i < writers.size(); i++) {
+                    Optional<byte[]> cached = getCached(writers.get(i));
+                    if (cached != null)
+                        result.set(i, cached);
+                    else
+                        missing.add(writers.get(i));
+                }
+                generation = invalidations;
+            }
+            if (missing.isEmpty())
+                return CompletableFuture.completedFuture(result);
+            return target.getPointers(owner, missing).thenApply(retrieved -> {
+                synchronized (cache) {
+                    long now = System.currentTimeMillis();
+                    for (int i = 0, j = 0; i < result.size(); i++) {
+                        if (result.get(i) != null)
+                            continue;
+                        Optional<byte[]> m = retrieved.get(j++);
+                        result.set(i, m);
+                        if (invalidations == generation)
+                            cache.put(writers.get(i), new Pair<>(m, now));
+                    }
+                }
+                return result;
+            });
+        });
+    }
+
+    /**
+     *
+     * @return the cached pointer, or null if there isn't a fresh one. Must be called holding the cache lock.
+     */
+    private Optional<byte[]> getCached(PublicKeyHash writer) {
+        Pair<Optional<byte[]>, Long> cached = cache.get(writer);
+        if (cached != null && System.currentTimeMillis() - cached.right < cacheTTL)
+            return cached.left;
+        return null;
+    }
+
+    /** Drop any cached pointers which the target reports have changed since we last asked
+     *
+     */
+    private CompletableFuture<Boolean> syncChanges() {
+        synchronized (cache) {
+            if (! changesSupported || ! pendingSync.isDone())
+                return pendingSync;
+            long now = System.currentTimeMillis();
+            if (now - lastSync < CHANGES_SYNC_PERIOD_MILLIS)
+                return pendingSync;
+            lastSync = now;
+            pendingSync = target.getChanges(changesSequence, 0)
+                    .thenApply(this::applyChanges)
+                    .exceptionally(t -> {
+                        LOG.info("Pointer changes unavailable, falling back to cache expiry: " + t.getMessage());
+                        synchronized (cache) {
+                            changesSupported = false;
+                        }
+                        return true;
+                    });
+            return pendingSync;
+        }
+    }
+
+    private boolean applyChanges(PointerChanges changes) {
+        synchronized (cache) {
+            if (changesSequence >= 0 && changes.sequence != changesSequence) {
+                if (changes.isComplete) {
+                    for (PublicKeyHash writer : changes.writers)
+                        cache.remove(writer);
+                } else
+                    cache.clear();
+                invalidations++;
+            }
+            changesSequence = changes.sequence;
+            return true;
+        }
+    }
+
     @Override
     public CompletableFuture<Boolean> setPointer(PublicKeyHash ownerPublicKey, PublicKeyHash writer, byte[] writerSignedBtreeRootHash) {
         synchronized (cache) {
             cache.remove(writer);
+            invalidations++;
         }
         return target.setPointer(ownerPublicKey, writer, writerSignedBtreeRootHash);
     }
@@ -2,6 +2,7 @@
 package peergos.shared.mutable;
 import java.util.logging.*;
 
+import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.user.*;
@@ -11,6 +12,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class HttpMutablePointers implements MutablePointersProxy {
 	private static final Logger LOG = Logger.getGlobal();
@@ -107,4 +109,37 @@ public class HttpMutablePointers implements MutablePointersProxy {
                 LOG.info("HttpMutablePointers.get took " + (t2 -t1) + "mS");
         }
     }
+
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(PublicKeyHash owner, List<PublicKeyHash> writers) {
+        return getPointers(directUrlPrefix, direct, owner, writers);
+    }
+
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(Multihash targetId, PublicKeyHash owner, List<PublicKeyHash> writers) {
+        return getPointers(getProxyUrlPrefix(targetId), p2p, owner, writers);
+    }
+
+    private CompletableFuture<List<Optional<byte[]>>> getPointers(String urlPrefix,
+                                                                  HttpPoster poster,
+                                                                  PublicKeyHash owner,
+                                                                  List<PublicKeyHash> writers) {
+        long t1 = System.currentTimeMillis();
+        byte[] writersCbor = new CborObject.CborList(writers).serialize();
+        return poster.postUnzip(urlPrefix + "mutable/getPointers?owner=" + owner, writersCbor).thenApply(res -> {
+            List<Optional<byte[]>> pointers = ((CborObject.CborList) CborObject.fromByteArray(res)).value.stream()
+                    .map(cbor -> ((CborObject.CborByteArray) cbor).value)
+                    .map(meta -> meta.length == 0 ? Optional.<byte[]>empty() : Optional.of(meta))
+                    .collect(Collectors.toList());
+            if (LOGGING)
+                LOG.info("HttpMutablePointers.getPointers(" + writers.size() + ") took " + (System.currentTimeMillis() - t1) + "mS");
+            return pointers;
+        });
+    }
+
+    @Override
+    public CompletableFuture<PointerChanges> getChanges(long since, int maxWaitMillis) {
+        return direct.get(directUrlPrefix + "mutable/getChanges?since=" + since + "&wait=" + maxWaitMillis)
+                .thenApply(res -> PointerChanges.fromCbor(CborObject.fromByteArray(res)));
+    }
 }
@@ -6,9 +6,11 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.ContentAddressedStorage;
+import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.*;
 
 public interface MutablePointers {
 
@@ -28,6 +30,28 @@ public interface MutablePointers {
      */
     CompletableFuture<Optional<byte[]>> getPointer(PublicKeyHash owner, PublicKeyHash writer);
 
+    /** Get the current hashes that many public keys of the same owner map to
+     *
+     * @param owner
+     * @param writers
+     * @return the pointers in the same order as the writers
+     */
+    default CompletableFuture<List<Optional<byte[]>>> getPointers(PublicKeyHash owner, List<PublicKeyHash> writers) {
+        return Futures.combineAllInOrder(writers.stream()
+                .map(writer -> getPointer(owner, writer))
+                .collect(Collectors.toList()));
+    }
+
+    /** Get the writers whose pointers have been updated on this server since a point in its change log
+     *
+     * @param since the sequence number from a previous call, or -1 to just get the current sequence number
+     * @param maxWaitMillis how long to wait for a change if there are none yet
+     * @return
+     */
+    default CompletableFuture<PointerChanges> getChanges(long since, int maxWaitMillis) {
+        return Futures.errored(new IllegalStateException("Pointer changes are not tracked by " + getClass().getSimpleName()));
+    }
+
     /**
      * Get the CAS key-hash for the data pointed to by a writer-key.
      * @param writerKeyHash
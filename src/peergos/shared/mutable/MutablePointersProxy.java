@@ -29,4 +29,13 @@ public interface MutablePointersProxy extends MutablePointers {
      */
     CompletableFuture<Optional<byte[]>> getPointer(Multihash targetServerId, PublicKeyHash owner, PublicKeyHash writer);
 
+    /** Get the current hashes that many public keys of the same owner map to
+     *
+     * @param targetServerId
+     * @param owner
+     * @param writers
+     * @return the pointers in the same order as the writers
+     */
+    CompletableFuture<List<Optional<byte[]>>> getPointers(Multihash targetServerId, PublicKeyHash owner, List<PublicKeyHash> writers);
+
 }
@@ -0,0 +1,47 @@
+package peergos.shared.mutable;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** The writers whose pointers a server has updated since a given point in its change log.
+ *
+ *  If the server no longer holds all the changes since the requested point then isComplete will be false, and every
+ *  cached pointer should be treated as possibly stale.
+ */
+public class PointerChanges implements Cborable {
+
+    public final long sequence;
+    public final boolean isComplete;
+    public final List<PublicKeyHash> writers;
+
+    public PointerChanges(long sequence, boolean isComplete, List<PublicKeyHash> writers) {
+        this.sequence = sequence;
+        this.isComplete = isComplete;
+        this.writers = writers;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        return new CborObject.CborList(Arrays.asList(
+                new CborObject.CborLong(sequence),
+                new CborObject.CborBoolean(isComplete),
+                new CborObject.CborList(writers)
+        ));
+    }
+
+    public static PointerChanges fromCbor(CborObject cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for PointerChanges: " + cbor);
+
+        List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+        long sequence = ((CborObject.CborLong) value.get(0)).value;
+        boolean isComplete = ((CborObject.CborBoolean) value.get(1)).value;
+        List<PublicKeyHash> writers = ((CborObject.CborList) value.get(2)).value.stream()
+                .map(PublicKeyHash::fromCbor)
+                .collect(Collectors.toList());
+        return new PointerChanges(sequence, isComplete, writers);
+    }
+}
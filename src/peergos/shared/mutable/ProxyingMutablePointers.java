@@ -10,14 +10,12 @@ import java.util.function.*;
 
 public class ProxyingMutablePointers implements MutablePointers {
 
-    private final Multihash serverId;
-    private final CoreNode core;
+    private final StorageNodeRouter router;
     private final MutablePointers local;
     private final MutablePointersProxy p2p;
 
-    public ProxyingMutablePointers(Multihash serverId, CoreNode core, MutablePointers local, MutablePointersProxy p2p) {
-        this.serverId = serverId;
-        this.core = core;
+    public ProxyingMutablePointers(StorageNodeRouter router, MutablePointers local, MutablePointersProxy p2p) {
+        this.router = router;
         this.local = local;
         this.p2p = p2p;
     }
@@ -36,22 +34,14 @@ public class ProxyingMutablePointers implements MutablePointers {
                 target -> p2p.getPointer(target, owner, writer));
     }
 
-    public <V> CompletableFuture<V> redirectCall(PublicKeyHash ownerKey, Supplier<CompletableFuture<V>> direct, Function<Multihash, CompletableFuture<V>> proxied) {
-        return core.getUsername(ownerKey)
-                .thenCompose(owner -> core.getChain(owner)
-                            .thenCompose(chain -> {
-                                if (chain.isEmpty()) {
-                                    // This happens during sign-up, before we have a chain yet
-                                    return direct.get();
-                                }
-                                List<Multihash> storageIds = chain.get(chain.size() - 1).claim.storageProviders;
-                                Multihash target = storageIds.get(0);
-                                if (target.equals(serverId)) { // don't proxy
-                                    return direct.get();
-                                } else {
-                                    return proxied.apply(target);
-                                }
-                            }));
+    @Override
+    public CompletableFuture<List<Optional<byte[]>>> getPointers(PublicKeyHash owner, List<PublicKeyHash> writers) {
+        return redirectCall(owner,
+                () -> local.getPointers(owner, writers),
+                target -> p2p.getPointers(target, owner, writers));
+    }
 
+    public <V> CompletableFuture<V> redirectCall(PublicKeyHash ownerKey, Supplier<CompletableFuture<V>> direct, Function<Multihash, CompletableFuture<V>> proxied) {
+        return router.redirectCall(ownerKey, direct, proxied);
     }
 }
@@ -0,0 +1,57 @@
+package peergos.shared.social;
+
+import peergos.shared.cbor.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** A page of the pending follow requests for a user, in increasing order of their ids.
+ *
+ *  Ids increase with each request received, so a client can ask for only the requests after the last id it has seen.
+ */
+public class FollowRequestPage implements Cborable {
+
+    public final List<Pair<Long, byte[]>> requests;
+    public final boolean hasMore;
+
+    public FollowRequestPage(List<Pair<Long, byte[]>> requests, boolean hasMore) {
+        this.requests = requests;
+        this.hasMore = hasMore;
+    }
+
+    /**
+     *
+     * @param afterId the cursor used to get this page
+     * @return the cursor to get the following page
+     */
+    public long lastId(long afterId) {
+        return requests.isEmpty() ? afterId : requests.get(requests.size() - 1).left;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        return new CborObject.CborList(Arrays.asList(
+                new CborObject.CborList(requests.stream()
+                        .map(p -> new CborObject.CborList(Arrays.asList(
+                                new CborObject.CborLong(p.left),
+                                new CborObject.CborByteArray(p.right))))
+                        .collect(Collectors.toList())),
+                new CborObject.CborBoolean(hasMore)
+        ));
+    }
+
+    public static FollowRequestPage fromCbor(CborObject cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for FollowRequestPage: " + cbor);
+
+        List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+        List<Pair<Long, byte[]>> requests = new ArrayList<>();
+        for (Cborable request : ((CborObject.CborList) value.get(0)).value) {
+            List<? extends Cborable> pair = ((CborObject.CborList) request).value;
+            requests.add(new Pair<>(((CborObject.CborLong) pair.get(0)).value, ((CborObject.CborByteArray) pair.get(1)).value));
+        }
+        boolean hasMore = ((CborObject.CborBoolean) value.get(1)).value;
+        return new FollowRequestPage(requests, hasMore);
+    }
+}
@@ -1,6 +1,7 @@
 package peergos.shared.social;
 import java.util.logging.*;
 
+import peergos.shared.cbor.*;
 import peergos.shared.corenode.*;
 import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
@@ -9,6 +10,7 @@ import peergos.shared.util.*;
 
 import java.io.*;
 import java.net.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 public class HttpSocialNetwork implements SocialNetworkProxy {
@@ -73,6 +75,31 @@ public class HttpSocialNetwork implements SocialNetworkProxy {
         });
     }
 
+    @Override
+    public CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, byte[] signedTime, long afterId, int maxCount) {
+        return getFollowRequests("", direct, owner, signedTime, afterId, maxCount);
+    }
+
+    @Override
+    public CompletableFuture<FollowRequestPage> getFollowRequests(Multihash targetServerId,
+                                                                  PublicKeyHash owner,
+                                                                  byte[] signedTime,
+                                                                  long afterId,
+                                                                  int maxCount) {
+        return getFollowRequests(getProxyUrlPrefix(targetServerId), p2p, owner, signedTime, afterId, maxCount);
+    }
+
+    private CompletableFuture<FollowRequestPage> getFollowRequests(String urlPrefix,
+                                                                   HttpPoster poster,
+                                                                   PublicKeyHash owner,
+                                                                   byte[] signedTime,
+                                                                   long afterId,
+                                                                   int maxCount) {
+        return poster.get(urlPrefix + "social/getFollowRequestPage?owner=" + encode(owner.toString())
+                + "&auth=" + ArrayOps.bytesToHex(signedTime) + "&after=" + afterId + "&max=" + maxCount)
+                .thenApply(res -> FollowRequestPage.fromCbor(CborObject.fromByteArray(res)));
+    }
+
     @Override
     public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] signedRequest) {
         return removeFollowRequest("", direct, owner, signedRequest);
@@ -95,6 +122,18 @@ public class HttpSocialNetwork implements SocialNetworkProxy {
         });
     }
 
+    @Override
+    public CompletableFuture<Notifications> getNotifications(PublicKeyHash owner,
+                                                             byte[] signedTime,
+                                                             List<PublicKeyHash> writers,
+                                                             long since,
+                                                             int maxWaitMillis) {
+        byte[] writersCbor = new CborObject.CborList(writers).serialize();
+        return direct.postUnzip("social/getNotifications?owner=" + encode(owner.toString())
+                + "&auth=" + ArrayOps.bytesToHex(signedTime) + "&since=" + since + "&wait=" + maxWaitMillis, writersCbor)
+                .thenApply(res -> Notifications.fromCbor(CborObject.fromByteArray(res)));
+    }
+
     private static String encode(String component) {
         try {
             return URLEncoder.encode(component, "UTF-8");
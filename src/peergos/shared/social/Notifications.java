@@ -0,0 +1,61 @@
+package peergos.shared.social;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+/** The changes a server has seen since a given point in its notification log, filtered to the keys a client
+ *  subscribed to.
+ *
+ *  Each pointer change carries the writer signed update, so it can be verified and used without a getPointer call.
+ *  If the server no longer holds all the changes since the requested point then isComplete will be false, and every
+ *  subscribed pointer should be treated as possibly stale.
+ */
+public class Notifications implements Cborable {
+
+    public final long sequence;
+    public final boolean isComplete;
+    public final Map<PublicKeyHash, byte[]> pointers;
+    public final boolean newFollowRequests;
+
+    public Notifications(long sequence, boolean isComplete, Map<PublicKeyHash, byte[]> pointers, boolean newFollowRequests) {
+        this.sequence = sequence;
+        this.isComplete = isComplete;
+        this.pointers = pointers;
+        this.newFollowRequests = newFollowRequests;
+    }
+
+    public boolean isEmpty() {
+        return isComplete && pointers.isEmpty() && ! newFollowRequests;
+    }
+
+    @Override
+    public CborObject toCbor() {
+        return new CborObject.CborList(Arrays.asList(
+                new CborObject.CborLong(sequence),
+                new CborObject.CborBoolean(isComplete),
+                new CborObject.CborList(pointers.entrySet().stream()
+                        .map(e -> new CborObject.CborList(Arrays.asList(e.getKey(), new CborObject.CborByteArray(e.getValue()))))
+                        .collect(Collectors.toList())),
+                new CborObject.CborBoolean(newFollowRequests)
+        ));
+    }
+
+    public static Notifications fromCbor(CborObject cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for Notifications: " + cbor);
+
+        List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+        long sequence = ((CborObject.CborLong) value.get(0)).value;
+        boolean isComplete = ((CborObject.CborBoolean) value.get(1)).value;
+        Map<PublicKeyHash, byte[]> pointers = new LinkedHashMap<>();
+        for (Cborable pointer : ((CborObject.CborList) value.get(2)).value) {
+            List<? extends Cborable> pair = ((CborObject.CborList) pointer).value;
+            pointers.put(PublicKeyHash.fromCbor(pair.get(0)), ((CborObject.CborByteArray) pair.get(1)).value);
+        }
+        boolean newFollowRequests = ((CborObject.CborBoolean) value.get(3)).value;
+        return new Notifications(sequence, isComplete, pointers, newFollowRequests);
+    }
+}
@@ -11,14 +11,12 @@ import java.util.function.*;
 
 public class ProxyingSocialNetwork implements SocialNetwork {
 
-    private final Multihash serverId;
-    private final CoreNode core;
+    private final StorageNodeRouter router;
     private final SocialNetwork local;
     private final SocialNetworkProxy p2p;
 
-    public ProxyingSocialNetwork(Multihash serverId, CoreNode core, SocialNetwork local, SocialNetworkProxy p2p) {
-        this.serverId = serverId;
-        this.core = core;
+    public ProxyingSocialNetwork(StorageNodeRouter router, SocialNetwork local, SocialNetworkProxy p2p) {
+        this.router = router;
         this.local = local;
         this.p2p = p2p;
     }
@@ -37,6 +35,13 @@ public class ProxyingSocialNetwork implements SocialNetwork {
                 targetServer -> p2p.getFollowRequests(targetServer, owner, signedTime));
     }
 
+    @Override
+    public CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, byte[] signedTime, long afterId, int maxCount) {
+        return redirectCall(owner,
+                () -> local.getFollowRequests(owner, signedTime, afterId, maxCount),
+                targetServer -> p2p.getFollowRequests(targetServer, owner, signedTime, afterId, maxCount));
+    }
+
     @Override
     public CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] signedRequest) {
         return redirectCall(owner,
@@ -44,22 +49,17 @@ public class ProxyingSocialNetwork implements SocialNetwork {
                 targetServer -> p2p.removeFollowRequest(targetServer, owner, signedRequest));
     }
 
-    public <V> CompletableFuture<V> redirectCall(PublicKeyHash writer, Supplier<CompletableFuture<V>> direct, Function<Multihash, CompletableFuture<V>> proxied) {
-        return core.getUsername(writer)
-                .thenCompose(owner -> core.getChain(owner)
-                        .thenCompose(chain -> {
-                            if (chain.isEmpty()) {
-                                // This happens during sign-up, before we have a chain yet
-                                return direct.get();
-                            }
-                            List<Multihash> storageIds = chain.get(chain.size() - 1).claim.storageProviders;
-                            Multihash target = storageIds.get(0);
-                            if (target.equals(serverId)) { // don't proxy
-                                return direct.get();
-                            } else {
-                                return proxied.apply(target);
-                            }
-                        }));
+    @Override
+    public CompletableFuture<Notifications> getNotifications(PublicKeyHash owner,
+                                                             byte[] signedTime,
+                                                             List<PublicKeyHash> writers,
+                                                             long since,
+                                                             int maxWaitMillis) {
+        // notifications come from the server we are talking to
+        return local.getNotifications(owner, signedTime, writers, since, maxWaitMillis);
+    }
 
+    public <V> CompletableFuture<V> redirectCall(PublicKeyHash writer, Supplier<CompletableFuture<V>> direct, Function<Multihash, CompletableFuture<V>> proxied) {
+        return router.redirectCall(writer, direct, proxied);
     }
 }
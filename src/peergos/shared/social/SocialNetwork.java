@@ -1,12 +1,15 @@
 package peergos.shared.social;
 
 import peergos.shared.crypto.hash.*;
+import peergos.shared.util.*;
 
+import java.util.*;
 import java.util.concurrent.*;
 
 public interface SocialNetwork {
 
     int MAX_PENDING_FOLLOWERS = 100;
+    int MAX_FOLLOW_REQUESTS_PER_PAGE = 50;
 
     /** Send a follow request to the target public key
      *
@@ -23,6 +26,17 @@ public interface SocialNetwork {
      */
     CompletableFuture<byte[]> getFollowRequests(PublicKeyHash owner, byte[] signedTime);
 
+    /** Get the pending follow requests received after a given one, so a client only retrieves the requests it hasn't
+     *  seen before
+     *
+     * @param owner
+     * @param signedTime the current time signed by the owner, as for getFollowRequests
+     * @param afterId the id of the last request seen, or 0 to start from the oldest
+     * @param maxCount the maximum number of requests to return, which is capped at MAX_FOLLOW_REQUESTS_PER_PAGE
+     * @return the pending follow requests with an id greater than afterId, in increasing order of id
+     */
+    CompletableFuture<FollowRequestPage> getFollowRequests(PublicKeyHash owner, byte[] signedTime, long afterId, int maxCount);
+
     /** Delete a follow request for a given public key
      *
      * @param owner
@@ -30,4 +44,22 @@ public interface SocialNetwork {
      * @return
      */
     CompletableFuture<Boolean> removeFollowRequest(PublicKeyHash owner, byte[] data);
+
+    /** Get the notifications for a user since a point in this server's notification log, waiting for one if there
+     *  are none yet. This lets a client wait for changes rather than polling for them.
+     *
+     * @param owner the subscribing user, who is told of new follow requests
+     * @param signedTime the current time signed by the owner, as for getFollowRequests
+     * @param writers the writers whose pointer changes to report
+     * @param since the sequence number from a previous call, or -1 to just get the current sequence number
+     * @param maxWaitMillis how long to wait for a notification if there are none yet
+     * @return
+     */
+    default CompletableFuture<Notifications> getNotifications(PublicKeyHash owner,
+                                                              byte[] signedTime,
+                                                              List<PublicKeyHash> writers,
+                                                              long since,
+                                                              int maxWaitMillis) {
+        return Futures.errored(new IllegalStateException("Notifications are not supported by " + getClass().getSimpleName()));
+    }
 }
@@ -23,6 +23,17 @@ public interface SocialNetworkProxy extends SocialNetwork {
      */
     CompletableFuture<byte[]> getFollowRequests(Multihash targetServerId, PublicKeyHash owner, byte[] signedTime);
 
+    /**
+     *
+     * @param owner
+     * @return the pending follow requests for the given public key after the given id
+     */
+    CompletableFuture<FollowRequestPage> getFollowRequests(Multihash targetServerId,
+                                                           PublicKeyHash owner,
+                                                           byte[] signedTime,
+                                                           long afterId,
+                                                           int maxCount);
+
     /** Delete a follow request for a given public key
      *
      * @param owner
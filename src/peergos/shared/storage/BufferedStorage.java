@@ -0,0 +1,179 @@
+package peergos.shared.storage;
+
+import peergos.shared.cbor.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
+import peergos.shared.io.ipfs.multiaddr.*;
+import peergos.shared.io.ipfs.multihash.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** A ContentAddressedStorage which keeps cbor blocks in memory until commit is called, and then writes only those
+ *  that are reachable from the given root. This lets a series of tree updates be applied one at a time, while only
+ *  writing each node of the final tree once. Blocks read from the target are also kept, so repeated reads of the same
+ *  nodes during the series are only fetched once. Raw blocks are written straight through.
+ */
+public class BufferedStorage implements ContentAddressedStorage {
+
+    private static class BufferedBlock {
+        public final PublicKeyHash owner, writer;
+        public final byte[] signature, block;
+
+        public BufferedBlock(PublicKeyHash owner, PublicKeyHash writer, byte[] signature, byte[] block) {
+            this.owner = owner;
+            this.writer = writer;
+            this.signature = signature;
+            this.block = block;
+        }
+    }
+
+    private final ContentAddressedStorage target;
+    private final Map<Multihash, BufferedBlock> buffered = new HashMap<>();
+    private final Map<Multihash, CompletableFuture<Optional<CborObject>>> read = new HashMap<>();
+
+    public BufferedStorage(ContentAddressedStorage target) {
+        this.target = target;
+    }
+
+    public static Cid hashCbor(byte[] block) {
+        return new Cid(1, Cid.Codec.DagCbor, Multihash.Type.sha2_256, Hash.sha256(block));
+    }
+
+    /** Write the buffered blocks which are reachable from root to the target, in a single put.
+     *
+     * @return the root
+     */
+    public CompletableFuture<Multihash> commit(PublicKeyHash owner, PublicKeyHash writer, Multihash root, TransactionId tid) {
+        List<Cid> toWrite = new ArrayList<>();
+        synchronized (buffered) {
+            Set<Multihash> seen = new HashSet<>();
+            LinkedList<Multihash> queue = new LinkedList<>();
+            queue.add(root);
+            while (! queue.isEmpty()) {
+                Multihash next = queue.poll();
+                BufferedBlock block = buffered.get(next);
+                if (block == null || ! seen.add(next))
+                    continue;
+                toWrite.add((Cid) next);
+                queue.addAll(CborObject.fromByteArray(block.block).links());
+            }
+        }
+        if (toWrite.isEmpty())
+            return CompletableFuture.completedFuture(root);
+        List<BufferedBlock> blocks;
+        synchronized (buffered) {
+            blocks = toWrite.stream().map(buffered::get).collect(Collectors.toList());
+            buffered.clear();
+        }
+        for (BufferedBlock block : blocks)
+            if (! block.owner.equals(owner) || ! block.writer.equals(writer))
+                throw new IllegalStateException("Buffered blocks must all have the same owner and writer!");
+        return target.putHashed(owner, writer,
+                blocks.stream().map(b -> b.signature).collect(Collectors.toList()),
+                blocks.stream().map(b -> b.block).collect(Collectors.toList()),
+                toWrite, tid)
+                .thenApply(written -> {
+                    if (! written.equals(toWrite))
+                        throw new IllegalStateException("Incorrect hashes returned for buffered blocks!");
+                    return root;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Multihash> id() {
+        return target.id();
+    }
+
+    @Override
+    public CompletableFuture<TransactionId> startTransaction(PublicKeyHash owner) {
+        return target.startTransaction(owner);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransaction(PublicKeyHash owner, TransactionId tid) {
+        return target.closeTransaction(owner, tid);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
+                                                  PublicKeyHash writer,
+                                                  List<byte[]> signatures,
+                                                  List<byte[]> blocks,
+                                                  TransactionId tid) {
+        List<Multihash> hashes = new ArrayList<>();
+        synchronized (buffered) {
+            for (int i = 0; i < blocks.size(); i++) {
+                Cid hash = hashCbor(blocks.get(i));
+                buffered.put(hash, new BufferedBlock(owner, writer, signatures.get(i), blocks.get(i)));
+                hashes.add(hash);
+            }
+        }
+        return CompletableFuture.completedFuture(hashes);
+    }
+
+    @Override
+    public CompletableFuture<Optional<CborObject>> get(Multihash hash) {
+        synchronized (buffered) {
+            BufferedBlock block = buffered.get(hash);
+            if (block != null)
+                return CompletableFuture.completedFuture(Optional.of(CborObject.fromByteArray(block.block)));
+            return read.computeIfAbsent(hash, target::get);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner,
+                                                     PublicKeyHash writer,
+                                                     List<byte[]> signatures,
+                                                     List<byte[]> blocks,
+                                                     TransactionId tid) {
+        return target.putRaw(owner, writer, signatures, blocks, tid);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getRaw(Multihash hash) {
+        synchronized (buffered) {
+            BufferedBlock block = buffered.get(hash);
+            if (block != null)
+                return CompletableFuture.completedFuture(Optional.of(block.block));
+        }
+        return target.getRaw(hash);
+    }
+
+    @Override
+    public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
+        return target.pinUpdate(owner, existing, updated);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h) {
+        return target.recursivePin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> recursiveUnpin(PublicKeyHash owner, Multihash h) {
+        return target.recursiveUnpin(owner, h);
+    }
+
+    @Override
+    public CompletableFuture<List<Multihash>> getLinks(Multihash root) {
+        synchronized (buffered) {
+            BufferedBlock block = buffered.get(root);
+            if (block != null)
+                return CompletableFuture.completedFuture(CborObject.fromByteArray(block.block).links());
+        }
+        return target.getLinks(root);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Integer>> getSize(Multihash block) {
+        synchronized (buffered) {
+            BufferedBlock buf = buffered.get(block);
+            if (buf != null)
+                return CompletableFuture.completedFuture(Optional.of(buf.block.length));
+        }
+        return target.getSize(block);
+    }
+}
@@ -2,6 +2,7 @@ package peergos.shared.storage;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.util.*;
@@ -87,6 +88,16 @@ public class CachingStorage implements ContentAddressedStorage {
         return target.putRaw(owner, writer, signatures, blocks, tid);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        return target.putHashed(owner, writer, signatures, blocks, hashes, tid);
+    }
+
     @Override
     public CompletableFuture<Optional<byte[]>> getRaw(Multihash key) {
         if (cache.containsKey(key))
@@ -67,6 +67,23 @@ public interface ContentAddressedStorage {
 
     CompletableFuture<Optional<byte[]>> getRaw(Multihash object);
 
+    /** Store blocks whose hashes the caller has already computed from the blocks, so that implementations which
+     * trust their caller don't need to hash them again. All the hashes must have the same codec.
+     *
+     * @return the hashes of the stored blocks
+     */
+    default CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        boolean isRaw = ! hashes.isEmpty() && hashes.get(0).codec == Cid.Codec.Raw;
+        return isRaw ?
+                putRaw(owner, writer, signatures, blocks, tid) :
+                put(owner, writer, signatures, blocks, tid);
+    }
+
     CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated);
 
     CompletableFuture<List<Multihash>> recursivePin(PublicKeyHash owner, Multihash h);
@@ -245,6 +262,12 @@ public interface ContentAddressedStorage {
             return put(owner, writer, signatures, blocks, "raw", tid);
         }
 
+        public static Map<String, String> traceHeaders(TransactionId tid) {
+            Map<String, String> headers = new TreeMap<>();
+            tid.traceId.ifPresent(trace -> headers.put(Tracer.HEADER, trace));
+            return headers;
+        }
+
         private CompletableFuture<List<Multihash>> put(PublicKeyHash owner,
                                                        PublicKeyHash writer,
                                                        List<byte[]> signatures,
@@ -254,7 +277,7 @@ public interface ContentAddressedStorage {
                     + "&owner=" + encode(owner.toString())
                     + "&transaction=" + encode(tid.toString())
                     + "&writer=" + encode(writer.toString())
-                    + "&signatures=" + signatures.stream().map(ArrayOps::bytesToHex).reduce("", (a, b) -> a + "," + b).substring(1), blocks)
+                    + "&signatures=" + signatures.stream().map(ArrayOps::bytesToHex).reduce("", (a, b) -> a + "," + b).substring(1), blocks, traceHeaders(tid))
                     .thenApply(bytes -> JSONParser.parseStream(new String(bytes))
                             .stream()
                             .map(json -> getObjectHash(json))
@@ -321,17 +344,73 @@ public interface ContentAddressedStorage {
         }
     }
 
+    /** Makes writes for owners whose data is stored on another node over p2p to that node. Concurrent puts to the
+     *  same node under the same transaction are grouped, so that e.g. the fragments of a chunk are sent in a few
+     *  requests rather than one each.
+     */
     class Proxying implements ContentAddressedStorage {
+        public static final int MAX_PROXIED_PUTS_IN_FLIGHT = 4;
+        public static final int MAX_BLOCKS_PER_PROXIED_PUT = 50;
+        public static final int MAX_BYTES_PER_PROXIED_PUT = 5 * 1024 * 1024;
+
         private final ContentAddressedStorage local;
         private final ContentAddressedStorageProxy p2p;
-        private final Multihash ourNodeId;
-        private final CoreNode core;
+        private final StorageNodeRouter router;
+        private final Map<PutGroupKey, PutGroup> putGroups = new HashMap<>();
+
+        private static final class PutGroupKey {
+            public final Multihash target;
+            public final PublicKeyHash owner, writer;
+            public final String tid;
+            public final boolean isRaw;
+
+            public PutGroupKey(Multihash target, PublicKeyHash owner, PublicKeyHash writer, TransactionId tid, boolean isRaw) {
+                this.target = target;
+                this.owner = owner;
+                this.writer = writer;
+                this.tid = tid == null ? null : tid.id;
+                this.isRaw = isRaw;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                PutGroupKey that = (PutGroupKey) o;
+                return isRaw == that.isRaw &&
+                        target.equals(that.target) &&
+                        owner.equals(that.owner) &&
+                        writer.equals(that.writer) &&
+                        Objects.equals(tid, that.tid);
+            }
+
+            @Override
+            public int hashCode() {
+                return Objects.hash(target, owner, writer, tid, isRaw);
+            }
+        }
+
+        private static final class PendingPut {
+            public final List<byte[]> signatures, blocks;
+            public final int size;
+            public final CompletableFuture<List<Multihash>> result = new CompletableFuture<>();
+
+            public PendingPut(List<byte[]> signatures, List<byte[]> blocks) {
+                this.signatures = signatures;
+                this.blocks = blocks;
+                this.size = blocks.stream().mapToInt(b -> b.length).sum();
+            }
+        }
 
-        public Proxying(ContentAddressedStorage local, ContentAddressedStorageProxy p2p, Multihash ourNodeId, CoreNode core) {
+        private static final class PutGroup {
+            public final Queue<PendingPut> queued = new LinkedList<>();
+            public int inFlight = 0;
+        }
+
+        public Proxying(ContentAddressedStorage local, ContentAddressedStorageProxy p2p, StorageNodeRouter router) {
             this.local = local;
             this.p2p = p2p;
-            this.ourNodeId = ourNodeId;
-            this.core = core;
+            this.router = router;
         }
 
         @Override
@@ -377,14 +456,27 @@ public interface ContentAddressedStorage {
         public CompletableFuture<List<Multihash>> put(PublicKeyHash owner, PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks, TransactionId tid) {
             return redirectCall(owner,
                 () -> local.put(owner, writer, signatures, blocks, tid),
-                target -> p2p.put(target, owner, writer, signatures, blocks, tid));
+                target -> proxyPut(target, owner, writer, signatures, blocks, tid, false));
         }
 
         @Override
         public CompletableFuture<List<Multihash>> putRaw(PublicKeyHash owner, PublicKeyHash writer, List<byte[]> signatures, List<byte[]> blocks, TransactionId tid) {
             return redirectCall(owner,
                     () -> local.putRaw(owner, writer, signatures, blocks, tid),
-                    target -> p2p.putRaw(target, owner, writer, signatures, blocks, tid));
+                    target -> proxyPut(target, owner, writer, signatures, blocks, tid, true));
+        }
+
+        @Override
+        public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                            PublicKeyHash writer,
+                                                            List<byte[]> signatures,
+                                                            List<byte[]> blocks,
+                                                            List<Cid> hashes,
+                                                            TransactionId tid) {
+            boolean isRaw = ! hashes.isEmpty() && hashes.get(0).codec == Cid.Codec.Raw;
+            return redirectCall(owner,
+                    () -> local.putHashed(owner, writer, signatures, blocks, hashes, tid),
+                    target -> proxyPut(target, owner, writer, signatures, blocks, tid, isRaw));
         }
 
         @Override
@@ -408,23 +500,83 @@ public interface ContentAddressedStorage {
                     target -> p2p.recursiveUnpin(target, owner,  h));
         }
 
-        public <V> CompletableFuture<V> redirectCall(PublicKeyHash ownerKey, Supplier<CompletableFuture<V>> direct, Function<Multihash, CompletableFuture<V>> proxied) {
-        return core.getUsername(ownerKey)
-                .thenCompose(owner -> core.getChain(owner)
-                        .thenCompose(chain -> {
-                            if (chain.isEmpty()) {
-                                // This happens during sign-up, before we have a chain yet
-                                return direct.get();
-                            }
-                            List<Multihash> storageIds = chain.get(chain.size() - 1).claim.storageProviders;
-                            Multihash target = storageIds.get(0);
-                            if (target.equals(ourNodeId)) { // don't proxy
-                                return direct.get();
-                            } else {
-                                return proxied.apply(target);
-                            }
-                        }));
+        private CompletableFuture<List<Multihash>> proxyPut(Multihash target,
+                                                            PublicKeyHash owner,
+                                                            PublicKeyHash writer,
+                                                            List<byte[]> signatures,
+                                                            List<byte[]> blocks,
+                                                            TransactionId tid,
+                                                            boolean isRaw) {
+            PutGroupKey key = new PutGroupKey(target, owner, writer, tid, isRaw);
+            PendingPut put = new PendingPut(signatures, blocks);
+            synchronized (putGroups) {
+                putGroups.computeIfAbsent(key, k -> new PutGroup()).queued.add(put);
+            }
+            sendQueuedPuts(key, tid);
+            return put.result;
+        }
 
-    }
+        /** Send the queued puts of a group in as few requests as the limits allow, while there is room in flight
+         */
+        private void sendQueuedPuts(PutGroupKey key, TransactionId tid) {
+            while (true) {
+                List<PendingPut> batch = new ArrayList<>();
+                synchronized (putGroups) {
+                    PutGroup group = putGroups.get(key);
+                    if (group == null)
+                        return;
+                    if (group.queued.isEmpty()) {
+                        if (group.inFlight == 0)
+                            putGroups.remove(key);
+                        return;
+                    }
+                    if (group.inFlight >= MAX_PROXIED_PUTS_IN_FLIGHT)
+                        return;
+                    int blockCount = 0, bytes = 0;
+                    while (! group.queued.isEmpty()) {
+                        PendingPut next = group.queued.peek();
+                        if (! batch.isEmpty() && (blockCount + next.blocks.size() > MAX_BLOCKS_PER_PROXIED_PUT ||
+                                bytes + next.size > MAX_BYTES_PER_PROXIED_PUT))
+                            break;
+                        batch.add(group.queued.poll());
+                        blockCount += next.blocks.size();
+                        bytes += next.size;
+                    }
+                    group.inFlight++;
+                }
+                List<byte[]> signatures = batch.stream().flatMap(p -> p.signatures.stream()).collect(Collectors.toList());
+                List<byte[]> blocks = batch.stream().flatMap(p -> p.blocks.stream()).collect(Collectors.toList());
+                CompletableFuture<List<Multihash>> sent = key.isRaw ?
+                        p2p.putRaw(key.target, key.owner, key.writer, signatures, blocks, tid) :
+                        p2p.put(key.target, key.owner, key.writer, signatures, blocks, tid);
+                // complete the batch, then free its slot exactly once, whatever happened
+                sent.thenApply(hashes -> {
+                    if (hashes.size() != blocks.size())
+                        throw new IllegalStateException("Incorrect number of hashes returned from proxied put!");
+                    int offset = 0;
+                    for (PendingPut put : batch) {
+                        put.result.complete(new ArrayList<>(hashes.subList(offset, offset + put.blocks.size())));
+                        offset += put.blocks.size();
+                    }
+                    return true;
+                }).exceptionally(t -> {
+                    batch.forEach(p -> p.result.completeExceptionally(t));
+                    return false;
+                }).thenAccept(x -> {
+                    putFinished(key);
+                    sendQueuedPuts(key, tid);
+                });
+            }
+        }
+
+        private void putFinished(PutGroupKey key) {
+            synchronized (putGroups) {
+                putGroups.get(key).inFlight--;
+            }
+        }
+
+        public <V> CompletableFuture<V> redirectCall(PublicKeyHash ownerKey, Supplier<CompletableFuture<V>> direct, Function<Multihash, CompletableFuture<V>> proxied) {
+            return router.redirectCall(ownerKey, direct, proxied);
+        }
     }
 }
@@ -19,21 +19,31 @@ public class HashVerifyingStorage implements ContentAddressedStorage {
         this.source = source;
     }
 
-    private <T> T verify(byte[] data, Multihash claimed, Supplier<T> result) {
+    /**
+     *
+     * @param data
+     * @param claimed
+     * @return the hash of data in the same form as the claimed hash
+     */
+    public static Multihash computeHash(byte[] data, Multihash claimed) {
         switch (claimed.type) {
             case sha2_256:
                 Multihash computed = new Multihash(Multihash.Type.sha2_256, Hash.sha256(data));
                 if (claimed instanceof Cid)
                     computed = new Cid(((Cid) claimed).version, ((Cid) claimed).codec, computed);
-
-                if (computed.equals(claimed))
-                    return result.get();
-
-                throw new IllegalStateException("Incorrect hash! Are you under attack? Expected: " + claimed + " actual: " + computed);
+                return computed;
             default: throw new IllegalStateException("Unimplemented hash algorithm: " + claimed.type);
         }
     }
 
+    private <T> T verify(byte[] data, Multihash claimed, Supplier<T> result) {
+        Multihash computed = computeHash(data, claimed);
+        if (computed.equals(claimed))
+            return result.get();
+
+        throw new IllegalStateException("Incorrect hash! Are you under attack? Expected: " + claimed + " actual: " + computed);
+    }
+
     @Override
     public CompletableFuture<Multihash> id() {
         return source.id();
@@ -56,8 +66,8 @@ public class HashVerifyingStorage implements ContentAddressedStorage {
                                                   List<byte[]> blocks,
                                                   TransactionId tid) {
         return source.put(owner, writer, signatures, blocks, tid)
-                .thenApply(hashes -> hashes.stream()
-                        .map(h -> verify(blocks.get(hashes.indexOf(h)), h, () -> h))
+                .thenApply(hashes -> IntStream.range(0, hashes.size())
+                        .mapToObj(i -> verify(blocks.get(i), hashes.get(i), () -> hashes.get(i)))
                         .collect(Collectors.toList()));
     }
 
@@ -74,8 +84,8 @@ public class HashVerifyingStorage implements ContentAddressedStorage {
                                                      List<byte[]> blocks,
                                                      TransactionId tid) {
         return source.putRaw(owner, writer, signatures, blocks, tid)
-                .thenApply(hashes -> hashes.stream()
-                        .map(h -> verify(blocks.get(hashes.indexOf(h)), h, () -> h))
+                .thenApply(hashes -> IntStream.range(0, hashes.size())
+                        .mapToObj(i -> verify(blocks.get(i), hashes.get(i), () -> hashes.get(i)))
                         .collect(Collectors.toList()));
     }
 
@@ -1,10 +1,23 @@
 package peergos.shared.storage;
 
+import java.util.*;
+
 public final class TransactionId {
     public final String id;
+    // identifies the operation this transaction is part of, so its spans can be correlated across client and server
+    public final Optional<String> traceId;
 
-    public TransactionId(String id) {
+    public TransactionId(String id, Optional<String> traceId) {
         this.id = id;
+        this.traceId = traceId;
+    }
+
+    public TransactionId(String id) {
+        this(id, Optional.empty());
+    }
+
+    public TransactionId withTrace(String traceId) {
+        return new TransactionId(id, Optional.of(traceId));
     }
 
     @Override
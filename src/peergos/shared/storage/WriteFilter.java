@@ -2,6 +2,7 @@ package peergos.shared.storage;
 
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.cid.*;
 import peergos.shared.io.ipfs.multiaddr.*;
 import peergos.shared.io.ipfs.multihash.*;
 
@@ -76,6 +77,18 @@ public class WriteFilter implements ContentAddressedStorage {
         return dht.putRaw(owner, writer, signatures, blocks, tid);
     }
 
+    @Override
+    public CompletableFuture<List<Multihash>> putHashed(PublicKeyHash owner,
+                                                        PublicKeyHash writer,
+                                                        List<byte[]> signatures,
+                                                        List<byte[]> blocks,
+                                                        List<Cid> hashes,
+                                                        TransactionId tid) {
+        if (! keyFilter.apply(writer, blocks.stream().mapToInt(x -> x.length).sum()))
+            throw new IllegalStateException("Key not allowed to write to this server: " + writer);
+        return dht.putHashed(owner, writer, signatures, blocks, hashes, tid);
+    }
+
     @Override
     public CompletableFuture<List<MultiAddress>> pinUpdate(PublicKeyHash owner, Multihash existing, Multihash updated) {
         return dht.pinUpdate(owner, existing, updated);
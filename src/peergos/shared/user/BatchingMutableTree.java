@@ -0,0 +1,114 @@
+package peergos.shared.user;
+
+import peergos.shared.*;
+import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
+import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
+import peergos.shared.util.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/** A MutableTree which defers the addition of new mappings until commit is called, and then adds them with a single
+ *  update per writer. Reads see the deferred mappings. Updates of existing mappings, removals and
+ *  updateAll go straight to the target.
+ */
+public class BatchingMutableTree implements MutableTree {
+
+    private final MutableTree target;
+    private final ContentAddressedStorage dht;
+    private final Map<PublicKeyHash, Batch> batches = new HashMap<>();
+
+    private static class Batch {
+        public final PublicKeyHash owner;
+        public final SigningPrivateKeyAndPublicHash writer;
+        public final Map<ByteArrayWrapper, Multihash> mappings = new LinkedHashMap<>();
+
+        public Batch(PublicKeyHash owner, SigningPrivateKeyAndPublicHash writer) {
+            this.owner = owner;
+            this.writer = writer;
+        }
+    }
+
+    public BatchingMutableTree(MutableTree target, ContentAddressedStorage dht) {
+        this.target = target;
+        this.dht = dht;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> put(PublicKeyHash owner,
+                                          SigningPrivateKeyAndPublicHash writer,
+                                          byte[] mapKey,
+                                          MaybeMultihash existing,
+                                          Multihash value,
+                                          TransactionId tid) {
+        if (existing.isPresent())
+            return target.put(owner, writer, mapKey, existing, value, tid);
+        synchronized (batches) {
+            Batch batch = batches.computeIfAbsent(writer.publicKeyHash, w -> new Batch(owner, writer));
+            if (batch.mappings.containsKey(new ByteArrayWrapper(mapKey)))
+                return Futures.errored(new CasException(MaybeMultihash.of(batch.mappings.get(new ByteArrayWrapper(mapKey))), existing));
+            batch.mappings.put(new ByteArrayWrapper(mapKey), value);
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAll(PublicKeyHash owner,
+                                             SigningPrivateKeyAndPublicHash writer,
+                                             List<Pair<byte[], Multihash>> mappings,
+                                             TransactionId tid) {
+        return Futures.reduceAll(mappings, true,
+                (res, mapping) -> put(owner, writer, mapping.left, MaybeMultihash.empty(), mapping.right, tid),
+                (a, b) -> a && b);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateAll(PublicKeyHash owner,
+                                                SigningPrivateKeyAndPublicHash writer,
+                                                List<Triple<byte[], MaybeMultihash, Multihash>> updates,
+                                                TransactionId tid) {
+        return target.updateAll(owner, writer, updates, tid);
+    }
+
+    @Override
+    public CompletableFuture<MaybeMultihash> get(PublicKeyHash owner, PublicKeyHash writer, byte[] mapKey) {
+        synchronized (batches) {
+            Batch batch = batches.get(writer);
+            if (batch != null && batch.mappings.containsKey(new ByteArrayWrapper(mapKey)))
+                return CompletableFuture.completedFuture(MaybeMultihash.of(batch.mappings.get(new ByteArrayWrapper(mapKey))));
+        }
+        return target.get(owner, writer, mapKey);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> remove(PublicKeyHash owner,
+                                             SigningPrivateKeyAndPublicHash writer,
+                                             byte[] mapKey,
+                                             MaybeMultihash existing,
+                                             TransactionId tid) {
+        return target.remove(owner, writer, mapKey, existing, tid);
+    }
+
+    /** Add all the deferred mappings to the target, with one update per writer. The transactions the mappings were
+     * put under have usually finished by now, so each writer's update gets a new one.
+     *
+     * @return true when everything has been committed
+     */
+    public CompletableFuture<Boolean> commit() {
+        List<Batch> toCommit;
+        synchronized (batches) {
+            toCommit = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        return Futures.reduceAll(toCommit, true,
+                (res, batch) -> Transaction.call(batch.owner,
+                        tid -> target.putAll(batch.owner, batch.writer, batch.mappings.entrySet().stream()
+                                .map(e -> new Pair<>(e.getKey().data, e.getValue()))
+                                .collect(Collectors.toList()), tid),
+                        dht),
+                (a, b) -> a && b);
+    }
+}
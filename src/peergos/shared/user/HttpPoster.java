@@ -11,6 +11,12 @@ public interface HttpPoster {
 
     CompletableFuture<byte[]> postMultipart(String url, List<byte[]> files);
 
+    /** Implementations which can't set request headers may ignore them
+     */
+    default CompletableFuture<byte[]> postMultipart(String url, List<byte[]> files, Map<String, String> headers) {
+        return postMultipart(url, files);
+    }
+
     CompletableFuture<byte[]> get(String url);
 
 }
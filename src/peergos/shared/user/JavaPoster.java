@@ -66,8 +66,13 @@ public class JavaPoster implements HttpPoster {
 
     @Override
     public CompletableFuture<byte[]> postMultipart(String url, List<byte[]> files) {
+        return postMultipart(url, files, Collections.emptyMap());
+    }
+
+    @Override
+    public CompletableFuture<byte[]> postMultipart(String url, List<byte[]> files, Map<String, String> headers) {
         try {
-            Multipart mPost = new Multipart(buildURL(url).toString(), "UTF-8");
+            Multipart mPost = new Multipart(buildURL(url).toString(), "UTF-8", headers);
             for (byte[] file : files)
                 mPost.addFilePart("file", new NamedStreamable.ByteArrayWrapper(file));
             return CompletableFuture.completedFuture(mPost.finish().getBytes());
@@ -5,8 +5,10 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.MaybeMultihash;
 import peergos.shared.storage.*;
+import peergos.shared.util.*;
 
 import java.io.*;
+import java.util.*;
 import java.util.concurrent.*;
 
 public interface MutableTree {
@@ -28,6 +30,33 @@ public interface MutableTree {
                                    Multihash value,
                                    TransactionId tid);
 
+    /** Add many new mappings, committing the resulting tree once
+     *
+     * @param owner
+     * @param sharingKey
+     * @param mappings pairs of map key and value, none of which may already be present
+     * @param tid
+     * @return true when all the mappings have been committed
+     */
+    CompletableFuture<Boolean> putAll(PublicKeyHash owner,
+                                      SigningPrivateKeyAndPublicHash sharingKey,
+                                      List<Pair<byte[], Multihash>> mappings,
+                                      TransactionId tid);
+
+    /** Apply many updates, committing the resulting tree once. If any update's expected existing value doesn't
+     * match, none of them are applied.
+     *
+     * @param owner
+     * @param sharingKey
+     * @param updates the map key, expected existing value and new value of each update
+     * @param tid
+     * @return true when all the updates have been committed
+     */
+    CompletableFuture<Boolean> updateAll(PublicKeyHash owner,
+                                         SigningPrivateKeyAndPublicHash sharingKey,
+                                         List<Triple<byte[], MaybeMultihash, Multihash>> updates,
+                                         TransactionId tid);
+
     /**
      *
      * @param owner
@@ -14,6 +14,7 @@ import peergos.shared.util.*;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.*;
+import java.util.stream.*;
 
 public class MutableTreeImpl implements MutableTree {
 	private static final Logger LOG = Logger.getGlobal();
@@ -22,6 +23,9 @@ public class MutableTreeImpl implements MutableTree {
     private static final boolean LOGGING = false;
     private final Function<ByteArrayWrapper, byte[]> hasher = x -> x.data;
     private final Map<PublicKeyHash, CompletableFuture<CommittedWriterData>> pending = new HashMap<>();
+    public static final int MAX_BATCH_SIZE = 100;
+    // The updates for each writer which are waiting for the previous commit, and will be applied together
+    private final Map<PublicKeyHash, List<Update>> queued = new HashMap<>();
 
     public MutableTreeImpl(MutablePointers mutable, ContentAddressedStorage dht) {
         this.mutable = mutable;
@@ -76,6 +80,120 @@ public class MutableTreeImpl implements MutableTree {
                                           MaybeMultihash existing,
                                           Multihash value,
                                           TransactionId tid) {
+        return enqueue(owner, writer, new Update(mapKey, existing, Optional.of(value), tid));
+    }
+
+    /** Queue an update to a writer's tree. Updates which are queued while an earlier commit for the same writer is in
+     * progress are applied together, up to MAX_BATCH_SIZE at a time, producing a single new root, WriterData and
+     * pointer update. Each update is still checked against its expected existing value, and fails on its own if that
+     * doesn't match.
+     */
+    private CompletableFuture<Boolean> enqueue(PublicKeyHash owner,
+                                               SigningPrivateKeyAndPublicHash writer,
+                                               Update update) {
+        PublicKeyHash publicWriterKey = writer.publicKeyHash;
+        List<Update> batch = new ArrayList<>();
+        CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
+        CompletableFuture<CommittedWriterData> ready;
+        synchronized (pending) {
+            List<Update> open = queued.get(publicWriterKey);
+            if (open != null && open.size() < MAX_BATCH_SIZE) {
+                open.add(update);
+                return update.result;
+            }
+            batch.add(update);
+            queued.put(publicWriterKey, batch);
+            ready = addToQueue(owner, publicWriterKey, lock);
+        }
+        ready.thenCompose(committed -> applyBatch(owner, writer, committed, close(publicWriterKey, batch), lock))
+                .exceptionally(e -> {
+                    // Failed to retrieve the current writer data
+                    List<Update> failed = close(publicWriterKey, batch);
+                    lock.complete(null);
+                    failed.forEach(u -> u.result.completeExceptionally(e));
+                    return true;
+                });
+        return update.result;
+    }
+
+    /** Stop any more updates joining a batch
+     *
+     * @return the final contents of the batch
+     */
+    private List<Update> close(PublicKeyHash writer, List<Update> batch) {
+        synchronized (pending) {
+            if (queued.get(writer) == batch)
+                queued.remove(writer);
+            return new ArrayList<>(batch);
+        }
+    }
+
+    private CompletableFuture<Boolean> applyBatch(PublicKeyHash owner,
+                                                  SigningPrivateKeyAndPublicHash writer,
+                                                  CommittedWriterData committed,
+                                                  List<Update> batch,
+                                                  CompletableFuture<CommittedWriterData> lock) {
+        WriterData holder = committed.props;
+        TransactionId tid = batch.get(0).tid;
+        List<Update> applied = new ArrayList<>();
+        // Only the nodes of the final tree are written
+        BufferedStorage buffer = new BufferedStorage(dht);
+        return (holder.tree.isPresent() ?
+                ChampWrapper.create(holder.tree.get(), hasher, buffer) :
+                ChampWrapper.create(owner, writer, x -> x.data, tid, buffer)
+        ).thenCompose(tree -> Futures.reduceAll(batch, holder.tree.orElse(null),
+                (root, update) -> (update.value.isPresent() ?
+                        tree.put(owner, writer, update.mapKey, update.existing, update.value.get(), update.tid) :
+                        tree.remove(owner, writer, update.mapKey, update.existing, update.tid))
+                        .thenApply(newRoot -> {
+                            if (LOGGING)
+                                log(newRoot, "TREE." + (update.value.isPresent() ? "put" : "rm") + " ("
+                                        + ArrayOps.bytesToHex(update.mapKey) + ", " + update.value + ") => CAS("
+                                        + holder.tree + ", " + newRoot + ")");
+                            applied.add(update);
+                            return newRoot;
+                        }).exceptionally(e -> {
+                            // only this update fails, the tree is unchanged
+                            update.result.completeExceptionally(e);
+                            return root;
+                        }),
+                (a, b) -> b))
+                .thenCompose(newTreeRoot -> {
+                    if (applied.isEmpty()) {
+                        lock.complete(committed);
+                        return CompletableFuture.completedFuture(true);
+                    }
+                    return buffer.commit(owner, writer.publicKeyHash, newTreeRoot, tid)
+                            .thenCompose(root -> holder.withChamp(root)
+                                    .commit(owner, writer, committed.hash, mutable, dht, lock::complete, tid))
+                            .thenApply(x -> {
+                                applied.forEach(u -> u.result.complete(true));
+                                return true;
+                            });
+                }).exceptionally(e -> {
+                    lock.complete(committed);
+                    batch.forEach(u -> u.result.completeExceptionally(e));
+                    return true;
+                });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> putAll(PublicKeyHash owner,
+                                             SigningPrivateKeyAndPublicHash writer,
+                                             List<Pair<byte[], Multihash>> mappings,
+                                             TransactionId tid) {
+        return updateAll(owner, writer, mappings.stream()
+                .map(m -> new Triple<>(m.left, MaybeMultihash.empty(), m.right))
+                .collect(Collectors.toList()), tid);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> updateAll(PublicKeyHash owner,
+                                                SigningPrivateKeyAndPublicHash writer,
+                                                List<Triple<byte[], MaybeMultihash, Multihash>> updates,
+                                                TransactionId tid) {
+        if (updates.isEmpty())
+            return CompletableFuture.completedFuture(true);
         PublicKeyHash publicWriterKey = writer.publicKeyHash;
         CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
 
@@ -85,9 +203,11 @@ public class MutableTreeImpl implements MutableTree {
                     return (holder.tree.isPresent() ?
                             ChampWrapper.create(holder.tree.get(), hasher, dht) :
                             ChampWrapper.create(owner, writer, x -> x.data, tid, dht)
-                    ).thenCompose(tree -> tree.put(owner, writer, mapKey, existing, value, tid))
-                            .thenApply(newRoot -> LOGGING ? log(newRoot, "TREE.put (" + ArrayOps.bytesToHex(mapKey)
-                                    + ", " + value + ") => CAS(" + holder.tree + ", " + newRoot + ")") : newRoot)
+                    ).thenCompose(tree -> tree.putAll(owner, writer, updates.stream()
+                            .map(u -> new Triple<>(u.left, u.middle, MaybeMultihash.of(u.right)))
+                            .collect(Collectors.toList()), tid))
+                            .thenApply(newRoot -> LOGGING ? log(newRoot, "TREE.updateAll (" + updates.size()
+                                    + " updates) => CAS(" + holder.tree + ", " + newRoot + ")") : newRoot)
                             .thenCompose(newTreeRoot -> holder.withChamp(newTreeRoot)
                                     .commit(owner, writer, committed.hash, mutable, dht, lock::complete, tid))
                             .thenApply(x -> true)
@@ -122,20 +242,21 @@ public class MutableTreeImpl implements MutableTree {
                                              byte[] mapKey,
                                              MaybeMultihash existing,
                                              TransactionId tid) {
-        PublicKeyHash publicWriter = writer.publicKeyHash;
-        CompletableFuture<CommittedWriterData> future = new CompletableFuture<>();
+        return enqueue(owner, writer, new Update(mapKey, existing, Optional.empty(), tid));
+    }
 
-        return addToQueue(owner, publicWriter, future)
-                .thenCompose(committed -> {
-                    WriterData holder = committed.props;
-                    if (! holder.tree.isPresent())
-                        throw new IllegalStateException("Tree root not present!");
-                    return ChampWrapper.create(holder.tree.get(), hasher, dht)
-                            .thenCompose(tree -> tree.remove(owner, writer, mapKey, existing, tid))
-                            .thenApply(pair -> LOGGING ? log(pair, "TREE.rm (" + ArrayOps.bytesToHex(mapKey) + "  => " + pair) : pair)
-                            .thenCompose(newTreeRoot -> holder.withChamp(newTreeRoot)
-                                    .commit(owner, writer, committed.hash, mutable, dht, future::complete, tid))
-                            .thenApply(x -> true);
-                });
+    private static class Update {
+        public final byte[] mapKey;
+        public final MaybeMultihash existing;
+        public final Optional<Multihash> value; // empty for a removal
+        public final TransactionId tid;
+        public final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        public Update(byte[] mapKey, MaybeMultihash existing, Optional<Multihash> value, TransactionId tid) {
+            this.mapKey = mapKey;
+            this.existing = existing;
+            this.value = value;
+            this.tid = tid;
+        }
     }
 }
@@ -35,6 +35,12 @@ public class UserContext {
 
     public static final String PEERGOS_USERNAME = "peergos";
     public static final String SHARED_DIR_NAME = "shared";
+    // The maximum number of entry points, or friends' sharing directories, retrieved concurrently during login
+    public static final int DEFAULT_SIGN_IN_PARALLELISM = 16;
+    private static volatile int signInParallelism = DEFAULT_SIGN_IN_PARALLELISM;
+    // How often to retrieve all our follow requests, to notice those removed by another session of ours
+    public static final int DEFAULT_FOLLOW_REQUEST_FULL_FETCH_PERIOD_MILLIS = 5 * 60_000;
+    private static volatile int followRequestFullFetchPeriodMillis = DEFAULT_FOLLOW_REQUEST_FULL_FETCH_PERIOD_MILLIS;
     @JsProperty
     public final String username;
     public final SigningPrivateKeyAndPublicHash signer;
@@ -46,6 +52,13 @@ public class UserContext {
 
     private HashMap<String, Set<String>> sharedWithCache = new HashMap<>(); //path to friends SharedWith
 
+    // The decrypted follow requests which are still pending, by id, and the id of the last request retrieved
+    private final SortedMap<Long, FollowRequestWithCipherText> pendingFollowRequests = new TreeMap<>();
+    private long followRequestCursor = 0;
+    private long lastFullFollowRequestFetch = 0;
+    // set if our server can't return follow requests in pages
+    private volatile boolean followRequestPagesUnsupported = false;
+
     // The root of the global filesystem as viewed by this context
     @JsProperty
     public TrieNode entrie; // ba dum che!
@@ -121,15 +134,15 @@ public class UserContext {
     @JsMethod
     public static CompletableFuture<UserContext> signIn(String username, String password, NetworkAccess network
             , Crypto crypto, Consumer<String> progressCallback) {
-        return getWriterDataCbor(network, username)
+        return timed("Retrieving writer data", () -> getWriterDataCbor(network, username))
                 .thenCompose(pair -> {
                     Optional<SecretGenerationAlgorithm> algorithmOpt = WriterData.extractUserGenerationAlgorithm(pair.right);
                     if (!algorithmOpt.isPresent())
                         throw new IllegalStateException("No login algorithm specified in user data!");
                     SecretGenerationAlgorithm algorithm = algorithmOpt.get();
                     progressCallback.accept("Generating keys");
-                    return UserUtil.generateUser(username, password, crypto.hasher, crypto.symmetricProvider,
-                            crypto.random, crypto.signer, crypto.boxer, algorithm)
+                    return timed("Generating keys", () -> UserUtil.generateUser(username, password, crypto.hasher,
+                            crypto.symmetricProvider, crypto.random, crypto.signer, crypto.boxer, algorithm))
                             .thenCompose(userWithRoot ->
                                     login(username, userWithRoot, pair, network, crypto, progressCallback));
                 }).exceptionally(Futures::logError);
@@ -137,7 +150,7 @@ public class UserContext {
 
     public static CompletableFuture<UserContext> signIn(String username, UserWithRoot userWithRoot, NetworkAccess network
             , Crypto crypto, Consumer<String> progressCallback) {
-        return getWriterDataCbor(network, username)
+        return timed("Retrieving writer data", () -> getWriterDataCbor(network, username))
                 .thenCompose(pair -> {
                     return login(username, userWithRoot, pair, network, crypto, progressCallback);
                 }).exceptionally(Futures::logError);
@@ -152,8 +165,9 @@ public class UserContext {
         try {
             progressCallback.accept("Logging in");
             WriterData userData = WriterData.fromCbor(pair.right);
-            return createOurFileTreeOnly(username, userWithRoot.getRoot(), userData, network, crypto.random, Fragmenter.getInstance())
-                    .thenCompose(root -> TofuCoreNode.load(username, root, network, crypto.random)
+            return timed("Retrieving our entry points",
+                    () -> createOurFileTreeOnly(username, userWithRoot.getRoot(), userData, network, crypto.random, Fragmenter.getInstance()))
+                    .thenCompose(root -> timed("Loading keystore", () -> TofuCoreNode.load(username, root, network, crypto.random))
                             .thenCompose(keystore -> {
                                 TofuCoreNode tofu = new TofuCoreNode(network.coreNode, keystore);
                                 SigningPrivateKeyAndPublicHash signer = new SigningPrivateKeyAndPublicHash(userData.controller, userWithRoot.getUser().secretSigningKey);
@@ -325,7 +339,8 @@ public class UserContext {
         progressCallback.accept("Retrieving Friends");
         CompletableFuture<CommittedWriterData> lock = new CompletableFuture<>();
         return addToUserDataQueue(lock)
-                .thenCompose(wd -> createFileTree(entrie, username, rootKey, wd.props, network, crypto.random, fragmenter)
+                .thenCompose(wd -> timed("Retrieving friends' entry points",
+                        () -> createFileTree(entrie, username, rootKey, wd.props, network, crypto.random, fragmenter))
                         .thenCompose(root -> {
                             this.entrie = root;
                             return getByPath("/" + username + "/" + "shared")
@@ -333,7 +348,8 @@ public class UserContext {
                                         if (!sharedOpt.isPresent())
                                             throw new IllegalStateException("Couldn't find shared folder!");
                                         lock.complete(wd);
-                                        return buildSharedWithCache(sharedOpt.get(), this::getUserRoot).thenApply(res -> res);
+                                        return timed("Building shared with cache",
+                                                () -> buildSharedWithCache(sharedOpt.get(), this::getUserRoot));
                                     }).thenApply(res -> this);
                         }));
     }
@@ -341,21 +357,21 @@ public class UserContext {
     public CompletableFuture<Boolean> buildSharedWithCache(FileWrapper sharedFolder, Supplier<CompletableFuture<FileWrapper>> homeDirSupplier) {
         return sharedFolder.getChildren(network)
                     .thenCompose(children ->
-                            Futures.reduceAll(children,
-                                    true,
-                                    (x, friendDirectory) -> {
-                                        return CapabilityStore.loadSharingLinks(homeDirSupplier, friendDirectory,
-                                                this.username, network, crypto.random, fragmenter, false)
-                                                .thenApply(caps -> {
-                                                    String friendName = friendDirectory.getName();
-                                                    caps.getRetrievedCapabilities().stream().forEach(rc -> {
-                                                        Set<String> existingEntries = sharedWithCache.getOrDefault(rc.path, new HashSet<>());
-                                                        sharedWithCache.put(rc.path, existingEntries);
-                                                        existingEntries.add(friendName);
-                                                    });
-                                                    return true;
-                                                });
-                                    }, (a, b) -> a && b).thenApply(done -> done));
+                            Futures.mapAllInOrder(new ArrayList<>(children), signInParallelism,
+                                    friendDirectory -> CapabilityStore.loadSharingLinks(homeDirSupplier, friendDirectory,
+                                            this.username, network, crypto.random, fragmenter, false)
+                                            .thenApply(caps -> new Pair<>(friendDirectory.getName(), caps))))
+                    .thenApply(all -> {
+                        for (Pair<String, CapabilitiesFromUser> friendCaps : all) {
+                            String friendName = friendCaps.left;
+                            friendCaps.right.getRetrievedCapabilities().stream().forEach(rc -> {
+                                Set<String> existingEntries = sharedWithCache.getOrDefault(rc.path, new HashSet<>());
+                                sharedWithCache.put(rc.path, existingEntries);
+                                existingEntries.add(friendName);
+                            });
+                        }
+                        return true;
+                    });
     }
 
     public CompletableFuture<FileWrapper> getSharingFolder() {
@@ -718,7 +734,7 @@ public class UserContext {
                 return blindAndSendFollowRequest(initialRequest.entry.get().pointer.owner, targetUser, reply)
                         .thenCompose(b ->
                                 // remove pending follow request from them
-                                network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(initialRequestAndRaw.cipher.serialize()))
+                                removeFollowRequest(initialRequestAndRaw)
                         );
             });
         }
@@ -766,7 +782,7 @@ public class UserContext {
         }).thenCompose(trie -> {
             // remove original request
             entrie = trie;
-            return network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(initialRequestAndRaw.cipher.serialize()));
+            return removeFollowRequest(initialRequestAndRaw);
         });
     }
 
@@ -953,34 +969,154 @@ public class UserContext {
                 .thenCompose(wd -> wd.props.removeFromStaticData(fileWrapper, rootKey, signer, wd.hash, network, lock::complete));
     }
 
-    private CompletableFuture<List<BlindFollowRequest>> getFollowRequests() {
+    /** Wait for new follow requests to us, or changes to the pointers of the given writers, instead of polling
+     *
+     * @param writers
+     * @param since the sequence number from the previous call, or -1 to start
+     * @param maxWaitMillis
+     * @return
+     */
+    public CompletableFuture<Notifications> getNotifications(List<PublicKeyHash> writers, long since, int maxWaitMillis) {
         byte[] time = new CborObject.CborLong(System.currentTimeMillis()).serialize();
         byte[] auth = signer.secret.signMessage(time);
+        return network.social.getNotifications(signer.publicKeyHash, auth, writers, since, maxWaitMillis);
+    }
+
+    private CompletableFuture<Boolean> removeFollowRequest(FollowRequestWithCipherText req) {
+        return network.social.removeFollowRequest(signer.publicKeyHash, signer.secret.signMessage(req.cipher.serialize()))
+                .thenApply(removed -> {
+                    forgetFollowRequest(req);
+                    return removed;
+                });
+    }
+
+    private synchronized void forgetFollowRequest(FollowRequestWithCipherText req) {
+        byte[] cipher = req.cipher.serialize();
+        Iterator<FollowRequestWithCipherText> pending = pendingFollowRequests.values().iterator();
+        while (pending.hasNext())
+            if (Arrays.equals(pending.next().cipher.serialize(), cipher))
+                pending.remove();
+    }
+
+    private static class RetrievedFollowRequests {
+        // whether these are all our follow requests, rather than just those after our cursor
+        public final boolean isComplete;
+        public final List<Pair<Long, BlindFollowRequest>> requests;
+
+        public RetrievedFollowRequests(boolean isComplete, List<Pair<Long, BlindFollowRequest>> requests) {
+            this.isComplete = isComplete;
+            this.requests = requests;
+        }
+    }
+
+    /** Every so often this retrieves all our follow requests, so we forget those removed elsewhere, and falls back to
+     *  the unpaged call if our server doesn't support pages.
+     *
+     * @return the follow requests received since the last ones we retrieved, or all of them, with their ids
+     */
+    private CompletableFuture<RetrievedFollowRequests> getNewFollowRequests() {
+        byte[] time = new CborObject.CborLong(System.currentTimeMillis()).serialize();
+        byte[] auth = signer.secret.signMessage(time);
+        boolean isComplete;
+        long afterId;
+        synchronized (this) {
+            if (followRequestPagesUnsupported)
+                return getAllFollowRequests(auth);
+            long now = System.currentTimeMillis();
+            isComplete = now - lastFullFollowRequestFetch >= followRequestFullFetchPeriodMillis;
+            if (isComplete)
+                lastFullFollowRequestFetch = now;
+            afterId = isComplete ? 0 : followRequestCursor;
+        }
+        CompletableFuture<RetrievedFollowRequests> res = new CompletableFuture<>();
+        getFollowRequestsAfter(auth, afterId, new ArrayList<>())
+                .thenAccept(reqs -> res.complete(new RetrievedFollowRequests(isComplete, reqs)))
+                .exceptionally(t -> {
+                    getAllFollowRequests(auth).thenAccept(all -> {
+                        followRequestPagesUnsupported = true;
+                        res.complete(all);
+                    }).exceptionally(e -> {
+                        res.completeExceptionally(t);
+                        return null;
+                    });
+                    return null;
+                });
+        return res;
+    }
+
+    /**
+     *
+     * @return all our follow requests, from the unpaged call, with ids which are only valid for this call
+     */
+    private CompletableFuture<RetrievedFollowRequests> getAllFollowRequests(byte[] auth) {
         return network.social.getFollowRequests(signer.publicKeyHash, auth).thenApply(reqs -> {
             CborObject cbor = CborObject.fromByteArray(reqs);
             if (! (cbor instanceof CborObject.CborList))
                 throw new IllegalStateException("Invalid cbor for list of follow requests: " + cbor);
-            return ((CborObject.CborList) cbor).value.stream()
-                    .map(BlindFollowRequest::fromCbor)
-                    .collect(Collectors.toList());
+            List<Pair<Long, BlindFollowRequest>> res = new ArrayList<>();
+            for (Cborable req : ((CborObject.CborList) cbor).value)
+                res.add(new Pair<>((long) res.size() + 1, BlindFollowRequest.fromCbor(req)));
+            return new RetrievedFollowRequests(true, res);
         });
     }
 
+    private CompletableFuture<List<Pair<Long, BlindFollowRequest>>> getFollowRequestsAfter(byte[] auth,
+                                                                                          long afterId,
+                                                                                          List<Pair<Long, BlindFollowRequest>> res) {
+        return network.social.getFollowRequests(signer.publicKeyHash, auth, afterId, SocialNetwork.MAX_FOLLOW_REQUESTS_PER_PAGE)
+                .thenCompose(page -> {
+                    for (Pair<Long, byte[]> req : page.requests)
+                        res.add(new Pair<>(req.left, BlindFollowRequest.fromCbor(CborObject.fromByteArray(req.right))));
+                    if (! page.hasMore)
+                        return CompletableFuture.completedFuture(res);
+                    return getFollowRequestsAfter(auth, page.lastId(afterId), res);
+                });
+    }
+
+    /** Keep the initial requests which are still pending, and any new ones, for the next call
+     */
+    private synchronized void updatePendingFollowRequests(SortedMap<Long, FollowRequestWithCipherText> initialRequests,
+                                                          long cursor) {
+        pendingFollowRequests.keySet().retainAll(initialRequests.keySet());
+        for (Map.Entry<Long, FollowRequestWithCipherText> e : initialRequests.entrySet())
+            if (e.getKey() > followRequestCursor)
+                pendingFollowRequests.put(e.getKey(), e.getValue());
+        followRequestCursor = Math.max(followRequestCursor, cursor);
+    }
+
+    private synchronized SortedMap<Long, FollowRequestWithCipherText> getPendingFollowRequests() {
+        return new TreeMap<>(pendingFollowRequests);
+    }
+
     /**
      * Process any responses to our follow requests.
      *
      * @return initial follow requests
      */
     public CompletableFuture<List<FollowRequestWithCipherText>> processFollowRequests() {
-        return getFollowRequests().thenCompose(this::processFollowRequests);
+        return getNewFollowRequests().thenCompose(this::processFollowRequests);
     }
 
-    private CompletableFuture<List<FollowRequestWithCipherText>> processFollowRequests(List<BlindFollowRequest> all) {
+    private CompletableFuture<List<FollowRequestWithCipherText>> processFollowRequests(RetrievedFollowRequests retrieved) {
+        List<Pair<Long, BlindFollowRequest>> newRequests = retrieved.requests;
         return getSharingFolder().thenCompose(sharing ->
                 getFollowerRoots().thenCompose(followerRoots -> {
-                    List<FollowRequestWithCipherText> withDecrypted = all.stream()
-                            .map(b -> new FollowRequestWithCipherText(b.followRequest.decrypt(boxer.secretBoxingKey, b.dummySource, FollowRequest::fromCbor), b))
-                            .collect(Collectors.toList());
+                    // only decrypt the requests we haven't seen before
+                    SortedMap<Long, FollowRequestWithCipherText> pending = getPendingFollowRequests();
+                    SortedMap<Long, FollowRequestWithCipherText> withDecryptedById = retrieved.isComplete ?
+                            new TreeMap<>() :
+                            pending;
+                    for (Pair<Long, BlindFollowRequest> p : newRequests) {
+                        BlindFollowRequest b = p.right;
+                        FollowRequestWithCipherText seen = pending.get(p.left);
+                        withDecryptedById.put(p.left, seen != null && Arrays.equals(seen.cipher.serialize(), b.serialize()) ?
+                                seen :
+                                new FollowRequestWithCipherText(
+                                        b.followRequest.decrypt(boxer.secretBoxingKey, b.dummySource, FollowRequest::fromCbor), b));
+                    }
+                    long cursor = newRequests.isEmpty() || followRequestPagesUnsupported ? 0 :
+                            newRequests.get(newRequests.size() - 1).left;
+                    Collection<FollowRequestWithCipherText> withDecrypted = withDecryptedById.values();
 
                     List<FollowRequestWithCipherText> replies = withDecrypted.stream()
                             .filter(p -> followerRoots.containsKey(p.req.entry.get().ownerName))
@@ -1040,13 +1176,15 @@ public class UserContext {
                                     ).thenCompose(trieres -> addToStatic.apply(trieres, p)));
                         }
                     };
-                    List<FollowRequestWithCipherText> initialRequests = withDecrypted.stream()
-                            .filter(p -> !followerRoots.containsKey(p.req.entry.get().ownerName))
-                            .collect(Collectors.toList());
+                    SortedMap<Long, FollowRequestWithCipherText> initialRequests = new TreeMap<>();
+                    for (Map.Entry<Long, FollowRequestWithCipherText> e : withDecryptedById.entrySet())
+                        if (! followerRoots.containsKey(e.getValue().req.entry.get().ownerName))
+                            initialRequests.put(e.getKey(), e.getValue());
                     return Futures.reduceAll(replies, entrie, mozart, (a, b) -> a)
                             .thenApply(newRoot -> {
                                 entrie = newRoot;
-                                return initialRequests;
+                                updatePendingFollowRequests(initialRequests, cursor);
+                                return new ArrayList<>(initialRequests.values());
                             });
                 })
         );
@@ -1085,7 +1223,7 @@ public class UserContext {
                 .stream()
                 .filter(e -> e.ownerName.equals(ourName))
                 .collect(Collectors.toList());
-        return Futures.reduceAll(ourFileSystemEntries, root, (t, e) -> addEntryPoint(ourName, null, t, e, network, random, fragmenter), (a, b) -> a)
+        return addEntryPoints(ourName, root, ourFileSystemEntries, network, random, fragmenter)
                 .exceptionally(Futures::logError);
     }
 
@@ -1107,31 +1245,58 @@ public class UserContext {
                 .collect(Collectors.toList());
 
         // need to to retrieve all the entry points of our friends
-        return Futures.reduceAll(notOurFileSystemEntries, ourRoot, (t, e) -> addEntryPoint(ourName, null, t, e, network, random, fragmenter), (a, b) -> a)
+        return addEntryPoints(ourName, ourRoot, notOurFileSystemEntries, network, random, fragmenter)
                 .exceptionally(Futures::logError);
     }
 
-    private static CompletableFuture<TrieNode> addRetrievedEntryPoint(String ourName,
-                                                                      TrieNode root,
-                                                                      EntryPoint fileCap,
-                                                                      String path,
-                                                                      NetworkAccess network,
-                                                                      SafeRandom random,
-                                                                      Fragmenter fragmenter) {
+    /** Retrieve entry points concurrently, then add them to the tree in their original order
+     *
+     * @return the updated tree
+     */
+    private static CompletableFuture<TrieNode> addEntryPoints(String ourName,
+                                                              TrieNode root,
+                                                              List<EntryPoint> entries,
+                                                              NetworkAccess network,
+                                                              SafeRandom random,
+                                                              Fragmenter fragmenter) {
+        Map<Location, CompletableFuture<String>> ancestorPaths = new HashMap<>();
+        return Futures.mapAllInOrder(entries, signInParallelism,
+                e -> retrieveEntryPoint(ourName, root, e, ancestorPaths, network, random, fragmenter))
+                .thenApply(additions -> {
+                    TrieNode result = root;
+                    for (Function<TrieNode, TrieNode> addition : additions)
+                        result = addition.apply(result);
+                    return result;
+                });
+    }
+
+    /**
+     *
+     * @param root the tree used to find our home directory, for caching a friend's capabilities
+     * @return how to add the retrieved entry point to a tree
+     */
+    private static CompletableFuture<Function<TrieNode, TrieNode>> addRetrievedEntryPoint(String ourName,
+                                                                                         TrieNode root,
+                                                                                         EntryPoint fileCap,
+                                                                                         String path,
+                                                                                         NetworkAccess network,
+                                                                                         SafeRandom random,
+                                                                                         Fragmenter fragmenter) {
         // check entrypoint doesn't forge the owner
         return  (fileCap.ownerName.equals(ourName) ? CompletableFuture.completedFuture(true) :
                 fileCap.isValid(path, network)).thenCompose(valid -> {
             String[] parts = path.split("/");
             if (parts.length < 3 || !parts[2].equals(SHARED_DIR_NAME))
-                return CompletableFuture.completedFuture(root.put(path, fileCap));
+                return CompletableFuture.completedFuture(t -> t.put(path, fileCap));
             String username = parts[1];
             if (username.endsWith(ourName)) // This is a sharing directory of ours for a friend
-                return CompletableFuture.completedFuture(root);
+                return CompletableFuture.completedFuture(t -> t);
             // This is a friend's sharing directory, create a wrapper to read the capabilities lazily from it
             Supplier<CompletableFuture<FileWrapper>> cacheDirSupplier =
                     () -> root.getByPath(Paths.get(ourName).toString(), network).thenApply(opt -> opt.get());
             return FriendSourcedTrieNode.build(cacheDirSupplier, fileCap, network, random, fragmenter)
-                    .thenApply(fromUser -> fromUser.map(userEntrie -> root.putNode(username, userEntrie)).orElse(root));
+                    .thenApply(fromUser -> fromUser.<Function<TrieNode, TrieNode>>map(userEntrie -> t -> t.putNode(username, userEntrie))
+                            .orElse(t -> t));
         });
     }
 
@@ -1142,22 +1307,75 @@ public class UserContext {
                                                              NetworkAccess network,
                                                              SafeRandom random,
                                                              Fragmenter fragmenter) {
+        return retrieveEntryPoint(ourName, root, e, new HashMap<>(), network, random, fragmenter)
+                .thenApply(addition -> addition.apply(root));
+    }
+
+    /**
+     *
+     * @param ancestorPaths the paths of directories already retrieved, keyed by their location
+     * @return how to add the entry point to a tree, which does nothing if it couldn't be retrieved
+     */
+    private static CompletableFuture<Function<TrieNode, TrieNode>> retrieveEntryPoint(String ourName,
+                                                                                      TrieNode root,
+                                                                                      EntryPoint e,
+                                                                                      Map<Location, CompletableFuture<String>> ancestorPaths,
+                                                                                      NetworkAccess network,
+                                                                                      SafeRandom random,
+                                                                                      Fragmenter fragmenter) {
         return network.retrieveEntryPoint(e).thenCompose(metadata -> {
             if (metadata.isPresent()) {
-                return metadata.get().getPath(network)
+                return metadata.get().getPath(network, ancestorPaths)
                         .thenCompose(path -> addRetrievedEntryPoint(ourName, root, e, path, network, random, fragmenter)
                                 .exceptionally(t -> {
                                     LOG.log(Level.WARNING, t.getMessage(), t);
                                     LOG.severe("Couldn't add entry point (failed retrieving parent dir or it was invalid): " + metadata.get().getName());
                                     // Allow the system to continue without this entry point
-                                    return root;
+                                    return x -> x;
                                 })
                         );
             }
-            return CompletableFuture.completedFuture(root);
+            return CompletableFuture.completedFuture(Function.<TrieNode>identity());
         }).exceptionally(Futures::logError);
     }
 
+    /** Time a phase of sign in, logged at FINE so it can be enabled through the logging configuration
+     *
+     */
+    private static <T> CompletableFuture<T> timed(String phase, Supplier<CompletableFuture<T>> work) {
+        if (! LOG.isLoggable(Level.FINE))
+            return work.get();
+        long t1 = System.currentTimeMillis();
+        return work.get().thenApply(res -> {
+            LOG.fine(phase + " took " + (System.currentTimeMillis() - t1) + " mS");
+            return res;
+        });
+    }
+
+    /**
+     *
+     * @param parallelism the maximum number of entry points, or friends' sharing directories, to retrieve concurrently
+     *                    during login
+     */
+    @JsMethod
+    public static void setSignInParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        signInParallelism = parallelism;
+    }
+
+    /**
+     *
+     * @param periodMillis how often to retrieve all our follow requests, rather than just the new ones, to notice those
+     *                     removed by another session of ours
+     */
+    @JsMethod
+    public static void setFollowRequestFullFetchPeriod(int periodMillis) {
+        if (periodMillis < 0)
+            throw new IllegalArgumentException("Period must not be negative: " + periodMillis);
+        followRequestFullFetchPeriodMillis = periodMillis;
+    }
+
     public static CompletableFuture<CommittedWriterData> getWriterData(NetworkAccess network, PublicKeyHash owner, PublicKeyHash writer) {
         return getWriterDataCbor(network, owner, writer)
                 .thenApply(pair -> new CommittedWriterData(MaybeMultihash.of(pair.left), WriterData.fromCbor(pair.right)));
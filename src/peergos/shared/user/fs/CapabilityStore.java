@@ -10,6 +10,7 @@ import peergos.shared.util.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.*;
+import java.util.logging.*;
 import java.util.stream.*;
 
 /** This class implements the mechanism by which users share Capabilities with each other
@@ -23,14 +24,23 @@ import java.util.stream.*;
  * To avoid reparsing the entire capability list at every login, the capabilities and their retrieved paths are stored
  * in a cache for each source user located at /recipient_user/.capabilitycache/source_user
  * Each of these cache files is just a serialized CapabilitiesFromUser
+ *
+ * Sharing files are read in bulk, and the capabilities in them are retrieved with bounded parallelism, sharing the paths
+ * of common ancestor directories. The cache is updated after each sharing file, so only new records are processed on
+ * subsequent logins. Saves of the caches are done one at a time, so loading several friends' capabilities concurrently
+ * doesn't race to create the cache directory or to add files to it.
  */
 public class CapabilityStore {
+    private static final Logger LOG = Logger.getGlobal();
     public static final int READ_CAPABILITY_SIZE = 162; // fp.toCbor().toByteArray() DOESN'T INCLUDE .secret
     public static final int CAPS_PER_FILE = 10000;
     public static final int SHARING_FILE_MAX_SIZE = READ_CAPABILITY_SIZE * CAPS_PER_FILE;
     public static final String CAPABILITY_CACHE_DIR = ".capabilitycache";
     public static final String READ_ONLY_SHARING_FILE_PREFIX = "sharing.r.";
     public static final String WRITE_SHARING_FILE_PREFIX = "sharing.w.";
+    private static final int RETRIEVAL_PARALLELISM = 16;
+    // completes when the last queued cache save has finished
+    private static CompletableFuture<Boolean> lastCacheSave = CompletableFuture.completedFuture(true);
 
     private static final Comparator<FileWrapper> indexOrder =
             Comparator.comparingInt(f -> filenameToIndex(f.getName()));
@@ -69,53 +79,69 @@ public class CapabilityStore {
                         .filter(f -> isReadCapFile(f.getName()))
                         .sorted(indexOrder)
                         .collect(Collectors.toList());
-                return getCacheFile(friendName, homeDirSupplier, network, random).thenCompose(optCachedFile -> {
+                return getCacheFile(friendName, homeDirSupplier, network).thenCompose(optCachedFile -> {
                     long totalRecords = sharingFiles.stream().mapToLong(f -> f.getFileProperties().size).sum() / READ_CAPABILITY_SIZE;
-                    if(! optCachedFile.isPresent() ) {
-                        CompletableFuture<List<CapabilityWithPath>> allFiles = Futures.reduceAll(sharingFiles,
-                                Collections.emptyList(),
-                                (res, sharingFile) -> readSharingFile(friendSharedDir.getName(), friendSharedDir.owner(), sharingFile, network, random)
-                                        .thenApply(retrievedCaps -> Stream.concat(res.stream(), retrievedCaps.stream()).collect(Collectors.toList())),
-                                (a, b) -> Stream.concat(a.stream(), b.stream()).collect(Collectors.toList())
-                        );
-                        return allFiles.thenCompose(res -> {
-                            if(saveCache && res.size() > 0) {
-                                return saveRetrievedCapabilityCache(totalRecords, homeDirSupplier, friendName,
-                                        network, random, fragmenter, res);
-                            } else {
-                                return CompletableFuture.completedFuture(new CapabilitiesFromUser(totalRecords, res));
-                            }
-                        });
-                    } else {
-                        FileWrapper cachedFile = optCachedFile.get();
-                        return readRetrievedCapabilityCache(cachedFile, network, random).thenCompose(cache -> {
-                            if (totalRecords == cache.getRecordsRead())
-                                return CompletableFuture.completedFuture(cache);
-                            int shareFileIndex = (int)(cache.getRecordsRead() * READ_CAPABILITY_SIZE) / SHARING_FILE_MAX_SIZE;
-                            int recordIndex = (int) ((cache.getRecordsRead() * READ_CAPABILITY_SIZE) % SHARING_FILE_MAX_SIZE) / READ_CAPABILITY_SIZE;
-                            List<FileWrapper> sharingFilesToRead = sharingFiles.subList(shareFileIndex, sharingFiles.size());
-                            CompletableFuture<List<CapabilityWithPath>> allFiles = Futures.reduceAll(sharingFilesToRead.subList(0, sharingFilesToRead.size() - 1),
-                                    Collections.emptyList(),
-                                    (res, sharingFile) -> readSharingFile(friendSharedDir.getName(), friendSharedDir.owner(), sharingFile, network, random)
-                                            .thenApply(retrievedCaps -> Stream.concat(res.stream(), retrievedCaps.stream()).collect(Collectors.toList())),
-                                    (a, b) -> Stream.concat(a.stream(), b.stream()).collect(Collectors.toList()));
-                            return allFiles
-                                    .thenCompose(res -> readSharingFile(recordIndex, friendSharedDir.getName(),
-                                            friendSharedDir.owner(), sharingFilesToRead.get(sharingFilesToRead.size() -1), network, random))
-                                    .thenCompose(res -> {
-                                        if (saveCache) {
-                                            return saveRetrievedCapabilityCache(totalRecords, homeDirSupplier, friendName,
-                                                    network, random, fragmenter, res);
-                                        } else {
-                                            return CompletableFuture.completedFuture(new CapabilitiesFromUser(totalRecords, res));
-                                        }
-                                    });
-                            });
-                    }
+                    CompletableFuture<CapabilitiesFromUser> cached = optCachedFile.isPresent() ?
+                            readRetrievedCapabilityCache(optCachedFile.get(), network, random) :
+                            CompletableFuture.completedFuture(new CapabilitiesFromUser(0, Collections.emptyList()));
+                    return cached.thenCompose(cache -> {
+                        if (totalRecords == cache.getRecordsRead())
+                            return CompletableFuture.completedFuture(cache);
+                        return readNewSharingRecords(cache, sharingFiles, friendSharedDir, homeDirSupplier, friendName,
+                                network, random, fragmenter, saveCache && optCachedFile.isPresent(), saveCache);
+                    });
                 });
             });
     }
 
+    /** Read the records after those already in the cache, one sharing file at a time, saving the cache after each file
+     *  so an interrupted load doesn't need to be repeated.
+     *
+     * @param saveEmpty whether to save the cache even if there are no capabilities
+     * @return all the capabilities, including those already in the cache
+     */
+    private static CompletableFuture<CapabilitiesFromUser> readNewSharingRecords(CapabilitiesFromUser cache,
+                                                                                 List<FileWrapper> sharingFiles,
+                                                                                 FileWrapper friendSharedDir,
+                                                                                 Supplier<CompletableFuture<FileWrapper>> homeDirSupplier,
+                                                                                 String friendName,
+                                                                                 NetworkAccess network,
+                                                                                 SafeRandom random,
+                                                                                 Fragmenter fragmenter,
+                                                                                 boolean saveEmpty,
+                                                                                 boolean saveCache) {
+        // the number of records up to the start of each sharing file
+        long[] recordsBefore = new long[sharingFiles.size() + 1];
+        for (int i=0; i < sharingFiles.size(); i++)
+            recordsBefore[i + 1] = recordsBefore[i] + sharingFiles.get(i).getFileProperties().size / READ_CAPABILITY_SIZE;
+        int shareFileIndex = (int) (cache.getRecordsRead() / CAPS_PER_FILE);
+        Map<Location, CompletableFuture<String>> ancestorPaths = new HashMap<>();
+
+        List<Integer> toRead = IntStream.range(shareFileIndex, sharingFiles.size())
+                .boxed()
+                .collect(Collectors.toList());
+        return Futures.reduceAll(toRead, cache,
+                (current, fileIndex) -> {
+                    int recordIndex = (int) Math.max(0, current.getRecordsRead() - recordsBefore[fileIndex]);
+                    return readSharingFile(recordIndex, friendSharedDir.getName(), friendSharedDir.owner(),
+                            sharingFiles.get(fileIndex), network, random, ancestorPaths)
+                            .thenCompose(newCaps -> {
+                                List<CapabilityWithPath> all = new ArrayList<>(current.getRetrievedCapabilities());
+                                all.addAll(newCaps);
+                                CapabilitiesFromUser updated = new CapabilitiesFromUser(recordsBefore[fileIndex + 1], all);
+                                if (saveCache && (saveEmpty || all.size() > 0))
+                                    return saveRetrievedCapabilityCache(homeDirSupplier, friendName, network, random,
+                                            fragmenter, updated);
+                                return CompletableFuture.completedFuture(updated);
+                            });
+                },
+                (a, b) -> b);
+    }
+
+    /**
+     *
+     * @return the number of records after capIndex, and the valid capabilities among them
+     */
     public static CompletableFuture<CapabilitiesFromUser> loadSharingLinksFromIndex(Supplier<CompletableFuture<FileWrapper>> homeDirSupplier,
                                                                                     FileWrapper friendSharedDir,
                                                                                     String friendName,
@@ -129,28 +155,23 @@ public class CapabilityStore {
                     List<FileWrapper> sharingFiles = files.stream()
                             .sorted(indexOrder)
                             .collect(Collectors.toList());
-                    long totalRecords = sharingFiles.stream().mapToLong(f -> f.getFileProperties().size).sum() / READ_CAPABILITY_SIZE;
-                    int shareFileIndex = (int) (capIndex * READ_CAPABILITY_SIZE) / SHARING_FILE_MAX_SIZE;
-                    int recordIndex = (int) (capIndex % CAPS_PER_FILE);
-                    List<FileWrapper> sharingFilesToRead = sharingFiles.subList(shareFileIndex, sharingFiles.size());
-
-                    CompletableFuture<List<CapabilityWithPath>> allFiles = Futures.reduceAll(sharingFilesToRead.subList(0, sharingFilesToRead.size() - 1),
-                            Collections.emptyList(),
-                            (res, sharingFile) -> readSharingFile(friendSharedDir.getName(), friendSharedDir.owner(), sharingFile, network, random)
-                                    .thenApply(retrievedCaps -> Stream.concat(res.stream(), retrievedCaps.stream()).collect(Collectors.toList())),
-                            (a, b) -> Stream.concat(a.stream(), b.stream()).collect(Collectors.toList()));
-                    CompletableFuture<CapabilitiesFromUser> result = allFiles
-                            .thenCompose(res -> readSharingFile(recordIndex, friendSharedDir.getName(),
-                                    friendSharedDir.owner(), sharingFilesToRead.get(sharingFilesToRead.size() - 1), network, random))
-                            .thenCompose(res -> {
-                                if (saveCache) {
-                                    return saveRetrievedCapabilityCache(totalRecords - capIndex, homeDirSupplier, friendName,
-                                            network, random, fragmenter, res);
-                                } else {
-                                    return CompletableFuture.completedFuture(new CapabilitiesFromUser(totalRecords - capIndex, res));
-                                }
-                            });
-                    return result;
+                    return getCacheFile(friendName, homeDirSupplier, network).thenCompose(optCachedFile -> {
+                        CompletableFuture<Optional<CapabilitiesFromUser>> cached = optCachedFile.isPresent() ?
+                                readRetrievedCapabilityCache(optCachedFile.get(), network, random).thenApply(Optional::of) :
+                                CompletableFuture.completedFuture(Optional.empty());
+                        return cached.thenCompose(cacheOpt -> {
+                            // only extend the cache if it ends where we start, otherwise leave it to be caught up at next login
+                            boolean extendCache = cacheOpt.map(c -> c.getRecordsRead() == capIndex).orElse(capIndex == 0);
+                            CapabilitiesFromUser start = extendCache && cacheOpt.isPresent() ?
+                                    cacheOpt.get() :
+                                    new CapabilitiesFromUser(capIndex, Collections.emptyList());
+                            int alreadyRetrieved = start.getRetrievedCapabilities().size();
+                            return readNewSharingRecords(start, sharingFiles, friendSharedDir, homeDirSupplier, friendName,
+                                    network, random, fragmenter, cacheOpt.isPresent(), saveCache && extendCache)
+                                    .thenApply(all -> new CapabilitiesFromUser(all.getRecordsRead() - capIndex,
+                                            all.getRetrievedCapabilities().subList(alreadyRetrieved, all.getRetrievedCapabilities().size())));
+                        });
+                    });
                 });
     }
 
@@ -173,54 +194,71 @@ public class CapabilityStore {
                                                                               FileWrapper file,
                                                                               NetworkAccess network,
                                                                               SafeRandom random) {
-        return file.getInputStream(network, random, x -> {}).thenCompose(reader -> {
-            int currentFileSize = (int) file.getSize();
-            List<CompletableFuture<Optional<CapabilityWithPath>>> capabilities = IntStream.range(offsetIndex, currentFileSize / READ_CAPABILITY_SIZE)
-                    .mapToObj(e -> e * READ_CAPABILITY_SIZE)
-                    .map(offset -> readSharingRecord(ownerName, owner, reader, offset, network))
-                    .collect(Collectors.toList());
+        return readSharingFile(offsetIndex, ownerName, owner, file, network, random, new HashMap<>());
+    }
 
-            return Futures.combineAllInOrder(capabilities).thenApply(optList -> optList.stream()
-                    .filter(Optional::isPresent)
-                    .map(Optional::get)
-                    .collect(Collectors.toList()));
-        });
+    /**
+     *
+     * @param ancestorPaths the paths of directories already retrieved, keyed by their location
+     * @return the capabilities in the sharing file from offsetIndex onwards which could be retrieved, in order
+     */
+    private static CompletableFuture<List<CapabilityWithPath>> readSharingFile(int offsetIndex,
+                                                                               String ownerName,
+                                                                               PublicKeyHash owner,
+                                                                               FileWrapper file,
+                                                                               NetworkAccess network,
+                                                                               SafeRandom random,
+                                                                               Map<Location, CompletableFuture<String>> ancestorPaths) {
+        int currentFileSize = (int) file.getSize();
+        int startOffset = offsetIndex * READ_CAPABILITY_SIZE;
+        int records = (currentFileSize - startOffset) / READ_CAPABILITY_SIZE;
+        if (records <= 0)
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        byte[] serialisedRecords = new byte[records * READ_CAPABILITY_SIZE];
+        return file.getInputStream(network, random, x -> {})
+                .thenCompose(reader -> reader.seek(0, startOffset))
+                .thenCompose(reader -> reader.readIntoArray(serialisedRecords, 0, serialisedRecords.length))
+                .thenCompose(bytesRead -> {
+                    List<AbsoluteCapability> caps = IntStream.range(0, records)
+                            .mapToObj(i -> AbsoluteCapability.fromCbor(CborObject.fromByteArray(
+                                    Arrays.copyOfRange(serialisedRecords, i * READ_CAPABILITY_SIZE, (i + 1) * READ_CAPABILITY_SIZE))))
+                            .collect(Collectors.toList());
+                    return Futures.mapAllInOrder(caps, RETRIEVAL_PARALLELISM,
+                            cap -> retrieveWithPath(ownerName, cap, network, ancestorPaths));
+                }).thenApply(optList -> optList.stream()
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .collect(Collectors.toList()));
     }
 
-    private static CompletableFuture<Optional<CapabilityWithPath>> readSharingRecord(String ownerName,
-                                                                                     PublicKeyHash owner,
-                                                                                     AsyncReader reader,
-                                                                                     int offset,
-                                                                                     NetworkAccess network) {
-        byte[] serialisedFilePointer = new byte[READ_CAPABILITY_SIZE];
-        return reader.seek( 0, offset).thenCompose( currentPos ->
-                currentPos.readIntoArray(serialisedFilePointer, 0, READ_CAPABILITY_SIZE)
-                        .thenCompose(bytesRead -> {
-                            AbsoluteCapability pointer = AbsoluteCapability.fromCbor(CborObject.fromByteArray(serialisedFilePointer));
-                            EntryPoint entry = new EntryPoint(pointer, ownerName);
-                            return network.retrieveEntryPoint(entry).thenCompose( optFTN -> {
-                                if(optFTN.isPresent()) {
-                                    FileWrapper ftn = optFTN.get();
-                                    try {
-                                        return ftn.getPath(network)
-                                                .thenCompose(path -> CompletableFuture.completedFuture(Optional.of(new CapabilityWithPath(path, pointer))));
-                                    } catch (NoSuchElementException nsee) {
-                                        return Futures.errored(nsee); //file no longer exists
-                                    }
-                                } else {
-                                    return CompletableFuture.completedFuture(Optional.empty());
-                                }
-                            });
-                        })
-        );
+    private static CompletableFuture<Optional<CapabilityWithPath>> retrieveWithPath(String ownerName,
+                                                                                    AbsoluteCapability pointer,
+                                                                                    NetworkAccess network,
+                                                                                    Map<Location, CompletableFuture<String>> ancestorPaths) {
+        EntryPoint entry = new EntryPoint(pointer, ownerName);
+        return network.retrieveEntryPoint(entry).thenCompose( optFTN -> {
+            if(optFTN.isPresent()) {
+                FileWrapper ftn = optFTN.get();
+                try {
+                    return ftn.getPath(network, ancestorPaths)
+                            .thenApply(path -> Optional.of(new CapabilityWithPath(path, pointer)));
+                } catch (NoSuchElementException nsee) {
+                    return Futures.errored(nsee); //file no longer exists
+                }
+            } else {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+        });
     }
 
     private static CompletableFuture<Optional<FileWrapper>> getCacheFile(String friendName,
                                                                          Supplier<CompletableFuture<FileWrapper>> getHome,
-                                                                         NetworkAccess network,
-                                                                         SafeRandom random) {
-        return getCapabilityCacheDir(getHome, network, random)
-                .thenCompose(cacheDir -> cacheDir.getChild(friendName, network));
+                                                                         NetworkAccess network) {
+        return getHome.get()
+                .thenCompose(home -> home.getChild(CAPABILITY_CACHE_DIR, network))
+                .thenCompose(cacheDir -> cacheDir.isPresent() ?
+                        cacheDir.get().getChild(friendName, network) :
+                        CompletableFuture.completedFuture(Optional.empty()));
     }
 
     private static CompletableFuture<FileWrapper> getCapabilityCacheDir(Supplier<CompletableFuture<FileWrapper>> getHome,
@@ -234,6 +272,17 @@ public class CapabilityStore {
                                                 .thenCompose(x -> getCapabilityCacheDir(getHome, network, random)))));
     }
 
+    /**
+     *
+     * @param done to be completed when the caller's cache save has finished
+     * @return a future which completes when the previous cache save has finished
+     */
+    private static synchronized CompletableFuture<Boolean> queueCacheSave(CompletableFuture<Boolean> done) {
+        CompletableFuture<Boolean> previous = lastCacheSave;
+        lastCacheSave = done;
+        return previous;
+    }
+
     public static CompletableFuture<CapabilitiesFromUser> saveRetrievedCapabilityCache(long recordsRead,
                                                                                        Supplier<CompletableFuture<FileWrapper>> homeDirSupplier,
                                                                                        String friend,
@@ -241,12 +290,32 @@ public class CapabilityStore {
                                                                                        SafeRandom random,
                                                                                        Fragmenter fragmenter,
                                                                                        List<CapabilityWithPath> retrievedCapabilities) {
-        CapabilitiesFromUser capabilitiesFromUser = new CapabilitiesFromUser(recordsRead, retrievedCapabilities);
+        return saveRetrievedCapabilityCache(homeDirSupplier, friend, network, random, fragmenter,
+                new CapabilitiesFromUser(recordsRead, retrievedCapabilities));
+    }
+
+    private static CompletableFuture<CapabilitiesFromUser> saveRetrievedCapabilityCache(Supplier<CompletableFuture<FileWrapper>> homeDirSupplier,
+                                                                                        String friend,
+                                                                                        NetworkAccess network,
+                                                                                        SafeRandom random,
+                                                                                        Fragmenter fragmenter,
+                                                                                        CapabilitiesFromUser capabilitiesFromUser) {
         byte[] data = capabilitiesFromUser.serialize();
         AsyncReader.ArrayBacked dataReader = new AsyncReader.ArrayBacked(data);
-        return getCapabilityCacheDir(homeDirSupplier, network, random)
+        CompletableFuture<Boolean> done = new CompletableFuture<>();
+        return queueCacheSave(done)
+                .thenCompose(previous -> getCapabilityCacheDir(homeDirSupplier, network, random))
                 .thenCompose(cacheDir -> cacheDir.uploadFile(friend, dataReader, true, (long) data.length,
-                true, network, random, x-> {}, fragmenter).thenApply(x -> capabilitiesFromUser));
+                true, network, random, x-> {}, fragmenter).thenApply(x -> capabilitiesFromUser))
+                .exceptionally(t -> {
+                    // the capabilities are still valid, they will just be reloaded at the next login
+                    LOG.log(Level.WARNING, "Couldn't save capability cache for " + friend + ": " + t.getMessage(), t);
+                    return capabilitiesFromUser;
+                })
+                .thenApply(res -> {
+                    done.complete(true);
+                    return res;
+                });
     }
 
     private static CompletableFuture<CapabilitiesFromUser> readRetrievedCapabilityCache(FileWrapper cacheFile, NetworkAccess network, SafeRandom random) {
@@ -3,11 +3,13 @@ package peergos.shared.user.fs;
 import peergos.shared.*;
 import peergos.shared.cbor.*;
 import peergos.shared.crypto.*;
+import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.crypto.symmetric.*;
 import peergos.shared.io.ipfs.multihash.*;
 import peergos.shared.storage.*;
 import peergos.shared.user.fs.cryptree.*;
+import peergos.shared.util.*;
 
 import java.time.*;
 import java.util.*;
@@ -22,12 +24,29 @@ import java.util.stream.*;
  * all the remaining keys. The base key encrypts the links to child directories and files. The parent key encrypts the
  * link to the parent's parent key. The metadata key encrypts the name of the directory.
  *
+ * The base key also encrypts an optional index of keyed hashes of the children's names, in the same order as the child
+ * links. This allows a child to be looked up by name without retrieving the metadata of all its siblings. Children
+ * without an entry in the index (e.g. added before the index existed) are always considered candidates for a name.
+ *
+ * Large directories are split into a chain of blobs, each holding up to the NetworkAccess's maxChildLinksPerBlob child
+ * links, which is DEFAULT_MAX_CHILD_LINKS_PER_BLOB unless set otherwise. The first blob also links directly to the last blob in the chain, so that adding a child only touches the first and last blobs.
+ * Directories written before the link to the last blob existed have it added lazily, the first time a child is added.
+ *
+ * The first blob also holds a summary of each blob between it and the last blob: a link to the blob and a short prefix
+ * of each of its children's name hashes. A child is found by name, removed or renamed by retrieving only the blobs whose
+ * summary matches, rather than walking the chain. Removals leave their prefix in the summary, which only costs a wasted
+ * retrieval. Without a summary, e.g. in a directory too large to summarise, we walk the chain as before.
+ *
  */
 public class DirAccess implements CryptreeNode {
 
     private static final int CHILDREN_LINKS_PADDING_BLOCKSIZE = 1024;
     private static final int META_DATA_PADDING_BLOCKSIZE = 16;
-    private static final int MAX_CHILD_LINKS_PER_BLOB = 500;
+    public static final int DEFAULT_MAX_CHILD_LINKS_PER_BLOB = 500;
+    private static final int NAME_HASH_SIZE = 16;
+    private static final int SUMMARY_PREFIX_SIZE = 2;
+    // keeps the summaries well within the maximum size of the first blob
+    private static final int MAX_SUMMARISED_BLOBS = 100;
 
     private final MaybeMultihash lastCommittedHash;
     private final int version;
@@ -37,6 +56,9 @@ public class DirAccess implements CryptreeNode {
     private final Optional<EncryptedCapability> moreFolderContents;
     private final PaddedCipherText properties;
     private final Optional<SymmetricLinkToSigner> writerLink;
+    private final Optional<PaddedCipherText> childNames;
+    private final Optional<EncryptedCapability> lastFolderContents;
+    private final Optional<PaddedCipherText> blobSummaries;
 
     public DirAccess(MaybeMultihash lastCommittedHash,
                      int version,
@@ -46,7 +68,10 @@ public class DirAccess implements CryptreeNode {
                      PaddedCipherText properties,
                      PaddedCipherText children,
                      Optional<EncryptedCapability> moreFolderContents,
-                     Optional<SymmetricLinkToSigner> writerLink) {
+                     Optional<SymmetricLinkToSigner> writerLink,
+                     Optional<PaddedCipherText> childNames,
+                     Optional<EncryptedCapability> lastFolderContents,
+                     Optional<PaddedCipherText> blobSummaries) {
         this.lastCommittedHash = lastCommittedHash;
         this.version = version;
         this.base2parent = base2parent;
@@ -56,11 +81,14 @@ public class DirAccess implements CryptreeNode {
         this.children = children;
         this.moreFolderContents = moreFolderContents;
         this.writerLink = writerLink;
+        this.childNames = childNames;
+        this.lastFolderContents = lastFolderContents;
+        this.blobSummaries = blobSummaries;
     }
 
     public DirAccess withHash(Multihash hash) {
         return new DirAccess(MaybeMultihash.of(hash), version, base2parent, parent2meta, parentLink, properties,
-                children, moreFolderContents, writerLink);
+                children, moreFolderContents, writerLink, childNames, lastFolderContents, blobSummaries);
     }
 
     @Override
@@ -99,8 +127,14 @@ public class DirAccess implements CryptreeNode {
     }
 
     public DirAccess withNextBlob(Optional<EncryptedCapability> moreFolderContents) {
-        return new DirAccess(MaybeMultihash.empty(), version, base2parent, parent2meta, parentLink, properties,
-                children, moreFolderContents, writerLink);
+        return new DirAccess(lastCommittedHash, version, base2parent, parent2meta, parentLink, properties,
+                children, moreFolderContents, writerLink, childNames, lastFolderContents, blobSummaries);
+    }
+
+    private DirAccess withLastBlob(Optional<EncryptedCapability> lastFolderContents,
+                                   Optional<PaddedCipherText> blobSummaries) {
+        return new DirAccess(lastCommittedHash, version, base2parent, parent2meta, parentLink, properties,
+                children, moreFolderContents, writerLink, childNames, lastFolderContents, blobSummaries);
     }
 
     @Override
@@ -113,7 +147,10 @@ public class DirAccess implements CryptreeNode {
                 properties.toCbor(),
                 children.toCbor(),
                 moreFolderContents.isPresent() ? moreFolderContents.get().toCbor() : new CborObject.CborNull(),
-                writerLink.isPresent() ? writerLink.get().toCbor() : new CborObject.CborNull()
+                writerLink.isPresent() ? writerLink.get().toCbor() : new CborObject.CborNull(),
+                childNames.isPresent() ? childNames.get().toCbor() : new CborObject.CborNull(),
+                lastFolderContents.isPresent() ? lastFolderContents.get().toCbor() : new CborObject.CborNull(),
+                blobSummaries.isPresent() ? blobSummaries.get().toCbor() : new CborObject.CborNull()
         ));
     }
 
@@ -143,8 +180,26 @@ public class DirAccess implements CryptreeNode {
         Optional<SymmetricLinkToSigner> writerLink = writerLinkCbor instanceof CborObject.CborNull ?
                 Optional.empty() :
                 Optional.of(SymmetricLinkToSigner.fromCbor(writerLinkCbor));
+
+        // The name index was added later, so older directories don't have this field
+        Cborable childNamesCbor = index < value.size() ? value.get(index++) : new CborObject.CborNull();
+        Optional<PaddedCipherText> childNames = childNamesCbor instanceof CborObject.CborNull ?
+                Optional.empty() :
+                Optional.of(PaddedCipherText.fromCbor(childNamesCbor));
+
+        // Only present in the first blob of a directory, and only once the directory has overflowed its first blob
+        Cborable linkToLast = index < value.size() ? value.get(index++) : new CborObject.CborNull();
+        Optional<EncryptedCapability> lastFolderContents = linkToLast instanceof CborObject.CborNull ?
+                Optional.empty() :
+                Optional.of(EncryptedCapability.fromCbor(linkToLast));
+
+        // Only present alongside the link to the last blob
+        Cborable summariesCbor = index < value.size() ? value.get(index++) : new CborObject.CborNull();
+        Optional<PaddedCipherText> blobSummaries = summariesCbor instanceof CborObject.CborNull ?
+                Optional.empty() :
+                Optional.of(PaddedCipherText.fromCbor(summariesCbor));
         return new DirAccess(MaybeMultihash.of(hash), version, subfoldersToParent, parentToMeta, parentLink,
-                properties, children, moreFolderContents, writerLink);
+                properties, children, moreFolderContents, writerLink, childNames, lastFolderContents, blobSummaries);
     }
 
     public List<RelativeCapability> getChildren(SymmetricKey baseKey) {
@@ -167,19 +222,83 @@ public class DirAccess implements CryptreeNode {
                         .collect(Collectors.toList())), CHILDREN_LINKS_PADDING_BLOCKSIZE);
     }
 
+    /**
+     *
+     * @param baseKey the base key of the directory containing the child
+     * @param name the name of the child
+     * @return the keyed hash of name which is stored in the name index of the directory
+     */
+    public static byte[] nameHash(SymmetricKey baseKey, String name) {
+        byte[] hash = Hash.sha256(ArrayOps.concat(baseKey.serialize(), Hash.sha256(name)));
+        return Arrays.copyOfRange(hash, 0, NAME_HASH_SIZE);
+    }
+
+    /**
+     *
+     * @return the name hash of each child link in this blob, empty where a child isn't indexed
+     */
+    private List<Optional<ByteArrayWrapper>> getChildNameHashes(SymmetricKey baseKey, int childCount) {
+        List<Optional<ByteArrayWrapper>> hashes = childNames
+                .map(cipherText -> cipherText.decrypt(baseKey, DirAccess::parseChildNameHashes))
+                .orElse(Collections.emptyList());
+        if (hashes.size() == childCount)
+            return hashes;
+        // An older client has modified the children without updating the index
+        return Collections.nCopies(childCount, Optional.empty());
+    }
+
+    private List<Optional<ByteArrayWrapper>> getChildNameHashes(SymmetricKey baseKey) {
+        return getChildNameHashes(baseKey, getChildren(baseKey).size());
+    }
+
+    private static List<Optional<ByteArrayWrapper>> parseChildNameHashes(Cborable cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for DirAccess child names: " + cbor);
+        return ((CborObject.CborList) cbor).value
+                .stream()
+                .map(c -> c instanceof CborObject.CborByteArray ?
+                        Optional.of(new ByteArrayWrapper(((CborObject.CborByteArray) c).value)) :
+                        Optional.<ByteArrayWrapper>empty())
+                .collect(Collectors.toList());
+    }
+
+    private static PaddedCipherText encryptChildNames(SymmetricKey baseKey, List<Optional<ByteArrayWrapper>> nameHashes) {
+        return PaddedCipherText.build(baseKey,
+                new CborObject.CborList(nameHashes.stream()
+                        .map(h -> h.isPresent() ?
+                                new CborObject.CborByteArray(h.get().data) :
+                                new CborObject.CborNull())
+                        .collect(Collectors.toList())), CHILDREN_LINKS_PADDING_BLOCKSIZE);
+    }
+
+    private static Optional<ByteArrayWrapper> nameHash(SymmetricKey baseKey, Optional<String> name) {
+        return name.map(n -> new ByteArrayWrapper(nameHash(baseKey, n)));
+    }
+
+    private static String getName(RetrievedCapability child) {
+        CryptreeNode fileAccess = child.fileAccess;
+        SymmetricKey baseKey = child.capability.rBaseKey;
+        SymmetricKey parentKey = fileAccess.isDirectory() ? fileAccess.getParentKey(baseKey) : baseKey;
+        return fileAccess.getProperties(parentKey).name;
+    }
+
     @Override
-    public CompletableFuture<DirAccess> updateProperties(WritableAbsoluteCapability us,
-                                                         FileProperties newProps,
-                                                         NetworkAccess network) {
-        SymmetricKey metaKey;
+    public DirAccess withProperties(WritableAbsoluteCapability us, FileProperties newProps) {
         SymmetricKey parentKey = base2parent.target(us.rBaseKey);
-        metaKey = this.getMetaKey(parentKey);
+        SymmetricKey metaKey = this.getMetaKey(parentKey);
         PaddedCipherText encryptedProperties = PaddedCipherText.build(metaKey, newProps, META_DATA_PADDING_BLOCKSIZE);
-        DirAccess updated = new DirAccess(lastCommittedHash, version, base2parent,
+        return new DirAccess(lastCommittedHash, version, base2parent,
                 parent2meta, parentLink,
                 encryptedProperties,
-                children, moreFolderContents, writerLink
+                children, moreFolderContents, writerLink, childNames, lastFolderContents, blobSummaries
         );
+    }
+
+    @Override
+    public CompletableFuture<DirAccess> updateProperties(WritableAbsoluteCapability us,
+                                                         FileProperties newProps,
+                                                         NetworkAccess network) {
+        DirAccess updated = withProperties(us, newProps);
         return Transaction.call(us.owner,
                 tid -> network.uploadChunk(updated, us.owner, us.getMapKey(), us.signer(), tid)
                         .thenApply(b -> updated),
@@ -187,60 +306,132 @@ public class DirAccess implements CryptreeNode {
     }
 
     public CompletableFuture<DirAccess> addChildAndCommit(RelativeCapability targetCAP,
+                                                          String name,
                                                           WritableAbsoluteCapability us,
                                                           NetworkAccess network,
                                                           SafeRandom random) {
-        return addChildrenAndCommit(Arrays.asList(targetCAP), us, network, random);
+        return addChildrenAndCommit(Arrays.asList(new NamedRelativeCapability(name, targetCAP)), us, network, random);
     }
 
-    public CompletableFuture<DirAccess> addChildrenAndCommit(List<RelativeCapability> targetCAPs,
+    /** Add children to this directory, which must be the first blob of the directory
+     *
+     * @return the updated first blob of this directory
+     */
+    public CompletableFuture<DirAccess> addChildrenAndCommit(List<NamedRelativeCapability> targetCAPs,
                                                              WritableAbsoluteCapability us,
                                                              NetworkAccess network,
                                                              SafeRandom random) {
-        // Make sure subsequent blobs use a different transaction to obscure linkage of different parts of this dir
         List<RelativeCapability> children = getChildren(us.rBaseKey);
-        if (children.size() + targetCAPs.size() > MAX_CHILD_LINKS_PER_BLOB) {
-            return getNextMetablob(us, network).thenCompose(nextMetablob -> {
-                if (nextMetablob.size() >= 1) {
-                    AbsoluteCapability nextPointer = nextMetablob.get(0).capability;
-                    DirAccess nextBlob = (DirAccess) nextMetablob.get(0).fileAccess;
-                    return nextBlob.addChildrenAndCommit(targetCAPs, nextPointer.toWritable(us.wBaseKey.get(), us.getSigningPair()), network, random);
-                } else {
-                    // first fill this directory, then overflow into a new one
-                    int freeSlots = MAX_CHILD_LINKS_PER_BLOB - children.size();
-                    List<RelativeCapability> addToUs = targetCAPs.subList(0, freeSlots);
-                    List<RelativeCapability> addToNext = targetCAPs.subList(freeSlots, targetCAPs.size());
-                    return addChildrenAndCommit(addToUs, us, network, random)
-                            .thenCompose(newUs -> {
-                                // create and upload new metadata blob
-                                SymmetricKey nextSubfoldersKey = SymmetricKey.random();
-                                SymmetricKey ourParentKey = base2parent.target(us.rBaseKey);
-                                RelativeCapability parentCap = parentLink.toCapability(ourParentKey);
-                                DirAccess next = DirAccess.create(MaybeMultihash.empty(), nextSubfoldersKey, FileProperties.EMPTY,
-                                        parentCap, ourParentKey);
-                                byte[] nextMapKey = random.randomBytes(32);
-                                WritableAbsoluteCapability nextPointer = new WritableAbsoluteCapability(us.owner, us.writer, nextMapKey, nextSubfoldersKey, us.wBaseKey.get(), us.signer.get());
-                                return next.addChildrenAndCommit(addToNext, nextPointer, network, random)
-                                        .thenCompose(nextBlob -> {
-                                            // re-upload us with the link to the next DirAccess
-                                            DirAccess withNext = newUs.withNextBlob(Optional.of(
-                                                    EncryptedCapability.create(us.rBaseKey, us.relativise(nextPointer))));
-                                            return Transaction.call(us.owner,
-                                                    tid -> withNext.commit(us, network, tid),
-                                                    network.dhtClient);
-                                        });
-                            });
-                }
-            });
-        } else {
-            ArrayList<RelativeCapability> newFiles = new ArrayList<>(children);
-            newFiles.addAll(targetCAPs);
+        if (children.size() + targetCAPs.size() <= network.maxChildLinksPerBlob || ! moreFolderContents.isPresent())
+            return appendChildren(targetCAPs, us, true, network, random)
+                    .thenApply(written -> (DirAccess) written.get(0).fileAccess);
+
+        return getLastMetablob(us, network).thenCompose(last -> {
+            WritableAbsoluteCapability lastPointer = last.capability.toWritable(us.wBaseKey.get(), us.getSigningPair());
+            return ((DirAccess) last.fileAccess).appendChildren(targetCAPs, lastPointer, false, network, random)
+                    .thenCompose(written -> {
+                        AbsoluteCapability newLast = written.get(written.size() - 1).capability;
+                        Optional<byte[]> knownLast = lastFolderContents.map(c -> c.toCapability(us.rBaseKey).getMapKey());
+                        if (knownLast.isPresent() && Arrays.equals(newLast.getMapKey(), knownLast.get()))
+                            return CompletableFuture.completedFuture(this);
+                        // the last blob has changed, or this directory predates the link to it
+                        Optional<List<BlobSummary>> summaries = getBlobSummaries(us.rBaseKey);
+                        boolean lastWasKnown = knownLast.isPresent() && Arrays.equals(lastPointer.getMapKey(), knownLast.get());
+                        CompletableFuture<List<BlobSummary>> newSummaries = summaries.isPresent() && lastWasKnown ?
+                                CompletableFuture.completedFuture(concat(summaries.get(),
+                                        summarise(us, written.subList(0, written.size() - 1)))) :
+                                // e.g. another client extended the chain without updating us
+                                getLaterBlobs(us, network)
+                                        .thenApply(blobs -> summarise(us, blobs.subList(0, blobs.size() - 1)));
+                        return newSummaries.thenCompose(newSummary -> Transaction.call(us.owner,
+                                tid -> withLastBlob(Optional.of(EncryptedCapability.create(us.rBaseKey,
+                                        us.relativise(newLast.toWritable(us.wBaseKey.get(), us.getSigningPair())))),
+                                        encryptBlobSummaries(us.rBaseKey, newSummary))
+                                        .commit(us, network, tid),
+                                network.dhtClient));
+                    });
+        });
+    }
 
-            return Transaction.call(us.owner,
-                    tid -> withChildren(encryptChildren(us.rBaseKey, newFiles))
-                            .commit(us, network, tid),
-                    network.dhtClient);
+    /** Add children to this blob, which must be the last blob in the directory, overflowing into new blobs as needed
+     *
+     * @param isFirst whether this is also the first blob of the directory, which links to the last blob
+     * @return the blobs written, in chain order, starting with the updated version of this blob and ending with the
+     * last blob of the directory
+     */
+    private CompletableFuture<List<RetrievedCapability>> appendChildren(List<NamedRelativeCapability> targetCAPs,
+                                                                        WritableAbsoluteCapability us,
+                                                                        boolean isFirst,
+                                                                        NetworkAccess network,
+                                                                        SafeRandom random) {
+        List<RelativeCapability> children = getChildren(us.rBaseKey);
+        int freeSlots = Math.max(0, network.maxChildLinksPerBlob - children.size());
+        List<NamedRelativeCapability> addToUs = targetCAPs.subList(0, Math.min(freeSlots, targetCAPs.size()));
+        ArrayList<RelativeCapability> newFiles = new ArrayList<>(children);
+        List<Optional<ByteArrayWrapper>> newNames = new ArrayList<>(getChildNameHashes(us.rBaseKey, children.size()));
+        for (NamedRelativeCapability target : addToUs) {
+            newFiles.add(target.cap);
+            newNames.add(nameHash(us.rBaseKey, target.name));
         }
+        DirAccess withChildren = withChildren(encryptChildren(us.rBaseKey, newFiles), encryptChildNames(us.rBaseKey, newNames));
+
+        if (addToUs.size() == targetCAPs.size())
+            return Transaction.call(us.owner,
+                    tid -> withChildren.commit(us, network, tid),
+                    network.dhtClient)
+                    .thenApply(updated -> Collections.singletonList(new RetrievedCapability(us, updated)));
+
+        // first fill this blob, then overflow into a new one
+        List<NamedRelativeCapability> addToNext = targetCAPs.subList(addToUs.size(), targetCAPs.size());
+        SymmetricKey nextSubfoldersKey = SymmetricKey.random();
+        SymmetricKey ourParentKey = base2parent.target(us.rBaseKey);
+        RelativeCapability parentCap = parentLink == null ? null : parentLink.toCapability(ourParentKey);
+        DirAccess next = DirAccess.create(MaybeMultihash.empty(), nextSubfoldersKey, FileProperties.EMPTY,
+                parentCap, ourParentKey);
+        byte[] nextMapKey = random.randomBytes(32);
+        WritableAbsoluteCapability nextPointer = new WritableAbsoluteCapability(us.owner, us.writer, nextMapKey,
+                nextSubfoldersKey, us.wBaseKey.get(), us.signer.get());
+        // Make sure subsequent blobs use a different transaction to obscure linkage of different parts of this dir
+        return next.appendChildren(addToNext, nextPointer, false, network, random)
+                .thenCompose(later -> {
+                    // re-upload us with the link to the next blob
+                    DirAccess withNext = withChildren.withNextBlob(Optional.of(
+                            EncryptedCapability.create(us.rBaseKey, us.relativise(nextPointer))));
+                    AbsoluteCapability last = later.get(later.size() - 1).capability;
+                    DirAccess toCommit = isFirst ?
+                            withNext.withLastBlob(Optional.of(EncryptedCapability.create(us.rBaseKey,
+                                    us.relativise(last.toWritable(us.wBaseKey.get(), us.getSigningPair())))),
+                                    encryptBlobSummaries(us.rBaseKey, summarise(us, later.subList(0, later.size() - 1)))) :
+                            withNext;
+                    return Transaction.call(us.owner,
+                            tid -> toCommit.commit(us, network, tid),
+                            network.dhtClient)
+                            .thenApply(updated -> concat(Collections.singletonList(new RetrievedCapability(us, updated)), later));
+                });
+    }
+
+    private static <T> List<T> concat(List<T> a, List<T> b) {
+        List<T> res = new ArrayList<>(a);
+        res.addAll(b);
+        return res;
+    }
+
+    /**
+     *
+     * @return the last blob of this directory, which must be the first blob, following the chain from the last known
+     * blob in case another client has since appended more
+     */
+    private CompletableFuture<RetrievedCapability> getLastMetablob(AbsoluteCapability us, NetworkAccess network) {
+        RelativeCapability start = lastFolderContents.orElse(moreFolderContents.get()).toCapability(us.rBaseKey);
+        return network.retrieveAllMetadata(Arrays.asList(start.toAbsolute(us)))
+                .thenCompose(res -> getLastMetablob(res.get(0), network));
+    }
+
+    private static CompletableFuture<RetrievedCapability> getLastMetablob(RetrievedCapability blob, NetworkAccess network) {
+        DirAccess dir = (DirAccess) blob.fileAccess;
+        return dir.getNextMetablob(blob.capability, network).thenCompose(next -> next.isEmpty() ?
+                CompletableFuture.completedFuture(blob) :
+                getLastMetablob(next.get(0), network));
     }
 
     private CompletableFuture<List<RetrievedCapability>> getNextMetablob(AbsoluteCapability us,
@@ -251,29 +442,181 @@ public class DirAccess implements CryptreeNode {
         return network.retrieveAllMetadata(Arrays.asList(cap.toAbsolute(us)));
     }
 
+    /**
+     *
+     * @return all the blobs after this one, in chain order
+     */
+    private CompletableFuture<List<RetrievedCapability>> getLaterBlobs(AbsoluteCapability us, NetworkAccess network) {
+        return getNextMetablob(us, network).thenCompose(next -> next.isEmpty() ?
+                CompletableFuture.completedFuture(Collections.emptyList()) :
+                ((DirAccess) next.get(0).fileAccess).getLaterBlobs(next.get(0).capability, network)
+                        .thenApply(later -> concat(next, later)));
+    }
+
+    /**
+     *
+     * @return the summaries of the blobs between this, the first blob, and the last blob, if we have them
+     */
+    private Optional<List<BlobSummary>> getBlobSummaries(SymmetricKey baseKey) {
+        if (! lastFolderContents.isPresent())
+            return Optional.empty();
+        return blobSummaries.map(cipherText -> cipherText.decrypt(baseKey, DirAccess::parseBlobSummaries));
+    }
+
+    private static List<BlobSummary> parseBlobSummaries(Cborable cbor) {
+        if (! (cbor instanceof CborObject.CborList))
+            throw new IllegalStateException("Incorrect cbor for DirAccess blob summaries: " + cbor);
+        return ((CborObject.CborList) cbor).value
+                .stream()
+                .map(BlobSummary::fromCbor)
+                .collect(Collectors.toList());
+    }
+
+    private static Optional<PaddedCipherText> encryptBlobSummaries(SymmetricKey baseKey, List<BlobSummary> summaries) {
+        if (summaries.size() > MAX_SUMMARISED_BLOBS)
+            return Optional.empty();
+        return Optional.of(PaddedCipherText.build(baseKey, new CborObject.CborList(summaries), CHILDREN_LINKS_PADDING_BLOCKSIZE));
+    }
+
+    private static List<BlobSummary> summarise(WritableAbsoluteCapability first, List<RetrievedCapability> blobs) {
+        return blobs.stream()
+                .map(b -> BlobSummary.build(first.relativise(b.capability.toWritable(first.wBaseKey.get(), first.getSigningPair())),
+                        ((DirAccess) b.fileAccess).getChildNameHashes(b.capability.rBaseKey)))
+                .collect(Collectors.toList());
+    }
+
+    /** The blobs after this one, which must be the first blob, which could hold any of the given names. These are the
+     *  blobs whose summary matches, the last blob and any blobs a client has appended after it without updating us. If
+     *  we don't have summaries then all the later blobs are returned.
+     */
+    private CompletableFuture<List<RetrievedCapability>> getCandidateBlobs(Set<String> names,
+                                                                           AbsoluteCapability us,
+                                                                           NetworkAccess network) {
+        Optional<List<BlobSummary>> summaries = getBlobSummaries(us.rBaseKey);
+        if (! summaries.isPresent())
+            return getLaterBlobs(us, network);
+        List<AbsoluteCapability> matching = summaries.get().stream()
+                .filter(b -> b.mightContain(names))
+                .map(b -> b.blob.toAbsolute(us))
+                .collect(Collectors.toList());
+        CompletableFuture<List<RetrievedCapability>> summarised = matching.isEmpty() ?
+                CompletableFuture.completedFuture(Collections.emptyList()) :
+                network.retrieveAllMetadata(matching);
+        AbsoluteCapability lastPointer = lastFolderContents.get().toCapability(us.rBaseKey).toAbsolute(us);
+        CompletableFuture<List<RetrievedCapability>> lastAndLater = network.retrieveAllMetadata(Arrays.asList(lastPointer))
+                .thenCompose(last -> last.isEmpty() ?
+                        CompletableFuture.completedFuture(Collections.emptyList()) :
+                        ((DirAccess) last.get(0).fileAccess).getLaterBlobs(last.get(0).capability, network)
+                                .thenApply(later -> concat(last, later)));
+        return summarised.thenCompose(a -> lastAndLater.thenApply(b -> concat(a, b)));
+    }
+
+    private boolean linksTo(SymmetricKey baseKey, byte[] childMapKey) {
+        return getChildren(baseKey).stream()
+                .anyMatch(c -> Arrays.equals(c.getMapKey(), childMapKey));
+    }
+
+    /**
+     *
+     * @return the blob of this directory, which must be the first blob, which links to the given child
+     */
+    private CompletableFuture<Optional<RetrievedCapability>> findBlobWithChild(AbsoluteCapability us,
+                                                                               byte[] childMapKey,
+                                                                               String childName,
+                                                                               NetworkAccess network) {
+        if (linksTo(us.rBaseKey, childMapKey))
+            return CompletableFuture.completedFuture(Optional.of(new RetrievedCapability(us, this)));
+        return getCandidateBlobs(Collections.singleton(childName), us, network)
+                .thenApply(blobs -> blobs.stream()
+                        .filter(b -> ((DirAccess) b.fileAccess).linksTo(b.capability.rBaseKey, childMapKey))
+                        .findFirst());
+    }
+
     public CompletableFuture<DirAccess> updateChildLink(WritableAbsoluteCapability ourPointer,
                                                         RetrievedCapability original,
                                                         RetrievedCapability modified,
                                                         NetworkAccess network,
                                                         SafeRandom random) {
         return removeChild(original, ourPointer, network)
-                .thenCompose(res -> res.addChildAndCommit(ourPointer.relativise((WritableAbsoluteCapability) modified.capability), ourPointer, network, random));
+                .thenCompose(res -> res.addChildAndCommit(ourPointer.relativise((WritableAbsoluteCapability) modified.capability),
+                        getName(modified), ourPointer, network, random));
     }
 
+    /** Set the name index entry for a child, without committing anything. This must be the first blob of the directory.
+     *
+     * @return the blobs of this directory to commit: the blob which links to the child, with the updated index, and the
+     * first blob if the summary of that blob has changed. This is empty if there is no such child.
+     */
+    public CompletableFuture<List<Pair<WritableAbsoluteCapability, DirAccess>>> withChildName(WritableAbsoluteCapability us,
+                                                                                              byte[] childMapKey,
+                                                                                              String oldName,
+                                                                                              String newName,
+                                                                                              NetworkAccess network) {
+        return findBlobWithChild(us, childMapKey, oldName, network).thenApply(blob -> {
+            if (! blob.isPresent())
+                return Collections.emptyList();
+            WritableAbsoluteCapability blobPointer = blob.get().capability.toWritable(us.wBaseKey.get(), us.getSigningPair());
+            DirAccess renamed = ((DirAccess) blob.get().fileAccess).withChildName(blobPointer.rBaseKey, childMapKey, newName);
+            List<Pair<WritableAbsoluteCapability, DirAccess>> res = new ArrayList<>();
+            res.add(new Pair<>(blobPointer, renamed));
+            Optional<List<BlobSummary>> summaries = getBlobSummaries(us.rBaseKey);
+            if (Arrays.equals(blobPointer.getMapKey(), us.getMapKey()) || ! summaries.isPresent())
+                return res;
+            List<BlobSummary> updated = new ArrayList<>(summaries.get());
+            for (int i=0; i < updated.size(); i++)
+                if (Arrays.equals(updated.get(i).blob.getMapKey(), blobPointer.getMapKey()))
+                    updated.set(i, BlobSummary.build(us.relativise(blobPointer), renamed.getChildNameHashes(blobPointer.rBaseKey)));
+            res.add(new Pair<>(us, withLastBlob(lastFolderContents, encryptBlobSummaries(us.rBaseKey, updated))));
+            return res;
+        });
+    }
+
+    private DirAccess withChildName(SymmetricKey baseKey, byte[] childMapKey, String newName) {
+        List<RelativeCapability> children = getChildren(baseKey);
+        List<Optional<ByteArrayWrapper>> names = new ArrayList<>(getChildNameHashes(baseKey, children.size()));
+        for (int i=0; i < children.size(); i++)
+            if (Arrays.equals(children.get(i).getMapKey(), childMapKey))
+                names.set(i, nameHash(baseKey, Optional.of(newName)));
+        return withChildren(encryptChildren(baseKey, children), encryptChildNames(baseKey, names));
+    }
+
+    /** Remove a child from this directory, which must be the first blob, only rewriting the blob which contains it
+     *
+     * @return the updated first blob of this directory
+     */
     public CompletableFuture<DirAccess> removeChild(RetrievedCapability childRetrievedPointer,
                                                     WritableAbsoluteCapability ourPointer,
                                                     NetworkAccess network) {
-        List<RelativeCapability> newSubfolders = getChildren(ourPointer.rBaseKey).stream().filter(e -> {
-            boolean keep = true;
-            if (Arrays.equals(e.getMapKey(), childRetrievedPointer.capability.getMapKey()))
-                if (Objects.equals(e.writer.orElse(ourPointer.writer), childRetrievedPointer.capability.writer))
+        byte[] childMapKey = childRetrievedPointer.capability.getMapKey();
+        return findBlobWithChild(ourPointer, childMapKey, getName(childRetrievedPointer), network).thenCompose(blob -> {
+            if (! blob.isPresent())
+                return CompletableFuture.completedFuture(this);
+            WritableAbsoluteCapability blobPointer = blob.get().capability.toWritable(ourPointer.wBaseKey.get(),
+                    ourPointer.getSigningPair());
+            DirAccess dir = (DirAccess) blob.get().fileAccess;
+            List<RelativeCapability> children = dir.getChildren(blobPointer.rBaseKey);
+            List<Optional<ByteArrayWrapper>> names = dir.getChildNameHashes(blobPointer.rBaseKey, children.size());
+            List<RelativeCapability> newSubfolders = new ArrayList<>();
+            List<Optional<ByteArrayWrapper>> newNames = new ArrayList<>();
+            for (int i=0; i < children.size(); i++) {
+                RelativeCapability e = children.get(i);
+                boolean keep = true;
+                if (Arrays.equals(e.getMapKey(), childMapKey))
+                    if (Objects.equals(e.writer.orElse(blobPointer.writer), childRetrievedPointer.capability.writer))
                         keep = false;
-            return keep;
-        }).collect(Collectors.toList());
-        return Transaction.call(ourPointer.owner,
-                tid -> withChildren(encryptChildren(ourPointer.rBaseKey, newSubfolders))
-                        .commit(ourPointer, network, tid),
-                network.dhtClient);
+                if (keep) {
+                    newSubfolders.add(e);
+                    newNames.add(names.get(i));
+                }
+            }
+            boolean isFirst = Arrays.equals(blobPointer.getMapKey(), ourPointer.getMapKey());
+            return Transaction.call(ourPointer.owner,
+                    tid -> dir.withChildren(encryptChildren(blobPointer.rBaseKey, newSubfolders),
+                            encryptChildNames(blobPointer.rBaseKey, newNames))
+                            .commit(blobPointer, network, tid),
+                    network.dhtClient)
+                    .thenApply(updated -> isFirst ? updated : this);
+        });
     }
 
     // returns [RetrievedCapability]
@@ -308,6 +651,53 @@ public class DirAccess implements CryptreeNode {
         );
     }
 
+    /**
+     *
+     * @param name the name of the child
+     * @return the children which could have the given name, only retrieving those whose name hash matches, or which
+     * aren't indexed
+     */
+    public CompletableFuture<Set<RetrievedCapability>> getChildrenWithName(String name,
+                                                                           NetworkAccess network,
+                                                                           AbsoluteCapability us) {
+        return getChildrenWithNames(Collections.singleton(name), network, us);
+    }
+
+    /** This must be the first blob of the directory
+     *
+     * @param names the names of the children
+     * @return the children which could have any of the given names, only retrieving those whose name hash matches one
+     * of them, or which aren't indexed
+     */
+    public CompletableFuture<Set<RetrievedCapability>> getChildrenWithNames(Set<String> names,
+                                                                            NetworkAccess network,
+                                                                            AbsoluteCapability us) {
+        return getCandidateBlobs(names, us, network).thenCompose(later -> {
+            List<AbsoluteCapability> candidates = new ArrayList<>(getCandidateChildren(names, us));
+            for (RetrievedCapability blob : later)
+                candidates.addAll(((DirAccess) blob.fileAccess).getCandidateChildren(names, blob.capability));
+            return candidates.isEmpty() ?
+                    CompletableFuture.completedFuture(Collections.emptySet()) :
+                    network.retrieveAllMetadata(candidates).thenApply(HashSet::new);
+        });
+    }
+
+    /**
+     *
+     * @return the children of this blob whose name hash matches any of the given names, or which aren't indexed
+     */
+    private List<AbsoluteCapability> getCandidateChildren(Set<String> names, AbsoluteCapability us) {
+        List<RelativeCapability> children = getChildren(us.rBaseKey);
+        List<Optional<ByteArrayWrapper>> nameHashes = getChildNameHashes(us.rBaseKey, children.size());
+        Set<ByteArrayWrapper> targets = names.stream()
+                .map(name -> new ByteArrayWrapper(nameHash(us.rBaseKey, name)))
+                .collect(Collectors.toSet());
+        return IntStream.range(0, children.size())
+                .filter(i -> nameHashes.get(i).map(targets::contains).orElse(true))
+                .mapToObj(i -> children.get(i).toAbsolute(us))
+                .collect(Collectors.toList());
+    }
+
     public Set<Location> getChildrenLocations(AbsoluteCapability us) {
         return getChildren(us.rBaseKey).stream()
                 .map(cap -> cap.getLocation(us.owner, us.writer))
@@ -338,7 +728,7 @@ public class DirAccess implements CryptreeNode {
                 tid -> network.uploadChunk(child, us.owner, dirMapKey, us.getSigningPair(), tid), network.dhtClient)
                 .thenCompose(resultHash -> {
                     RelativeCapability subdirPointer = new RelativeCapability(dirMapKey, dirReadKey, toChildWriteKey);
-                    return addChildAndCommit(subdirPointer, us, network, random)
+                    return addChildAndCommit(subdirPointer, name, us, network, random)
                             .thenApply(modified -> new RelativeCapability(dirMapKey, dirReadKey, toChildWriteKey));
                 });
     }
@@ -378,7 +768,7 @@ public class DirAccess implements CryptreeNode {
                         ourNewCap, ourNewParentKey, newChildMapKey, network, random)
                         .thenCompose(newChildFileAccess -> {
                             return dirFuture.thenCompose(dirAccess ->
-                                    dirAccess.addChildAndCommit(ourNewCap.relativise(newChildCap), ourNewCap, network, random));
+                                    dirAccess.addChildAndCommit(ourNewCap.relativise(newChildCap), getName(rfp), ourNewCap, network, random));
                         });
             }, (a, b) -> a.thenCompose(x -> b)); // TODO Think about this combiner function
             return reduce;
@@ -388,9 +778,70 @@ public class DirAccess implements CryptreeNode {
                 network.dhtClient));
     }
 
-    private DirAccess withChildren(PaddedCipherText newChildren) {
+    private DirAccess withChildren(PaddedCipherText newChildren, PaddedCipherText newChildNames) {
         return new DirAccess(lastCommittedHash, version, base2parent, parent2meta, parentLink, properties,
-                newChildren, moreFolderContents, writerLink);
+                newChildren, moreFolderContents, writerLink, Optional.of(newChildNames), lastFolderContents, blobSummaries);
+    }
+
+    /** A summary of one of the blobs between the first and last blobs of a directory, held in the first blob
+     */
+    private static class BlobSummary implements Cborable {
+        public final RelativeCapability blob;
+        // a prefix of the name hash of each indexed child of the blob, concatenated
+        public final byte[] namePrefixes;
+        public final boolean hasUnindexedChildren;
+
+        public BlobSummary(RelativeCapability blob, byte[] namePrefixes, boolean hasUnindexedChildren) {
+            this.blob = blob;
+            this.namePrefixes = namePrefixes;
+            this.hasUnindexedChildren = hasUnindexedChildren;
+        }
+
+        public boolean mightContain(Set<String> names) {
+            if (hasUnindexedChildren)
+                return true;
+            for (String name : names) {
+                byte[] hash = nameHash(blob.rBaseKey, name);
+                for (int i=0; i < namePrefixes.length; i += SUMMARY_PREFIX_SIZE)
+                    if (hasPrefixAt(namePrefixes, i, hash))
+                        return true;
+            }
+            return false;
+        }
+
+        private static boolean hasPrefixAt(byte[] prefixes, int offset, byte[] hash) {
+            for (int i=0; i < SUMMARY_PREFIX_SIZE; i++)
+                if (prefixes[offset + i] != hash[i])
+                    return false;
+            return true;
+        }
+
+        @Override
+        public CborObject toCbor() {
+            return new CborObject.CborList(Arrays.asList(
+                    blob.toCbor(),
+                    new CborObject.CborByteArray(namePrefixes),
+                    new CborObject.CborBoolean(hasUnindexedChildren)));
+        }
+
+        public static BlobSummary fromCbor(Cborable cbor) {
+            if (! (cbor instanceof CborObject.CborList))
+                throw new IllegalStateException("Incorrect cbor for BlobSummary: " + cbor);
+            List<? extends Cborable> value = ((CborObject.CborList) cbor).value;
+            return new BlobSummary(RelativeCapability.fromCbor(value.get(0)),
+                    ((CborObject.CborByteArray) value.get(1)).value,
+                    ((CborObject.CborBoolean) value.get(2)).value);
+        }
+
+        public static BlobSummary build(RelativeCapability blob, List<Optional<ByteArrayWrapper>> nameHashes) {
+            List<ByteArrayWrapper> indexed = nameHashes.stream()
+                    .flatMap(h -> h.map(Stream::of).orElseGet(Stream::empty))
+                    .collect(Collectors.toList());
+            byte[] prefixes = new byte[indexed.size() * SUMMARY_PREFIX_SIZE];
+            for (int i=0; i < indexed.size(); i++)
+                System.arraycopy(indexed.get(i).data, 0, prefixes, i * SUMMARY_PREFIX_SIZE, SUMMARY_PREFIX_SIZE);
+            return new BlobSummary(blob, prefixes, indexed.size() < nameHashes.size());
+        }
     }
 
     public static DirAccess create(MaybeMultihash lastCommittedHash,
@@ -413,6 +864,9 @@ public class DirAccess implements CryptreeNode {
                 PaddedCipherText.build(metaKey, props, META_DATA_PADDING_BLOCKSIZE),
                 encryptChildren(rBaseKey, Collections.emptyList()),
                 Optional.empty(),
+                Optional.empty(),
+                Optional.of(encryptChildNames(rBaseKey, Collections.emptyList())),
+                Optional.empty(),
                 Optional.empty()
         );
     }
@@ -2,7 +2,6 @@ package peergos.shared.user.fs;
 
 import peergos.shared.crypto.*;
 import peergos.shared.crypto.symmetric.*;
-import peergos.shared.util.*;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -12,23 +11,24 @@ import java.util.concurrent.CompletableFuture;
  */
 public class EncryptedChunk {
 
-    private final byte[] auth, cipher;
+    // the authenticator followed by the cipher text, of which only the first length bytes are part of this chunk
+    private final byte[] encrypted;
+    private final int length;
 
-    public EncryptedChunk(byte[] auth, byte[] cipher) {
-        this.auth = auth;
-        this.cipher = cipher;
+    private EncryptedChunk(byte[] encrypted, int length) {
+        this.encrypted = encrypted;
+        this.length = length;
     }
 
     public EncryptedChunk(byte[] encrypted) {
-        this(Arrays.copyOfRange(encrypted, 0, TweetNaCl.SECRETBOX_OVERHEAD_BYTES),
-        Arrays.copyOfRange(encrypted, TweetNaCl.SECRETBOX_OVERHEAD_BYTES, encrypted.length));
+        this(encrypted, encrypted.length);
     }
 
     public List<Fragment> generateFragments(peergos.shared.user.fs.Fragmenter  fragmenter) {
-        if (this.cipher.length == 0)
+        if (length == TweetNaCl.SECRETBOX_OVERHEAD_BYTES)
             return Collections.emptyList();
 
-        byte[][] bfrags = fragmenter.split(cipher);
+        byte[][] bfrags = fragmenter.split(Arrays.copyOfRange(encrypted, TweetNaCl.SECRETBOX_OVERHEAD_BYTES, length));
         List<Fragment> frags = new ArrayList<>();
         for (int i=0; i < bfrags.length; i++)
             frags.add(new Fragment(bfrags[i]));
@@ -36,19 +36,19 @@ public class EncryptedChunk {
     }
 
     public byte[] getAuth() {
-        return Arrays.copyOf(auth, auth.length);
+        return Arrays.copyOf(encrypted, TweetNaCl.SECRETBOX_OVERHEAD_BYTES);
     }
 
     public CompletableFuture<byte[]> decrypt(SymmetricKey key, byte[] nonce) {
-        if (cipher.length == 0) {
+        if (length == TweetNaCl.SECRETBOX_OVERHEAD_BYTES) {
             CompletableFuture<byte[]> res = new CompletableFuture<>();
-            res.complete(cipher);
+            res.complete(new byte[0]);
             return res;
         }
-        return key.decryptAsync(ArrayOps.concat(this.auth, this.cipher), nonce);
+        return key.decryptAsync(encrypted, 0, length, nonce);
     }
 
     public EncryptedChunk truncateTo(int length) {
-        return new EncryptedChunk(auth, Arrays.copyOfRange(cipher, 0, length));
+        return new EncryptedChunk(encrypted, Math.min(this.length, TweetNaCl.SECRETBOX_OVERHEAD_BYTES + length));
     }
 }
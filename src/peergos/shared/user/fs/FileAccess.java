@@ -96,9 +96,7 @@ public class FileAccess implements CryptreeNode {
     }
 
     @Override
-    public CompletableFuture<FileAccess> updateProperties(WritableAbsoluteCapability us,
-                                                          FileProperties newProps,
-                                                          NetworkAccess network) {
+    public FileAccess withProperties(WritableAbsoluteCapability us, FileProperties newProps) {
         SymmetricKey metaKey = this.getMetaKey(us.rBaseKey);
         boolean isDirty = metaKey.isDirty();
         // if the meta key is dirty then we need to generate a new one to not expose the new metadata
@@ -109,8 +107,15 @@ public class FileAccess implements CryptreeNode {
                 this.parent2meta;
 
         PaddedCipherText encryptedProperties = PaddedCipherText.build(metaKey, newProps, META_DATA_PADDING_BLOCKSIZE);
-        FileAccess fa = new FileAccess(lastCommittedHash, version, toMeta, this.parent2data, encryptedProperties,
+        return new FileAccess(lastCommittedHash, version, toMeta, this.parent2data, encryptedProperties,
                 this.retriever, this.parentLink, writerLink);
+    }
+
+    @Override
+    public CompletableFuture<FileAccess> updateProperties(WritableAbsoluteCapability us,
+                                                          FileProperties newProps,
+                                                          NetworkAccess network) {
+        FileAccess fa = withProperties(us, newProps);
         return Transaction.call(us.owner, tid ->
                 network.uploadChunk(fa, us.owner, us.getMapKey(), us.signer(), tid)
                         .thenApply(b -> fa),
@@ -0,0 +1,16 @@
+package peergos.shared.user.fs;
+
+/** A file to upload as part of a batch, see FileWrapper.uploadFiles
+ *
+ */
+public class FileUploadRequest {
+    public final String name;
+    public final AsyncReader data;
+    public final long length;
+
+    public FileUploadRequest(String name, AsyncReader data, long length) {
+        this.name = name;
+        this.data = data;
+        this.length = length;
+    }
+}
@@ -29,15 +29,23 @@ public class FileUploader implements AutoCloseable {
     private final ProgressConsumer<Long> monitor;
     private final Fragmenter fragmenter;
     private final AsyncReader reader; // resettable input stream
+    private final Optional<byte[]> firstChunk; // already read from reader
 
+    /**
+     *
+     * @param firstChunk the first chunk of the file, if it has already been read from fileData. In this case fileData
+     *                   must be positioned at the start of the second chunk. Callers from Javascript can omit this.
+     */
     @JsConstructor
+    @SuppressWarnings("unusable-by-js")
     public FileUploader(String name, String mimeType, AsyncReader fileData,
                         int offsetHi, int offsetLow, int lengthHi, int lengthLow,
                         SymmetricKey baseKey, SymmetricKey metaKey,
                         Location parentLocation, SymmetricKey parentparentKey,
                         ProgressConsumer<Long> monitor,
-                        FileProperties fileProperties, Fragmenter fragmenter) {
-        long length = lengthLow + ((lengthHi & 0xFFFFFFFFL) << 32);
+                        FileProperties fileProperties, Fragmenter fragmenter,
+                        Optional<byte[]> firstChunk) {
+        long length = (lengthLow & 0xFFFFFFFFL) + ((lengthHi & 0xFFFFFFFFL) << 32);
         if (fileProperties == null)
             this.props = new FileProperties(name, mimeType, length, LocalDateTime.now(), false, Optional.empty());
         else
@@ -46,7 +54,7 @@ public class FileUploader implements AutoCloseable {
 
         this.fragmenter = fragmenter;
 
-        long offset = offsetLow + ((offsetHi & 0xFFFFFFFFL) << 32);
+        long offset = (offsetLow & 0xFFFFFFFFL) + ((offsetHi & 0xFFFFFFFFL) << 32);
 
         // Process and upload chunk by chunk to avoid running out of RAM, in reverse order to build linked list
         this.nchunks = length > 0 ? (length + Chunk.MAX_SIZE - 1) / Chunk.MAX_SIZE : 1;
@@ -54,6 +62,7 @@ public class FileUploader implements AutoCloseable {
         this.offset = offset;
         this.length = length;
         this.reader = fileData;
+        this.firstChunk = firstChunk == null ? Optional.empty() : firstChunk;
         this.baseKey = baseKey;
         this.metaKey = metaKey;
         this.parentLocation = parentLocation;
@@ -64,8 +73,16 @@ public class FileUploader implements AutoCloseable {
     public FileUploader(String name, String mimeType, AsyncReader fileData, long offset, long length,
                         SymmetricKey baseKey, SymmetricKey metaKey, Location parentLocation, SymmetricKey parentparentKey,
                         ProgressConsumer<Long> monitor, FileProperties fileProperties, Fragmenter fragmenter) {
+        this(name, mimeType, fileData, Optional.empty(), offset, length, baseKey, metaKey, parentLocation,
+                parentparentKey, monitor, fileProperties, fragmenter);
+    }
+
+    public FileUploader(String name, String mimeType, AsyncReader fileData, Optional<byte[]> firstChunk,
+                        long offset, long length,
+                        SymmetricKey baseKey, SymmetricKey metaKey, Location parentLocation, SymmetricKey parentparentKey,
+                        ProgressConsumer<Long> monitor, FileProperties fileProperties, Fragmenter fragmenter) {
         this(name, mimeType, fileData, (int)(offset >> 32), (int) offset, (int) (length >> 32), (int) length,
-                baseKey, metaKey, parentLocation, parentparentKey, monitor, fileProperties, fragmenter);
+                baseKey, metaKey, parentLocation, parentparentKey, monitor, fileProperties, fragmenter, firstChunk);
     }
 
     public CompletableFuture<Location> uploadChunk(NetworkAccess network,
@@ -83,8 +100,12 @@ public class FileUploader implements AutoCloseable {
         long fileLength = length;
         boolean isLastChunk = fileLength < position + Chunk.MAX_SIZE;
         int length =  isLastChunk ? (int)(fileLength -  position) : Chunk.MAX_SIZE;
-        byte[] data = new byte[length];
-        return reader.readIntoArray(data, 0, data.length).thenCompose(b -> {
+        boolean alreadyRead = chunkIndex == 0 && firstChunk.isPresent();
+        byte[] data = alreadyRead ? firstChunk.get() : new byte[length];
+        CompletableFuture<Integer> read = alreadyRead ?
+                CompletableFuture.completedFuture(length) :
+                reader.readIntoArray(data, 0, data.length);
+        return read.thenCompose(b -> {
             byte[] nonce = metaKey.createNonce();
             Chunk chunk = new Chunk(data, metaKey, currentLocation.getMapKey(), nonce);
             LocatedChunk locatedChunk = new LocatedChunk(new Location(owner, writer.publicKeyHash, chunk.mapKey()), ourExistingHash, chunk);
@@ -115,23 +136,35 @@ public class FileUploader implements AutoCloseable {
     public static CompletableFuture<Multihash> uploadChunk(SigningPrivateKeyAndPublicHash writer, FileProperties props, Location parentLocation, SymmetricKey parentparentKey,
                                                            SymmetricKey baseKey, LocatedChunk chunk, Fragmenter fragmenter, Location nextChunkLocation,
                                                            NetworkAccess network, ProgressConsumer<Long> monitor) {
+        // the trace id is carried to the server in the transaction id of every write of this chunk
+        String traceId = Tracer.newTraceId();
+        long encryptStart = System.currentTimeMillis();
         return chunk.chunk.encrypt().thenCompose(encryptedChunk -> {
+            long fragmentStart = System.currentTimeMillis();
             List<Fragment> fragments = encryptedChunk.generateFragments(fragmenter);
+            network.tracer.record(traceId, "encryption", encryptStart, fragmentStart - encryptStart, false);
+            network.tracer.record(traceId, "erasure_coding", fragmentStart, System.currentTimeMillis() - fragmentStart, false);
             LOG.info(StringUtils.format("Uploading chunk with %d fragments\n", fragments.size()));
             SymmetricKey chunkKey = chunk.chunk.key();
             CipherText encryptedNextChunkLocation = CipherText.build(chunkKey, nextChunkLocation);
-            return Transaction.call(chunk.location.owner, tid -> network
-                            .uploadFragments(fragments, chunk.location.owner, writer, monitor, fragmenter.storageIncreaseFactor(), tid)
-                            .thenCompose(hashes -> {
-                                FileRetriever retriever =
-                                        new EncryptedChunkRetriever(chunk.chunk.nonce(), encryptedChunk.getAuth(),
-                                                hashes, Optional.of(encryptedNextChunkLocation), fragmenter);
-                                FileAccess metaBlob = FileAccess.create(chunk.existingHash, baseKey, SymmetricKey.random(),
-                                        chunkKey, props, retriever, parentLocation, parentparentKey);
-                                return network.uploadChunk(metaBlob, chunk.location.owner,
-                                        chunk.chunk.mapKey(), writer, tid);
-                            }),
+            return Transaction.call(chunk.location.owner, untraced -> {
+                        TransactionId tid = untraced.withTrace(traceId);
+                        return network
+                                .uploadFragments(fragments, chunk.location.owner, writer, monitor, fragmenter.storageIncreaseFactor(), tid)
+                                .thenCompose(hashes -> {
+                                    FileRetriever retriever =
+                                            new EncryptedChunkRetriever(chunk.chunk.nonce(), encryptedChunk.getAuth(),
+                                                    hashes, Optional.of(encryptedNextChunkLocation), fragmenter);
+                                    FileAccess metaBlob = FileAccess.create(chunk.existingHash, baseKey, SymmetricKey.random(),
+                                            chunkKey, props, retriever, parentLocation, parentparentKey);
+                                    return network.traced(tid, "metadata", () -> network.uploadChunk(metaBlob, chunk.location.owner,
+                                            chunk.chunk.mapKey(), writer, tid));
+                                });
+                    },
                     network.dhtClient);
+        }).thenApply(h -> {
+            network.tracer.record(traceId, "chunk", encryptStart, System.currentTimeMillis() - encryptStart, false);
+            return h;
         });
     }
 
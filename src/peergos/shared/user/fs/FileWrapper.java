@@ -9,18 +9,12 @@ import peergos.shared.crypto.hash.*;
 import peergos.shared.crypto.random.*;
 import peergos.shared.crypto.symmetric.*;
 import peergos.shared.io.ipfs.multihash.*;
+import peergos.shared.storage.*;
 import peergos.shared.user.*;
 import peergos.shared.user.fs.cryptree.*;
 import peergos.shared.util.*;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.awt.Graphics2D;
-import java.awt.AlphaComposite;
-import java.awt.RenderingHints;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.StandardOpenOption;
 import java.time.*;
 import java.util.*;
 import java.util.concurrent.*;
@@ -109,6 +103,42 @@ public class FileWrapper {
         });
     }
 
+    /** As getPath, but sharing the retrieved paths of ancestors between calls
+     *
+     * @param network
+     * @param ancestorPaths the paths of directories already retrieved, keyed by their location
+     * @return
+     */
+    public CompletableFuture<String> getPath(NetworkAccess network, Map<Location, CompletableFuture<String>> ancestorPaths) {
+        EncryptedCapability parentLink = pointer.fileAccess.getParentLink();
+        if (parentLink == null)
+            return CompletableFuture.completedFuture("/" + props.name);
+        RelativeCapability parentCap = parentLink.toCapability(getParentKey());
+        Location parentLocation = new Location(pointer.capability.owner, pointer.capability.writer, parentCap.getMapKey());
+        CompletableFuture<String> parentPath;
+        boolean retrieve = false;
+        synchronized (ancestorPaths) {
+            parentPath = ancestorPaths.get(parentLocation);
+            if (parentPath == null) {
+                parentPath = new CompletableFuture<>();
+                ancestorPaths.put(parentLocation, parentPath);
+                retrieve = true;
+            }
+        }
+        if (retrieve) {
+            CompletableFuture<String> toComplete = parentPath;
+            retrieveParent(network).thenCompose(parent -> ! parent.isPresent() || parent.get().isRoot() ?
+                    CompletableFuture.completedFuture("") :
+                    parent.get().getPath(network, ancestorPaths))
+                    .thenAccept(toComplete::complete)
+                    .exceptionally(t -> {
+                        toComplete.completeExceptionally(t);
+                        return null;
+                    });
+        }
+        return parentPath.thenApply(p -> p + "/" + props.name);
+    }
+
     public CompletableFuture<Optional<FileWrapper>> getDescendentByPath(String path, NetworkAccess network) {
         ensureUnmodified();
         if (path.length() == 0)
@@ -125,11 +155,9 @@ public class FileWrapper {
         int slash = path.indexOf("/");
         String prefix = slash > 0 ? path.substring(0, slash) : path;
         String suffix = slash > 0 ? path.substring(slash + 1) : "";
-        return getChildren(network).thenCompose(children -> {
-            for (FileWrapper child : children)
-                if (child.getFileProperties().name.equals(prefix)) {
-                    return child.getDescendentByPath(suffix, network);
-                }
+        return getChild(prefix, network).thenCompose(child -> {
+            if (child.isPresent())
+                return child.get().getDescendentByPath(suffix, network);
             return CompletableFuture.completedFuture(Optional.empty());
         });
     }
@@ -170,31 +198,35 @@ public class FileWrapper {
             // Create new DirAccess, but don't upload it
             DirAccess newDirAccess = DirAccess.create(existing.committedHash(), newSubfoldersKey, props,
                     cap.relativise(parent.writableFilePointer()), newParentKey);
-            // re add children
-
-            List<RelativeCapability> children = existing.getChildren(pointer.capability.rBaseKey);
-            return newDirAccess.addChildrenAndCommit(children, ourNewPointer, network, random)
+            // re add children, re-indexing their names under the new key
+            return getChildren(network).thenCompose(childFiles -> {
+                Map<ByteArrayWrapper, String> childNames = childFiles.stream()
+                        .collect(Collectors.toMap(f -> new ByteArrayWrapper(f.getPointer().capability.getMapKey()),
+                                f -> f.getName(), (a, b) -> a));
+                List<NamedRelativeCapability> children = existing.getChildren(pointer.capability.rBaseKey).stream()
+                        .map(c -> new NamedRelativeCapability(Optional.ofNullable(childNames.get(new ByteArrayWrapper(c.getMapKey()))), c))
+                        .collect(Collectors.toList());
+                return newDirAccess.addChildrenAndCommit(children, ourNewPointer, network, random)
                     .thenCompose(updatedDirAccess -> {
                         RetrievedCapability ourNewRetrievedPointer = new RetrievedCapability(ourNewPointer, updatedDirAccess);
                         FileWrapper theNewUs = new FileWrapper(ourNewRetrievedPointer, ownername);
 
                         // clean all subtree keys except file dataKeys (lazily re-key and re-encrypt them)
-                        return getChildren(network).thenCompose(childFiles -> {
-                            List<CompletableFuture<FileWrapper>> cleanedChildren = childFiles.stream()
-                                    .map(child -> child.makeDirty(network, random, theNewUs))
-                                    .collect(Collectors.toList());
+                        List<CompletableFuture<FileWrapper>> cleanedChildren = childFiles.stream()
+                                .map(child -> child.makeDirty(network, random, theNewUs))
+                                .collect(Collectors.toList());
 
-                            return Futures.combineAll(cleanedChildren);
-                        }).thenCompose(finished ->
+                        return Futures.combineAll(cleanedChildren).thenCompose(finished ->
                                 // update pointer from parent to us
                                 ((DirAccess) parent.pointer.fileAccess)
                                         .updateChildLink((WritableAbsoluteCapability) parent.pointer.capability, this.pointer,
                                                 ourNewRetrievedPointer, network, random)
                                         .thenApply(x -> theNewUs));
-                    }).thenApply(x -> {
-                        setModified();
-                        return x;
                     });
+            }).thenApply(x -> {
+                setModified();
+                return x;
+            });
         } else {
             // create a new rBaseKey == parentKey and mark the metaDataKey as dirty
             SymmetricKey parentKey = SymmetricKey.random();
@@ -213,8 +245,8 @@ public class FileWrapper {
 
     public CompletableFuture<Boolean> hasChildWithName(String name, NetworkAccess network) {
         ensureUnmodified();
-        return getChildren(network)
-                .thenApply(children -> children.stream().anyMatch(c -> c.props.name.equals(name)));
+        return getChild(name, network)
+                .thenApply(Optional::isPresent);
     }
 
     public CompletableFuture<FileWrapper> removeChild(FileWrapper child, NetworkAccess network) {
@@ -239,7 +271,7 @@ public class FileWrapper {
                 return error;
             }
             DirAccess toUpdate = (DirAccess) pointer.fileAccess;
-            return toUpdate.addChildAndCommit(writableFilePointer().relativise(file.writableFilePointer()),
+            return toUpdate.addChildAndCommit(writableFilePointer().relativise(file.writableFilePointer()), name,
                     writableFilePointer(), network, random)
                     .thenApply(dirAccess -> new FileWrapper(this.pointer.withCryptree(dirAccess), ownername));
         });
@@ -357,9 +389,42 @@ public class FileWrapper {
         throw new IllegalStateException("Unreadable FileWrapper!");
     }
 
+    /**
+     *
+     * @param name the name of the child
+     * @param network
+     * @return the child with the given name, only retrieving the children whose name hash matches, if indexed
+     */
     public CompletableFuture<Optional<FileWrapper>> getChild(String name, NetworkAccess network) {
+        return getChildrenWithNames(Collections.singleton(name), network)
+                .thenApply(children -> children.stream().findAny());
+    }
+
+    /**
+     *
+     * @param names the names of the children
+     * @param network
+     * @return the children with any of the given names, only retrieving the children whose name hash matches one of
+     * them, if indexed
+     */
+    public CompletableFuture<Set<FileWrapper>> getChildrenWithNames(Set<String> names, NetworkAccess network) {
+        ensureUnmodified();
+        if (globalRoot.isPresent())
+            return getChildrenByScan(names, network);
+        if (! isReadable())
+            throw new IllegalStateException("Unreadable FileWrapper!");
+        return ((DirAccess) pointer.fileAccess).getChildrenWithNames(names, network, pointer.capability)
+                .thenApply(candidates -> candidates.stream()
+                        .map(x -> new FileWrapper(x, ownername))
+                        .filter(f -> names.contains(f.getName()))
+                        .collect(Collectors.toSet()));
+    }
+
+    private CompletableFuture<Set<FileWrapper>> getChildrenByScan(Set<String> names, NetworkAccess network) {
         return getChildren(network)
-                .thenApply(children -> children.stream().filter(f -> f.getName().equals(name)).findAny());
+                .thenApply(children -> children.stream()
+                        .filter(f -> names.contains(f.getName()))
+                        .collect(Collectors.toSet()));
     }
 
     private CompletableFuture<Set<RetrievedCapability>> retrieveChildren(NetworkAccess network) {
@@ -506,46 +571,210 @@ public class FileWrapper {
                 // TODO if startIndex > 0 prepend with a zero section
                 throw new IllegalStateException("Unimplemented!");
             }
-            SymmetricKey fileWriteKey = SymmetricKey.random();
-            SymmetricKey fileKey = baseKey.orElseGet(SymmetricKey::random);
-            SymmetricKey fileMetaKey = SymmetricKey.random();
-            SymmetricKey rootRKey = pointer.capability.rBaseKey;
-            DirAccess dirAccess = (DirAccess) pointer.fileAccess;
-            SymmetricKey dirParentKey = dirAccess.getParentKey(rootRKey);
-            Location parentLocation = getLocation();
-            int thumbnailSrcImageSize = startIndex == 0 && endIndex < Integer.MAX_VALUE ? (int) endIndex : 0;
-            return generateThumbnail(network, fileData, thumbnailSrcImageSize, filename)
-                    .thenCompose(thumbData -> fileData.reset()
-                            .thenCompose(forMime -> calculateMimeType(forMime, endIndex)
-                                    .thenCompose(mimeType -> fileData.reset().thenCompose(resetReader -> {
-                                        FileProperties fileProps = new FileProperties(filename, mimeType, endIndex,
-                                                LocalDateTime.now(), isHidden, Optional.of(thumbData));
-                                        FileUploader chunks = new FileUploader(filename, mimeType, resetReader,
-                                                startIndex, endIndex, fileKey, fileMetaKey, parentLocation, dirParentKey, monitor, fileProps,
-                                                fragmenter);
-                                        byte[] mapKey = random.randomBytes(32);
-                                        Location nextChunkLocation = new Location(getLocation().owner, getLocation().writer, mapKey);
-                                        SigningPrivateKeyAndPublicHash signer = writableFilePointer().getSigningPair();
-                                        return chunks.upload(network, random, parentLocation.owner, signer, nextChunkLocation)
-                                                .thenCompose(fileLocation -> {
-                                                    WritableAbsoluteCapability fileWriteCap =
-                                                            new WritableAbsoluteCapability(owner(), fileLocation.writer,
-                                                                    fileLocation.getMapKey(), fileKey, fileWriteKey, signer.secret);
-                                                    return addChildPointer(filename, fileWriteCap, network, random, 2);
-                                                });
-                                    }))
-                            )
-                    );
+            return uploadNewFile(filename, fileData, isHidden, endIndex, baseKey, network, random, monitor, fragmenter)
+                    .thenCompose(fileWriteCap -> addChildPointer(filename, fileWriteCap, network, random, 2));
+        });
+    }
+
+    /** Upload a batch of new files to this directory, adding them all to the directory in a single commit.
+     *
+     *  The files' chunks are uploaded concurrently, and their metadata is added to the writer's tree in a single
+     *  update. Existing files are found through the directory's name index, and are overwritten individually
+     *  afterwards.
+     *
+     * @param files the files to upload, which must have distinct names
+     * @param parallelism the maximum number of files to upload concurrently
+     * @return the updated version of this directory
+     */
+    public CompletableFuture<FileWrapper> uploadFiles(List<FileUploadRequest> files,
+                                                      int parallelism,
+                                                      NetworkAccess network,
+                                                      SafeRandom random,
+                                                      ProgressConsumer<Long> monitor,
+                                                      Fragmenter fragmenter) {
+        if (! isDirectory()) {
+            CompletableFuture<FileWrapper> res = new CompletableFuture<>();
+            res.completeExceptionally(new IllegalStateException("Cannot upload a sub file to a file!"));
+            return res;
+        }
+        Set<String> names = new HashSet<>();
+        for (FileUploadRequest file : files) {
+            if (! isLegalName(file.name) || ! names.add(file.name)) {
+                CompletableFuture<FileWrapper> res = new CompletableFuture<>();
+                res.completeExceptionally(new IllegalStateException("Illegal or duplicate filename: " + file.name));
+                return res;
+            }
+        }
+        return getChildrenWithNames(names, network).thenCompose(children -> {
+            Set<String> existingNames = children.stream()
+                    .map(FileWrapper::getName)
+                    .collect(Collectors.toSet());
+            List<FileUploadRequest> newFiles = files.stream()
+                    .filter(f -> ! existingNames.contains(f.name))
+                    .collect(Collectors.toList());
+            List<FileUploadRequest> existingFiles = files.stream()
+                    .filter(f -> existingNames.contains(f.name))
+                    .collect(Collectors.toList());
+
+            // defer the tree updates for the files' chunks so they are all committed together
+            BatchingMutableTree batch = new BatchingMutableTree(network.tree, network.dhtClient);
+            NetworkAccess batched = network.withMutableTree(batch);
+            return Futures.mapAllInOrder(newFiles, parallelism, f -> uploadNewFile(f.name, f.data, false, f.length,
+                    Optional.empty(), batched, random, monitor, fragmenter)
+                    .thenApply(cap -> new NamedRelativeCapability(f.name, writableFilePointer().relativise(cap))))
+                    .thenCompose(caps -> batch.commit().thenCompose(x -> addChildPointers(caps, network, random, 2)))
+                    .thenCompose(updated -> Futures.reduceAll(existingFiles, updated,
+                            (dir, f) -> dir.uploadFileSection(f.name, f.data, 0, f.length, network, random, monitor, fragmenter),
+                            (a, b) -> b));
         });
     }
 
+    /** Upload the chunks of a new file, without adding it to this directory
+     *
+     * @return a writable capability for the new file
+     */
+    private CompletableFuture<WritableAbsoluteCapability> uploadNewFile(String filename,
+                                                                        AsyncReader fileData,
+                                                                        boolean isHidden,
+                                                                        long endIndex,
+                                                                        Optional<SymmetricKey> baseKey,
+                                                                        NetworkAccess network,
+                                                                        SafeRandom random,
+                                                                        ProgressConsumer<Long> monitor,
+                                                                        Fragmenter fragmenter) {
+        SymmetricKey fileWriteKey = SymmetricKey.random();
+        SymmetricKey fileKey = baseKey.orElseGet(SymmetricKey::random);
+        SymmetricKey fileMetaKey = SymmetricKey.random();
+        SymmetricKey rootRKey = pointer.capability.rBaseKey;
+        DirAccess dirAccess = (DirAccess) pointer.fileAccess;
+        SymmetricKey dirParentKey = dirAccess.getParentKey(rootRKey);
+        Location parentLocation = getLocation();
+        // Read the first chunk once, and derive the mime type and thumbnail from it before it is uploaded, so
+        // the source is only read once and memory use is bounded by the chunk size
+        byte[] firstChunk = new byte[(int) Math.min(endIndex, Chunk.MAX_SIZE)];
+        return fileData.reset()
+                .thenCompose(reader -> reader.readIntoArray(firstChunk, 0, firstChunk.length))
+                .thenCompose(read -> {
+                    String mimeType = MimeTypes.calculateMimeType(Arrays.copyOfRange(firstChunk, 0,
+                            Math.min(firstChunk.length, MimeTypes.HEADER_BYTES_TO_IDENTIFY_MIME_TYPE)));
+                    return generateThumbnail(network, firstChunk, endIndex, mimeType, filename).thenCompose(thumbData -> {
+                        FileProperties fileProps = new FileProperties(filename, mimeType, endIndex,
+                                LocalDateTime.now(), isHidden, Optional.of(thumbData));
+                        FileUploader chunks = new FileUploader(filename, mimeType, fileData, Optional.of(firstChunk),
+                                0, endIndex, fileKey, fileMetaKey, parentLocation, dirParentKey, monitor, fileProps,
+                                fragmenter);
+                        byte[] mapKey = random.randomBytes(32);
+                        Location nextChunkLocation = new Location(getLocation().owner, getLocation().writer, mapKey);
+                        SigningPrivateKeyAndPublicHash signer = writableFilePointer().getSigningPair();
+                        return chunks.upload(network, random, parentLocation.owner, signer, nextChunkLocation)
+                                .thenApply(fileLocation -> new WritableAbsoluteCapability(owner(), fileLocation.writer,
+                                        fileLocation.getMapKey(), fileKey, fileWriteKey, signer.secret));
+                    });
+                });
+    }
+
+    /** Add links to many new children in a single commit, reloading this directory and retrying if it has been
+     * modified concurrently. On a retry, children whose name has since been taken are renamed, like a single upload.
+     *
+     */
+    private CompletableFuture<FileWrapper> addChildPointers(List<NamedRelativeCapability> children,
+                                                            NetworkAccess network,
+                                                            SafeRandom random,
+                                                            int retries) {
+        if (children.isEmpty())
+            return CompletableFuture.completedFuture(this);
+        CompletableFuture<FileWrapper> result = new CompletableFuture<>();
+        ((DirAccess) pointer.fileAccess).addChildrenAndCommit(children, writableFilePointer(), network, random)
+                .thenAccept(updated -> {
+                    setModified();
+                    result.complete(this.withCryptreeNode(updated));
+                }).exceptionally(e -> {
+                    boolean isCas = e instanceof MutableTree.CasException || e.getCause() instanceof MutableTree.CasException;
+                    if (! isCas || retries <= 0) {
+                        result.completeExceptionally(e);
+                        return null;
+                    }
+                    network.getMetadata(getLocation())
+                            .thenCompose(opt -> {
+                                FileWrapper us = new FileWrapper(globalRoot, new RetrievedCapability(pointer.capability, opt.get()), ownername);
+                                return us.renameClashingChildren(children, network)
+                                        .thenCompose(renamed -> us.addChildPointers(renamed, network, random, retries - 1));
+                            })
+                            .thenAccept(result::complete)
+                            .exceptionally(e2 -> {
+                                result.completeExceptionally(e2);
+                                return null;
+                            });
+                    return null;
+                });
+        return result;
+    }
+
+    /** Rename any of the new children, whose chunks are already uploaded, that have the name of an existing child
+     *
+     * @return the children with their final names
+     */
+    private CompletableFuture<List<NamedRelativeCapability>> renameClashingChildren(List<NamedRelativeCapability> children,
+                                                                                    NetworkAccess network) {
+        Set<String> names = children.stream()
+                .flatMap(c -> c.name.map(Stream::of).orElseGet(Stream::empty))
+                .collect(Collectors.toSet());
+        return getChildrenWithNames(names, network).thenCompose(existing -> {
+            if (existing.isEmpty())
+                return CompletableFuture.completedFuture(children);
+            Set<String> clashing = existing.stream()
+                    .map(FileWrapper::getName)
+                    .collect(Collectors.toSet());
+            return safeReplacementFilenames(clashing, names, network)
+                    .thenCompose(replacements -> Futures.combineAllInOrder(children.stream()
+                            .map(c -> c.name.isPresent() && replacements.containsKey(c.name.get()) ?
+                                    renameUploadedChild(c, replacements.get(c.name.get()), network) :
+                                    CompletableFuture.completedFuture(c))
+                            .collect(Collectors.toList())));
+        });
+    }
+
+    /**
+     *
+     * @param taken the names which can't be used, other than those of existing children
+     * @return a new name for each of the given names, none of which is taken or the name of a child of this directory
+     */
+    private CompletableFuture<Map<String, String>> safeReplacementFilenames(Set<String> toReplace,
+                                                                           Set<String> taken,
+                                                                           NetworkAccess network) {
+        Set<String> used = new HashSet<>(taken);
+        Map<String, String> replacements = new HashMap<>();
+        for (String name : toReplace) {
+            String safeName = nextSafeReplacementFilename(name, used);
+            used.add(safeName);
+            replacements.put(name, safeName);
+        }
+        return getChildrenWithNames(new HashSet<>(replacements.values()), network).thenCompose(existing -> {
+            if (existing.isEmpty())
+                return CompletableFuture.completedFuture(replacements);
+            Set<String> moreTaken = new HashSet<>(taken);
+            existing.forEach(f -> moreTaken.add(f.getName()));
+            return safeReplacementFilenames(toReplace, moreTaken, network);
+        });
+    }
+
+    private CompletableFuture<NamedRelativeCapability> renameUploadedChild(NamedRelativeCapability child,
+                                                                           String safeName,
+                                                                           NetworkAccess network) {
+        AbsoluteCapability cap = child.cap.toAbsolute(writableFilePointer());
+        return network.getMetadata(cap.getLocation())
+                .thenCompose(opt -> new FileWrapper(Optional.empty(), new RetrievedCapability(cap, opt.get()), ownername)
+                        .rename(safeName, network, this))
+                .thenApply(x -> new NamedRelativeCapability(safeName, child.cap));
+    }
+
     private CompletableFuture<FileWrapper> addChildPointer(String filename,
                                                            WritableAbsoluteCapability childPointer,
                                                            NetworkAccess network,
                                                            SafeRandom random,
                                                            int retries) {
         CompletableFuture<FileWrapper> result = new CompletableFuture<>();
-        ((DirAccess) pointer.fileAccess).addChildAndCommit(writableFilePointer().relativise(childPointer),
+        ((DirAccess) pointer.fileAccess).addChildAndCommit(writableFilePointer().relativise(childPointer), filename,
                 writableFilePointer(), network, random)
                 .thenAccept(uploadResult -> {
                     setModified();
@@ -580,7 +809,7 @@ public class FileWrapper {
                                     updatedChildPointer, ownername);
                             return toRename.rename(safeName, network, us).thenCompose(usAgain ->
                                     ((DirAccess) usAgain.pointer.fileAccess)
-                                            .addChildAndCommit(writableFilePointer().relativise(childPointer), writableFilePointer(), network, random)
+                                            .addChildAndCommit(writableFilePointer().relativise(childPointer), safeName, writableFilePointer(), network, random)
                                             .thenAccept(uploadResult -> {
                                                 setModified();
                                                 result.complete(this.withCryptreeNode(uploadResult));
@@ -808,8 +1037,7 @@ public class FileWrapper {
                         FileProperties newProps = new FileProperties(newFilename, currentProps.mimeType, currentProps.size,
                                 currentProps.modified, currentProps.isHidden, currentProps.thumbnail);
 
-                        return fileAccess.updateProperties(writableFilePointer(), newProps, network)
-                                .thenApply(fa -> res);
+                        return commitProperties(newProps, ! newFilename.equals(currentProps.name), res, network);
                     });
                 });
     }
@@ -823,23 +1051,73 @@ public class FileWrapper {
             return result;
         }
         return (parent == null ?
-                CompletableFuture.completedFuture(false) :
-                parent.hasChildWithName(newName, network))
-                .thenCompose(hasChild -> {
-                    if (hasChild && parent != null && !parent.getChildrenLocations().stream()
-                            .map(l -> new ByteArrayWrapper(l.getMapKey()))
-                            .collect(Collectors.toSet())
-                            .contains(new ByteArrayWrapper(pointer.capability.getMapKey()))) {
+                CompletableFuture.completedFuture(Optional.<FileWrapper>empty()) :
+                parent.getChild(newName, network))
+                .thenCompose(existing -> {
+                    if (existing.isPresent() && ! Arrays.equals(existing.get().pointer.capability.getMapKey(),
+                            pointer.capability.getMapKey())) {
                         result.completeExceptionally(new IllegalStateException("Cannot rename to same name as an existing file"));
                         return result;
                     }
-                    CryptreeNode fileAccess = pointer.fileAccess;
+                    return commitProperties(updatedProperties, ! newName.equals(props.name), parent, network)
+                            .thenApply(x -> true);
+                });
+    }
 
-                    return fileAccess.updateProperties(writableFilePointer(), updatedProperties, network)
-                            .thenApply(fa -> true);
+    /** Commit new properties for this file. If it has been renamed, its entry in the parent's name index is updated in
+     * the same commit, or straight afterwards if the parent has a different writer. Renaming requires a writable parent,
+     * because lookups trust the index.
+     *
+     * @return the updated parent
+     */
+    private CompletableFuture<FileWrapper> commitProperties(FileProperties newProps,
+                                                            boolean renamed,
+                                                            FileWrapper parent,
+                                                            NetworkAccess network) {
+        WritableAbsoluteCapability us = writableFilePointer();
+        CryptreeNode updated = pointer.fileAccess.withProperties(us, newProps);
+        if (! renamed)
+            return Transaction.call(us.owner,
+                    tid -> network.uploadChunk(updated, us.owner, us.getMapKey(), us.signer(), tid),
+                    network.dhtClient)
+                    .thenApply(h -> parent);
+        if (parent == null || ! parent.isWritable())
+            return Futures.errored(new IllegalStateException("Cannot rename without a writable parent!"));
+
+        WritableAbsoluteCapability parentCap = parent.writableFilePointer();
+        String oldName = props.name;
+        return ((DirAccess) parent.pointer.fileAccess).withChildName(parentCap, us.getMapKey(), oldName, newProps.name, network)
+                .thenCompose(blobs -> {
+                    List<Pair<byte[], CryptreeNode>> chunks = new ArrayList<>();
+                    chunks.add(new Pair<>(us.getMapKey(), updated));
+                    blobs.forEach(blob -> chunks.add(new Pair<>(blob.left.getMapKey(), blob.right)));
+                    if (parentCap.writer.equals(us.writer))
+                        return Transaction.call(us.owner,
+                                tid -> network.uploadChunks(chunks, us.owner, us.signer(), tid),
+                                network.dhtClient)
+                                .thenApply(hashes -> withUpdatedFirstBlob(parent, blobs,
+                                        i -> ((DirAccess) blobs.get(i).right).withHash(hashes.get(i + 1))));
+                    return Transaction.call(us.owner,
+                            tid -> network.uploadChunk(updated, us.owner, us.getMapKey(), us.signer(), tid),
+                            network.dhtClient)
+                            .thenCompose(h -> Futures.combineAllInOrder(blobs.stream()
+                                    .map(blob -> Transaction.call(us.owner,
+                                            tid -> blob.right.commit(blob.left, network, tid),
+                                            network.dhtClient))
+                                    .collect(Collectors.toList())))
+                            .thenApply(committed -> withUpdatedFirstBlob(parent, blobs, i -> committed.get(i)));
                 });
     }
 
+    private static FileWrapper withUpdatedFirstBlob(FileWrapper parent,
+                                                    List<Pair<WritableAbsoluteCapability, DirAccess>> blobs,
+                                                    Function<Integer, DirAccess> committed) {
+        for (int i=0; i < blobs.size(); i++)
+            if (Arrays.equals(blobs.get(i).left.getMapKey(), parent.pointer.capability.getMapKey()))
+                return parent.withCryptreeNode(committed.apply(i));
+        return parent;
+    }
+
     private WritableAbsoluteCapability writableFilePointer() {
         if (! isWritable())
             throw new IllegalStateException("File is not writable!");
@@ -980,114 +1258,51 @@ public class FileWrapper {
     }
 
     public static byte[] generateThumbnail(byte[] imageBlob) {
-        try {
-            BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageBlob));
-            BufferedImage thumbnailImage = new BufferedImage(THUMBNAIL_SIZE, THUMBNAIL_SIZE, image.getType());
-            Graphics2D g = thumbnailImage.createGraphics();
-            g.setComposite(AlphaComposite.Src);
-            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            g.drawImage(image, 0, 0, THUMBNAIL_SIZE, THUMBNAIL_SIZE, null);
-            g.dispose();
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(thumbnailImage, "JPG", baos);
-            baos.close();
-            return baos.toByteArray();
-        } catch (IOException ioe) {
-            LOG.log(Level.WARNING, ioe.getMessage(), ioe);
-        }
-        return new byte[0];
+        return ThumbnailGenerator.generateImageThumbnail(imageBlob, THUMBNAIL_SIZE);
     }
 
     public static byte[] generateVideoThumbnail(byte[] videoBlob) {
-        File tempFile = null;
-        try {
-            tempFile = File.createTempFile(UUID.randomUUID().toString(), ".mp4");
-            Files.write(tempFile.toPath(), videoBlob, StandardOpenOption.WRITE);
-            return VideoThumbnail.create(tempFile.getAbsolutePath(), THUMBNAIL_SIZE, THUMBNAIL_SIZE);
-        } catch (IOException ioe) {
-            LOG.log(Level.WARNING, ioe.getMessage(), ioe);
-        } finally {
-            if(tempFile != null) {
-                try {
-                    Files.delete(tempFile.toPath());
-                }catch(IOException ioe){
+        return ThumbnailGenerator.generateVideoThumbnail(videoBlob, THUMBNAIL_SIZE);
+    }
 
+    /** Generate a thumbnail from the start of a file, without reading any further into the file
+     *
+     * @param start the first chunk of the file, or all of it if it is smaller
+     * @param fileSize the size of the whole file
+     * @return the thumbnail, or an empty array if there isn't one
+     */
+    private CompletableFuture<byte[]> generateThumbnail(NetworkAccess network,
+                                                        byte[] start,
+                                                        long fileSize,
+                                                        String mimeType,
+                                                        String filename) {
+        if (fileSize <= MimeTypes.HEADER_BYTES_TO_IDENTIFY_MIME_TYPE)
+            return CompletableFuture.completedFuture(new byte[0]);
+        try {
+            if (mimeType.startsWith("image")) {
+                if (network.isJavascript())
+                    return thumbnail.generateThumbnail(new AsyncReader.ArrayBacked(start), start.length, filename)
+                            .thenApply(base64Str -> Base64.getDecoder().decode(base64Str));
+                return ThumbnailGenerator.generateImage(start, THUMBNAIL_SIZE);
+            } else if (mimeType.startsWith("video")) {
+                if (network.isJavascript())
+                    return thumbnail.generateVideoThumbnail(new AsyncReader.ArrayBacked(start), start.length, filename)
+                            .thenApply(base64Str -> Base64.getDecoder().decode(base64Str));
+                return ThumbnailGenerator.generateVideo(start, THUMBNAIL_SIZE);
+            } else if (mimeType.startsWith("audio/mpeg")) {
+                Mp3CoverImage mp3CoverImage = Mp3CoverImage.extractCoverArt(start);
+                if (network.isJavascript()) {
+                    AsyncReader.ArrayBacked imageBlob = new AsyncReader.ArrayBacked(mp3CoverImage.imageData);
+                    return thumbnail.generateThumbnail(imageBlob, mp3CoverImage.imageData.length, filename)
+                            .thenApply(base64Str -> Base64.getDecoder().decode(base64Str));
                 }
+                return ThumbnailGenerator.generateImage(mp3CoverImage.imageData, THUMBNAIL_SIZE);
             }
+        } catch (Exception e) {
+            // The start of the file might not contain enough to make a thumbnail, e.g. a large ID3 tag
+            LOG.log(Level.WARNING, e.getMessage(), e);
         }
-        return new byte[0];
-    }
-
-    private CompletableFuture<byte[]> generateThumbnail(NetworkAccess network, AsyncReader fileData, int fileSize, String filename) {
-        CompletableFuture<byte[]> fut = new CompletableFuture<>();
-        if (fileSize > MimeTypes.HEADER_BYTES_TO_IDENTIFY_MIME_TYPE) {
-            getFileType(fileData).thenAccept(mimeType -> {
-                if (mimeType.startsWith("image")) {
-                    if (network.isJavascript()) {
-                        thumbnail.generateThumbnail(fileData, fileSize, filename).thenAccept(base64Str -> {
-                            byte[] bytesOfData = Base64.getDecoder().decode(base64Str);
-                            fut.complete(bytesOfData);
-                        });
-                    } else {
-                        byte[] bytes = new byte[fileSize];
-                        fileData.readIntoArray(bytes, 0, fileSize).thenAccept(data -> {
-                            fut.complete(generateThumbnail(bytes));
-                        });
-                    }
-                } else if (mimeType.startsWith("video")) {
-                    if (network.isJavascript()) {
-                        thumbnail.generateVideoThumbnail(fileData, fileSize, filename).thenAccept(base64Str -> {
-                            byte[] bytesOfData = Base64.getDecoder().decode(base64Str);
-                            fut.complete(bytesOfData);
-                        });
-                    } else {
-                        byte[] bytes = new byte[fileSize];
-                        fileData.readIntoArray(bytes, 0, fileSize).thenAccept(data -> {
-                            fut.complete(generateVideoThumbnail(bytes));
-                        });
-                    }
-                } else if (mimeType.startsWith("audio/mpeg")) {
-                    byte[] mp3Data = new byte[fileSize];
-                    fileData.readIntoArray(mp3Data, 0, fileSize).thenAccept(read -> {
-                        Mp3CoverImage mp3CoverImage = Mp3CoverImage.extractCoverArt(mp3Data);
-                        if (network.isJavascript()) {
-                            AsyncReader.ArrayBacked imageBlob = new AsyncReader.ArrayBacked(mp3CoverImage.imageData);
-                            thumbnail.generateThumbnail(imageBlob, mp3CoverImage.imageData.length, filename)
-                                    .thenAccept(base64Str -> {
-                                        byte[] bytesOfData = Base64.getDecoder().decode(base64Str);
-                                        fut.complete(bytesOfData);
-                                    });
-                        } else {
-                            fut.complete(generateThumbnail(mp3CoverImage.imageData));
-                        }
-                    });
-                } else {
-                    fut.complete(new byte[0]);
-                }
-            });
-        } else {
-            fut.complete(new byte[0]);
-        }
-        return fut;
-    }
-
-    private CompletableFuture<String> getFileType(AsyncReader imageBlob) {
-        CompletableFuture<String> result = new CompletableFuture<>();
-        byte[] data = new byte[MimeTypes.HEADER_BYTES_TO_IDENTIFY_MIME_TYPE];
-        imageBlob.readIntoArray(data, 0, data.length).thenAccept(numBytesRead -> {
-            imageBlob.reset().thenAccept(resetResult -> {
-                if (numBytesRead < data.length) {
-                    result.complete("");
-                } else {
-                    String mimeType = MimeTypes.calculateMimeType(data);
-                    result.complete(mimeType);
-                }
-            });
-        });
-        return result;
+        return CompletableFuture.completedFuture(new byte[0]);
     }
 
     public static CompletableFuture<String> calculateMimeType(AsyncReader data, long fileSize) {
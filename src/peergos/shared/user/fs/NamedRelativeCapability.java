@@ -0,0 +1,21 @@
+package peergos.shared.user.fs;
+
+import java.util.*;
+
+/** A link to a child of a directory together with the child's name, if known.
+ *
+ *  The name is only used to maintain the directory's encrypted name index, it is never stored in the clear.
+ */
+public class NamedRelativeCapability {
+    public final Optional<String> name;
+    public final RelativeCapability cap;
+
+    public NamedRelativeCapability(Optional<String> name, RelativeCapability cap) {
+        this.name = name;
+        this.cap = cap;
+    }
+
+    public NamedRelativeCapability(String name, RelativeCapability cap) {
+        this(Optional.of(name), cap);
+    }
+}
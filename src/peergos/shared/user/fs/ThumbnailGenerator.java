@@ -0,0 +1,258 @@
+package peergos.shared.user.fs;
+import java.util.logging.*;
+
+import javax.imageio.*;
+import javax.imageio.stream.*;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Generates thumbnails in Java without decoding more of the source image than is needed.
+ *
+ *  JPEGs with an embedded EXIF thumbnail use that. Other images are decoded with source subsampling, so a large photo
+ *  is decoded at a resolution just above the thumbnail size. At most MAX_CONCURRENT thumbnails are generated at once,
+ *  which bounds the memory used by bulk uploads. Later requests are queued without blocking the caller, and each one
+ *  that finishes starts the next. The shared code is also compiled to Javascript, so this uses no Java thread pools or
+ *  locks beyond synchronized.
+ */
+public class ThumbnailGenerator {
+	private static final Logger LOG = Logger.getGlobal();
+
+    public static final int MAX_CONCURRENT = 2;
+    private static final Queue<Runnable> waiting = new LinkedList<>();
+    private static int running = 0;
+
+    /**
+     *
+     * @param imageBlob the encoded image
+     * @param size the width and height of the thumbnail
+     * @return a future of the thumbnail as a JPEG, or an empty array if one couldn't be generated
+     */
+    public static CompletableFuture<byte[]> generateImage(byte[] imageBlob, int size) {
+        return limit(() -> generateImageThumbnail(imageBlob, size));
+    }
+
+    /**
+     *
+     * @param videoBlob the video, or the start of it
+     * @param size the width and height of the thumbnail
+     * @return a future of the thumbnail as a PNG, or an empty array if one couldn't be generated
+     */
+    public static CompletableFuture<byte[]> generateVideo(byte[] videoBlob, int size) {
+        return limit(() -> generateVideoThumbnail(videoBlob, size));
+    }
+
+    private static CompletableFuture<byte[]> limit(Supplier<byte[]> generator) {
+        CompletableFuture<byte[]> res = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                res.complete(generator.get());
+            } catch (Throwable t) {
+                LOG.log(Level.WARNING, t.getMessage(), t);
+                res.complete(new byte[0]);
+            }
+        };
+        synchronized (waiting) {
+            if (running >= MAX_CONCURRENT) {
+                waiting.add(task);
+                return res;
+            }
+            running++;
+        }
+        runAndRelease(task);
+        return res;
+    }
+
+    /** Run a task holding a permit, then hand the permit to the next queued task, if any, else release it. This loops
+     *  rather than recursing so a long queue doesn't grow the stack.
+     */
+    private static void runAndRelease(Runnable task) {
+        Runnable next = task;
+        while (next != null) {
+            next.run();
+            synchronized (waiting) {
+                next = waiting.poll();
+                if (next == null)
+                    running--;
+            }
+        }
+    }
+
+    public static byte[] generateImageThumbnail(byte[] imageBlob, int size) {
+        try {
+            BufferedImage image = readEmbeddedThumbnail(imageBlob, size)
+                    .orElseGet(() -> readSubsampled(imageBlob, size));
+            if (image == null)
+                return new byte[0];
+            BufferedImage thumbnailImage = new BufferedImage(size, size, image.getType());
+            Graphics2D g = thumbnailImage.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.drawImage(image, 0, 0, size, size, null);
+            g.dispose();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write(thumbnailImage, "JPG", baos);
+            baos.close();
+            return baos.toByteArray();
+        } catch (IOException ioe) {
+            LOG.log(Level.WARNING, ioe.getMessage(), ioe);
+        }
+        return new byte[0];
+    }
+
+    public static byte[] generateVideoThumbnail(byte[] videoBlob, int size) {
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(UUID.randomUUID().toString(), ".mp4");
+            Files.write(tempFile.toPath(), videoBlob, StandardOpenOption.WRITE);
+            return VideoThumbnail.create(tempFile.getAbsolutePath(), size, size);
+        } catch (IOException ioe) {
+            LOG.log(Level.WARNING, ioe.getMessage(), ioe);
+        } finally {
+            if(tempFile != null) {
+                try {
+                    Files.delete(tempFile.toPath());
+                }catch(IOException ioe){
+
+                }
+            }
+        }
+        return new byte[0];
+    }
+
+    /** Decode only every nth pixel in each direction, where n is as large as possible while still leaving at least
+     * size pixels in each direction.
+     *
+     * @return the decoded image, or null if there is no reader for its format
+     */
+    private static BufferedImage readSubsampled(byte[] imageBlob, int size) {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBlob))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (! readers.hasNext())
+                return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int period = Math.max(1, Math.min(width / size, height / size));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(period, period, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @return the thumbnail in the EXIF data of a JPEG, if it has one at least size pixels in each direction
+     */
+    private static Optional<BufferedImage> readEmbeddedThumbnail(byte[] imageBlob, int size) {
+        Optional<byte[]> embedded = findExifThumbnail(imageBlob);
+        if (! embedded.isPresent())
+            return Optional.empty();
+        try {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(embedded.get()));
+            if (image == null || image.getWidth() < size || image.getHeight() < size)
+                return Optional.empty();
+            return Optional.of(image);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /** Find the JPEG thumbnail in the first IFD of the EXIF APP1 segment of a JPEG, without decoding the image
+     *
+     */
+    static Optional<byte[]> findExifThumbnail(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != 0xD8)
+            return Optional.empty();
+        int index = 2;
+        while (index + 4 <= jpeg.length && (jpeg[index] & 0xff) == 0xFF) {
+            int marker = jpeg[index + 1] & 0xff;
+            if (marker == 0xDA || marker == 0xD9) // start of scan or end of image
+                return Optional.empty();
+            int segmentLength = ((jpeg[index + 2] & 0xff) << 8) | (jpeg[index + 3] & 0xff);
+            int segmentStart = index + 4;
+            int segmentEnd = index + 2 + segmentLength;
+            if (segmentLength < 2 || segmentEnd > jpeg.length)
+                return Optional.empty();
+            if (marker == 0xE1 && segmentLength >= 8 && isExifHeader(jpeg, segmentStart))
+                return findTiffThumbnail(jpeg, segmentStart + 6, segmentEnd);
+            index = segmentEnd;
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isExifHeader(byte[] data, int offset) {
+        return data[offset] == 'E' && data[offset + 1] == 'x' && data[offset + 2] == 'i' && data[offset + 3] == 'f'
+                && data[offset + 4] == 0 && data[offset + 5] == 0;
+    }
+
+    private static Optional<byte[]> findTiffThumbnail(byte[] data, int tiffStart, int tiffEnd) {
+        if (tiffStart + 8 > tiffEnd)
+            return Optional.empty();
+        boolean littleEndian;
+        if (data[tiffStart] == 'I' && data[tiffStart + 1] == 'I')
+            littleEndian = true;
+        else if (data[tiffStart] == 'M' && data[tiffStart + 1] == 'M')
+            littleEndian = false;
+        else
+            return Optional.empty();
+        // offsets are unsigned 32 bit values, so check them as longs before using them as array indices
+        long ifd0 = readInt(data, tiffStart + 4, littleEndian);
+        if (ifd0 < 8 || tiffStart + ifd0 + 2 > tiffEnd)
+            return Optional.empty();
+        int ifd0Start = tiffStart + (int) ifd0;
+        int ifd0Entries = readShort(data, ifd0Start, littleEndian);
+        int nextIfdOffset = ifd0Start + 2 + 12 * ifd0Entries;
+        if (nextIfdOffset + 4 > tiffEnd)
+            return Optional.empty();
+        long ifd1 = readInt(data, nextIfdOffset, littleEndian);
+        if (ifd1 < 8 || tiffStart + ifd1 + 2 > tiffEnd)
+            return Optional.empty();
+        int ifd1Start = tiffStart + (int) ifd1;
+        int ifd1Entries = readShort(data, ifd1Start, littleEndian);
+        long thumbOffset = -1, thumbLength = -1;
+        for (int i = 0; i < ifd1Entries; i++) {
+            int entry = ifd1Start + 2 + 12 * i;
+            if (entry + 12 > tiffEnd)
+                return Optional.empty();
+            int tag = readShort(data, entry, littleEndian);
+            if (tag == 0x0201) // JPEGInterchangeFormat
+                thumbOffset = readInt(data, entry + 8, littleEndian);
+            else if (tag == 0x0202) // JPEGInterchangeFormatLength
+                thumbLength = readInt(data, entry + 8, littleEndian);
+        }
+        if (thumbOffset <= 0 || thumbLength <= 0 || tiffStart + thumbOffset + thumbLength > tiffEnd)
+            return Optional.empty();
+        int thumbStart = tiffStart + (int) thumbOffset;
+        return Optional.of(Arrays.copyOfRange(data, thumbStart, thumbStart + (int) thumbLength));
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int a = data[offset] & 0xff, b = data[offset + 1] & 0xff;
+        return littleEndian ? (b << 8) | a : (a << 8) | b;
+    }
+
+    private static long readInt(byte[] data, int offset, boolean littleEndian) {
+        long res = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = data[offset + (littleEndian ? 3 - i : i)] & 0xff;
+            res = (res << 8) | b;
+        }
+        return res;
+    }
+}
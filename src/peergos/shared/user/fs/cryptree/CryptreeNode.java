@@ -35,6 +35,14 @@ public interface CryptreeNode extends Cborable {
 
     FileProperties getProperties(SymmetricKey parentKey);
 
+    /**
+     *
+     * @param us
+     * @param newProps
+     * @return this node with the new properties, without committing it
+     */
+    CryptreeNode withProperties(WritableAbsoluteCapability us, FileProperties newProps);
+
     CompletableFuture<? extends CryptreeNode> updateProperties(WritableAbsoluteCapability us,
                                                                FileProperties newProps,
                                                                NetworkAccess network);
@@ -4,8 +4,8 @@ import jsinterop.annotations.*;
 
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.function.*;
-import java.util.stream.*;
 
 public class Futures {
 
@@ -16,13 +16,7 @@ public class Futures {
      * @return
      */
     public static <T> CompletableFuture<Set<T>> combineAll(Collection<CompletableFuture<T>> futures) {
-        CompletableFuture<Set<T>> identity = CompletableFuture.completedFuture(Collections.emptySet());
-        return futures.stream().reduce(identity,
-                (a, b) -> b.thenCompose(opt ->
-                        a.thenApply(set -> Stream.concat(set.stream(), Stream.of(opt))
-                                .collect(Collectors.toSet()))),
-                (a, b) -> b.thenCompose(setb ->
-                        a.thenApply(seta -> Stream.concat(seta.stream(), setb.stream()).collect(Collectors.toSet()))));
+        return combineAllInOrder(futures).thenApply(HashSet::new);
     }
 
     /**
@@ -32,13 +26,14 @@ public class Futures {
      * @return
      */
     public static <T> CompletableFuture<List<T>> combineAllInOrder(Collection<CompletableFuture<T>> futures) {
-        CompletableFuture<List<T>> identity = CompletableFuture.completedFuture(Collections.emptyList());
-        return futures.stream().reduce(identity,
-                (a, b) -> b.thenCompose(opt ->
-                        a.thenApply(set -> Stream.concat(set.stream(), Stream.of(opt))
-                                .collect(Collectors.toList()))),
-                (a, b) -> b.thenCompose(setb ->
-                        a.thenApply(seta -> Stream.concat(seta.stream(), setb.stream()).collect(Collectors.toList()))));
+        // accumulate into a single list rather than copying the partial result for every future
+        CompletableFuture<List<T>> all = CompletableFuture.completedFuture(new ArrayList<>(futures.size()));
+        for (CompletableFuture<T> future : futures)
+            all = all.thenCompose(results -> future.thenApply(res -> {
+                results.add(res);
+                return results;
+            }));
+        return all;
     }
 
     /*** Reduce a set of input values against an Identity where the composition step is asynchronous
@@ -63,6 +58,90 @@ public class Futures {
         );
     }
 
+    /** Apply an asynchronous mapping to each input value, with at most parallelism mappings outstanding at once
+     *
+     * @param input the values to map
+     * @param parallelism the maximum number of concurrent mappings
+     * @param mapper
+     * @param <V> input type
+     * @param <T> result type
+     * @return the results in the same order as the input, or the first error
+     */
+    public static <V, T> CompletableFuture<List<T>> mapAllInOrder(List<V> input,
+                                                                 int parallelism,
+                                                                 Function<V, CompletableFuture<T>> mapper) {
+        if (input.isEmpty())
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        List<T> results = new ArrayList<>(Collections.nCopies(input.size(), null));
+        CompletableFuture<List<T>> all = new CompletableFuture<>();
+        AtomicLong started = new AtomicLong(0);
+        AtomicLong finished = new AtomicLong(0);
+        for (int i = 0; i < Math.min(parallelism, input.size()); i++)
+            mapNext(input, mapper, results, started, finished, all);
+        return all;
+    }
+
+    /** Start mappings until one has to be waited for. A mapping which is already complete when we attach to it lets
+     * the loop carry on, rather than recursing, so the stack doesn't grow with the number of inputs.
+     */
+    private static <V, T> void mapNext(List<V> input,
+                                       Function<V, CompletableFuture<T>> mapper,
+                                       List<T> results,
+                                       AtomicLong started,
+                                       AtomicLong finished,
+                                       CompletableFuture<List<T>> all) {
+        while (true) {
+            int index = (int) started.incrementAndGet() - 1;
+            if (index >= input.size() || all.isDone())
+                return;
+            CompletableFuture<T> mapped;
+            try {
+                mapped = mapper.apply(input.get(index));
+            } catch (Throwable t) {
+                mapped = errored(t);
+            }
+            Step step = new Step();
+            mapped.thenAccept(res -> {
+                results.set(index, res);
+                if (finished.incrementAndGet() == input.size())
+                    all.complete(results);
+                else if (! step.continueInLoop())
+                    mapNext(input, mapper, results, started, finished, all);
+            }).exceptionally(t -> {
+                all.completeExceptionally(t);
+                return null;
+            });
+            if (! step.loopMovesOn())
+                return;
+        }
+    }
+
+    /** Hands the next mapping from a completed one back to the loop which started it, if that loop is still running
+     */
+    private static class Step {
+        private boolean inLoop = true, completedInLoop = false;
+
+        /**
+         *
+         * @return true if the loop is still running and will start the next mapping
+         */
+        public synchronized boolean continueInLoop() {
+            if (! inLoop)
+                return false;
+            completedInLoop = true;
+            return true;
+        }
+
+        /**
+         *
+         * @return true if the mapping has already completed, so the loop should start the next one
+         */
+        public synchronized boolean loopMovesOn() {
+            inLoop = false;
+            return completedInLoop;
+        }
+    }
+
     public static <T> T logError(Throwable t) {
         t.printStackTrace();
         throw new RuntimeException(t.getMessage(), t);
@@ -0,0 +1,46 @@
+package peergos.shared.util;
+
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/** Records timed spans of work against a trace id, so the latency of one operation can be attributed to each of its
+ *  steps, on both the client and the server.
+ *
+ *  There is no implicit trace context in shared code (it must also run in the browser), so the trace id is passed
+ *  explicitly, usually inside the TransactionId of a write.
+ */
+public interface Tracer {
+
+    String HEADER = "X-Peergos-Trace";
+
+    /**
+     *
+     * @param traceId
+     * @param span the name of the step
+     * @param startMillis
+     * @param durationMillis
+     * @param failed
+     */
+    void record(String traceId, String span, long startMillis, long durationMillis, boolean failed);
+
+    default <T> CompletableFuture<T> span(String traceId, String name, Supplier<CompletableFuture<T>> work) {
+        if (this == NONE)
+            return work.get();
+        long start = System.currentTimeMillis();
+        CompletableFuture<T> res = new CompletableFuture<>();
+        work.get().thenApply(r -> {
+            record(traceId, name, start, System.currentTimeMillis() - start, false);
+            return res.complete(r);
+        }).exceptionally(t -> {
+            record(traceId, name, start, System.currentTimeMillis() - start, true);
+            return res.completeExceptionally(t);
+        });
+        return res;
+    }
+
+    Tracer NONE = (traceId, span, start, duration, failed) -> {};
+
+    static String newTraceId() {
+        return ArrayOps.bytesToHex(ArrayOps.random(8));
+    }
+}